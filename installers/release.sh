@@ -13,7 +13,7 @@ usage() {
 
 create_linux() {
     echo "Creating Linux package"
-    cp -R linux OpenRobertaUSB
+    cp -Rp linux OpenRobertaUSB # keeps the jar valid for the class data archive
     tar -zcvf OpenRobertaUSBLinux-$CURRENT_TAG.tar.gz OpenRobertaUSB
     rm -rf OpenRobertaUSB
 }
@@ -2,10 +2,17 @@
 
 dir="$( pwd )"
 
+# the class data archive of the appcds build profile speeds up the startup, it only works with the java that recorded it,
+# other versions, e.g. java 8, get no archive options at all
+cds=""
+if [ -f "$dir/${artifactId}.jsa" ] && [ "$( java -version 2>&1 )" == "$( cat "$dir/${artifactId}.jsa.version" 2>/dev/null )" ]; then
+    cds="-XX:SharedArchiveFile=$dir/${artifactId}.jsa -Xshare:auto "
+fi
+
 echo "[Desktop Entry]" > "/usr/share/applications/ORUSB.desktop"
 echo "Version=${version}" >> "/usr/share/applications/ORUSB.desktop"
 echo "Name=Open Roberta USB" >> "/usr/share/applications/ORUSB.desktop"
-echo "Exec=java -jar -Dfile.encoding=utf-8 $dir/${artifactId}.jar" >> "/usr/share/applications/ORUSB.desktop"
+echo "Exec=java $cds-jar -Dfile.encoding=utf-8 $dir/${artifactId}.jar" >> "/usr/share/applications/ORUSB.desktop"
 echo "Path=$dir" >> "/usr/share/applications/ORUSB.desktop"
 echo "Icon=$dir/OR.png" >> "/usr/share/applications/ORUSB.desktop"
 echo "Terminal=false" >> "/usr/share/applications/ORUSB.desktop"
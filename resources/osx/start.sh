@@ -1,4 +1,10 @@
 #!/bin/bash
 cd "$(dirname $BASH_SOURCE)"
 cd ..
-java -jar ${artifactId}.jar
+# the class data archive of the appcds build profile speeds up the startup, it only works with the java that recorded it,
+# other versions, e.g. java 8, get no archive options at all
+if [ -f ${artifactId}.jsa ] && [ "$( java -version 2>&1 )" == "$( cat ${artifactId}.jsa.version 2>/dev/null )" ]; then
+    java -XX:SharedArchiveFile=${artifactId}.jsa -Xshare:auto -jar ${artifactId}.jar
+else
+    java -jar ${artifactId}.jar
+fi
@@ -1,29 +1,90 @@
 package de.fhg.iais.roberta.connection;
 
+import de.fhg.iais.roberta.connection.RunMetrics.Phase;
 import de.fhg.iais.roberta.util.PropertyHelper;
 import de.fhg.iais.roberta.util.IOraListener;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
+/**
+ * Base class of the connectors. The state machine is driven by events that are processed one after another on a thread pool shared by all connectors,
+ * the thread processing an event is called the connector thread below. GUI commands, server responses and timers are posted as events, so transitions
+ * happen immediately and a waiting connector does not occupy a thread at all. The pool has {@code connectorThreads} threads however many robots run.
+ * {@link #runLoopBody()} handles the current state and decides how to continue: with {@link #step()}, {@link #stepAfter(long)}, {@link #await}
+ * or not at all, if it waits for the user.
+ * The GUI and the connector thread only share the lock-free {@link Mailbox}, the atomic state and the {@link StateEventBus}, so many connectors
+ * can be driven concurrently without losing updates. Listeners are called by the bus, never on the connector thread.
+ */
 public abstract class AbstractConnector implements IConnector {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractConnector.class);
 
-    private final Collection<IOraListener<State>> listeners = new ArrayList<>();
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "connector-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int DEFAULT_CONNECTOR_THREADS = 4;
+
+    // runs the events of all connectors, a blocking upload only holds up the others once every thread is uploading
+    private static final ExecutorService CONTINUATIONS =
+        Executors.newFixedThreadPool(PropertyHelper.getInstance().getIntProperty("connectorThreads", DEFAULT_CONNECTOR_THREADS), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "connector-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private static final int MAX_STALLS = 3;
+
+    private final StateEventBus stateEvents = new StateEventBus();
 
     private final String serverAddress;
 
-    protected ServerCommunicator serverCommunicator = null;
+    protected volatile ServerCommunicator serverCommunicator = null; // created by the connector thread, used by the GUI to abort and switch
 
     protected JSONObject brickData = null;
 
-    protected State state = State.DISCOVER; // First state when program starts
-    protected String token = "";
-    protected String brickName;
-    protected boolean userDisconnect = false;
+    private final AtomicReference<State> state = new AtomicReference<>(State.DISCOVER); // First state when program starts
+    protected volatile String token = "";
+    protected volatile String brickName;
+    private final AtomicBoolean userDisconnect = new AtomicBoolean();
+    private volatile boolean stopped = false; // never reset, a connector that was closed before it ran must not start
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    private File stagingFile = null;
+
+    protected RunTimer runTimer = null; // measures the current program run, started with every push request
+
+    private final RetryPolicy retryPolicy = RetryPolicy.getDefault();
+
+    private final Mailbox events = new Mailbox(CONTINUATIONS);
+    // id of the only continuation that may still run, older timers and responses are dropped
+    private long continuation = 0L;
+    private int stalls = 0;
+    private int retries = 0;
 
     protected AbstractConnector(String brickName) {
         String serverIp = PropertyHelper.getInstance().getProperty("serverIp");
@@ -32,50 +93,275 @@ public abstract class AbstractConnector implements IConnector {
         this.brickName = brickName;
     }
 
-    private boolean running = false;
+    @Override
+    public void start() {
+        if ( !this.started.compareAndSet(false, true) ) {
+            return;
+        }
+        post(() -> {
+            LOG.info("Starting {} connector", this.brickName);
+            setupServerCommunicator();
+            LOG.info("Using server address {}", this.serverAddress);
+            step();
+        });
+    }
 
     @Override
     public void run() {
-        this.running = true;
-        LOG.info("Starting {} connector", this.brickName);
-        setupServerCommunicator();
-        LOG.info("Using server address {}", this.serverAddress);
-        while ( this.running ) {
-            runLoopBody();
-
-            try {
-                Thread.sleep(200);
-            } catch ( InterruptedException e ) {
-                LOG.error("Interrupted!");
-            }
+        start();
+        try {
+            this.terminated.await();
+        } catch ( InterruptedException e ) {
+            LOG.error("Interrupted!");
+            interrupt();
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Waits until the connector was closed or interrupted and its last event was processed. Afterwards it no longer occupies a thread of the pool.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return whether the connector terminated, false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.terminated.await(timeout, unit);
+    }
+
+    /**
+     * @return whether the connector was closed or interrupted and its last event was processed
+     */
+    public boolean isTerminated() {
+        return this.terminated.getCount() == 0L;
+    }
+
     @Override
     public void interrupt() {
-        this.running = false;
+        stop();
 
-        this.state = State.DISCOVER;
-        fire(this.state);
+        this.state.set(State.DISCOVER);
+        fire(State.DISCOVER);
     }
 
+    /**
+     * Handles the current state. Called on the connector thread whenever the state machine should make progress.
+     */
     protected abstract void runLoopBody();
 
     @Override
     public void userPressConnectButton() {
-        this.state = State.CONNECT_BUTTON_IS_PRESSED;
+        command(() -> {
+            setState(State.CONNECT_BUTTON_IS_PRESSED);
+            step();
+        });
     }
 
     @Override
     public void userPressDisconnectButton() {
-        this.userDisconnect = true;
-        this.state = State.DISCOVER;
-        fire(this.state);
+        // abort right away, the connector thread might be blocked in a download or upload
+        abortRequests();
+        command(this::disconnect);
+    }
+
+    /**
+     * Disconnects on the connector thread and starts discovering again. Subclasses can extend it to disconnect the robot.
+     */
+    protected void disconnect() {
+        this.userDisconnect.set(true);
+        setState(State.DISCOVER);
+        fire(getState());
+        step();
     }
 
     @Override
     public void close() {
-        userPressDisconnectButton();
+        stop();
+
+        this.userDisconnect.set(true);
+        this.state.set(State.DISCOVER);
+        fire(State.DISCOVER);
+    }
+
+    // events posted from now on are dropped, the connector terminates once the event it might be processing returned
+    private void stop() {
+        this.stopped = true;
+        abortRequests();
+        this.events.post(() -> {
+            if ( this.terminated.getCount() > 0L ) {
+                LOG.info("Stopped {} connector", this.brickName);
+                this.terminated.countDown();
+            }
+        });
+    }
+
+    /**
+     * Aborts the outstanding requests to the server. Subclasses can extend it to abort the requests to the robot as well.
+     */
+    protected void abortRequests() {
+        if ( this.serverCommunicator != null ) {
+            this.serverCommunicator.abort();
+        }
+    }
+
+    /**
+     * Posts a command of the user. Pending timers and server responses of the previous state are dropped and outstanding requests are aborted.
+     *
+     * @param command the command, run on the connector thread
+     */
+    protected final void command(Runnable command) {
+        post(() -> {
+            this.continuation++;
+            this.stalls = 0;
+            this.retries = 0;
+            abortRequests();
+            command.run();
+        });
+    }
+
+    /**
+     * Continues with the current state as soon as possible.
+     */
+    protected final void step() {
+        long id = ++this.continuation;
+        post(() -> resume(id, this::runLoopBody));
+    }
+
+    /**
+     * Continues with the current state after the delay, used to poll the robot.
+     *
+     * @param delay the delay in milliseconds
+     */
+    protected final void stepAfter(long delay) {
+        long id = ++this.continuation;
+        TIMER.schedule(() -> post(() -> resume(id, this::runLoopBody)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Continues with the handler once the future completed. The thread is not blocked in the meantime.
+     *
+     * @param future the future to wait for, e.g. a push request
+     * @param handler gets the result or the cause of the failure, run on the connector thread
+     * @param <T> the type of the result
+     */
+    protected final <T> void await(CompletableFuture<T> future, BiConsumer<T, Throwable> handler) {
+        long id = ++this.continuation;
+        future.whenComplete((result, e) -> post(() -> resume(id, () -> {
+            Throwable cause = unwrap(e);
+            if ( cause instanceof CancellationException ) {
+                // aborted by a command or a server switch, which decides how to continue
+                LOG.debug("Request was aborted in state {}", getState());
+            } else {
+                if ( (cause == null) && ((this.stalls > 0) || (this.retries > 0)) ) {
+                    LOG.info("Server answered again after {} stalled and {} failed push requests", this.stalls, this.retries);
+                    this.stalls = 0;
+                    this.retries = 0;
+                    fire(getState());
+                }
+                handler.accept(result, cause);
+            }
+        })));
+    }
+
+    /**
+     * Retries the current state after a failed push request, so the robot keeps its token. A stalled request is retried right away on a new
+     * connection, other transient failures after a backoff of the {@link RetryPolicy}. The listeners are told that the connection is being restored.
+     *
+     * @param e the cause of the failed request, may be null
+     * @return whether the failure was handled by retrying, otherwise the caller gives up
+     */
+    protected final boolean retry(Throwable e) {
+        return (e != null) && (retryAfterStall(e) || retryWithBackoff(e));
+    }
+
+    private boolean retryAfterStall(Throwable e) {
+        if ( !(e instanceof LongPollStalledException) || (this.stalls >= (MAX_STALLS - 1)) ) {
+            return false;
+        }
+        this.stalls++;
+        LOG.info("Push request stalled ({}), retrying on a new connection", e.getMessage());
+        fire(State.STALLED);
+        step();
+        return true;
+    }
+
+    private boolean retryWithBackoff(Throwable e) {
+        if ( !this.retryPolicy.isRetryable(e) ) {
+            return false;
+        }
+        if ( this.retries >= this.retryPolicy.getMaxAttempts() ) {
+            LOG.warn("Push request failed {} times in a row, giving up", this.retries);
+            this.stalls = 0;
+            this.retries = 0;
+            return false;
+        }
+        long delay = this.retryPolicy.getDelay(this.retries, e);
+        this.retries++;
+        LOG.info("Push request failed ({}), retry {} in {}ms", e.getMessage(), this.retries, delay);
+        fire(State.WAIT_FOR_RETRY);
+        stepAfter(delay);
+        return true;
+    }
+
+    // runs the event on the connector thread unless the connector stopped meanwhile
+    private void post(Runnable event) {
+        this.events.post(() -> {
+            if ( this.stopped ) {
+                return;
+            }
+            try {
+                event.run();
+            } catch ( RuntimeException e ) {
+                LOG.error("Unexpected error in state {}", getState(), e);
+                reset(null);
+            }
+        });
+    }
+
+    private void resume(long id, Runnable continuation) {
+        if ( id == this.continuation ) {
+            continuation.run();
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e;
+    }
+
+    /**
+     * @return the current state
+     */
+    protected final State getState() {
+        return this.state.get();
+    }
+
+    /**
+     * Changes the state, called on the connector thread. Once the connector was closed or interrupted it stays in discover.
+     *
+     * @param next the new state
+     */
+    protected final void setState(State next) {
+        // if close() changed the state in between, the update is retried and sees that the connector stopped
+        this.state.updateAndGet(current -> this.stopped ? current : next);
+    }
+
+    /**
+     * Changes the state only if it is still the expected one.
+     *
+     * @param expected the expected current state
+     * @param next the new state
+     * @return whether the state changed
+     */
+    protected final boolean transition(State expected, State next) {
+        return !this.stopped && this.state.compareAndSet(expected, next);
+    }
+
+    /**
+     * @return whether the user disconnected the robot since the last reset
+     */
+    protected final boolean isUserDisconnect() {
+        return this.userDisconnect.get();
     }
 
     @Override
@@ -95,48 +381,93 @@ public abstract class AbstractConnector implements IConnector {
 
     @Override
     public void updateCustomServerAddress(String customServerAddress) {
-        this.serverCommunicator.setServerAddress(customServerAddress);
+        switchServer(customServerAddress);
         LOG.info("Now using custom address {}", customServerAddress);
     }
 
     @Override
     public void resetToDefaultServerAddress() {
-        this.serverCommunicator.setServerAddress(this.serverAddress);
+        switchServer(this.serverAddress);
         LOG.info("Now using default address {}", this.serverAddress);
     }
 
+    // outstanding requests to the previous server are aborted, a registered robot registers again at the new server
+    private void switchServer(String address) {
+        if ( this.serverCommunicator.setServerAddress(address) ) {
+            command(() -> {
+                if ( !transition(State.WAIT_FOR_SERVER, State.CONNECT_BUTTON_IS_PRESSED) ) {
+                    transition(State.WAIT_FOR_CMD, State.CONNECT_BUTTON_IS_PRESSED);
+                }
+                step();
+            });
+        }
+    }
+
     private void setupServerCommunicator() {
         this.serverCommunicator = new ServerCommunicator(this.serverAddress);
     }
 
+    /**
+     * Ends the measured program run once the connector waits for its execution.
+     *
+     * @param robotType the robot type the program ran on, e.g. uno or ev3
+     */
+    protected final void finishRun(String robotType) {
+        if ( this.runTimer != null ) {
+            this.runTimer.lap(Phase.START);
+            this.runTimer.finish(robotType);
+            this.runTimer = null;
+        }
+    }
+
+    /**
+     * Returns the staging file for program downloads. It is created once per connector and overwritten by every download.
+     *
+     * @param suffix the suffix of the file, e.g. the file type expected by the robot
+     * @return the file programs are downloaded to before they are uploaded to the robot
+     * @throws IOException if the temporary file could not be created
+     */
+    protected File getStagingFile(String suffix) throws IOException {
+        if ( (this.stagingFile == null) || !this.stagingFile.exists() ) {
+            this.stagingFile = File.createTempFile("OpenRobertaUSB", suffix);
+            this.stagingFile.deleteOnExit();
+        }
+        return this.stagingFile;
+    }
+
     /**
      * Reset the USB program to the start state (discover).
      *
      * @param additionalErrorMessage Display a popup with error message. If this is null, we do not want to display the tooltip.
      */
     protected void reset(State additionalErrorMessage) {
-        if ( !this.userDisconnect && (additionalErrorMessage != null) ) {
+        if ( !this.userDisconnect.getAndSet(false) && (additionalErrorMessage != null) ) {
             fire(additionalErrorMessage);
         }
-        this.userDisconnect = false;
-        this.state = State.DISCOVER;
-        fire(this.state);
+        setState(State.DISCOVER);
+        fire(getState());
+        step();
+    }
+
+    /**
+     * @return the bus delivering the states of this connector, e.g. for its dispatch statistics
+     */
+    public StateEventBus getStateEvents() {
+        return this.stateEvents;
     }
 
     @Override
     public void registerListener(IOraListener<State> listener) {
-        this.listeners.add(listener);
+        this.stateEvents.registerListener(listener);
     }
 
     @Override
     public void unregisterListener(IOraListener<State> listener) {
-        this.listeners.remove(listener);
+        this.stateEvents.unregisterListener(listener);
     }
 
     @Override
     public void fire(State object) {
-        for ( IOraListener<State> listener : this.listeners ) {
-            listener.update(object);
-        }
+        this.stateEvents.fire(object);
     }
 }
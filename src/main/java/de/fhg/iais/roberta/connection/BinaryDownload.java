@@ -0,0 +1,89 @@
+package de.fhg.iais.roberta.connection;
+
+import java.io.File;
+
+/**
+ * Result of a binary download that was streamed to a file. Size and SHA-256 checksum are computed while the data arrives.
+ * The http cache validators of the response are kept, so the file can be revalidated with a conditional request later.
+ */
+public class BinaryDownload {
+    private final File file;
+    private final String filename;
+    private final long size;
+    private final String sha256;
+    private final String etag;
+    private final String lastModified;
+    private final long writeTime;
+
+    public BinaryDownload(File file, String filename, long size, String sha256) {
+        this(file, filename, size, sha256, null, null);
+    }
+
+    public BinaryDownload(File file, String filename, long size, String sha256, String etag, String lastModified) {
+        this(file, filename, size, sha256, etag, lastModified, 0L);
+    }
+
+    public BinaryDownload(File file, String filename, long size, String sha256, String etag, String lastModified, long writeTime) {
+        this.file = file;
+        this.filename = filename;
+        this.size = size;
+        this.sha256 = sha256;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.writeTime = writeTime;
+    }
+
+    /**
+     * @return the local file the download was written to
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return the file name sent by the server
+     */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    /**
+     * @return the number of bytes written to the file
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the SHA-256 checksum of the file content as lower case hex string
+     */
+    public String getSha256() {
+        return this.sha256;
+    }
+
+    /**
+     * @return the ETag header of the response, or null if the server did not send one
+     */
+    public String getEtag() {
+        return this.etag;
+    }
+
+    /**
+     * @return the Last-Modified header of the response, or null if the server did not send one
+     */
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * @return the time in nanoseconds spent writing the file while it was downloaded
+     */
+    public long getWriteTime() {
+        return this.writeTime;
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryDownload{" + "filename=" + this.filename + ", size=" + this.size + ", sha256=" + this.sha256 + '}';
+    }
+}
@@ -0,0 +1,106 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker of a server address, shared by all server communicators of the process. After a number of consecutive failed push
+ * requests the circuit opens and requests are rejected locally for the open time, or as long as the server asked with Retry-After. Afterwards a
+ * single trial request is let through, its result closes or opens the circuit again.
+ * The defaults can be changed with the properties circuitBreakerThreshold and circuitBreakerOpenTime.
+ */
+final class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final int THRESHOLD = 5;
+    private static final int OPEN_TIME = 30000;
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String serverAddress;
+    private final int threshold;
+    private final long openTime;
+
+    private int failures = 0;
+    private long openUntil = 0L;
+    private boolean trial = false;
+
+    CircuitBreaker(String serverAddress, int threshold, long openTime) {
+        this.serverAddress = serverAddress;
+        this.threshold = threshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * @param serverAddress the address of the server, e.g. lab.open-roberta.org:443
+     * @return the circuit breaker of the address
+     */
+    static CircuitBreaker forServer(String serverAddress) {
+        return BREAKERS.computeIfAbsent(serverAddress, address -> new CircuitBreaker(address,
+            PropertyHelper.getInstance().getIntProperty("circuitBreakerThreshold", THRESHOLD),
+            PropertyHelper.getInstance().getIntProperty("circuitBreakerOpenTime", OPEN_TIME)));
+    }
+
+    /**
+     * @return whether a request may be sent. If the open time is over, the caller sends the trial request and has to report its result.
+     */
+    synchronized boolean tryAcquire() {
+        if ( this.openUntil == 0L ) {
+            return true;
+        }
+        if ( this.trial || (System.currentTimeMillis() < this.openUntil) ) {
+            return false;
+        }
+        LOG.info("Circuit of {} is half open, sending a trial request", this.serverAddress);
+        this.trial = true;
+        return true;
+    }
+
+    /**
+     * @return the time in milliseconds until a trial request is let through, 0 if it is already outstanding or the circuit is closed
+     */
+    synchronized long getRemainingOpenTime() {
+        return Math.max(0L, this.openUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Closes the circuit.
+     */
+    synchronized void succeeded() {
+        if ( this.openUntil != 0L ) {
+            LOG.info("Circuit of {} is closed again", this.serverAddress);
+        }
+        this.failures = 0;
+        this.openUntil = 0L;
+        this.trial = false;
+    }
+
+    /**
+     * Records a failed request. The circuit opens if the threshold is reached, the trial request failed or the server asked to retry later.
+     *
+     * @param retryAfter the time in milliseconds the server asked to wait, 0 if it did not
+     */
+    synchronized void failed(long retryAfter) {
+        this.failures++;
+        boolean open = this.trial || (this.failures >= this.threshold);
+        if ( open || (retryAfter > 0L) ) {
+            long duration = open ? Math.max(this.openTime, retryAfter) : retryAfter;
+            if ( (this.openUntil == 0L) || this.trial ) {
+                LOG.warn("Circuit of {} is open for {}ms after {} failures", this.serverAddress, duration, this.failures);
+            }
+            this.openUntil = Math.max(this.openUntil, System.currentTimeMillis() + duration);
+            this.trial = false;
+        }
+    }
+
+    /**
+     * Releases the trial of an aborted request without a result, the next request becomes the trial.
+     */
+    synchronized void released() {
+        this.trial = false;
+    }
+}
@@ -22,6 +22,8 @@ public interface IConnector extends IOraListenable<State> {
         WAIT_EXECUTION,
         DISCONNECT,
         WAIT_FOR_SERVER,
+        STALLED,
+        WAIT_FOR_RETRY,
         UPDATE,
         UPDATE_SUCCESS,
         UPDATE_FAIL,
@@ -47,9 +49,15 @@ public interface IConnector extends IOraListenable<State> {
     String CMD_DOWNLOAD_RUN = "download_run";
     String CMD_CONFIGURATION = "configuration";
 
+    /**
+     * Starts this connector and returns immediately.
+     * The connector communicates with the server and the robot until it is closed or interrupted, without a thread of its own.
+     */
+    void start();
+
     /**
      * Runs this connector.
-     * Starts the main loop to communicate with the server and the robot.
+     * Starts the connector and blocks until it is closed or interrupted.
      */
     void run();
 
@@ -0,0 +1,87 @@
+package de.fhg.iais.roberta.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with log-linear buckets like HdrHistogram. Every power of two is divided into 16 buckets, so recorded values
+ * are kept with a precision of about 6% from 1 microsecond up to several days, in a fixed amount of memory. Recording is lock free.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40; // about 12 days in microseconds
+    private static final int BUCKET_COUNT = ((MAX_MAGNITUDE + 1) << SUB_BUCKET_BITS) + SUB_BUCKET_HALF;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param micros the latency in microseconds, negative values are recorded as 0
+     */
+    public void record(long micros) {
+        long value = Math.max(0L, micros);
+        this.buckets.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return the largest recorded value in microseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values in microseconds, 0 if nothing was recorded
+     */
+    public double getMean() {
+        long recorded = this.count.get();
+        return (recorded == 0L) ? 0.0 : ((double) this.sum.get() / recorded);
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100, e.g. 99.9
+     * @return the highest value in microseconds that is equivalent to the value at the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long recorded = this.count.get();
+        if ( recorded == 0L ) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil((Math.min(100.0, percentile) / 100.0) * recorded));
+        long seen = 0L;
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            seen += this.buckets.get(i);
+            if ( seen >= rank ) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int indexOf(long value) {
+        int magnitude = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+        if ( magnitude > MAX_MAGNITUDE ) {
+            return BUCKET_COUNT - 1;
+        }
+        return (magnitude << SUB_BUCKET_BITS) + (int) (value >>> magnitude);
+    }
+
+    static long highestEquivalentValue(int index) {
+        int magnitude = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        long subBucket = index - ((long) magnitude << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,24 @@
+package de.fhg.iais.roberta.connection;
+
+import java.io.IOException;
+
+/**
+ * Signals that the server did not answer a push request within the expected hold time, e.g. because of a half-open connection.
+ */
+public class LongPollStalledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long timeout;
+
+    public LongPollStalledException(long timeout) {
+        super("No response from the server after " + timeout + "ms");
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the timeout in milliseconds after which the push request was considered stalled
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+}
@@ -0,0 +1,57 @@
+package de.fhg.iais.roberta.connection;
+
+/**
+ * Adaptive timeout of push requests. The server holds a push request until it has a command or its hold time is over, so the timeout is derived from
+ * the longest recently observed hold time plus a margin. Older observations decay, so the timeout follows a server that holds shorter.
+ */
+final class LongPollTimeout {
+    private static final long INITIAL = 30000L;
+    private static final long MIN = 15000L;
+    private static final long MAX = 120000L;
+    private static final long MARGIN = 5000L;
+    private static final double FACTOR = 1.5;
+    private static final double DECAY = 0.9;
+
+    private final long initial;
+    private final long min;
+    private final long max;
+    private final long margin;
+
+    private double holdTime = 0.0;
+
+    LongPollTimeout() {
+        this(INITIAL, MIN, MAX, MARGIN);
+    }
+
+    LongPollTimeout(long initial, long min, long max, long margin) {
+        this.initial = initial;
+        this.min = min;
+        this.max = max;
+        this.margin = margin;
+    }
+
+    /**
+     * @param holdTime the time in milliseconds the server took to answer a push request
+     */
+    synchronized void observe(long holdTime) {
+        this.holdTime = Math.max(holdTime, this.holdTime * DECAY);
+    }
+
+    /**
+     * Forgets the observed hold times, e.g. after the server changed.
+     */
+    synchronized void reset() {
+        this.holdTime = 0.0;
+    }
+
+    /**
+     * @return the time in milliseconds after which a push request is considered stalled
+     */
+    synchronized long get() {
+        if ( this.holdTime == 0.0 ) {
+            return this.initial;
+        }
+        long timeout = (long) (this.holdTime * FACTOR) + this.margin;
+        return Math.min(this.max, Math.max(this.min, timeout));
+    }
+}
@@ -0,0 +1,52 @@
+package de.fhg.iais.roberta.connection;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lock-free mailbox of the events of a connector. Any thread may post, the events are run on a shared executor in the order they were posted. A drain
+ * is scheduled when something is posted to an idle mailbox, so a connector only occupies a thread of the executor while it has events to process.
+ * At most one drain of a mailbox runs at a time, the events of one connector never run concurrently. A drain hands its thread back after
+ * {@link #MAX_BATCH} events, so a busy connector does not starve the others.
+ */
+final class Mailbox {
+    static final int MAX_BATCH = 64;
+
+    private final Executor executor;
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param executor runs the drains, usually shared by all connectors
+     */
+    Mailbox(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param event the event, run on the executor in the order it was posted
+     */
+    void post(Runnable event) {
+        this.events.offer(event);
+        if ( this.scheduled.compareAndSet(false, true) ) {
+            this.executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable event;
+            for ( int i = 0; (i < MAX_BATCH) && ((event = this.events.poll()) != null); i++ ) {
+                event.run();
+            }
+        } finally {
+            this.scheduled.set(false);
+            // the rest of a batch, or an event posted after the queue was found empty but before the flag was cleared, would not be run otherwise
+            if ( !this.events.isEmpty() && this.scheduled.compareAndSet(false, true) ) {
+                this.executor.execute(this::drain);
+            }
+        }
+    }
+}
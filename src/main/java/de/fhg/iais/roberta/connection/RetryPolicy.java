@@ -0,0 +1,83 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed push request is retried. The delay grows exponentially up to a cap and is jittered, so robots that lost the
+ * connection at the same moment do not hit the server again at the same moment. A Retry-After of the server is respected up to the cap.
+ * The defaults can be changed with the properties retryBaseDelay, retryMaxDelay and retryMaxAttempts.
+ */
+final class RetryPolicy {
+    private static final int BASE_DELAY = 1000;
+    private static final int MAX_DELAY = 60000;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy(
+        PropertyHelper.getInstance().getIntProperty("retryBaseDelay", BASE_DELAY),
+        PropertyHelper.getInstance().getIntProperty("retryMaxDelay", MAX_DELAY),
+        PropertyHelper.getInstance().getIntProperty("retryMaxAttempts", MAX_ATTEMPTS));
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    RetryPolicy(long baseDelay, long maxDelay, int maxAttempts) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return the policy configured in the properties file
+     */
+    static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Transient failures are I/O errors and server errors. Client errors are permanent, except for timeouts and rate limiting.
+     *
+     * @param e the cause of the failed request
+     * @return whether the request may succeed if it is repeated
+     */
+    boolean isRetryable(Throwable e) {
+        if ( e instanceof HttpResponseException ) {
+            int statusCode = ((HttpResponseException) e).getStatusCode();
+            return (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR)
+                || (statusCode == HttpStatus.SC_REQUEST_TIMEOUT)
+                || (statusCode == ServerBusyException.SC_TOO_MANY_REQUESTS);
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * @return the number of consecutive retries before giving up
+     */
+    int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of retries so far, starting with 0
+     * @param e the cause of the failed request, may carry a Retry-After of the server
+     * @return the delay in milliseconds before the next retry
+     */
+    long getDelay(int attempt, Throwable e) {
+        long cap = Math.min(this.maxDelay, this.baseDelay << Math.min(attempt, 20));
+        // half of the delay is fixed, so retries do not collapse to zero
+        long delay = (cap / 2) + ThreadLocalRandom.current().nextLong((cap / 2) + 1);
+        if ( e instanceof ServerBusyException ) {
+            long retryAfter = Math.min(this.maxDelay, ((ServerBusyException) e).getRetryAfter());
+            if ( retryAfter > 0 ) {
+                // spread the robots that were told the same time
+                delay = Math.max(delay, retryAfter + ThreadLocalRandom.current().nextLong(this.baseDelay + 1));
+            }
+        }
+        return delay;
+    }
+}
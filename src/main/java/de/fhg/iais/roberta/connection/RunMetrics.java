@@ -0,0 +1,74 @@
+package de.fhg.iais.roberta.connection;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms of the phases of running a program, per robot type. The numbers of all connectors of the process are collected here,
+ * e.g. to be shown on a dashboard.
+ */
+public final class RunMetrics {
+
+    /**
+     * The phases of running a program, in the order they happen.
+     */
+    public enum Phase {
+        /** the push request that delivered the command, includes the time the server held it until the program was started */
+        PUSH,
+        /** the download of the program from the server, without writing it to the file */
+        DOWNLOAD,
+        /** writing the downloaded program to the staging file */
+        WRITE,
+        /** the upload to the robot, e.g. by avrdude */
+        UPLOAD,
+        /** from the end of the upload until the connector waits for the execution */
+        START,
+        /** the whole run */
+        TOTAL
+    }
+
+    private static final RunMetrics INSTANCE = new RunMetrics();
+
+    private final Map<String, Map<Phase, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+    private RunMetrics() {
+    }
+
+    public static RunMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param robotType the robot type, e.g. uno or ev3
+     * @param phase the phase
+     * @return the histogram of the phase in microseconds, empty if no program ran on this robot type yet
+     */
+    public LatencyHistogram getHistogram(String robotType, Phase phase) {
+        return getHistograms(robotType).get(phase);
+    }
+
+    /**
+     * @return the robot types programs ran on
+     */
+    public Set<String> getRobotTypes() {
+        return Collections.unmodifiableSet(new TreeSet<>(this.histograms.keySet()));
+    }
+
+    void record(String robotType, Phase phase, long micros) {
+        getHistograms(robotType).get(phase).record(micros);
+    }
+
+    private Map<Phase, LatencyHistogram> getHistograms(String robotType) {
+        return this.histograms.computeIfAbsent(robotType, type -> {
+            Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+            for ( Phase phase : Phase.values() ) {
+                phases.put(phase, new LatencyHistogram());
+            }
+            return phases;
+        });
+    }
+}
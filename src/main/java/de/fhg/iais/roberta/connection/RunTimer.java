@@ -0,0 +1,82 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.connection.RunMetrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of one program run with the monotonic clock. Every lap ends the given phase, the run is recorded in the {@link RunMetrics}
+ * when it is finished.
+ */
+public final class RunTimer {
+    private static final Logger LOG = LoggerFactory.getLogger(RunTimer.class);
+
+    private final long start;
+    private long last;
+    private final Map<Phase, Long> durations = new EnumMap<>(Phase.class);
+
+    private RunTimer() {
+        this.start = System.nanoTime();
+        this.last = this.start;
+    }
+
+    /**
+     * @return a timer that starts now, usually when the push request is sent
+     */
+    public static RunTimer start() {
+        return new RunTimer();
+    }
+
+    /**
+     * Ends the phase, it lasted since the end of the previous phase.
+     *
+     * @param phase the phase that ended now
+     */
+    public void lap(Phase phase) {
+        long now = System.nanoTime();
+        this.durations.merge(phase, now - this.last, Long::sum);
+        this.last = now;
+    }
+
+    /**
+     * Moves a part of a measured phase to another phase, e.g. the time spent writing a download that was streamed to a file.
+     *
+     * @param from the measured phase
+     * @param to the phase the part belongs to
+     * @param nanos the part in nanoseconds
+     */
+    public void split(Phase from, Phase to, long nanos) {
+        long part = Math.min(nanos, this.durations.getOrDefault(from, 0L));
+        this.durations.merge(from, -part, Long::sum);
+        this.durations.merge(to, part, Long::sum);
+    }
+
+    /**
+     * Records the phases and the whole run and logs a summary.
+     *
+     * @param robotType the robot type the program ran on, e.g. uno or ev3
+     */
+    public void finish(String robotType) {
+        this.durations.put(Phase.TOTAL, System.nanoTime() - this.start);
+        RunMetrics metrics = RunMetrics.getInstance();
+        StringBuilder summary = new StringBuilder();
+        for ( Phase phase : Phase.values() ) {
+            Long duration = this.durations.get(phase);
+            if ( (duration != null) && (phase != Phase.TOTAL) ) {
+                metrics.record(robotType, phase, TimeUnit.NANOSECONDS.toMicros(duration));
+                summary.append(", ").append(phase.name().toLowerCase(Locale.ENGLISH)).append(' ').append(TimeUnit.NANOSECONDS.toMillis(duration)).append("ms");
+            }
+        }
+        metrics.record(robotType, Phase.TOTAL, TimeUnit.NANOSECONDS.toMicros(this.durations.get(Phase.TOTAL)));
+        LOG.info("Run on {} took {}ms{}", robotType, TimeUnit.NANOSECONDS.toMillis(this.durations.get(Phase.TOTAL)), summary);
+    }
+
+    long getDuration(Phase phase) {
+        return this.durations.getOrDefault(phase, 0L);
+    }
+}
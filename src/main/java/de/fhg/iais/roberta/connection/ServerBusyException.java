@@ -0,0 +1,27 @@
+package de.fhg.iais.roberta.connection;
+
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Signals that the server is temporarily unable to handle the request, either answered by the server (503, 429) or decided locally because the
+ * {@link CircuitBreaker} of the server is open.
+ */
+public class ServerBusyException extends HttpResponseException {
+    private static final long serialVersionUID = 1L;
+
+    static final int SC_TOO_MANY_REQUESTS = 429; // not defined by httpcore 4.4
+
+    private final long retryAfter;
+
+    public ServerBusyException(int statusCode, String reasonPhrase, long retryAfter) {
+        super(statusCode, reasonPhrase);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the time in milliseconds after which the request may be retried, 0 if unknown
+     */
+    public long getRetryAfter() {
+        return this.retryAfter;
+    }
+}
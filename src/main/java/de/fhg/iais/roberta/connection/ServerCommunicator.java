@@ -1,55 +1,152 @@
 package de.fhg.iais.roberta.connection;
 
-import org.apache.commons.io.IOUtils;
+import de.fhg.iais.roberta.util.ChecksumHelper;
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.ProtocolException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 /**
  * The server communicator runs the server protocol on behalf of the actual robot hardware.
  * This class provides access to push requests, downloads the user program and download system libraries for
  * the upload function.
+ * All requests go through the shared, pooled {@link ServerTransport}, so the connection to the server is kept alive between requests.
+ * Downloads accept gzip and deflate encoded responses and are decoded on the fly. If the server sends a SHA-256 Digest header, the received bytes are
+ * verified against it. A download that fails or does not match is deleted, so a partially written file is never uploaded.
+ * Outstanding requests can be aborted, e.g. if the user disconnects while the server holds a push request.
+ * Push requests are watched, if the server does not answer within the adaptive {@link LongPollTimeout} the request fails with a
+ * {@link LongPollStalledException} and its connection is discarded.
+ * Push requests to a server whose {@link CircuitBreaker} is open are rejected with a {@link ServerBusyException} without contacting the server.
+ * If the property serverPushTransport is websocket, push requests are sent over a persistent {@link WebSocketPushTransport} instead, so commands of
+ * the server arrive without waiting for the next long poll. If the server does not accept the upgrade, long polling is used for a while.
  *
  * @author dpyka
  */
 public class ServerCommunicator {
+    private static final Logger LOG = LoggerFactory.getLogger(ServerCommunicator.class);
 
     private static final String PUSH_ADDRESS = "/rest/pushcmd";
     private static final String DOWNLOAD_ADDRESS = "/rest/download";
     private static final String UPDATE_ADDRESS = "/rest/update";
     private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int NO_READ_TIMEOUT = 0; // push requests are watched instead, their timeout depends on the hold time of the server
+    private static final int BUFFER_SIZE = 8192;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final String PUSH_TRANSPORT_WEBSOCKET = "websocket";
+    private static final long WEBSOCKET_RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(10L);
 
-    private String serverAddress;
-    private String filename = "";
+    private final ServerTransport transport = ServerTransport.getInstance();
+    private final LongPollTimeout longPollTimeout;
+    private final WebSocketPushTransport webSocket;
+
+    private volatile String serverAddress;
+    private volatile long webSocketRetryAt = 0L;
+
+    private final Set<Cancellable> outstandingRequests = ConcurrentHashMap.newKeySet();
+    private final AtomicLong abortCount = new AtomicLong();
 
     /**
      * @param serverAddress either the default address taken from the properties file or the custom address entered in the gui.
      */
     public ServerCommunicator(String serverAddress) {
+        this(serverAddress, new LongPollTimeout());
+    }
+
+    ServerCommunicator(String serverAddress, LongPollTimeout longPollTimeout) {
+        this(serverAddress, longPollTimeout, PUSH_TRANSPORT_WEBSOCKET.equals(PropertyHelper.getInstance().getProperty("serverPushTransport")));
+    }
+
+    ServerCommunicator(String serverAddress, LongPollTimeout longPollTimeout, boolean webSocket) {
         this.serverAddress = serverAddress;
+        this.longPollTimeout = longPollTimeout;
+        this.webSocket = webSocket ? new WebSocketPushTransport() : null;
     }
 
-    public void setServerAddress(String serverAddress) {
+    /**
+     * Changes the target of this communicator. The scheme of the new address is negotiated again with the next request.
+     * Requests that are still outstanding at the previous server are aborted.
+     *
+     * @param serverAddress the new server address
+     * @return whether the address changed
+     */
+    public boolean setServerAddress(String serverAddress) {
+        if ( serverAddress.equals(this.serverAddress) ) {
+            return false;
+        }
+        ServerSchemeCache.invalidate(serverAddress);
         this.serverAddress = serverAddress;
+        this.longPollTimeout.reset();
+        abort();
+        if ( this.webSocket != null ) {
+            this.webSocket.close();
+            this.webSocketRetryAt = 0L;
+        }
+        return true;
     }
 
     /**
-     * @return the file name of the last binary file downloaded of the server communicator object.
+     * @return the current timeout in milliseconds after which a push request is considered stalled
      */
-    public String getFilename() {
-        return this.filename;
+    public long getLongPollTimeout() {
+        return this.longPollTimeout.get();
+    }
+
+    /**
+     * Aborts all outstanding requests of this communicator. Futures of push requests are cancelled, blocking downloads fail with an {@link IOException}.
+     */
+    public void abort() {
+        this.abortCount.incrementAndGet();
+        for ( Cancellable request : this.outstandingRequests ) {
+            request.cancel();
+        }
     }
 
     /**
@@ -61,110 +158,474 @@ public class ServerCommunicator {
      * @throws IOException if the server is unreachable for whatever reason.
      */
     public JSONObject pushRequest(JSONObject requestContent) throws IOException {
+        try {
+            return pushRequestAsync(requestContent).get();
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch ( CancellationException e ) {
+            throw new InterruptedIOException("Push request was aborted");
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the push request");
+        }
+    }
+
+    /**
+     * Sends a push request without blocking the calling thread. The request is handled by the shared I/O threads of the {@link ServerTransport},
+     * so many connectors can wait for the server at the same time. Only opening the WebSocket, if it is used, blocks until the server accepted it.
+     *
+     * @param requestContent data from the robot plus the token and the command send to the server (CMD_REGISTER or CMD_PUSH)
+     * @return the future response of the server, completed exceptionally with an {@link IOException} if the server is unreachable, cancelled if the
+     * request was aborted
+     */
+    public CompletableFuture<JSONObject> pushRequestAsync(JSONObject requestContent) {
         Map<String, String> requestProperties = new HashMap<>();
         requestProperties.put("Accept", "application/json");
 
-        URLConnection conn = openURLConnection(this.serverAddress + PUSH_ADDRESS, "POST", requestProperties);
-        sendServerRequest(requestContent, conn);
-        String responseText = getServerResponse(conn);
-
-        return new JSONObject(responseText);
+        CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        CircuitBreaker circuitBreaker = CircuitBreaker.forServer(this.serverAddress);
+        if ( !circuitBreaker.tryAcquire() ) {
+            long retryAfter = circuitBreaker.getRemainingOpenTime();
+            result.completeExceptionally(new ServerBusyException(HttpStatus.SC_SERVICE_UNAVAILABLE, "Circuit open", retryAfter));
+            return result;
+        }
+        result.whenComplete((response, e) -> {
+            if ( e == null ) {
+                circuitBreaker.succeeded();
+            } else if ( e instanceof CancellationException ) {
+                circuitBreaker.released();
+            } else {
+                circuitBreaker.failed((e instanceof ServerBusyException) ? ((ServerBusyException) e).getRetryAfter() : 0L);
+            }
+        });
+        CompletableFuture<JSONObject> pushed = pushOverWebSocket(requestContent);
+        if ( pushed != null ) {
+            pushed.whenComplete((response, e) -> {
+                if ( e instanceof CancellationException ) {
+                    result.cancel(false);
+                } else if ( e != null ) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(response);
+                }
+            });
+            return result;
+        }
+        executeAsync(PUSH_ADDRESS, requestProperties, requestContent).whenComplete((response, e) -> {
+            if ( e instanceof CancellationException ) {
+                result.cancel(false);
+            } else if ( e != null ) {
+                result.completeExceptionally(e);
+            } else {
+                try {
+                    checkStatus(response);
+                    result.complete(new JSONObject(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)));
+                } catch ( IOException | RuntimeException parseException ) {
+                    result.completeExceptionally(parseException);
+                }
+            }
+        });
+        return result;
     }
 
-    private static URLConnection openURLConnection(String url, String requestMethod, Map<String, String> requestProperties) throws IOException {
-        URLConnection conn;
+    // returns null if the WebSocket is not used or could not be opened, the push request is then sent as a long poll
+    private CompletableFuture<JSONObject> pushOverWebSocket(JSONObject requestContent) {
+        if ( (this.webSocket == null) || (System.currentTimeMillis() < this.webSocketRetryAt) ) {
+            return null;
+        }
+        String address = this.serverAddress;
+        String scheme = ServerSchemeCache.get(address);
+        boolean secure = (scheme == null) ? !address.contains("localhost") : ServerSchemeCache.HTTPS.equals(scheme);
+        CompletableFuture<JSONObject> pushed;
         try {
-            if ( url.contains("localhost") ) { // workaround for HttpParser warning server side when connecting via localhost
-                conn = getHttpConnection(url, requestMethod, requestProperties);
+            pushed = this.webSocket.push(address, secure, CONNECT_TIMEOUT, requestContent);
+        } catch ( IOException | RuntimeException e ) {
+            LOG.info("WebSocket to {} is not available, falling back to long polling: {}", address, e.getMessage());
+            this.webSocketRetryAt = System.currentTimeMillis() + WEBSOCKET_RETRY_INTERVAL;
+            return null;
+        }
+        Cancellable cancellable = () -> pushed.cancel(false);
+        this.outstandingRequests.add(cancellable);
+        watch(pushed, address, this.webSocket::close);
+        pushed.whenComplete((response, e) -> this.outstandingRequests.remove(cancellable));
+        return pushed;
+    }
+
+    private CompletableFuture<HttpResponse> executeAsync(String path, Map<String, String> requestProperties, JSONObject requestContent) {
+        String address = this.serverAddress;
+        String url = address + path;
+        String scheme = ServerSchemeCache.get(address);
+        if ( scheme != null ) {
+            HttpRequestBase request = createRequest(scheme + url, "POST", requestProperties, requestContent, NO_READ_TIMEOUT);
+            // the request future itself is returned, a dependent future would wrap the cancellation into a CompletionException
+            CompletableFuture<HttpResponse> result = send(request);
+            result.whenComplete((response, e) -> {
+                if ( e == null ) {
+                    ServerSchemeCache.succeeded(address, scheme);
+                } else if ( !(e instanceof CancellationException) ) {
+                    ServerSchemeCache.failed(address);
+                }
+            });
+            return result;
+        }
+        // probe the scheme, once it worked it is remembered for this address
+        String probedScheme = url.contains("localhost") ? ServerSchemeCache.HTTP : ServerSchemeCache.HTTPS;
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        HttpRequestBase request = createRequest(probedScheme + url, "POST", requestProperties, requestContent, NO_READ_TIMEOUT);
+        send(request).whenComplete((response, e) -> {
+            if ( e == null ) {
+                ServerSchemeCache.succeeded(address, probedScheme);
+                result.complete(response);
+            } else if ( e instanceof CancellationException ) {
+                result.cancel(false);
+            } else if ( e instanceof LongPollStalledException ) {
+                // the server was reachable, another scheme would stall as well
+                result.completeExceptionally(e);
             } else {
-                conn = getHttpsConnection(url, requestMethod, requestProperties);
+                HttpRequestBase fallbackRequest = createRequest(ServerSchemeCache.HTTP + url, "POST", requestProperties, requestContent, NO_READ_TIMEOUT);
+                send(fallbackRequest).whenComplete((fallbackResponse, fallbackE) -> {
+                    if ( fallbackE == null ) {
+                        ServerSchemeCache.succeeded(address, ServerSchemeCache.HTTP);
+                        result.complete(fallbackResponse);
+                    } else {
+                        result.completeExceptionally(fallbackE);
+                    }
+                });
             }
-            conn.connect();
-        } catch ( IOException ioException ) {
-            conn = getHttpConnection(url, requestMethod, requestProperties);
-            conn.connect();
-        }
-        return conn;
+        });
+        return result;
     }
 
-    private static HttpURLConnection getHttpConnection(String urlAddress, String requestMethod, Map<String, String> requestProperties) throws IOException {
-        URL url = new URL("http://" + urlAddress);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        setURLConnectionProperties(conn, requestMethod, requestProperties);
-        return conn;
+    private CompletableFuture<HttpResponse> send(HttpRequestBase request) {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        Future<HttpResponse> future = this.transport.executeAsync(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally((e instanceof IOException) ? e : new IOException(e));
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        Cancellable cancellable = () -> future.cancel(true);
+        this.outstandingRequests.add(cancellable);
+        // cancelling the stalled request discards its connection, the next request opens a new one
+        watch(result, request.getURI().getHost(), () -> future.cancel(true));
+        result.whenComplete((response, e) -> this.outstandingRequests.remove(cancellable));
+        return result;
     }
 
-    private static HttpsURLConnection getHttpsConnection(String urlAddress, String requestMethod, Map<String, String> requestProperties) throws IOException {
-        URL url = new URL("https://" + urlAddress);
-        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-        setURLConnectionProperties(conn, requestMethod, requestProperties);
-        return conn;
+    /**
+     * Fails the push request with a {@link LongPollStalledException} if it is not answered within the long poll timeout.
+     *
+     * @param result the future of the push request
+     * @param host the server, for logging
+     * @param discard discards the connection of the stalled request
+     */
+    private void watch(CompletableFuture<?> result, String host, Runnable discard) {
+        long timeout = this.longPollTimeout.get();
+        long start = System.nanoTime();
+        ScheduledFuture<?> watchdog = this.transport.schedule(() -> {
+            if ( result.completeExceptionally(new LongPollStalledException(timeout)) ) {
+                LOG.warn("Push request to {} stalled for {}ms, discarding the connection", host, timeout);
+                this.transport.recordStall(timeout);
+                discard.run();
+            }
+        }, timeout);
+        result.whenComplete((response, e) -> {
+            watchdog.cancel(false);
+            if ( e == null ) {
+                this.longPollTimeout.observe(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
     }
 
-    private static void setURLConnectionProperties(HttpURLConnection conn, String requestMethod, Map<String, String> requestProperties)
-        throws ProtocolException {
-        conn.setConnectTimeout(CONNECT_TIMEOUT);
-        conn.setDoOutput(true);
-        conn.setRequestMethod(requestMethod);
+    private AbortableResponse execute(String path, String requestMethod, Map<String, String> requestProperties, JSONObject requestContent)
+        throws IOException {
+        String address = this.serverAddress;
+        String url = address + path;
+        long aborts = this.abortCount.get();
+        AbortableResponse response;
+        String scheme = ServerSchemeCache.get(address);
+        if ( scheme != null ) {
+            try {
+                response = executeAbortable(createRequest(scheme + url, requestMethod, requestProperties, requestContent, READ_TIMEOUT));
+            } catch ( IOException e ) {
+                if ( aborts == this.abortCount.get() ) {
+                    ServerSchemeCache.failed(address);
+                }
+                throw e;
+            }
+        } else {
+            // probe the scheme, once it worked it is remembered for this address
+            try {
+                if ( url.contains("localhost") ) { // workaround for HttpParser warning server side when connecting via localhost
+                    scheme = ServerSchemeCache.HTTP;
+                } else {
+                    scheme = ServerSchemeCache.HTTPS;
+                }
+                response = executeAbortable(createRequest(scheme + url, requestMethod, requestProperties, requestContent, READ_TIMEOUT));
+            } catch ( IOException ioException ) {
+                if ( aborts != this.abortCount.get() ) {
+                    throw ioException;
+                }
+                scheme = ServerSchemeCache.HTTP;
+                response = executeAbortable(createRequest(scheme + url, requestMethod, requestProperties, requestContent, READ_TIMEOUT));
+            }
+        }
+        ServerSchemeCache.succeeded(address, scheme);
+        try {
+            checkStatus(response.get());
+        } catch ( IOException e ) {
+            response.close();
+            throw e;
+        }
+        return response;
+    }
 
-        for ( Entry<String, String> property : requestProperties.entrySet() ) {
-            conn.setRequestProperty(property.getKey(), property.getValue());
+    private AbortableResponse executeAbortable(HttpRequestBase request) throws IOException {
+        Cancellable cancellable = () -> {
+            request.abort();
+            return true;
+        };
+        this.outstandingRequests.add(cancellable);
+        try {
+            return new AbortableResponse(this.transport.execute(request), cancellable);
+        } catch ( IOException | RuntimeException e ) {
+            this.outstandingRequests.remove(cancellable);
+            throw e;
         }
-        conn.setRequestProperty("Accept-Charset", "UTF-8");
-        conn.setRequestProperty("Content-Type", "application/json");
     }
 
-    private static String getServerResponse(URLConnection conn) throws IOException {
-        InputStream responseEntity = new BufferedInputStream(conn.getInputStream());
-        String responseText = IOUtils.toString(responseEntity, "UTF-8");
-        responseEntity.close();
-        return responseText;
+    /**
+     * Response of a blocking request. The request stays abortable until the response is closed, so a download can also be aborted while it is streamed.
+     */
+    private final class AbortableResponse implements Closeable {
+        private final CloseableHttpResponse response;
+        private final Cancellable cancellable;
+
+        AbortableResponse(CloseableHttpResponse response, Cancellable cancellable) {
+            this.response = response;
+            this.cancellable = cancellable;
+        }
+
+        CloseableHttpResponse get() {
+            return this.response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ServerCommunicator.this.outstandingRequests.remove(this.cancellable);
+            this.response.close();
+        }
+    }
+
+    private static <T extends HttpResponse> T checkStatus(T response) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if ( statusCode >= 400 ) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            if ( response instanceof Closeable ) {
+                ((Closeable) response).close();
+            }
+            if ( (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) || (statusCode == ServerBusyException.SC_TOO_MANY_REQUESTS) ) {
+                long retryAfter = parseRetryAfter(getHeader(response, "Retry-After"));
+                throw new ServerBusyException(statusCode, response.getStatusLine().getReasonPhrase(), retryAfter);
+            }
+            throw new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase());
+        }
+        return response;
     }
 
-    private static void sendServerRequest(JSONObject requestContent, URLConnection conn) throws IOException {
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(requestContent.toString().getBytes(StandardCharsets.UTF_8));
-            os.flush();
+    // Retry-After is either a number of seconds or a http date
+    private static long parseRetryAfter(String retryAfter) {
+        if ( retryAfter == null ) {
+            return 0L;
+        }
+        try {
+            return Math.max(0L, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch ( NumberFormatException e ) {
+            Date date = DateUtils.parseDate(retryAfter);
+            return (date == null) ? 0L : Math.max(0L, date.getTime() - System.currentTimeMillis());
         }
     }
 
+    private static HttpRequestBase createRequest(
+        String url,
+        String requestMethod,
+        Map<String, String> requestProperties,
+        JSONObject requestContent,
+        int readTimeout) {
+        HttpRequestBase request;
+        if ( "POST".equals(requestMethod) ) {
+            HttpPost post = new HttpPost(url);
+            post.setEntity(new StringEntity(requestContent.toString(), ContentType.APPLICATION_JSON));
+            request = post;
+        } else {
+            request = new HttpGet(url);
+        }
+        request.setConfig(RequestConfig.custom().setConnectTimeout(CONNECT_TIMEOUT).setSocketTimeout(readTimeout).build());
+
+        for ( Entry<String, String> property : requestProperties.entrySet() ) {
+            request.setHeader(property.getKey(), property.getValue());
+        }
+        request.setHeader("Accept-Charset", "UTF-8");
+        request.setHeader("Content-Type", "application/json");
+        return request;
+    }
+
     /**
-     * Downloads a user program from the server as binary. The http POST is used here.
+     * Downloads a user program from the server and streams it directly into the given file. The http POST is used here.
+     * The file is overwritten, so it can be reused as a staging file for consecutive downloads.
      *
      * @param requestContent all the content of a standard push request.
-     * @return the binary file of the response
+     * @param target the file the program should be written to
+     * @return the downloaded file together with its size and checksum
      * @throws IOException if the server is unreachable or something is wrong with the binary content.
      */
-    public byte[] downloadProgram(JSONObject requestContent) throws IOException {
+    public BinaryDownload downloadProgram(JSONObject requestContent, File target) throws IOException {
         Map<String, String> requestProperties = new HashMap<>();
         requestProperties.put("Accept", "application/octet-stream");
+        requestProperties.put("Accept-Encoding", ACCEPT_ENCODING);
 
-        URLConnection conn = openURLConnection(this.serverAddress + DOWNLOAD_ADDRESS, "POST", requestProperties);
-        sendServerRequest(requestContent, conn);
-
-        return getBinaryFileFromResponse(conn);
+        try (AbortableResponse response = execute(DOWNLOAD_ADDRESS, "POST", requestProperties, requestContent)) {
+            return writeBinaryFileFromResponse(response.get(), target);
+        }
     }
 
     /**
      * Basically the same as downloading a user program but without any information about the EV3. It uses http GET(!).
+     * If validators of a previous download are given, the request is conditional and the server may answer that the file did not change.
      *
      * @param fwFile name of the file in the url as suffix ( .../rest/update/ev3menu)
-     * @return the binary file of the response
+     * @param target the file the firmware file should be written to
+     * @param etag the ETag of the previously downloaded file, may be null
+     * @param lastModified the Last-Modified date of the previously downloaded file, may be null
+     * @return the downloaded file together with its size, checksum and validators, or null if the file was not modified
      * @throws IOException if the server is unreachable or something is wrong with the binary content.
      */
-    public byte[] downloadFirmwareFile(String fwFile) throws IOException {
+    public BinaryDownload downloadFirmwareFile(String fwFile, File target, String etag, String lastModified) throws IOException {
         Map<String, String> requestProperties = new HashMap<>();
         requestProperties.put("Accept", "application/octet-stream");
+        requestProperties.put("Accept-Encoding", ACCEPT_ENCODING);
+        if ( etag != null ) {
+            requestProperties.put("If-None-Match", etag);
+        }
+        if ( lastModified != null ) {
+            requestProperties.put("If-Modified-Since", lastModified);
+        }
+
+        try (AbortableResponse response = execute(UPDATE_ADDRESS + '/' + fwFile, "GET", requestProperties, null)) {
+            if ( response.get().getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED ) {
+                return null;
+            }
+            return writeBinaryFileFromResponse(response.get(), target);
+        }
+    }
+
+    private BinaryDownload writeBinaryFileFromResponse(CloseableHttpResponse response, File target) throws IOException {
+        MessageDigest digest = ChecksumHelper.createSha256Digest();
+        String expectedDigest = getSha256Digest(response);
+        MessageDigest receivedDigest = (expectedDigest == null) ? null : ChecksumHelper.createSha256Digest();
+        long size = 0L;
+        long transferred = 0L;
+        long writeTime = 0L;
+        HttpEntity entity = response.getEntity();
+        try (OutputStream os = new DigestOutputStream(new FileOutputStream(target), digest)) {
+            if ( entity != null ) {
+                InputStream content = entity.getContent();
+                if ( receivedDigest != null ) {
+                    content = new DigestInputStream(content, receivedDigest);
+                }
+                CountingInputStream counting = new CountingInputStream(content);
+                try (InputStream is = decode(counting, getHeader(response, "Content-Encoding"))) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ( (read = is.read(buffer)) != -1 ) {
+                        long writeStart = System.nanoTime();
+                        os.write(buffer, 0, read);
+                        writeTime += System.nanoTime() - writeStart;
+                        size += read;
+                    }
+                }
+                transferred = counting.getByteCount();
+            }
+        } catch ( IOException e ) {
+            deletePartialFile(target);
+            throw e;
+        }
+        if ( (receivedDigest != null) && !expectedDigest.equals(Base64.getEncoder().encodeToString(receivedDigest.digest())) ) {
+            deletePartialFile(target);
+            throw new IOException("Checksum of the download does not match the Digest header of the server");
+        }
+        this.transport.recordDownload(transferred, size);
+        LOG.debug("Received {} bytes, {} bytes after decoding", transferred, size);
+        return new BinaryDownload(target,
+            getHeader(response, "Filename"),
+            size,
+            ChecksumHelper.toHex(digest.digest()),
+            getHeader(response, "ETag"),
+            getHeader(response, "Last-Modified"),
+            writeTime);
+    }
 
-        URLConnection conn = openURLConnection(this.serverAddress + UPDATE_ADDRESS + '/' + fwFile, "GET", requestProperties);
+    // a partially written file must not be uploaded, a reused staging file is created again by the next download
+    private static void deletePartialFile(File target) {
+        try {
+            Files.deleteIfExists(target.toPath());
+        } catch ( IOException e ) {
+            LOG.warn("Could not delete the partial download {}: {}", target, e.getMessage());
+        }
+    }
 
-        return getBinaryFileFromResponse(conn);
+    // the SHA-256 of the received bytes from the Digest header (RFC 3230), e.g. Digest: SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=
+    private static String getSha256Digest(HttpResponse response) {
+        String digest = getHeader(response, "Digest");
+        if ( digest == null ) {
+            return null;
+        }
+        for ( String instanceDigest : digest.split(",") ) {
+            int separator = instanceDigest.indexOf('=');
+            if ( (separator > 0) && "sha-256".equalsIgnoreCase(instanceDigest.substring(0, separator).trim()) ) {
+                return instanceDigest.substring(separator + 1).trim();
+            }
+        }
+        return null;
     }
 
-    private byte[] getBinaryFileFromResponse(URLConnection conn) throws IOException {
-        try (InputStream responseEntity = new BufferedInputStream(conn.getInputStream())) {
-            this.filename = conn.getHeaderField("Filename");
-            return IOUtils.toByteArray(responseEntity);
+    private static InputStream decode(InputStream is, String contentEncoding) throws IOException {
+        if ( contentEncoding == null ) {
+            return is;
         }
+        switch ( contentEncoding.trim().toLowerCase(Locale.ENGLISH) ) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(is, BUFFER_SIZE);
+            case "deflate":
+                return new DeflateInputStream(is);
+            case "identity":
+            case "":
+                return is;
+            default:
+                is.close();
+                throw new IOException("Unsupported content encoding " + contentEncoding);
+        }
+    }
+
+    private static String getHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return (header == null) ? null : header.getValue();
     }
 }
@@ -0,0 +1,76 @@
+package de.fhg.iais.roberta.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers which scheme (https or http) works for a server address, so the scheme only has to be negotiated once per address.
+ * The cache is shared by all server communicators. An address is probed again after {@link #MAX_FAILURES} consecutive failures or when it is
+ * explicitly invalidated, e.g. because the user changed the server address.
+ */
+final class ServerSchemeCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ServerSchemeCache.class);
+
+    static final String HTTPS = "https://";
+    static final String HTTP = "http://";
+
+    static final int MAX_FAILURES = 3;
+
+    private static final Map<String, Entry> SCHEMES = new ConcurrentHashMap<>();
+
+    private ServerSchemeCache() {
+    }
+
+    /**
+     * @param serverAddress the address of the server, e.g. lab.open-roberta.org:443
+     * @return the scheme that worked for this address last time, or null if it has to be probed
+     */
+    static String get(String serverAddress) {
+        Entry entry = SCHEMES.get(serverAddress);
+        return (entry == null) ? null : entry.scheme;
+    }
+
+    /**
+     * Stores the scheme that successfully connected to the address and resets its failure count.
+     */
+    static void succeeded(String serverAddress, String scheme) {
+        Entry entry = SCHEMES.get(serverAddress);
+        if ( (entry == null) || !entry.scheme.equals(scheme) ) {
+            LOG.info("Using {} for {}", scheme, serverAddress);
+            SCHEMES.put(serverAddress, new Entry(scheme));
+        } else {
+            entry.failures.set(0);
+        }
+    }
+
+    /**
+     * Records a connection failure with the remembered scheme. After too many consecutive failures the scheme is forgotten.
+     */
+    static void failed(String serverAddress) {
+        Entry entry = SCHEMES.get(serverAddress);
+        if ( (entry != null) && (entry.failures.incrementAndGet() >= MAX_FAILURES) ) {
+            LOG.info("Scheme {} failed {} times for {}, probing again", entry.scheme, MAX_FAILURES, serverAddress);
+            SCHEMES.remove(serverAddress, entry);
+        }
+    }
+
+    /**
+     * Forgets the scheme of the address, the next request will probe again.
+     */
+    static void invalidate(String serverAddress) {
+        SCHEMES.remove(serverAddress);
+    }
+
+    private static final class Entry {
+        private final String scheme;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private Entry(String scheme) {
+            this.scheme = scheme;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.conn.NHttpConnectionFactory;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared http transport to the Open Roberta server, used by every {@link ServerCommunicator}.
+ * Connections are pooled and kept alive, so consecutive push requests and downloads reuse an already established (TLS) connection.
+ * Pool size and idle eviction can be configured in the properties file.
+ * Long polls are sent through a non blocking client, all outstanding push requests of all connectors are handled by a small number of I/O threads
+ * (serverIoThreads). Downloads use the blocking client, because they are streamed to a file.
+ * Compressed downloads are decoded by the {@link ServerCommunicator} itself, so the transferred bytes can be counted.
+ */
+public final class ServerTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(ServerTransport.class);
+
+    private static final int DEFAULT_MAX_TOTAL = 100;
+    private static final int DEFAULT_MAX_PER_ROUTE = 100;
+    private static final int DEFAULT_IDLE_TIMEOUT = 30; // seconds
+    private static final int DEFAULT_IO_THREADS = 1;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    private final PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private final CloseableHttpAsyncClient asyncHttpClient;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong openedConnectionCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+    private final AtomicLong stallCount = new AtomicLong();
+    private final AtomicLong stallDuration = new AtomicLong();
+    private final AtomicLong compressedByteCount = new AtomicLong();
+    private final AtomicLong uncompressedByteCount = new AtomicLong();
+
+    private ServerTransport() {
+        PropertyHelper properties = PropertyHelper.getInstance();
+        int maxTotal = properties.getIntProperty("serverPoolMaxTotal", DEFAULT_MAX_TOTAL);
+        int maxPerRoute = properties.getIntProperty("serverPoolMaxPerRoute", DEFAULT_MAX_PER_ROUTE);
+        int idleTimeout = properties.getIntProperty("serverPoolIdleTimeout", DEFAULT_IDLE_TIMEOUT);
+        int ioThreads = properties.getIntProperty("serverIoThreads", DEFAULT_IO_THREADS);
+
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+            .register("http", new CountingSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+            .register("https", new CountingLayeredSocketFactory(SSLConnectionSocketFactory.getSocketFactory()))
+            .build();
+
+        this.connectionManager = new CountingConnectionManager(socketFactoryRegistry);
+        this.connectionManager.setMaxTotal(maxTotal);
+        this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        this.httpClient = HttpClients.custom()
+            .setConnectionManager(this.connectionManager)
+            .disableContentCompression()
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeout, TimeUnit.SECONDS)
+            .build();
+
+        ThreadFactory threadFactory = new DaemonThreadFactory();
+        try {
+            ConnectingIOReactor ioReactor =
+                new DefaultConnectingIOReactor(IOReactorConfig.custom().setIoThreadCount(ioThreads).setSoKeepAlive(true).build(), threadFactory);
+            Registry<SchemeIOSessionStrategy> sessionStrategyRegistry = RegistryBuilder.<SchemeIOSessionStrategy> create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                .build();
+            this.asyncConnectionManager = new CountingNHttpConnectionManager(ioReactor, sessionStrategyRegistry);
+        } catch ( IOReactorException e ) {
+            throw new IllegalStateException("Could not create I/O reactor", e);
+        }
+        this.asyncConnectionManager.setMaxTotal(maxTotal);
+        this.asyncConnectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        this.asyncHttpClient = HttpAsyncClients.custom().setConnectionManager(this.asyncConnectionManager).setThreadFactory(threadFactory).build();
+        this.asyncHttpClient.start();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            this.asyncConnectionManager.closeExpiredConnections();
+            this.asyncConnectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+        }, idleTimeout, idleTimeout, TimeUnit.SECONDS);
+
+        LOG.info("Server connection pool with {} connections ({} per route), idle timeout {}s, {} I/O threads",
+            maxTotal,
+            maxPerRoute,
+            idleTimeout,
+            ioThreads);
+    }
+
+    private static class InstanceHolder {
+        private static final ServerTransport instance = new ServerTransport();
+    }
+
+    public static ServerTransport getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    /**
+     * Executes the request on a pooled connection. The response has to be closed by the caller to return the connection to the pool.
+     *
+     * @param request the request to execute
+     * @return the response of the server
+     * @throws IOException if the server is unreachable
+     */
+    CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        this.requestCount.incrementAndGet();
+        return this.httpClient.execute(request);
+    }
+
+    /**
+     * Executes the request without blocking. The response body is buffered completely, so it should only be used for small responses like push requests.
+     *
+     * @param request the request to execute
+     * @param callback notified on the I/O thread when the request completed, failed or was cancelled
+     * @return the future of the response, cancelling it aborts the request
+     */
+    Future<HttpResponse> executeAsync(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+        this.requestCount.incrementAndGet();
+        return this.asyncHttpClient.execute(request, callback);
+    }
+
+    /**
+     * Runs the task after the delay on the scheduler of the transport, e.g. a watchdog of a request.
+     *
+     * @param task the task to run
+     * @param delay the delay in milliseconds
+     * @return the future of the task, cancel it if the task is no longer needed
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return this.scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a push request that was aborted by the watchdog.
+     *
+     * @param duration the time in milliseconds the request waited for the server
+     */
+    void recordStall(long duration) {
+        this.stallCount.incrementAndGet();
+        this.stallDuration.addAndGet(duration);
+    }
+
+    /**
+     * Records the size of a download, once as transferred over the network and once after decoding.
+     *
+     * @param compressedBytes the number of bytes received from the server
+     * @param uncompressedBytes the number of bytes after decoding the content encoding
+     */
+    void recordDownload(long compressedBytes, long uncompressedBytes) {
+        this.compressedByteCount.addAndGet(compressedBytes);
+        this.uncompressedByteCount.addAndGet(uncompressedBytes);
+    }
+
+    /**
+     * @return the number of requests sent through this transport
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    /**
+     * @return the number of connections that had to be newly established
+     */
+    public long getOpenedConnectionCount() {
+        return this.openedConnectionCount.get();
+    }
+
+    /**
+     * @return the number of times a pooled connection that had already been used was leased for another request
+     */
+    public long getReusedConnectionCount() {
+        return this.reusedConnectionCount.get();
+    }
+
+    /**
+     * @return the number of push requests that stalled and were aborted by the watchdog
+     */
+    public long getStallCount() {
+        return this.stallCount.get();
+    }
+
+    /**
+     * @return the total time in milliseconds stalled push requests waited for the server
+     */
+    public long getStallDuration() {
+        return this.stallDuration.get();
+    }
+
+    /**
+     * @return the number of download bytes received from the server, before decoding
+     */
+    public long getCompressedByteCount() {
+        return this.compressedByteCount.get();
+    }
+
+    /**
+     * @return the number of download bytes written to files, after decoding
+     */
+    public long getUncompressedByteCount() {
+        return this.uncompressedByteCount.get();
+    }
+
+    /**
+     * @return the number of connections currently kept alive in the pool
+     */
+    public int getIdleConnectionCount() {
+        return this.connectionManager.getTotalStats().getAvailable() + this.asyncConnectionManager.getTotalStats().getAvailable();
+    }
+
+    // a connection that already sent a request was kept alive and leased again from the pool
+    private void recordLease(HttpConnection connection) {
+        if ( connection.getMetrics().getRequestCount() > 0L ) {
+            long reused = this.reusedConnectionCount.incrementAndGet();
+            LOG.debug("Reused connection #{}", reused);
+        }
+    }
+
+    /**
+     * Counts the leases of pooled connections that were already used.
+     */
+    private class CountingConnectionManager extends PoolingHttpClientConnectionManager {
+        CountingConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+            super(socketFactoryRegistry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    HttpClientConnection connection = request.get(timeout, timeUnit);
+                    recordLease(connection);
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * Counts the leases of pooled connections of the non blocking client that were already used.
+     */
+    private class CountingNHttpConnectionManager extends PoolingNHttpClientConnectionManager {
+        CountingNHttpConnectionManager(ConnectingIOReactor ioReactor, Registry<SchemeIOSessionStrategy> sessionStrategyRegistry) {
+            super(ioReactor, new CountingNHttpConnectionFactory(), sessionStrategyRegistry);
+        }
+
+        @Override
+        public Future<NHttpClientConnection> requestConnection(
+            HttpRoute route,
+            Object state,
+            long connectTimeout,
+            long leaseTimeout,
+            TimeUnit timeUnit,
+            FutureCallback<NHttpClientConnection> callback) {
+            return super.requestConnection(route, state, connectTimeout, leaseTimeout, timeUnit, new FutureCallback<NHttpClientConnection>() {
+                @Override
+                public void completed(NHttpClientConnection connection) {
+                    recordLease(connection);
+                    if ( callback != null ) {
+                        callback.completed(connection);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    if ( callback != null ) {
+                        callback.failed(e);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    if ( callback != null ) {
+                        callback.cancelled();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts every socket that is connected by the connection manager.
+     */
+    private class CountingSocketFactory implements ConnectionSocketFactory {
+        private final ConnectionSocketFactory delegate;
+
+        CountingSocketFactory(ConnectionSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return this.delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(
+            int connectTimeout,
+            Socket sock,
+            HttpHost host,
+            InetSocketAddress remoteAddress,
+            InetSocketAddress localAddress,
+            HttpContext context) throws IOException {
+            Socket socket = this.delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+            long opened = ServerTransport.this.openedConnectionCount.incrementAndGet();
+            LOG.debug("Opened connection #{} to {}", opened, host);
+            return socket;
+        }
+    }
+
+    private class CountingLayeredSocketFactory extends CountingSocketFactory implements LayeredConnectionSocketFactory {
+        private final LayeredConnectionSocketFactory delegate;
+
+        CountingLayeredSocketFactory(LayeredConnectionSocketFactory delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+            return this.delegate.createLayeredSocket(socket, target, port, context);
+        }
+    }
+
+    /**
+     * Counts every connection that is established by the non blocking connection manager.
+     */
+    private class CountingNHttpConnectionFactory implements NHttpConnectionFactory<ManagedNHttpClientConnection> {
+        @Override
+        public ManagedNHttpClientConnection create(IOSession session, ConnectionConfig config) {
+            long opened = ServerTransport.this.openedConnectionCount.incrementAndGet();
+            LOG.debug("Opened connection #{} to {}", opened, session.getRemoteAddress());
+            return ManagedNHttpClientConnectionFactory.INSTANCE.create(session, config);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicLong threadCount = new AtomicLong();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "server-io-" + this.threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
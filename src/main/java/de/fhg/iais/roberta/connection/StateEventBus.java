@@ -0,0 +1,139 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.util.IOraListenable;
+import de.fhg.iais.roberta.util.IOraListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers the state changes of a connector to its listeners without running them on the connector thread. A state that equals the previously fired
+ * one is coalesced, e.g. the EV3 connector fires its state on every poll of the brick. The listeners of one connector get the states in order, on a
+ * dispatcher thread shared by all connectors. If the listeners fall behind by more than {@link #MAX_PENDING} states, the oldest ones are dropped, so a
+ * slow UI never stalls the protocol. Listeners that touch Swing components have to pass the work on to the event dispatch thread.
+ */
+public final class StateEventBus implements IOraListenable<State> {
+    private static final Logger LOG = LoggerFactory.getLogger(StateEventBus.class);
+
+    static final int MAX_PENDING = 64;
+
+    private static final Executor DISPATCHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "state-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor executor;
+    private final Collection<IOraListener<State>> listeners = new CopyOnWriteArrayList<>();
+
+    private final Queue<Event> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicReference<State> lastFired = new AtomicReference<>();
+
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public StateEventBus() {
+        this(DISPATCHER);
+    }
+
+    StateEventBus(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void registerListener(IOraListener<State> listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void unregisterListener(IOraListener<State> listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Queues the state for the listeners and returns immediately. Can be called from any thread.
+     *
+     * @param state the new state
+     */
+    @Override
+    public void fire(State state) {
+        if ( this.lastFired.getAndSet(state) == state ) {
+            this.coalesced.incrementAndGet();
+            return;
+        }
+        this.pending.offer(new Event(state, System.nanoTime()));
+        if ( (this.pendingCount.incrementAndGet() > MAX_PENDING) && (this.pending.poll() != null) ) {
+            this.pendingCount.decrementAndGet();
+            this.dropped.incrementAndGet();
+        }
+        if ( this.scheduled.compareAndSet(false, true) ) {
+            this.executor.execute(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        Event event;
+        while ( (event = this.pending.poll()) != null ) {
+            this.pendingCount.decrementAndGet();
+            this.dispatchLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - event.fired));
+            for ( IOraListener<State> listener : this.listeners ) {
+                try {
+                    listener.update(event.state);
+                } catch ( RuntimeException e ) {
+                    LOG.error("Listener failed to handle state {}", event.state, e);
+                }
+            }
+        }
+        this.scheduled.set(false);
+        // a state fired after the queue was found empty but before the flag was cleared would not be dispatched otherwise
+        if ( !this.pending.isEmpty() && this.scheduled.compareAndSet(false, true) ) {
+            this.executor.execute(this::dispatch);
+        }
+    }
+
+    /**
+     * @return the time in microseconds from firing a state until it was passed to the listeners
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return this.dispatchLatency;
+    }
+
+    /**
+     * @return the number of states that were not dispatched because they repeated the previous state
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * @return the number of states that were dropped because the listeners fell behind
+     */
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    private static final class Event {
+        private final State state;
+        private final long fired;
+
+        private Event(State state, long fired) {
+            this.state = state;
+            this.fired = fired;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package de.fhg.iais.roberta.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Minimal WebSocket client (RFC 6455) for text messages. The upgrade is sent over a plain or TLS socket, incoming messages are read by a daemon thread
+ * and passed to the message handler. Pings are answered, fragmented messages are reassembled. The frame codec is also used by the stand-in server of
+ * the tests.
+ */
+final class WebSocketConnection implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(WebSocketConnection.class);
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_PAYLOAD = 1024 * 1024;
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Consumer<String> messageHandler;
+    private final Consumer<IOException> closeHandler;
+
+    private volatile boolean open = true;
+
+    private WebSocketConnection(Socket socket, DataInputStream in, OutputStream out, Consumer<String> messageHandler, Consumer<IOException> closeHandler) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.messageHandler = messageHandler;
+        this.closeHandler = closeHandler;
+    }
+
+    /**
+     * Connects and upgrades the connection. Blocks until the server accepted the upgrade.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     * @param path the path of the WebSocket endpoint
+     * @param secure whether TLS is used
+     * @param timeout the timeout in milliseconds for connecting and for the upgrade response
+     * @param messageHandler gets every incoming text message, called on the reader thread
+     * @param closeHandler gets the cause once the connection is closed, called once on the reader thread
+     * @return the open connection
+     * @throws IOException if the server is unreachable or did not accept the upgrade
+     */
+    static WebSocketConnection open(
+        String host,
+        int port,
+        String path,
+        boolean secure,
+        int timeout,
+        Consumer<String> messageHandler,
+        Consumer<IOException> closeHandler) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeout);
+            if ( secure ) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            byte[] nonce = new byte[16];
+            RANDOM.nextBytes(nonce);
+            String key = Base64.getEncoder().encodeToString(nonce);
+            String hostHeader = ((port == 80) || (port == 443)) ? host : (host + ':' + port);
+            String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + hostHeader + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String statusLine = readLine(in);
+            Map<String, String> headers = readHeaders(in);
+            if ( !statusLine.startsWith("HTTP/1.1 101") ) {
+                throw new IOException("Upgrade was refused: " + statusLine);
+            }
+            if ( !acceptKey(key).equals(headers.get("sec-websocket-accept")) ) {
+                throw new IOException("Upgrade response has a wrong Sec-WebSocket-Accept");
+            }
+            // pushes are watched by the communicator, the reader waits as long as the server holds them
+            socket.setSoTimeout(0);
+
+            WebSocketConnection connection = new WebSocketConnection(socket, in, out, messageHandler, closeHandler);
+            Thread reader = new Thread(connection::read, "websocket-" + host + ':' + port);
+            reader.setDaemon(true);
+            reader.start();
+            return connection;
+        } catch ( IOException | RuntimeException e ) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param text the text message to send
+     * @throws IOException if the connection is closed
+     */
+    void send(String text) throws IOException {
+        if ( !this.open ) {
+            throw new IOException("WebSocket is closed");
+        }
+        synchronized ( this.out ) {
+            writeFrame(this.out, OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8), true);
+        }
+    }
+
+    boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * Sends a close frame and closes the socket, the reader thread stops.
+     */
+    @Override
+    public void close() {
+        if ( !this.open ) {
+            return;
+        }
+        this.open = false;
+        try {
+            synchronized ( this.out ) {
+                writeFrame(this.out, OPCODE_CLOSE, new byte[0], true);
+            }
+        } catch ( IOException e ) {
+            LOG.debug("Could not send close frame: {}", e.getMessage());
+        }
+        closeQuietly();
+    }
+
+    private void read() {
+        IOException cause = null;
+        try {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while ( this.open ) {
+                Frame frame = readFrame(this.in);
+                switch ( frame.opcode ) {
+                    case OPCODE_TEXT:
+                    case OPCODE_CONTINUATION:
+                        message.write(frame.payload);
+                        if ( message.size() > MAX_PAYLOAD ) {
+                            throw new IOException("WebSocket message is too large");
+                        }
+                        if ( frame.fin ) {
+                            this.messageHandler.accept(new String(message.toByteArray(), StandardCharsets.UTF_8));
+                            message.reset();
+                        }
+                        break;
+                    case OPCODE_PING:
+                        synchronized ( this.out ) {
+                            writeFrame(this.out, OPCODE_PONG, frame.payload, true);
+                        }
+                        break;
+                    case OPCODE_CLOSE:
+                        throw new EOFException("WebSocket was closed by the server");
+                    default:
+                        break;
+                }
+            }
+        } catch ( IOException e ) {
+            cause = e;
+        } finally {
+            boolean wasOpen = this.open;
+            this.open = false;
+            closeQuietly();
+            this.closeHandler.accept((wasOpen && (cause != null)) ? cause : new IOException("WebSocket was closed"));
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            this.socket.close();
+        } catch ( IOException e ) {
+            LOG.debug("Could not close socket: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @param key the Sec-WebSocket-Key of the upgrade request
+     * @return the Sec-WebSocket-Accept the server has to answer with
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key + GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Writes a single, unfragmented frame. Frames of the client have to be masked.
+     */
+    static void writeFrame(OutputStream out, int opcode, byte[] payload, boolean masked) throws IOException {
+        out.write(0x80 | opcode);
+        int maskBit = masked ? 0x80 : 0x00;
+        if ( payload.length < 126 ) {
+            out.write(maskBit | payload.length);
+        } else if ( payload.length <= 0xFFFF ) {
+            out.write(maskBit | 126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(maskBit | 127);
+            for ( int shift = 56; shift >= 0; shift -= 8 ) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        if ( masked ) {
+            byte[] mask = new byte[4];
+            ThreadLocalRandom.current().nextBytes(mask);
+            out.write(mask);
+            byte[] maskedPayload = new byte[payload.length];
+            for ( int i = 0; i < payload.length; i++ ) {
+                maskedPayload[i] = (byte) (payload[i] ^ mask[i & 3]);
+            }
+            out.write(maskedPayload);
+        } else {
+            out.write(payload);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the next frame, masked payloads are unmasked.
+     */
+    static Frame readFrame(DataInputStream in) throws IOException {
+        int first = in.readUnsignedByte();
+        int second = in.readUnsignedByte();
+        long length = second & 0x7F;
+        if ( length == 126 ) {
+            length = in.readUnsignedShort();
+        } else if ( length == 127 ) {
+            length = in.readLong();
+        }
+        if ( (length < 0) || (length > MAX_PAYLOAD) ) {
+            throw new IOException("WebSocket frame is too large: " + length);
+        }
+        byte[] mask = null;
+        if ( (second & 0x80) != 0 ) {
+            mask = new byte[4];
+            in.readFully(mask);
+        }
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        if ( mask != null ) {
+            for ( int i = 0; i < payload.length; i++ ) {
+                payload[i] ^= mask[i & 3];
+            }
+        }
+        return new Frame((first & 0x80) != 0, first & 0x0F, payload);
+    }
+
+    /**
+     * Reads a CRLF terminated line of an http header.
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ( (c = in.read()) != -1 ) {
+            if ( c == '\n' ) {
+                int length = line.length();
+                return ((length > 0) && (line.charAt(length - 1) == '\r')) ? line.substring(0, length - 1) : line.toString();
+            }
+            if ( line.length() >= MAX_HEADER_LINE ) {
+                throw new IOException("Header line is too long");
+            }
+            line.append((char) c);
+        }
+        throw new EOFException("Connection closed while reading the header");
+    }
+
+    /**
+     * Reads http headers up to the empty line, the names are lower case.
+     */
+    static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ( !(line = readLine(in)).isEmpty() ) {
+            int colon = line.indexOf(':');
+            if ( colon > 0 ) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    static final class Frame {
+        final boolean fin;
+        final int opcode;
+        final byte[] payload;
+
+        Frame(boolean fin, int opcode, byte[] payload) {
+            this.fin = fin;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+}
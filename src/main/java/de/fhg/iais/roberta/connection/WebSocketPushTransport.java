@@ -0,0 +1,127 @@
+package de.fhg.iais.roberta.connection;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the push requests of one communicator over a persistent WebSocket instead of http long polls. Every push is a text message with an id, the
+ * server answers it with a message carrying the same id as soon as it has a command, or with repeat after its hold time. Answers to pushes that
+ * were aborted are dropped. The robot data is sent completely once per connection, afterwards only when it changed.
+ */
+final class WebSocketPushTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(WebSocketPushTransport.class);
+
+    static final String PATH = "/rest/pushws";
+    static final String KEY_ID = "id";
+
+    private final AtomicLong ids = new AtomicLong();
+    private long generation = 0L; // of the connection, a closed connection only fails the pushes sent over it
+
+    private volatile WebSocketConnection connection = null;
+    private volatile Pending pending = null;
+    private JSONObject sentData = null;
+
+    /**
+     * Sends the push request, the connection is opened first if necessary. Opening blocks until the server accepted the upgrade.
+     *
+     * @param serverAddress the address of the server, host and port
+     * @param secure whether TLS is used
+     * @param timeout the timeout in milliseconds for opening the connection
+     * @param requestContent the push request, as it would be sent with a long poll
+     * @return the future answer of the server, completed exceptionally if the connection is lost
+     * @throws IOException if the connection could not be opened, the caller falls back to long polling
+     */
+    synchronized CompletableFuture<JSONObject> push(String serverAddress, boolean secure, int timeout, JSONObject requestContent) throws IOException {
+        WebSocketConnection current = this.connection;
+        if ( (current == null) || !current.isOpen() ) {
+            int colon = serverAddress.lastIndexOf(':');
+            String host = (colon < 0) ? serverAddress : serverAddress.substring(0, colon);
+            int port = (colon < 0) ? (secure ? 443 : 80) : Integer.parseInt(serverAddress.substring(colon + 1));
+            long connectionGeneration = ++this.generation;
+            current = WebSocketConnection.open(host, port, PATH, secure, timeout, this::received, cause -> closed(connectionGeneration, cause));
+            LOG.info("Opened WebSocket to {}", serverAddress);
+            this.connection = current;
+            this.sentData = null;
+        }
+
+        long id = this.ids.incrementAndGet();
+        CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        this.pending = new Pending(id, this.generation, result);
+        JSONObject message = compact(requestContent);
+        message.put(KEY_ID, id);
+        try {
+            current.send(message.toString());
+        } catch ( IOException e ) {
+            current.close();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Closes the connection, e.g. because the server address changed or a push over it stalled. The outstanding push fails.
+     */
+    void close() {
+        WebSocketConnection current = this.connection;
+        if ( current != null ) {
+            current.close();
+        }
+    }
+
+    // the robot data without the command is only sent if it differs from the data the server already has
+    private JSONObject compact(JSONObject requestContent) {
+        JSONObject data = new JSONObject(requestContent.toString());
+        data.remove(IConnector.KEY_CMD);
+        if ( data.similar(this.sentData) ) {
+            JSONObject message = new JSONObject();
+            message.put(IConnector.KEY_CMD, requestContent.opt(IConnector.KEY_CMD));
+            message.put(IConnector.KEY_TOKEN, requestContent.opt(IConnector.KEY_TOKEN));
+            return message;
+        }
+        this.sentData = data;
+        return new JSONObject(requestContent.toString());
+    }
+
+    private void received(String text) {
+        Pending current = this.pending;
+        try {
+            JSONObject response = new JSONObject(text);
+            if ( (current != null) && (response.optLong(KEY_ID, -1L) == current.id) ) {
+                response.remove(KEY_ID);
+                current.result.complete(response);
+            } else {
+                LOG.debug("Dropping answer to an aborted push: {}", text);
+            }
+        } catch ( JSONException e ) {
+            if ( current != null ) {
+                current.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void closed(long connectionGeneration, IOException cause) {
+        LOG.info("WebSocket closed: {}", cause.getMessage());
+        Pending current = this.pending;
+        if ( (current != null) && (current.generation == connectionGeneration) ) {
+            current.result.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Pending {
+        private final long id;
+        private final long generation;
+        private final CompletableFuture<JSONObject> result;
+
+        private Pending(long id, long generation, CompletableFuture<JSONObject> result) {
+            this.id = id;
+            this.generation = generation;
+            this.result = result;
+        }
+    }
+}
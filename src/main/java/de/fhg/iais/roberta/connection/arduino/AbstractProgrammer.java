@@ -0,0 +1,155 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.arduino.BoardProfile.Verify;
+import de.fhg.iais.roberta.util.IOraListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the pages of an image that changed and reads them back, the bootloader protocol is implemented by the subclasses. The bootloaders can not
+ * compute checksums, so the pages are read back and the CRC32 of what was read is compared with the CRC32 of the image. With {@link Verify#FULL}
+ * every used page is read back, also the ones a partial upload kept. With {@link Verify#SAMPLE} only the first and the last page of the program
+ * and the pages written by a partial upload are read back.
+ */
+abstract class AbstractProgrammer implements IProgrammer {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractProgrammer.class);
+
+    protected final ISerialLink link;
+    protected final AvrPart part;
+
+    private IOraListener<Integer> progressListener = percent -> {
+    };
+    private Verify verify = Verify.FULL;
+
+    AbstractProgrammer(ISerialLink link, AvrPart part) {
+        this.link = link;
+        this.part = part;
+    }
+
+    /**
+     * @param verify how the flash is checked after writing
+     */
+    void setVerify(Verify verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * @param progressListener called with the percentage of the pages that were written and verified, every time it changes
+     */
+    void setProgressListener(IOraListener<Integer> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    @Override
+    public void program(FlashImage image) throws IOException {
+        program(image, null);
+    }
+
+    @Override
+    public void program(FlashImage image, FlashImage previous) throws IOException {
+        if ( image.size() > this.part.getFlashSize() ) {
+            throw new IOException("Program of " + image.size() + " bytes does not fit into the flash of " + this.part);
+        }
+        this.link.resetBoard();
+        enterProgrammingMode();
+
+        int pageSize = this.part.getPageSize();
+        List<Integer> writes = new ArrayList<>();
+        for ( int address = 0; address < image.size(); address += pageSize ) {
+            if ( image.isPageChanged(previous, address, pageSize) ) {
+                writes.add(address);
+            }
+        }
+        if ( isErasingSequentially() && !writes.isEmpty() ) {
+            // gaps and unchanged pages before the last change are written as well, otherwise the bootloader erases other pages than it writes
+            int lastWrite = writes.get(writes.size() - 1);
+            writes.clear();
+            for ( int address = 0; address <= lastWrite; address += pageSize ) {
+                writes.add(address);
+            }
+        }
+        Set<Integer> written = new HashSet<>(writes);
+
+        // the sample of a partial upload includes the written pages, the first and the last page differ between most programs if the board was
+        // flashed elsewhere
+        int lastAddress = ((image.size() - 1) / pageSize) * pageSize;
+        boolean first = true;
+        List<Integer> reads = new ArrayList<>();
+        for ( int address = 0; address < image.size(); address += pageSize ) {
+            if ( image.isPageUsed(address, pageSize) ) {
+                if ( (this.verify == Verify.FULL) || first || (address == lastAddress) || ((previous != null) && written.contains(address)) ) {
+                    reads.add(address);
+                }
+                first = false;
+            }
+        }
+
+        int total = writes.size() + reads.size();
+        int done = 0;
+        int percent = -1;
+        for ( int address : writes ) {
+            writePage(address, image.getPage(address, pageSize));
+            percent = fireProgress(++done, total, percent);
+        }
+        CRC32 expected = new CRC32();
+        CRC32 actual = new CRC32();
+        for ( int address : reads ) {
+            expected.update(image.getPage(address, pageSize));
+            actual.update(readPage(address, pageSize));
+            percent = fireProgress(++done, total, percent);
+        }
+        if ( expected.getValue() != actual.getValue() ) {
+            throw new IOException(
+                "Verification failed, the CRC32 of the flash is " + Long.toHexString(actual.getValue()) + " instead of " + Long.toHexString(expected.getValue()));
+        }
+
+        leaveProgrammingMode();
+        LOG.info("Wrote {} and verified {} pages", writes.size(), reads.size());
+    }
+
+    private int fireProgress(int done, int total, int lastPercent) {
+        int percent = (done * 100) / total;
+        if ( percent != lastPercent ) {
+            this.progressListener.update(percent);
+        }
+        return percent;
+    }
+
+    /**
+     * @return whether the bootloader erases the pages in order from address 0 on, one with every write and regardless of the loaded address. Then the
+     *     pages are written without gaps from address 0 up to the last page that changed.
+     */
+    protected boolean isErasingSequentially() {
+        return false;
+    }
+
+    /**
+     * Gets in sync with the bootloader after the reset, checks the signature of the chip and enters the programming mode.
+     */
+    protected abstract void enterProgrammingMode() throws IOException;
+
+    /**
+     * @param address the first address of the page
+     * @param page the content of the page, exactly one page
+     */
+    protected abstract void writePage(int address, byte[] page) throws IOException;
+
+    /**
+     * @param address the first address of the page
+     * @param length the page size
+     * @return the content of the flash
+     */
+    protected abstract byte[] readPage(int address, int length) throws IOException;
+
+    /**
+     * Leaves the programming mode, the bootloader starts the program.
+     */
+    protected abstract void leaveProgrammingMode() throws IOException;
+}
@@ -1,5 +1,8 @@
 package de.fhg.iais.roberta.connection.arduino;
 
+import com.fazecast.jSerialComm.SerialPort;
+import de.fhg.iais.roberta.connection.arduino.BoardProfile.Verify;
+import de.fhg.iais.roberta.util.IOraListener;
 import de.fhg.iais.roberta.util.PropertyHelper;
 import org.apache.commons.lang3.SystemUtils;
 import org.json.JSONObject;
@@ -8,18 +11,33 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 class ArduinoCommunicator {
     private static final Logger LOG = LoggerFactory.getLogger(ArduinoCommunicator.class);
 
+    private static final String DEV_PREFIX = "/dev/";
+
+    // the programs of boards with a bootloader are written without avrdude, it is still used if that fails
+    private static final boolean NATIVE_UPLOAD = !"false".equalsIgnoreCase(PropertyHelper.getInstance().getProperty("arduinoNativeUpload"));
+
     private String avrPath = ""; //path for avrdude bin
     private String avrConfPath = ""; //path for the .conf file
     private final String brickName;
     private final ArduinoType type;
+    private final BoardProfile profile;
 
     ArduinoCommunicator(String brickName, ArduinoType type) {
+        this(brickName, type, BoardProfiles.get(type));
+    }
+
+    ArduinoCommunicator(String brickName, ArduinoType type, BoardProfile profile) {
         this.brickName = brickName;
         this.type = type;
+        this.profile = profile;
     }
 
     private void setParameters() {
@@ -51,45 +69,97 @@ class ArduinoCommunicator {
         return deviceInfo;
     }
 
-    void uploadFile(String portName, String filePath) {
+    /**
+     * Uploads the HEX file to the arduino, through the bootloader if possible, otherwise with avrdude.
+     *
+     * @param portName the port the arduino is connected to
+     * @param filePath the path of the HEX file
+     * @return whether the upload was successful
+     */
+    boolean uploadFile(String portName, String filePath) {
+        FlashImage image = null;
+        // e.g. the Bob3 has no bootloader, it is programmed through an ISP programmer
+        if ( NATIVE_UPLOAD && this.profile.hasBootloader() ) {
+            try {
+                image = IntelHex.parse(Paths.get(filePath));
+            } catch ( IOException e ) {
+                LOG.warn("Could not parse {}, using avrdude instead: {}", filePath, e.getMessage());
+            }
+        }
+        return uploadImage(portName, filePath, image, percent -> {
+        });
+    }
+
+    /**
+     * Uploads a HEX file that was already parsed, e.g. once for several boards.
+     *
+     * @param portName the port the arduino is connected to
+     * @param filePath the path of the HEX file, used if the image can not be written through the bootloader
+     * @param image the parsed HEX file, not modified, null to upload with avrdude
+     * @param progressListener called with the percentage of the upload that is done, avrdude only reports the end
+     * @return whether the upload was successful
+     */
+    boolean uploadImage(String portName, String filePath, FlashImage image, IOraListener<Integer> progressListener) {
+        if ( NATIVE_UPLOAD && this.profile.hasBootloader() && (image != null) ) {
+            long start = System.nanoTime();
+            FlashImage previous = FlashHistory.getFlashed(portName);
+            // the content of the flash is not known until the upload succeeded
+            FlashHistory.invalidate(portName);
+            try {
+                try {
+                    uploadFileWithBootloader(portName, image, previous, progressListener);
+                } catch ( IOException e ) {
+                    if ( previous == null ) {
+                        throw e;
+                    }
+                    LOG.info("Could not upload the changed pages, uploading all pages: {}", e.getMessage());
+                    uploadFileWithBootloader(portName, image, null, progressListener);
+                }
+                FlashHistory.flashed(portName, image);
+                BoardProfiles.recordUpload(this.profile.toString(), (System.nanoTime() - start) / 1000000L);
+                return true;
+            } catch ( IOException e ) {
+                LOG.warn("Could not upload without avrdude, using avrdude instead: {}", e.getMessage());
+            }
+        }
+        long start = System.nanoTime();
+        boolean uploaded = uploadFileWithAvrdude(portName, filePath);
+        if ( uploaded ) {
+            BoardProfiles.recordUpload(this.profile + " avrdude", (System.nanoTime() - start) / 1000000L);
+            progressListener.update(100);
+        }
+        return uploaded;
+    }
+
+    // the same programmer avrdude would use, with the baud rate and the reset timing of the profile
+    private void uploadFileWithBootloader(String portName, FlashImage image, FlashImage previous, IOraListener<Integer> progressListener)
+        throws IOException {
+        try (ISerialLink link = SerialPortLink.open(portName, this.profile.getBaudRate(), this.profile.getResetPulse(), this.profile.getResetWait())) {
+            AbstractProgrammer programmer = this.profile.createProgrammer(link);
+            programmer.setProgressListener(progressListener);
+            programmer.program(image, previous);
+        }
+    }
+
+    /**
+     * Uploads the HEX file to the arduino with avrdude.
+     *
+     * @param portName the port the arduino is connected to
+     * @param filePath the path of the HEX file
+     * @return whether avrdude reported a successful upload
+     */
+    boolean uploadFileWithAvrdude(String portName, String filePath) {
         setParameters();
         String portPath = "/dev/";
         if ( SystemUtils.IS_OS_WINDOWS ) {
             portPath = "";
         }
         try {
-            String pArg;
-            String cArg;
-            String eArg = "";
-            switch ( this.type ) {
-                // specify if different
-                case MEGA:
-                    pArg = "-patmega2560";
-                    cArg = "-cwiring";
-                    break;
-                case BOB3:
-                    pArg = "-patmega88";
-                    cArg = "-cavrisp2";
-                    eArg = "-e";
-                    break;
-                default: // take uno config as default, this is used by Uno, Nano, Bot'n Roll and Mbot
-                    pArg = "-patmega328p";
-                    cArg = "-carduino";
-                    break;
-            }
-
-            LOG.info("Starting to upload program {} to {}{}", filePath, portPath, portName);
-            ProcessBuilder
-                processBuilder =
-                new ProcessBuilder(this.avrPath,
-                    "-v",
-                    "-D",
-                    pArg,
-                    cArg,
-                    "-Uflash:w:" + filePath + ":i",
-                    "-C" + this.avrConfPath,
-                    "-P" + portPath + portName,
-                    eArg);
+            LOG.info("Starting to upload program {} to {}{} with {}", filePath, portPath, portName, this.profile);
+            List<String> command = new ArrayList<>();
+            command.add(this.avrPath);
+            command.addAll(getAvrdudeArguments(filePath, portPath + portName));
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
 
             //            processBuilder.redirectInput(Redirect.INHERIT);
             //            processBuilder.redirectOutput(Redirect.INHERIT);
@@ -103,8 +173,80 @@ class ArduinoCommunicator {
                 LOG.info("Program was unable to be uploaded: {}", eCode);
             }
             LOG.debug("Exit code {}", eCode);
+            return eCode == 0;
         } catch ( IOException | InterruptedException e ) {
             LOG.error("Error while uploading to arduino: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param filePath the path of the HEX file
+     * @param port the path of the port
+     * @return the arguments of avrdude for the profile of the board
+     */
+    List<String> getAvrdudeArguments(String filePath, String port) {
+        List<String> arguments = new ArrayList<>();
+        if ( this.profile.getVerbosity() == 0 ) {
+            arguments.add("-q");
+        }
+        for ( int i = 0; i < this.profile.getVerbosity(); i++ ) {
+            arguments.add("-v");
+        }
+        arguments.addAll(Arrays.asList("-D", "-p" + this.profile.getPart(), "-c" + this.profile.getProgrammer()));
+        if ( this.profile.getBaudRate() > 0 ) {
+            arguments.add("-b" + this.profile.getBaudRate());
+        }
+        if ( this.profile.isErase() ) {
+            arguments.add("-e");
+        }
+        // avrdude can only verify all pages or none
+        if ( this.profile.getVerify() != Verify.FULL ) {
+            arguments.add("-V");
         }
+        arguments.add("-Uflash:w:" + filePath + ":i");
+        arguments.add("-C" + this.avrConfPath);
+        arguments.add("-P" + port);
+        return arguments;
+    }
+
+    /**
+     * Restarts the program on the arduino by pulsing the DTR line, like the bootloader reset at the start of an upload.
+     * Not possible for boards that are programmed through an ISP programmer.
+     *
+     * @param portName the port the arduino is connected to
+     * @return whether the board was reset
+     */
+    boolean resetBoard(String portName) {
+        if ( !this.profile.hasBootloader() ) {
+            return false;
+        }
+        SerialPort serialPort = findPort(SerialPort.getCommPorts(), portName);
+        if ( (serialPort == null) || !serialPort.openPort() ) {
+            LOG.info("Could not open {} to reset the board", portName);
+            return false;
+        }
+        try {
+            serialPort.clearDTR();
+            Thread.sleep(this.profile.getResetPulse());
+            serialPort.setDTR();
+            LOG.info("Reset board on {}", portName);
+            return true;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            serialPort.closePort();
+        }
+    }
+
+    /**
+     * @param ports the serial ports of the system
+     * @param portName the port name as found by the detection, e.g. ttyACM1 or COM1, optionally with /dev/
+     * @return the port with exactly this name, not e.g. ttyACM10, null if there is none
+     */
+    static SerialPort findPort(SerialPort[] ports, String portName) {
+        String systemPortName = portName.startsWith(DEV_PREFIX) ? portName.substring(DEV_PREFIX.length()) : portName;
+        return Arrays.stream(ports).filter(port -> port.getSystemPortName().equals(systemPortName)).findFirst().orElse(null);
     }
 }
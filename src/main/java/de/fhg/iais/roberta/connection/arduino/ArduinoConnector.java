@@ -1,29 +1,47 @@
 package de.fhg.iais.roberta.connection.arduino;
 
 import de.fhg.iais.roberta.connection.AbstractConnector;
+import de.fhg.iais.roberta.connection.BinaryDownload;
+import de.fhg.iais.roberta.connection.RunMetrics.Phase;
+import de.fhg.iais.roberta.connection.RunTimer;
 import de.fhg.iais.roberta.usb.Robot;
+import de.fhg.iais.roberta.util.PropertyHelper;
 import de.fhg.iais.roberta.util.OraTokenGenerator;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ArduinoConnector extends AbstractConnector {
     private static final Logger LOG = LoggerFactory.getLogger(ArduinoConnector.class);
 
-    private ArduinoCommunicator arduinoCommunicator = null;
+    private final ArduinoCommunicator arduinoCommunicator;
+    private final boolean skipIdenticalUpload;
 
     private final ArduinoType type;
     private final String portName;
 
     public ArduinoConnector(ArduinoType type, String portName) {
+        this(type, portName, new ArduinoCommunicator(determineArduinoName(type), type));
+    }
+
+    ArduinoConnector(ArduinoType type, String portName, ArduinoCommunicator arduinoCommunicator) {
+        this(type, portName, arduinoCommunicator, !"false".equalsIgnoreCase(PropertyHelper.getInstance().getProperty("skipIdenticalUpload")));
+    }
+
+    /**
+     * @param skipIdenticalUpload whether the board is only reset if the downloaded program is the one this connector uploaded last
+     */
+    ArduinoConnector(ArduinoType type, String portName, ArduinoCommunicator arduinoCommunicator, boolean skipIdenticalUpload) {
         super(determineArduinoName(type));
         this.type = type;
         this.portName = portName;
+        this.arduinoCommunicator = arduinoCommunicator;
+        this.skipIdenticalUpload = skipIdenticalUpload;
+        // the board might have been flashed by another program while no connector ran, only reset it after this connector uploaded
+        FlashHistory.invalidateUpload(portName);
     }
 
     private static String determineArduinoName(ArduinoType type) {
@@ -41,112 +59,154 @@ public class ArduinoConnector extends AbstractConnector {
 
     @Override
     protected void runLoopBody() {
-        switch ( this.state ) {
+        switch ( getState() ) {
             case DISCOVER:
                 if ( this.portName.isEmpty() ) {
                     LOG.info("No Arduino device connected");
                 } else {
                     // if the user disconnected check the arduino type again, it might've changed
-                    if ( this.userDisconnect ) {
+                    if ( isUserDisconnect() ) {
 //                        findRobot();
                     }
-                    this.arduinoCommunicator = new ArduinoCommunicator(this.brickName, this.type);
-                    this.state = State.WAIT_FOR_CONNECT_BUTTON_PRESS;
-                    fire(this.state);
+                    setState(State.WAIT_FOR_CONNECT_BUTTON_PRESS);
+                    fire(getState());
                     break;
                 }
                 break;
             case WAIT_EXECUTION:
-                this.state = State.WAIT_FOR_CMD;
-                fire(this.state);
-
+                setState(State.WAIT_FOR_CMD);
+                fire(getState());
+                step();
                 break;
             case WAIT_FOR_CONNECT_BUTTON_PRESS:
-                //                    // GUI initiates changing state to CONNECT
+                // GUI initiates changing state to CONNECT
                 break;
             case CONNECT_BUTTON_IS_PRESSED:
                 this.token = OraTokenGenerator.generateToken();
-                this.state = State.WAIT_FOR_SERVER;
-                fire(this.state);
+                setState(State.WAIT_FOR_SERVER);
+                fire(getState());
                 this.brickData = this.arduinoCommunicator.getDeviceInfo();
                 this.brickData.put(KEY_TOKEN, this.token);
                 this.brickData.put(KEY_CMD, CMD_REGISTER);
-                try {
-                    JSONObject serverResponse = this.serverCommunicator.pushRequest(this.brickData);
-                    String command = serverResponse.getString("cmd");
-                    switch ( command ) {
-                        case CMD_REPEAT:
-                            this.state = State.WAIT_FOR_CMD;
-                            fire(this.state);
-                            LOG.info("Robot successfully registered with token {}, waiting for commands", this.token);
-                            break;
-                        case CMD_ABORT:
-                            LOG.info("registration timeout");
-                            fire(State.TOKEN_TIMEOUT);
-                            this.state = State.DISCOVER;
-                            fire(this.state);
-                            break;
-                        default:
-                            throw new RuntimeException("Unexpected command " + command + "from server");
-                    }
-                } catch ( IOException | RuntimeException io ) {
-                    LOG.info("CONNECT {}", io.getMessage());
-                    reset(State.ERROR_HTTP);
-                }
+                await(this.serverCommunicator.pushRequestAsync(this.brickData), this::handleRegisterResponse);
                 break;
             case WAIT_FOR_CMD:
                 this.brickData = this.arduinoCommunicator.getDeviceInfo();
                 this.brickData.put(KEY_TOKEN, this.token);
                 this.brickData.put(KEY_CMD, CMD_PUSH);
+                this.runTimer = RunTimer.start();
+                await(this.serverCommunicator.pushRequestAsync(this.brickData), this::handlePushResponse);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handleRegisterResponse(JSONObject serverResponse, Throwable e) {
+        if ( e != null ) {
+            LOG.info("CONNECT {}", e.getMessage());
+            reset(State.ERROR_HTTP);
+            return;
+        }
+        try {
+            String command = serverResponse.getString("cmd");
+            switch ( command ) {
+                case CMD_REPEAT:
+                    setState(State.WAIT_FOR_CMD);
+                    fire(getState());
+                    LOG.info("Robot successfully registered with token {}, waiting for commands", this.token);
+                    step();
+                    break;
+                case CMD_ABORT:
+                    LOG.info("registration timeout");
+                    fire(State.TOKEN_TIMEOUT);
+                    setState(State.DISCOVER);
+                    fire(getState());
+                    step();
+                    break;
+                default:
+                    throw new RuntimeException("Unexpected command " + command + "from server");
+            }
+        } catch ( RuntimeException r ) {
+            LOG.info("CONNECT {}", r.getMessage());
+            reset(State.ERROR_HTTP);
+        }
+    }
+
+    private void handlePushResponse(JSONObject response, Throwable e) {
+        if ( retry(e) ) {
+            return;
+        }
+        if ( e != null ) {
+            LOG.info("WAIT_FOR_CMD {}", e.getMessage());
+            reset(State.ERROR_HTTP);
+            return;
+        }
+        try {
+            String cmdKey = response.getString(KEY_CMD);
+            if ( cmdKey.equals(CMD_DOWNLOAD) ) {
+                LOG.info("Download user program");
+                this.runTimer.lap(Phase.PUSH);
                 try {
-                    JSONObject response = this.serverCommunicator.pushRequest(this.brickData);
-                    String cmdKey = response.getString(KEY_CMD);
-                    if ( cmdKey.equals(CMD_REPEAT) ) {
-                        break;
-                    } else if ( cmdKey.equals(CMD_DOWNLOAD) ) {
-                        LOG.info("Download user program");
+                    BinaryDownload program = this.serverCommunicator.downloadProgram(this.brickData, getStagingFile(".hex"));
+                    LOG.info("Downloaded {}", program);
+                    this.runTimer.lap(Phase.DOWNLOAD);
+                    this.runTimer.split(Phase.DOWNLOAD, Phase.WRITE, program.getWriteTime());
+
+                    ReentrantLock portLock = PortLocks.get(this.portName);
+                    if ( portLock.tryLock() ) {
                         try {
-                            byte[] binaryfile = this.serverCommunicator.downloadProgram(this.brickData);
-                            String filename = this.serverCommunicator.getFilename();
-                            File temp = File.createTempFile(filename, "");
-
-                            temp.deleteOnExit();
-
-                            if ( !temp.exists() ) {
-                                throw new FileNotFoundException("File " + temp.getAbsolutePath() + " does not exist.");
-                            }
-
-                            try (FileOutputStream os = new FileOutputStream(temp)) {
-                                os.write(binaryfile);
-                            }
-
-                            this.state = State.WAIT_UPLOAD;
-                            fire(this.state);
-                            this.arduinoCommunicator.uploadFile(this.portName, temp.getAbsolutePath());
-                            this.state = State.WAIT_EXECUTION;
-                            fire(this.state);
-                        } catch ( IOException io ) {
-                            LOG.info("Download and run failed: {}", io.getMessage());
-                            LOG.info("Do not give up yet - make the next push request");
-                            this.state = State.WAIT_FOR_CMD;
+                            upload(program);
+                        } finally {
+                            portLock.unlock();
                         }
-                    } else if ( cmdKey.equals(CMD_CONFIGURATION) ) {
-                        LOG.info("Configuration");
-                    } else if ( cmdKey.equals(CMD_UPDATE) ) {
-                        LOG.info("Firmware updated not necessary and not supported!");// LOG and go to abort
-                    } else if ( cmdKey.equals(CMD_ABORT) ) {
-                        throw new RuntimeException("Unexpected response from server");
+                    } else {
+                        LOG.info("The board on {} is being flashed by the mass flasher, skipping the upload", this.portName);
+                        fire(State.ERROR_DOWNLOAD);
                     }
-                } catch ( RuntimeException | IOException r ) {
-                    LOG.info("WAIT_FOR_CMD {}", r.getMessage());
-                    reset(State.ERROR_HTTP);
+                } catch ( IOException io ) {
+                    LOG.info("Download and run failed: {}", io.getMessage());
+                    LOG.info("Do not give up yet - make the next push request");
+                    setState(State.WAIT_FOR_CMD);
                 }
-                break;
-            default:
-                break;
+            } else if ( cmdKey.equals(CMD_CONFIGURATION) ) {
+                LOG.info("Configuration");
+            } else if ( cmdKey.equals(CMD_UPDATE) ) {
+                LOG.info("Firmware updated not necessary and not supported!");// LOG and go to abort
+            } else if ( cmdKey.equals(CMD_ABORT) ) {
+                throw new RuntimeException("Unexpected response from server");
+            }
+            step();
+        } catch ( RuntimeException r ) {
+            LOG.info("WAIT_FOR_CMD {}", r.getMessage());
+            reset(State.ERROR_HTTP);
         }
     }
 
+    private void upload(BinaryDownload program) {
+        setState(State.WAIT_UPLOAD);
+        fire(getState());
+        String sha256 = program.getSha256();
+        // the history is keyed by the serial number of the board, a board swapped on the same port is not skipped
+        if ( this.skipIdenticalUpload
+            && FlashHistory.isUploaded(this.portName, sha256)
+            && this.arduinoCommunicator.resetBoard(this.portName) ) {
+            LOG.info("Identical program {} is already on the board, skipping upload", sha256);
+        } else if ( this.arduinoCommunicator.uploadFile(this.portName, program.getFile().getAbsolutePath()) ) {
+            FlashHistory.uploaded(this.portName, sha256);
+        } else {
+            FlashHistory.invalidate(this.portName);
+        }
+        this.runTimer.lap(Phase.UPLOAD);
+        setState(State.WAIT_EXECUTION);
+        fire(getState());
+        finishRun(this.type.toString());
+    }
+
+    public ArduinoType getType() {
+        return this.type;
+    }
+
     public String getPortName() {
         return this.portName;
     }
@@ -15,10 +15,11 @@ import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -29,17 +30,15 @@ import static de.fhg.iais.roberta.util.ArduinoIdFileHelper.load;
 public class ArduinoDetector implements IDetector {
     private static final Logger LOG = LoggerFactory.getLogger(ArduinoDetector.class);
 
-    private Map<SerialDevice, ArduinoType> supportedRobots;
-    private Map<Integer, String> readIdFileErrors;
+    // the line that starts the block of a USB device, e.g. +-o Arduino Uno@14200000  <class IOUSBHostDevice, id 0x1000011ab, ...>
+    private static final Pattern IOREG_DEVICE_PATTERN = Pattern.compile("(?m)^[ |]*\\+-o .*<class IOUSBHostDevice,.*$");
+
+    private Map<SerialDevice, ArduinoType> supportedRobots = Collections.emptyMap();
+    private Map<Integer, String> readIdFileErrors = null; // the id file is read by every detection, or when the errors are requested before
 
     private ArduinoType type = ArduinoType.NONE;
     private String portName = null;
-
-    public ArduinoDetector() {
-        Pair<Map<SerialDevice, ArduinoType>, Map<Integer, String>> loadIdsResult = load();
-        this.supportedRobots = loadIdsResult.getFirst();
-        this.readIdFileErrors = loadIdsResult.getSecond();
-    }
+    private Map<String, ArduinoType> detectedArduinos = new LinkedHashMap<>();
 
     @Override
     public Robot getRobot() {
@@ -54,32 +53,59 @@ public class ArduinoDetector implements IDetector {
         return this.portName;
     }
 
+    /**
+     * @return all supported boards found by the last detection, port name to arduino type
+     */
+    public Map<String, ArduinoType> getDetectedArduinos() {
+        return new LinkedHashMap<>(this.detectedArduinos);
+    }
+
+    /**
+     * @return the errors of the id file read by the last detection, line number to message key
+     */
     public Map<Integer, String> getReadIdFileErrors() {
+        if ( this.readIdFileErrors == null ) {
+            loadIdFile();
+        }
         return new HashMap<>(this.readIdFileErrors);
     }
 
     @Override
     public boolean detectRobot() {
-        Pair<Map<SerialDevice, ArduinoType>, Map<Integer, String>> loadIdsResult = load();
-        this.supportedRobots = loadIdsResult.getFirst();
-        this.readIdFileErrors = loadIdsResult.getSecond();
+        loadIdFile();
 
         List<SerialDevice> devices = getUsbDevices();
 
-        // TODO currently only returns the first arduino
+        // the first arduino is used if only one connector is run, all of them are kept for the supervisor
+        Map<String, ArduinoType> arduinos = new LinkedHashMap<>();
+        Map<String, String> serialNumbers = new HashMap<>();
         for ( SerialDevice device : devices ) {
             ArduinoType arduinoType = this.supportedRobots.get(device);
 
             if (arduinoType != null) {
-                this.type = arduinoType;
-                this.portName = device.port;
-                break;
+                arduinos.putIfAbsent(device.port, arduinoType);
+                serialNumbers.putIfAbsent(device.port, device.serialNumber);
             }
         }
+        FlashHistory.detected(serialNumbers);
+        this.detectedArduinos = arduinos;
+
+        this.type = ArduinoType.NONE;
+        this.portName = null;
+        arduinos.entrySet().stream().findFirst().ifPresent(entry -> {
+            this.type = entry.getValue();
+            this.portName = entry.getKey();
+        });
 
         return this.type != ArduinoType.NONE;
     }
 
+    private void loadIdFile() {
+        Pair<Map<SerialDevice, ArduinoType>, Map<Integer, String>> loadIdsResult = load();
+        this.supportedRobots = loadIdsResult.getFirst();
+        this.readIdFileErrors = loadIdsResult.getSecond();
+    }
+
     public static List<SerialDevice> getUsbDevices() {
         if ( SystemUtils.IS_OS_LINUX ) {
             LOG.debug("Linux detected");
@@ -96,12 +122,17 @@ public class ArduinoDetector implements IDetector {
 
     private static List<SerialDevice> getUsbDevicesLinux() {
         List<SerialDevice> devices = new ArrayList<>();
-        File devicesDir = new File("/sys/bus/usb/devices");
+        File[] deviceDirs = new File("/sys/bus/usb/devices").listFiles();
+        if ( deviceDirs == null ) {
+            // e.g. in a container without usb
+            return devices;
+        }
 
         // check every usb device
-        for ( File deviceDir : Objects.requireNonNull(devicesDir.listFiles()) ) {
+        for ( File deviceDir : deviceDirs ) {
             File idVendorFile = new File(deviceDir, "idVendor");
             File idProductFile = new File(deviceDir, "idProduct");
+            File serialFile = new File(deviceDir, "serial");
 
             // if the id files exist check the content
             if ( idVendorFile.exists() && idProductFile.exists() ) {
@@ -127,7 +158,13 @@ public class ArduinoDetector implements IDetector {
                     }
 
                     if (port[0] != null) {
-                        devices.add(new SerialDevice(idVendor, idProduct, port[0], ""));
+                        String serialNumber = "";
+                        if ( serialFile.exists() ) {
+                            try (Stream<String> serialLines = Files.lines(serialFile.toPath())) {
+                                serialNumber = serialLines.findFirst().orElse("");
+                            }
+                        }
+                        devices.add(new SerialDevice(idVendor, idProduct, port[0], "", serialNumber));
                     }
 
                 } catch ( IOException e ) {
@@ -156,15 +193,18 @@ public class ArduinoDetector implements IDetector {
                 // Also read the error stream to avoid hanging
                 String errors = errReader.lines().collect(Collectors.joining("\n"));
 
-                Matcher matcher = Pattern.compile("DeviceID\\s*:.*\\\\VID_(\\w{4}).PID_(\\w{4}).*\\nName\\s*: (.*)\\((COM\\d*)\\)").matcher(result);
+                // the instance id after the product id is the serial number, unless windows generated it, then it contains &
+                Matcher matcher =
+                    Pattern.compile("DeviceID\\s*:.*\\\\VID_(\\w{4}).PID_(\\w{4})(?:\\\\([^&\\s]+)(?=\\s))?.*\\nName\\s*: (.*)\\((COM\\d*)\\)").matcher(result);
 
                 while ( matcher.find() ) {
                     String idVendor = matcher.group(1);
                     String idProduct = matcher.group(2);
-                    String name = matcher.group(3);
-                    String port = matcher.group(4);
+                    String serialNumber = (matcher.group(3) == null) ? "" : matcher.group(3);
+                    String name = matcher.group(4);
+                    String port = matcher.group(5);
 
-                    devices.add(new SerialDevice(idVendor, idProduct, port, name));
+                    devices.add(new SerialDevice(idVendor, idProduct, port, name, serialNumber));
                 }
             }
             pr.waitFor();
@@ -175,42 +215,54 @@ public class ArduinoDetector implements IDetector {
     }
 
     private static List<SerialDevice> getUsbDevicesMacOSX() {
-        List<SerialDevice> devices = new ArrayList<>();
         try {
             Runtime rt = Runtime.getRuntime();
             String[] commands = {
-                "/bin/sh",
+                "ioreg",
+                "-r",
                 "-c",
-                "ioreg -r -c IOUSBHostDevice -l | grep -B30 IOTTYDevice"
+                "IOUSBHostDevice",
+                "-l"
             };
             Process pr = rt.exec(commands);
 
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(pr.getInputStream()))) {
-                String result = reader.lines().collect(Collectors.joining("\n"));
-
-                Matcher idVendorMatcher = Pattern.compile("\"idVendor\" = (\\d*)").matcher(result);
-                Matcher idProductMatcher = Pattern.compile("\"idProduct\" = (\\d*)").matcher(result);
-                Matcher ttyMatcher = Pattern.compile("\"IOTTYDevice\" = \"(.*)\"").matcher(result);
-                Matcher nameMatcher = Pattern.compile("\"Product Name\" = \"(.*)\"").matcher(result);
-
-                while (idVendorMatcher.find() && idProductMatcher.find() && ttyMatcher.find()) {
-                    String idVendorDec = idVendorMatcher.group(1);
-                    String idProductDec = idProductMatcher.group(1);
-                    String tty = "tty." + ttyMatcher.group(1);
-
-                    String name = "";
-                    if (nameMatcher.find()) {
-                        name = nameMatcher.group(1);
-                    }
-                    String idVendor = String.format("%04X", Integer.valueOf(idVendorDec));
-                    String idProduct = String.format("%04X", Integer.valueOf(idProductDec));
-
-                    devices.add(new SerialDevice(idVendor, idProduct, tty, name));
-                }
+                return parseIoreg(reader.lines().collect(Collectors.joining("\n")));
             }
         } catch ( IOException e ) {
             LOG.error("Something went wrong while trying to get ioreg output: {}", e.getMessage());
         }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Parses the devices from the output of ioreg -r -c IOUSBHostDevice -l. Every USB device starts a block with its properties, followed by its
+     * interfaces and the tty of its serial driver. The properties are only searched in the block of their device, because not every device has a
+     * name or a serial number.
+     *
+     * @param output the output of ioreg
+     * @return the devices that have a tty
+     */
+    static List<SerialDevice> parseIoreg(String output) {
+        List<SerialDevice> devices = new ArrayList<>();
+        for ( String block : IOREG_DEVICE_PATTERN.split(output) ) {
+            Matcher ttyMatcher = Pattern.compile("\"IOTTYDevice\" = \"(.*)\"").matcher(block);
+            Matcher idVendorMatcher = Pattern.compile("\"idVendor\" = (\\d+)").matcher(block);
+            Matcher idProductMatcher = Pattern.compile("\"idProduct\" = (\\d+)").matcher(block);
+            if ( !ttyMatcher.find() || !idVendorMatcher.find() || !idProductMatcher.find() ) {
+                continue;
+            }
+            Matcher nameMatcher = Pattern.compile("\"Product Name\" = \"(.*)\"").matcher(block);
+            Matcher serialMatcher = Pattern.compile("\"USB Serial Number\" = \"(.*)\"").matcher(block);
+
+            String tty = "tty." + ttyMatcher.group(1);
+            String name = nameMatcher.find() ? nameMatcher.group(1) : "";
+            String serialNumber = serialMatcher.find() ? serialMatcher.group(1) : "";
+            String idVendor = String.format("%04X", Integer.valueOf(idVendorMatcher.group(1)));
+            String idProduct = String.format("%04X", Integer.valueOf(idProductMatcher.group(1)));
+
+            devices.add(new SerialDevice(idVendor, idProduct, tty, name, serialNumber));
+        }
         return devices;
     }
 }
@@ -0,0 +1,147 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs one {@link ArduinoConnector} per attached board. Every connector registers with its own token.
+ * The connectors are driven by the thread pool shared by all connectors, at most {@code maxConnectors} run at a time. A stopped connector keeps its
+ * slot until it finished the event it was processing, e.g. an upload. Boards beyond the limit are ignored until a slot is free.
+ */
+public class ArduinoSupervisor {
+    private static final Logger LOG = LoggerFactory.getLogger(ArduinoSupervisor.class);
+
+    private static final long STOP_GRACE = 100L;
+
+    private final int maxConnectors;
+    private final Consumer<ArduinoConnector> initializer;
+
+    private final Map<String, ArduinoConnector> connectors = new LinkedHashMap<>();
+    private final List<ArduinoConnector> stopping = new ArrayList<>();
+
+    /**
+     * @param maxConnectors the maximum number of connectors that run at the same time
+     */
+    public ArduinoSupervisor(int maxConnectors) {
+        this(maxConnectors, connector -> {
+        });
+    }
+
+    /**
+     * @param maxConnectors the maximum number of connectors that run at the same time
+     * @param initializer called with every new connector before it is started, e.g. to register a listener that must not miss the first state
+     */
+    public ArduinoSupervisor(int maxConnectors, Consumer<ArduinoConnector> initializer) {
+        this.maxConnectors = maxConnectors;
+        this.initializer = initializer;
+    }
+
+    /**
+     * Synchronises the running connectors with the currently attached boards. Connectors are started for new boards and stopped for boards that
+     * disappeared or whose type changed.
+     *
+     * @param boards the attached boards, port name to arduino type
+     * @return the connectors that were started and the connectors that were stopped
+     */
+    public Pair<List<ArduinoConnector>, List<ArduinoConnector>> update(Map<String, ArduinoType> boards) {
+        List<ArduinoConnector> stopped = new ArrayList<>();
+        Iterator<Entry<String, ArduinoConnector>> iterator = this.connectors.entrySet().iterator();
+        while ( iterator.hasNext() ) {
+            Entry<String, ArduinoConnector> entry = iterator.next();
+            if ( boards.get(entry.getKey()) != entry.getValue().getType() ) {
+                LOG.info("Board on {} disappeared, stopping its connector", entry.getKey());
+                stop(entry.getValue());
+                this.stopping.add(entry.getValue());
+                iterator.remove();
+                stopped.add(entry.getValue());
+            }
+        }
+        awaitStopping();
+
+        List<ArduinoConnector> started = new ArrayList<>();
+        for ( Entry<String, ArduinoType> board : boards.entrySet() ) {
+            if ( this.connectors.containsKey(board.getKey()) ) {
+                continue;
+            }
+            if ( getUsedSlots() >= this.maxConnectors ) {
+                LOG.warn("Already running {} connectors, ignoring board on {}", this.maxConnectors, board.getKey());
+                continue;
+            }
+            LOG.info("Found {} on {}, starting its connector", board.getValue(), board.getKey());
+            ArduinoConnector connector = new ArduinoConnector(board.getValue(), board.getKey());
+            this.initializer.accept(connector);
+            this.connectors.put(board.getKey(), connector);
+            connector.start();
+            started.add(connector);
+        }
+        return new Pair<>(started, stopped);
+    }
+
+    /**
+     * Takes over a connector that already runs, e.g. the one of the only board when another board is attached. The connector keeps its token and
+     * its registration at the server. The initializer is not called, the listeners of the connector are already registered.
+     *
+     * @param connector the running connector
+     */
+    public void adopt(ArduinoConnector connector) {
+        LOG.info("Taking over the connector of {}", connector.getPortName());
+        this.connectors.put(connector.getPortName(), connector);
+    }
+
+    /**
+     * @return the currently running connectors
+     */
+    public Collection<ArduinoConnector> getConnectors() {
+        return new ArrayList<>(this.connectors.values());
+    }
+
+    /**
+     * @return whether no connector is running
+     */
+    public boolean isEmpty() {
+        return this.connectors.isEmpty();
+    }
+
+    /**
+     * Stops all connectors.
+     */
+    public void shutdown() {
+        this.connectors.values().forEach(ArduinoSupervisor::stop);
+        this.connectors.clear();
+        this.stopping.clear();
+    }
+
+    // a connector that only waited terminates right away and frees its slot for a board on the same port, one in an upload keeps it a while
+    private void awaitStopping() {
+        long deadline = System.currentTimeMillis() + STOP_GRACE;
+        try {
+            for ( ArduinoConnector connector : this.stopping ) {
+                connector.awaitTermination(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int getUsedSlots() {
+        this.stopping.removeIf(ArduinoConnector::isTerminated);
+        return this.connectors.size() + this.stopping.size();
+    }
+
+    // the connector stops after the event it might be processing, later events are dropped
+    private static void stop(ArduinoConnector connector) {
+        connector.close();
+        connector.interrupt();
+    }
+}
@@ -0,0 +1,31 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+/**
+ * The microcontrollers that are programmed through their bootloader, with the values avrdude.conf defines for them.
+ */
+enum AvrPart {
+    ATMEGA328P(new byte[] { 0x1E, (byte) 0x95, 0x0F }, 128, 32 * 1024),
+    ATMEGA2560(new byte[] { 0x1E, (byte) 0x98, 0x01 }, 256, 256 * 1024);
+
+    private final byte[] signature;
+    private final int pageSize;
+    private final int flashSize;
+
+    AvrPart(byte[] signature, int pageSize, int flashSize) {
+        this.signature = signature;
+        this.pageSize = pageSize;
+        this.flashSize = flashSize;
+    }
+
+    byte[] getSignature() {
+        return this.signature.clone();
+    }
+
+    int getPageSize() {
+        return this.pageSize;
+    }
+
+    int getFlashSize() {
+        return this.flashSize;
+    }
+}
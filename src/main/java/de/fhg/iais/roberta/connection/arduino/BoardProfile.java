@@ -0,0 +1,136 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The upload parameters of one board type, one line of the profile file. Several profiles can exist for a type, e.g. a careful default and a fast
+ * one.
+ */
+final class BoardProfile {
+    static final String PROGRAMMER_ARDUINO = "arduino";
+    static final String PROGRAMMER_WIRING = "wiring";
+
+    /**
+     * How the flash is checked after writing.
+     */
+    enum Verify {
+        /** every written page is read back */
+        FULL,
+        /** only the first and the last page of the program are read back, they differ between most programs */
+        SAMPLE
+    }
+
+    private final ArduinoType type;
+    private final String name;
+    private final String part;
+    private final String programmer;
+    private final int baudRate;
+    private final long resetPulse;
+    private final long resetWait;
+    private final boolean erase;
+    private final Verify verify;
+    private final int verbosity;
+
+    /**
+     * @param type the board type
+     * @param name the name of the profile
+     * @param part the avrdude name of the chip, e.g. atmega328p
+     * @param programmer the avrdude name of the programmer, e.g. arduino
+     * @param baudRate the baud rate of the bootloader, 0 for the default of the avrdude programmer
+     * @param resetPulse how long DTR is held low to reset the board, in ms
+     * @param resetWait how long to wait for the bootloader after the reset, in ms
+     * @param erase whether the whole chip is erased before writing, the bootloaders erase every page they write anyway
+     * @param verify how the flash is checked after writing
+     * @param verbosity how many -v avrdude gets, 0 for -q
+     */
+    BoardProfile(ArduinoType type, String name, String part, String programmer, int baudRate, long resetPulse, long resetWait, boolean erase,
+        Verify verify, int verbosity) {
+        this.type = type;
+        this.name = name;
+        this.part = part;
+        this.programmer = programmer;
+        this.baudRate = baudRate;
+        this.resetPulse = resetPulse;
+        this.resetWait = resetWait;
+        this.erase = erase;
+        this.verify = verify;
+        this.verbosity = verbosity;
+    }
+
+    ArduinoType getType() {
+        return this.type;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    String getPart() {
+        return this.part;
+    }
+
+    String getProgrammer() {
+        return this.programmer;
+    }
+
+    int getBaudRate() {
+        return this.baudRate;
+    }
+
+    long getResetPulse() {
+        return this.resetPulse;
+    }
+
+    long getResetWait() {
+        return this.resetWait;
+    }
+
+    boolean isErase() {
+        return this.erase;
+    }
+
+    Verify getVerify() {
+        return this.verify;
+    }
+
+    int getVerbosity() {
+        return this.verbosity;
+    }
+
+    /**
+     * @return whether the board has a bootloader that is reset by DTR and can be programmed without avrdude
+     */
+    boolean hasBootloader() {
+        return (PROGRAMMER_ARDUINO.equals(this.programmer) || PROGRAMMER_WIRING.equals(this.programmer)) && (getAvrPart() != null);
+    }
+
+    /**
+     * @param link the opened link to the board
+     * @return the programmer for the bootloader of the board
+     * @throws IOException if the board has no bootloader that can be programmed without avrdude
+     */
+    AbstractProgrammer createProgrammer(ISerialLink link) throws IOException {
+        if ( !hasBootloader() ) {
+            throw new IOException("No bootloader programmer for " + this);
+        }
+        AbstractProgrammer programmer =
+            PROGRAMMER_WIRING.equals(this.programmer) ? new Stk500v2Programmer(link, getAvrPart()) : new Stk500v1Programmer(link, getAvrPart());
+        programmer.setVerify(this.verify);
+        return programmer;
+    }
+
+    private AvrPart getAvrPart() {
+        for ( AvrPart avrPart : AvrPart.values() ) {
+            if ( avrPart.name().toLowerCase(Locale.ENGLISH).equals(this.part) ) {
+                return avrPart;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return this.type + "/" + this.name;
+    }
+}
@@ -0,0 +1,187 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.LatencyHistogram;
+import de.fhg.iais.roberta.connection.arduino.BoardProfile.Verify;
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The upload profiles of all board types. The profiles are read from arduino-profiles.txt, a file in the OpenRobertaUSB directory of the user
+ * overrides the bundled profiles with the same type and name. The upload times are recorded per profile, so the profiles can be compared.
+ */
+final class BoardProfiles {
+    private static final Logger LOG = LoggerFactory.getLogger(BoardProfiles.class);
+
+    static final String DEFAULT = "default";
+
+    private static final int DEFAULT_VERBOSITY = 1;
+
+    private static final String PROFILE_FILENAME = "arduino-profiles.txt";
+    private static final String PROFILE_FILEPATH = SystemUtils.getUserHome().getPath() + File.separator + "OpenRobertaUSB" + File.separator + PROFILE_FILENAME;
+
+    private static final String SELECTED = selected(PropertyHelper.getInstance().getProperty("arduinoUploadProfile"));
+
+    private static final Map<String, LatencyHistogram> UPLOAD_TIMES = new ConcurrentHashMap<>();
+
+    private BoardProfiles() {
+    }
+
+    // read when the first profile is needed
+    private static class ProfilesHolder {
+        private static final Map<String, BoardProfile> PROFILES = loadProfiles();
+    }
+
+    /**
+     * @param type the board type
+     * @return the profile selected by the property arduinoUploadProfile, the default profile if the type has no such profile
+     * @throws IllegalStateException if neither the type nor the Uno have a default profile
+     */
+    static BoardProfile get(ArduinoType type) {
+        BoardProfile profile = get(type, SELECTED);
+        if ( profile == null ) {
+            profile = get(type, DEFAULT);
+        }
+        if ( profile == null ) {
+            // like avrdude was called for unknown boards before there were profiles
+            LOG.warn("No upload profile for {}, using the one of the Uno", type);
+            profile = get(ArduinoType.UNO, DEFAULT);
+        }
+        if ( profile == null ) {
+            throw new IllegalStateException("No default upload profile for the Uno in " + PROFILE_FILENAME);
+        }
+        return profile;
+    }
+
+    /**
+     * @param type the board type
+     * @param name the name of the profile
+     * @return the profile, null if it does not exist
+     */
+    static BoardProfile get(ArduinoType type, String name) {
+        return ProfilesHolder.PROFILES.get(key(type, name));
+    }
+
+    /**
+     * @param key the profile and how it was uploaded, e.g. uno/fast or uno/fast avrdude
+     * @param millis the time of a successful upload
+     */
+    static void recordUpload(String key, long millis) {
+        LatencyHistogram uploadTimes = UPLOAD_TIMES.computeIfAbsent(key, k -> new LatencyHistogram());
+        uploadTimes.record(millis * 1000L);
+        LOG.info("Uploaded with {} in {} ms, median {} ms over {} uploads",
+            key,
+            millis,
+            uploadTimes.getValueAtPercentile(50.0) / 1000L,
+            uploadTimes.getCount());
+    }
+
+    /**
+     * @return the upload times in microseconds by profile and upload method, sorted by key
+     */
+    static Map<String, LatencyHistogram> getUploadTimes() {
+        return Collections.unmodifiableMap(new TreeMap<>(UPLOAD_TIMES));
+    }
+
+    /**
+     * @param inputStream the profile file
+     * @param errors line number to error for every line that was ignored
+     * @return the profiles by {@link #key(ArduinoType, String)}, in the order of the file
+     * @throws IOException if the file could not be read
+     */
+    static Map<String, BoardProfile> load(InputStream inputStream, Map<Integer, String> errors) throws IOException {
+        Map<String, BoardProfile> profiles = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String line;
+        int lineNr = 1;
+        while ( (line = reader.readLine()) != null ) {
+            line = line.trim();
+            if ( !line.isEmpty() && !line.startsWith("#") ) {
+                try {
+                    BoardProfile profile = parse(Arrays.asList(line.split(",")));
+                    profiles.put(key(profile.getType(), profile.getName()), profile);
+                } catch ( IllegalArgumentException e ) {
+                    errors.put(lineNr, e.getMessage());
+                }
+            }
+            lineNr++;
+        }
+        return profiles;
+    }
+
+    static String key(ArduinoType type, String name) {
+        return type + "/" + name;
+    }
+
+    // the verbosity was added later, profiles without it keep the single -v avrdude always got before
+    private static BoardProfile parse(List<String> values) {
+        if ( (values.size() != 9) && (values.size() != 10) ) {
+            throw new IllegalArgumentException("Expected 10 values but found " + values.size());
+        }
+        ArduinoType type = ArduinoType.fromString(values.get(0).trim());
+        String name = values.get(1).trim();
+        if ( name.isEmpty() ) {
+            throw new IllegalArgumentException("The profile has no name");
+        }
+        String verify = values.get(8).trim();
+        try {
+            return new BoardProfile(type,
+                name,
+                values.get(2).trim().toLowerCase(Locale.ENGLISH),
+                values.get(3).trim().toLowerCase(Locale.ENGLISH),
+                Integer.parseInt(values.get(4).trim()),
+                Long.parseLong(values.get(5).trim()),
+                Long.parseLong(values.get(6).trim()),
+                Boolean.parseBoolean(values.get(7).trim()),
+                Verify.valueOf(verify.toUpperCase(Locale.ENGLISH)),
+                (values.size() > 9) ? Integer.parseInt(values.get(9).trim()) : DEFAULT_VERBOSITY);
+        } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException("Not a number: " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, BoardProfile> loadProfiles() {
+        Map<String, BoardProfile> profiles = new LinkedHashMap<>();
+        try (InputStream inputStream = BoardProfiles.class.getClassLoader().getResourceAsStream(PROFILE_FILENAME)) {
+            profiles.putAll(load(inputStream, new LinkedHashMap<>()));
+        } catch ( IOException e ) {
+            LOG.error("Could not read the bundled {}: {}", PROFILE_FILENAME, e.getMessage());
+        }
+
+        File file = new File(PROFILE_FILEPATH);
+        if ( file.exists() ) {
+            Map<Integer, String> errors = new TreeMap<>();
+            try (InputStream inputStream = new FileInputStream(file)) {
+                profiles.putAll(load(inputStream, errors));
+            } catch ( IOException e ) {
+                LOG.error("Could not read {}: {}", PROFILE_FILEPATH, e.getMessage());
+            }
+            for ( Entry<Integer, String> error : errors.entrySet() ) {
+                LOG.error("Error in {}, line {}: {}", PROFILE_FILEPATH, error.getKey(), error.getValue());
+            }
+        }
+        return profiles;
+    }
+
+    private static String selected(String profile) {
+        return ((profile == null) || profile.trim().isEmpty()) ? DEFAULT : profile.trim();
+    }
+}
@@ -0,0 +1,95 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.util.PropertyHelper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the program that was last flashed to each board. Its checksum lets the connector skip uploading an identical program, its image lets the next
+ * upload only write the pages that changed. Boards are identified by their port and their USB serial number as seen by the last detection, so both
+ * are forgotten together when another board is connected to the port. Partial uploads can be disabled with the property arduinoDeltaUpload.
+ */
+final class FlashHistory {
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(PropertyHelper.getInstance().getProperty("arduinoDeltaUpload"));
+
+    private static final Map<String, String> SERIAL_NUMBERS = new ConcurrentHashMap<>();
+    private static final Map<String, FlashImage> FLASHED = new ConcurrentHashMap<>();
+    private static final Map<String, String> UPLOADED = new ConcurrentHashMap<>();
+
+    private FlashHistory() {
+    }
+
+    /**
+     * Called by the detection with all boards it found. A board without a serial number that was unplugged can not be recognized when it is plugged
+     * in again, so its image is forgotten.
+     *
+     * @param serialNumbers port to USB serial number, empty if the board has none
+     */
+    static void detected(Map<String, String> serialNumbers) {
+        for ( String port : SERIAL_NUMBERS.keySet() ) {
+            if ( !serialNumbers.containsKey(port) ) {
+                FLASHED.remove(key(port, ""));
+                UPLOADED.remove(key(port, ""));
+                SERIAL_NUMBERS.remove(port);
+            }
+        }
+        SERIAL_NUMBERS.putAll(serialNumbers);
+    }
+
+    /**
+     * @param port the port of the board
+     * @return the image that was last flashed to the board that is connected to the port, null if it is not known or partial uploads are disabled
+     */
+    static FlashImage getFlashed(String port) {
+        return ENABLED ? FLASHED.get(key(port)) : null;
+    }
+
+    /**
+     * Remembers the image as the content of the flash of the board that is connected to the port.
+     */
+    static void flashed(String port, FlashImage image) {
+        FLASHED.put(key(port), image);
+    }
+
+    /**
+     * @param port the port of the board
+     * @param sha256 the checksum of the HEX file that should be uploaded
+     * @return whether exactly this HEX file was the last one uploaded successfully to the board that is connected to the port
+     */
+    static boolean isUploaded(String port, String sha256) {
+        return sha256.equals(UPLOADED.get(key(port)));
+    }
+
+    /**
+     * Remembers the checksum of the HEX file that was uploaded successfully to the board that is connected to the port, by the bootloader or by
+     * avrdude.
+     */
+    static void uploaded(String port, String sha256) {
+        UPLOADED.put(key(port), sha256);
+    }
+
+    /**
+     * Forgets the checksum of the HEX file that was uploaded to the board that is connected to the port, so the next program is uploaded even if it
+     * is identical. The image is kept, a partial upload reads the flash back and falls back to writing all pages.
+     */
+    static void invalidateUpload(String port) {
+        UPLOADED.remove(key(port));
+    }
+
+    /**
+     * Forgets the program of the board that is connected to the port, e.g. because an upload failed and the content of the flash is not known.
+     */
+    static void invalidate(String port) {
+        FLASHED.remove(key(port));
+        UPLOADED.remove(key(port));
+    }
+
+    private static String key(String port) {
+        return key(port, SERIAL_NUMBERS.getOrDefault(port, ""));
+    }
+
+    private static String key(String port, String serialNumber) {
+        return port + '/' + serialNumber;
+    }
+}
@@ -0,0 +1,77 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The program as it should be in the flash memory of the board. Bytes that are not part of the program read as 0xFF, the value of erased flash.
+ * Images are not modified after they are created.
+ */
+final class FlashImage {
+    static final byte ERASED = (byte) 0xFF;
+
+    private final byte[] data;
+    private final BitSet defined;
+
+    /**
+     * @param data the flash content from address 0
+     * @param defined the addresses that are part of the program, all other bytes are 0xFF
+     */
+    FlashImage(byte[] data, BitSet defined) {
+        this.data = data;
+        this.defined = defined;
+    }
+
+    /**
+     * @return the size of the image, the highest address of the program + 1
+     */
+    int size() {
+        return this.data.length;
+    }
+
+    /**
+     * @param address the first address of the page, a multiple of the page size
+     * @param pageSize the page size of the chip
+     * @return whether the page contains at least one byte of the program
+     */
+    boolean isPageUsed(int address, int pageSize) {
+        int next = this.defined.nextSetBit(address);
+        return (next >= 0) && (next < (address + pageSize));
+    }
+
+    /**
+     * @param previous the image that is in the flash, null if it is not known
+     * @param address the first address of the page, a multiple of the page size
+     * @param pageSize the page size of the chip
+     * @return whether the page is used and has to be written, because it differs from the page of the previous image or the previous image did not
+     *     use it, so the flash might contain anything there
+     */
+    boolean isPageChanged(FlashImage previous, int address, int pageSize) {
+        if ( !isPageUsed(address, pageSize) ) {
+            return false;
+        }
+        return (previous == null) || !previous.isPageUsed(address, pageSize) || !Arrays.equals(getPage(address, pageSize), previous.getPage(address, pageSize));
+    }
+
+    /**
+     * @param address the first address of the page
+     * @param pageSize the page size of the chip
+     * @return the page, padded with 0xFF beyond the end of the image
+     */
+    byte[] getPage(int address, int pageSize) {
+        byte[] page = new byte[pageSize];
+        Arrays.fill(page, ERASED);
+        if ( address < this.data.length ) {
+            System.arraycopy(this.data, address, page, 0, Math.min(pageSize, this.data.length - address));
+        }
+        return page;
+    }
+
+    /**
+     * @param pageSize the page size of the chip
+     * @return the number of pages from address 0 up to the end of the image
+     */
+    int getPageCount(int pageSize) {
+        return (this.data.length + pageSize - 1) / pageSize;
+    }
+}
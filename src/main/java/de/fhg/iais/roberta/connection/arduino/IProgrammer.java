@@ -0,0 +1,26 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.IOException;
+
+/**
+ * Writes a program into the flash of a board through its bootloader, without avrdude.
+ */
+interface IProgrammer {
+    /**
+     * Resets the board, writes every page that contains a part of the image, verifies it and starts the program.
+     *
+     * @param image the program
+     * @throws IOException if the bootloader did not answer as expected or the verification failed
+     */
+    void program(FlashImage image) throws IOException;
+
+    /**
+     * Like {@link #program(FlashImage)}, but only the pages that differ from the image that is already in the flash are written.
+     *
+     * @param image the program
+     * @param previous the image that was flashed last, null if it is not known
+     * @throws IOException if the bootloader did not answer as expected or the verification failed, e.g. because the flash did not contain the
+     *     previous image
+     */
+    void program(FlashImage image, FlashImage previous) throws IOException;
+}
@@ -0,0 +1,31 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The serial connection to the bootloader of a board.
+ */
+interface ISerialLink extends Closeable {
+    /**
+     * Resets the board into its bootloader and discards everything received before.
+     *
+     * @throws IOException if the board could not be reset
+     */
+    void resetBoard() throws IOException;
+
+    /**
+     * @param data the bytes to send
+     * @throws IOException if the bytes could not be sent
+     */
+    void write(byte[] data) throws IOException;
+
+    /**
+     * Reads exactly the given number of bytes.
+     *
+     * @param length the number of bytes
+     * @return the bytes
+     * @throws IOException if the bytes did not arrive in time
+     */
+    byte[] read(int length) throws IOException;
+}
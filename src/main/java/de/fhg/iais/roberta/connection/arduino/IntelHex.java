@@ -0,0 +1,125 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Parser for the Intel HEX files compiled by the server. Data, end of file and the extended segment and linear address records are supported, start
+ * address records are ignored because the bootloader always jumps to address 0.
+ */
+final class IntelHex {
+    static final int MAX_SIZE = 256 * 1024; // the flash of the biggest supported chip, the atmega2560
+
+    private static final int DATA = 0x00;
+    private static final int END_OF_FILE = 0x01;
+    private static final int EXTENDED_SEGMENT_ADDRESS = 0x02;
+    private static final int START_SEGMENT_ADDRESS = 0x03;
+    private static final int EXTENDED_LINEAR_ADDRESS = 0x04;
+    private static final int START_LINEAR_ADDRESS = 0x05;
+
+    private IntelHex() {
+    }
+
+    static FlashImage parse(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return parse(inputStream);
+        }
+    }
+
+    /**
+     * @param inputStream the HEX file
+     * @return the image described by the file
+     * @throws IOException if the file could not be read or is not a valid HEX file
+     */
+    static FlashImage parse(InputStream inputStream) throws IOException {
+        byte[] data = new byte[MAX_SIZE];
+        Arrays.fill(data, FlashImage.ERASED);
+        BitSet defined = new BitSet();
+        int size = 0;
+        int baseAddress = 0;
+        boolean endOfFile = false;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII));
+        String line;
+        int lineNr = 0;
+        while ( !endOfFile && ((line = reader.readLine()) != null) ) {
+            lineNr++;
+            line = line.trim();
+            if ( line.isEmpty() ) {
+                continue;
+            }
+            byte[] record = decodeRecord(line, lineNr);
+            int length = record[0] & 0xFF;
+            int offset = ((record[1] & 0xFF) << 8) | (record[2] & 0xFF);
+            int type = record[3] & 0xFF;
+            switch ( type ) {
+                case DATA:
+                    int address = baseAddress + offset;
+                    if ( (address + length) > MAX_SIZE ) {
+                        throw new IOException("Line " + lineNr + ": address " + Integer.toHexString(address + length) + " is beyond the flash");
+                    }
+                    System.arraycopy(record, 4, data, address, length);
+                    defined.set(address, address + length);
+                    size = Math.max(size, address + length);
+                    break;
+                case END_OF_FILE:
+                    endOfFile = true;
+                    break;
+                case EXTENDED_SEGMENT_ADDRESS:
+                    baseAddress = getAddress(record, lineNr) << 4;
+                    break;
+                case EXTENDED_LINEAR_ADDRESS:
+                    baseAddress = getAddress(record, lineNr) << 16;
+                    break;
+                case START_SEGMENT_ADDRESS:
+                case START_LINEAR_ADDRESS:
+                    break;
+                default:
+                    throw new IOException("Line " + lineNr + ": unknown record type " + type);
+            }
+        }
+        if ( !endOfFile ) {
+            throw new IOException("HEX file has no end of file record");
+        }
+        return new FlashImage(Arrays.copyOf(data, size), defined);
+    }
+
+    private static int getAddress(byte[] record, int lineNr) throws IOException {
+        if ( (record[0] & 0xFF) != 2 ) {
+            throw new IOException("Line " + lineNr + ": address records have two bytes of data");
+        }
+        return ((record[4] & 0xFF) << 8) | (record[5] & 0xFF);
+    }
+
+    // returns length, address, type, data and checksum of the record
+    private static byte[] decodeRecord(String line, int lineNr) throws IOException {
+        if ( (line.charAt(0) != ':') || ((line.length() % 2) == 0) || (line.length() < 11) ) {
+            throw new IOException("Line " + lineNr + " is not a HEX record");
+        }
+        byte[] record = new byte[(line.length() - 1) / 2];
+        int checksum = 0;
+        for ( int i = 0; i < record.length; i++ ) {
+            int high = Character.digit(line.charAt((2 * i) + 1), 16);
+            int low = Character.digit(line.charAt((2 * i) + 2), 16);
+            if ( (high < 0) || (low < 0) ) {
+                throw new IOException("Line " + lineNr + " contains invalid characters");
+            }
+            record[i] = (byte) ((high << 4) | low);
+            checksum += record[i];
+        }
+        if ( (record[0] & 0xFF) != (record.length - 5) ) {
+            throw new IOException("Line " + lineNr + " has the wrong length");
+        }
+        if ( (checksum & 0xFF) != 0 ) {
+            throw new IOException("Line " + lineNr + " has a wrong checksum");
+        }
+        return record;
+    }
+}
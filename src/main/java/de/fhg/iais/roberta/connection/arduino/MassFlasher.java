@@ -0,0 +1,239 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.util.IOraListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Flashes one HEX file to several boards at the same time, e.g. to put the same program on all boards of a classroom. The file is parsed once, the
+ * workers share the image and only read it. Every board gets its own worker up to the given maximum, a worker mostly waits for its bootloader and the
+ * boards use only a small part of the bandwidth of a USB hub.
+ */
+public class MassFlasher {
+    private static final Logger LOG = LoggerFactory.getLogger(MassFlasher.class);
+
+    private final int maxWorkers;
+    private final BiFunction<String, ArduinoType, ArduinoCommunicator> communicators;
+
+    /**
+     * @param maxWorkers the maximum number of boards that are flashed at the same time
+     */
+    public MassFlasher(int maxWorkers) {
+        this(maxWorkers, (portName, type) -> new ArduinoCommunicator(type.getPrettyText(), type));
+    }
+
+    MassFlasher(int maxWorkers, BiFunction<String, ArduinoType, ArduinoCommunicator> communicators) {
+        this.maxWorkers = maxWorkers;
+        this.communicators = communicators;
+    }
+
+    /**
+     * A program only runs on the board type it was compiled for, so only boards of one type are flashed.
+     *
+     * @param detected the attached boards, port name to arduino type
+     * @param type the type of the boards that should be flashed, {@link ArduinoType#NONE} for the type of the first board
+     * @return the attached boards of the type
+     */
+    public static Map<String, ArduinoType> selectBoards(Map<String, ArduinoType> detected, ArduinoType type) {
+        ArduinoType selected = ((type == ArduinoType.NONE) && !detected.isEmpty()) ? detected.values().iterator().next() : type;
+        Map<String, ArduinoType> boards = new LinkedHashMap<>();
+        for ( Entry<String, ArduinoType> board : detected.entrySet() ) {
+            if ( board.getValue() == selected ) {
+                boards.put(board.getKey(), board.getValue());
+            } else {
+                LOG.info("Skipping {} on {}, only boards of type {} are flashed", board.getValue(), board.getKey(), selected);
+            }
+        }
+        return boards;
+    }
+
+    /**
+     * Flashes the HEX file to all boards and waits until every board is finished. A failed board does not stop the others. The ports are taken from
+     * the connectors meanwhile: an upload of a connector that is already running is finished first, and connectors that get a program while the
+     * boards are flashed skip the upload. Afterwards the connectors can use the ports again.
+     *
+     * @param hexFile the program
+     * @param boards the boards to flash, port name to arduino type
+     * @param listener called by the workers whenever the state of a board changes
+     * @return the results of all boards
+     * @throws IOException if the HEX file could not be read, then no board is flashed
+     * @throws InterruptedException if the thread was interrupted while waiting for the boards, the running uploads are interrupted as well
+     */
+    public Summary flash(Path hexFile, Map<String, ArduinoType> boards, IOraListener<BoardState> listener) throws IOException, InterruptedException {
+        FlashImage image = IntelHex.parse(hexFile);
+        String filePath = hexFile.toAbsolutePath().toString();
+
+        int workers = Math.max(1, Math.min(boards.size(), this.maxWorkers));
+        LOG.info("Flashing {} bytes to {} boards with {} workers", image.size(), boards.size(), workers);
+        List<Callable<BoardState>> tasks = new ArrayList<>();
+        for ( Entry<String, ArduinoType> board : boards.entrySet() ) {
+            listener.update(new BoardState(board.getKey(), board.getValue(), Status.QUEUED, 0, 0L));
+            tasks.add(() -> flashBoard(board.getKey(), board.getValue(), filePath, image, listener));
+        }
+
+        List<ReentrantLock> portLocks = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            for ( String portName : boards.keySet() ) {
+                ReentrantLock portLock = PortLocks.get(portName);
+                portLock.lockInterruptibly();
+                portLocks.add(portLock);
+            }
+            long start = System.nanoTime();
+            List<BoardState> results = new ArrayList<>();
+            for ( Future<BoardState> future : executorService.invokeAll(tasks) ) {
+                try {
+                    results.add(future.get());
+                } catch ( ExecutionException e ) {
+                    // flashBoard reports its own failures, this is a bug
+                    throw new IllegalStateException("Flashing a board failed unexpectedly", e.getCause());
+                }
+            }
+            Summary summary = new Summary(results, image.size(), millisSince(start), workers);
+            LOG.info("Flashed {} of {} boards in {} ms", summary.getSucceeded(), results.size(), summary.getMillis());
+            return summary;
+        } finally {
+            executorService.shutdownNow();
+            portLocks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    private BoardState flashBoard(String portName, ArduinoType type, String filePath, FlashImage image, IOraListener<BoardState> listener) {
+        long start = System.nanoTime();
+        int[] lastPercent = { 0 };
+        listener.update(new BoardState(portName, type, Status.FLASHING, 0, 0L));
+        boolean uploaded = this.communicators.apply(portName, type).uploadImage(portName, filePath, image, percent -> {
+            lastPercent[0] = percent;
+            listener.update(new BoardState(portName, type, Status.FLASHING, percent, millisSince(start)));
+        });
+        BoardState result = new BoardState(portName, type, uploaded ? Status.DONE : Status.FAILED, lastPercent[0], millisSince(start));
+        listener.update(result);
+        return result;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    public enum Status {
+        QUEUED, FLASHING, DONE, FAILED
+    }
+
+    /**
+     * The state of one board, immutable.
+     */
+    public static final class BoardState {
+        private final String portName;
+        private final ArduinoType type;
+        private final Status status;
+        private final int percent;
+        private final long millis;
+
+        BoardState(String portName, ArduinoType type, Status status, int percent, long millis) {
+            this.portName = portName;
+            this.type = type;
+            this.status = status;
+            this.percent = percent;
+            this.millis = millis;
+        }
+
+        public String getPortName() {
+            return this.portName;
+        }
+
+        public ArduinoType getType() {
+            return this.type;
+        }
+
+        public Status getStatus() {
+            return this.status;
+        }
+
+        /**
+         * @return the percentage of the upload that is done
+         */
+        public int getPercent() {
+            return this.percent;
+        }
+
+        /**
+         * @return the time since the worker started with the board, in ms
+         */
+        public long getMillis() {
+            return this.millis;
+        }
+    }
+
+    /**
+     * The results of all boards of a run.
+     */
+    public static final class Summary {
+        private final List<BoardState> results;
+        private final int imageSize;
+        private final long millis;
+        private final int workers;
+
+        Summary(List<BoardState> results, int imageSize, long millis, int workers) {
+            this.results = Collections.unmodifiableList(results);
+            this.imageSize = imageSize;
+            this.millis = millis;
+            this.workers = workers;
+        }
+
+        /**
+         * @return the final state of every board, in the order of the boards
+         */
+        public List<BoardState> getResults() {
+            return this.results;
+        }
+
+        public int getSucceeded() {
+            return (int) this.results.stream().filter(result -> result.getStatus() == Status.DONE).count();
+        }
+
+        public int getFailed() {
+            return this.results.size() - getSucceeded();
+        }
+
+        /**
+         * @return the size of the program, in bytes
+         */
+        public int getImageSize() {
+            return this.imageSize;
+        }
+
+        /**
+         * @return the time from the start of the first worker until the last board was finished, in ms
+         */
+        public long getMillis() {
+            return this.millis;
+        }
+
+        public int getWorkers() {
+            return this.workers;
+        }
+
+        /**
+         * @return the bytes of the program that were flashed to all successful boards together, per second of the whole run
+         */
+        public long getBytesPerSecond() {
+            return (this.millis == 0) ? 0 : (((long) this.imageSize * getSucceeded() * 1000L) / this.millis);
+        }
+    }
+}
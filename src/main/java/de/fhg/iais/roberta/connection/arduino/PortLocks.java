@@ -0,0 +1,24 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks of the ports the boards are attached to, so the mass flasher and the connectors never program the same board at the same time. The mass flasher
+ * holds the locks of its boards while it flashes them, a connector that gets a program meanwhile does not wait but skips the upload.
+ */
+final class PortLocks {
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private PortLocks() {
+    }
+
+    /**
+     * @param portName the port of the board
+     * @return the lock of the port, the same for every caller
+     */
+    static ReentrantLock get(String portName) {
+        return LOCKS.computeIfAbsent(portName, port -> new ReentrantLock());
+    }
+}
@@ -0,0 +1,130 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import com.fazecast.jSerialComm.SerialPort;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Serial link over the jSerialComm port of the board. The board is reset into its bootloader by pulsing DTR and RTS like avrdude does for the arduino
+ * and wiring programmers.
+ */
+final class SerialPortLink implements ISerialLink {
+    private static final Logger LOG = LoggerFactory.getLogger(SerialPortLink.class);
+
+    private static final int READ_TIMEOUT = 1000;
+    static final long ARDUINO_RESET_PULSE = 250L;
+    static final long WIRING_RESET_PULSE = 50L;
+    private static final long RESET_WAIT = 50L;
+    // jSerialComm sleeps a second after opening by default, the reset already waits for the board
+    private static final int OPEN_SAFETY_SLEEP = 0;
+
+    private final SerialPort serialPort;
+    private final long resetPulse;
+    private final long resetWait;
+
+    private SerialPortLink(SerialPort serialPort, long resetPulse, long resetWait) {
+        this.serialPort = serialPort;
+        this.resetPulse = resetPulse;
+        this.resetWait = resetWait;
+    }
+
+    /**
+     * @param portName the port name as found by the detection, e.g. ttyACM0 or COM3
+     * @param baudRate the baud rate of the bootloader
+     * @return the opened link
+     * @throws IOException if the port could not be opened
+     */
+    static SerialPortLink open(String portName, int baudRate) throws IOException {
+        return open(portName, baudRate, ARDUINO_RESET_PULSE);
+    }
+
+    /**
+     * @param portName the port name as found by the detection, e.g. ttyACM0 or COM3
+     * @param baudRate the baud rate of the bootloader
+     * @param resetPulse how long DTR and RTS are held low to reset the board, in ms
+     * @return the opened link
+     * @throws IOException if the port could not be opened
+     */
+    static SerialPortLink open(String portName, int baudRate, long resetPulse) throws IOException {
+        return open(portName, baudRate, resetPulse, RESET_WAIT);
+    }
+
+    /**
+     * @param portName the port name as found by the detection, e.g. ttyACM0 or COM3
+     * @param baudRate the baud rate of the bootloader
+     * @param resetPulse how long DTR and RTS are held low to reset the board, in ms
+     * @param resetWait how long to wait for the bootloader after the reset, in ms
+     * @return the opened link
+     * @throws IOException if the port could not be opened
+     */
+    static SerialPortLink open(String portName, int baudRate, long resetPulse, long resetWait) throws IOException {
+        String portPath = SystemUtils.IS_OS_WINDOWS ? portName : ("/dev/" + portName);
+        SerialPort serialPort;
+        try {
+            serialPort = SerialPort.getCommPort(portPath);
+        } catch ( RuntimeException e ) {
+            throw new IOException("Port " + portPath + " does not exist", e);
+        }
+        serialPort.setComPortParameters(baudRate, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+        serialPort.setFlowControl(SerialPort.FLOW_CONTROL_DISABLED);
+        serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, READ_TIMEOUT, 0);
+        if ( !serialPort.openPort(OPEN_SAFETY_SLEEP) ) {
+            throw new IOException("Could not open " + portPath);
+        }
+        LOG.debug("Opened {} with {} baud", portPath, baudRate);
+        return new SerialPortLink(serialPort, resetPulse, resetWait);
+    }
+
+    @Override
+    public void resetBoard() throws IOException {
+        // not every port supports the modem lines, e.g. a pty, the bootloader might still be running
+        this.serialPort.clearDTR();
+        this.serialPort.clearRTS();
+        sleep(this.resetPulse);
+        this.serialPort.setDTR();
+        this.serialPort.setRTS();
+        sleep(this.resetWait);
+        int available;
+        while ( (available = this.serialPort.bytesAvailable()) > 0 ) {
+            this.serialPort.readBytes(new byte[available], available);
+        }
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        if ( this.serialPort.writeBytes(data, data.length) != data.length ) {
+            throw new IOException("Could not write to " + this.serialPort.getSystemPortName());
+        }
+    }
+
+    @Override
+    public byte[] read(int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = this.serialPort.readBytes(data, length);
+        if ( read < 0 ) {
+            throw new IOException("Could not read from " + this.serialPort.getSystemPortName());
+        }
+        if ( read < length ) {
+            throw new IOException("Timeout, received " + read + " of " + length + " bytes");
+        }
+        return data;
+    }
+
+    @Override
+    public void close() {
+        this.serialPort.closePort();
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resetting the board");
+        }
+    }
+}
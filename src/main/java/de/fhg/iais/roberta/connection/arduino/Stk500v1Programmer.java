@@ -0,0 +1,111 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Programs boards with an Optiboot or ATmegaBOOT bootloader over the STK500 version 1 protocol, like avrdude -carduino. Every command is answered
+ * before the next one is sent, the bootloader can not receive while it writes a page.
+ */
+final class Stk500v1Programmer extends AbstractProgrammer {
+    private static final Logger LOG = LoggerFactory.getLogger(Stk500v1Programmer.class);
+
+    static final byte STK_OK = 0x10;
+    static final byte STK_INSYNC = 0x14;
+    static final byte CRC_EOP = 0x20;
+    static final byte GET_SYNC = 0x30;
+    static final byte ENTER_PROGMODE = 0x50;
+    static final byte LEAVE_PROGMODE = 0x51;
+    static final byte LOAD_ADDRESS = 0x55;
+    static final byte PROG_PAGE = 0x64;
+    static final byte READ_PAGE = 0x74;
+    static final byte READ_SIGN = 0x75;
+    static final byte MEMTYPE_FLASH = 'F';
+
+    private static final int SYNC_ATTEMPTS = 10;
+
+    Stk500v1Programmer(ISerialLink link, AvrPart part) {
+        super(link, part);
+    }
+
+    @Override
+    protected void enterProgrammingMode() throws IOException {
+        sync();
+        checkSignature();
+        command(new byte[] { ENTER_PROGMODE, CRC_EOP }, 0);
+    }
+
+    @Override
+    protected void writePage(int address, byte[] page) throws IOException {
+        loadAddress(address);
+        byte[] command = new byte[page.length + 5];
+        command[0] = PROG_PAGE;
+        command[1] = (byte) (page.length >> 8);
+        command[2] = (byte) page.length;
+        command[3] = MEMTYPE_FLASH;
+        System.arraycopy(page, 0, command, 4, page.length);
+        command[command.length - 1] = CRC_EOP;
+        command(command, 0);
+    }
+
+    @Override
+    protected byte[] readPage(int address, int length) throws IOException {
+        loadAddress(address);
+        return command(new byte[] { READ_PAGE, (byte) (length >> 8), (byte) length, MEMTYPE_FLASH, CRC_EOP }, length);
+    }
+
+    @Override
+    protected void leaveProgrammingMode() throws IOException {
+        command(new byte[] { LEAVE_PROGMODE, CRC_EOP }, 0);
+    }
+
+    private void sync() throws IOException {
+        for ( int attempt = 1; attempt <= SYNC_ATTEMPTS; attempt++ ) {
+            try {
+                this.link.write(new byte[] { GET_SYNC, CRC_EOP });
+                byte[] response = this.link.read(2);
+                if ( (response[0] == STK_INSYNC) && (response[1] == STK_OK) ) {
+                    return;
+                }
+                LOG.debug("Not in sync, attempt {} of {}", attempt, SYNC_ATTEMPTS);
+            } catch ( IOException e ) {
+                LOG.debug("Not in sync, attempt {} of {}: {}", attempt, SYNC_ATTEMPTS, e.getMessage());
+            }
+        }
+        throw new IOException("The bootloader did not answer");
+    }
+
+    private void checkSignature() throws IOException {
+        byte[] signature = command(new byte[] { READ_SIGN, CRC_EOP }, 3);
+        if ( !Arrays.equals(signature, this.part.getSignature()) ) {
+            throw new IOException("Unexpected device signature " + toHex(signature) + " for " + this.part);
+        }
+    }
+
+    // the bootloader expects word addresses
+    private void loadAddress(int address) throws IOException {
+        int wordAddress = address >> 1;
+        command(new byte[] { LOAD_ADDRESS, (byte) wordAddress, (byte) (wordAddress >> 8), CRC_EOP }, 0);
+    }
+
+    // sends the command and returns the data between STK_INSYNC and STK_OK
+    private byte[] command(byte[] command, int responseLength) throws IOException {
+        this.link.write(command);
+        byte[] response = this.link.read(responseLength + 2);
+        if ( (response[0] != STK_INSYNC) || (response[response.length - 1] != STK_OK) ) {
+            throw new IOException("Command 0x" + Integer.toHexString(command[0] & 0xFF) + " failed: " + toHex(response));
+        }
+        return Arrays.copyOfRange(response, 1, response.length - 1);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : bytes ) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
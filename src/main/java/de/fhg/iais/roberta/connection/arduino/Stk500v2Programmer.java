@@ -0,0 +1,182 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Programs boards with the stk500v2 bootloader of the Mega over the STK500 version 2 protocol, like avrdude -cwiring. The bootloader increments the
+ * address after every page it writes or reads, so the address is only loaded where the pages are not contiguous and where a new 128 KB segment
+ * starts. It erases the pages with a counter of its own that starts at 0 after the reset, so the pages are always written from address 0 on without
+ * gaps. Frames are still sent one at a time, the bootloader polls the UART and loses bytes while it writes a page or sends an answer.
+ */
+final class Stk500v2Programmer extends AbstractProgrammer {
+    private static final Logger LOG = LoggerFactory.getLogger(Stk500v2Programmer.class);
+
+    static final byte MESSAGE_START = 0x1B;
+    static final byte TOKEN = 0x0E;
+    static final byte STATUS_CMD_OK = 0x00;
+    static final byte CMD_SIGN_ON = 0x01;
+    static final byte CMD_LOAD_ADDRESS = 0x06;
+    static final byte CMD_ENTER_PROGMODE_ISP = 0x10;
+    static final byte CMD_LEAVE_PROGMODE_ISP = 0x11;
+    static final byte CMD_PROGRAM_FLASH_ISP = 0x13;
+    static final byte CMD_READ_FLASH_ISP = 0x14;
+    static final byte CMD_READ_SIGNATURE_ISP = 0x1B;
+    static final int EXTENDED_ADDRESS = 0x80000000;
+
+    // the ISP parameters of the atmega2560 from avrdude.conf, the bootloader ignores them
+    private static final byte[] ENTER_PROGMODE = { CMD_ENTER_PROGMODE_ISP, (byte) 200, 100, 25, 32, 0, 0x53, 3, (byte) 0xAC, 0x53, 0, 0 };
+    private static final byte PAGE_MODE = (byte) 0xC1;
+    private static final byte PAGE_DELAY = 10;
+    private static final byte LOAD_PAGE_LOW = 0x40;
+    private static final byte WRITE_PAGE = 0x4C;
+    private static final byte READ_LOW = 0x20;
+    private static final byte READ_SIGNATURE = 0x30;
+
+    private static final int SIGN_ON_ATTEMPTS = 10;
+    private static final int SEGMENT_SIZE = 128 * 1024;
+
+    private byte sequenceNumber = 0;
+    private int bootloaderAddress = -1;
+
+    Stk500v2Programmer(ISerialLink link, AvrPart part) {
+        super(link, part);
+    }
+
+    @Override
+    protected void enterProgrammingMode() throws IOException {
+        // the board was reset, the bootloader does not know the address of a previous upload
+        this.bootloaderAddress = -1;
+        signOn();
+        checkSignature();
+        command(ENTER_PROGMODE);
+    }
+
+    @Override
+    protected boolean isErasingSequentially() {
+        return true;
+    }
+
+    @Override
+    protected void writePage(int address, byte[] page) throws IOException {
+        loadAddressIfNeeded(address);
+        byte[] command = new byte[page.length + 10];
+        command[0] = CMD_PROGRAM_FLASH_ISP;
+        command[1] = (byte) (page.length >> 8);
+        command[2] = (byte) page.length;
+        command[3] = PAGE_MODE;
+        command[4] = PAGE_DELAY;
+        command[5] = LOAD_PAGE_LOW;
+        command[6] = WRITE_PAGE;
+        command[7] = READ_LOW;
+        System.arraycopy(page, 0, command, 10, page.length);
+        command(command);
+        this.bootloaderAddress += page.length;
+    }
+
+    @Override
+    protected byte[] readPage(int address, int length) throws IOException {
+        loadAddressIfNeeded(address);
+        byte[] response = command(CMD_READ_FLASH_ISP, (byte) (length >> 8), (byte) length, READ_LOW);
+        this.bootloaderAddress += length;
+        // the data is followed by a second status
+        if ( (response.length != (length + 3)) || (response[response.length - 1] != STATUS_CMD_OK) ) {
+            throw new IOException("Unexpected answer when reading the page at 0x" + Integer.toHexString(address));
+        }
+        return Arrays.copyOfRange(response, 2, length + 2);
+    }
+
+    @Override
+    protected void leaveProgrammingMode() throws IOException {
+        command(CMD_LEAVE_PROGMODE_ISP, (byte) 1, (byte) 1);
+    }
+
+    private void signOn() throws IOException {
+        for ( int attempt = 1; attempt <= SIGN_ON_ATTEMPTS; attempt++ ) {
+            try {
+                byte[] response = command(CMD_SIGN_ON);
+                LOG.debug("Signed on to {}", new String(response, 3, response.length - 3, StandardCharsets.US_ASCII));
+                return;
+            } catch ( IOException e ) {
+                LOG.debug("No answer to sign on, attempt {} of {}: {}", attempt, SIGN_ON_ATTEMPTS, e.getMessage());
+            }
+        }
+        throw new IOException("The bootloader did not answer");
+    }
+
+    private void checkSignature() throws IOException {
+        byte[] signature = new byte[3];
+        for ( int i = 0; i < signature.length; i++ ) {
+            signature[i] = command(CMD_READ_SIGNATURE_ISP, (byte) 0, READ_SIGNATURE, (byte) 0, (byte) i, (byte) 0)[2];
+        }
+        if ( !Arrays.equals(signature, this.part.getSignature()) ) {
+            throw new IOException("Unexpected device signature " + toHex(signature) + " for " + this.part);
+        }
+    }
+
+    // the address is not loaded if the bootloader is there already, except at the start of a segment
+    private void loadAddressIfNeeded(int address) throws IOException {
+        if ( (address == this.bootloaderAddress) && ((address % SEGMENT_SIZE) != 0) ) {
+            return;
+        }
+        // the bootloader expects word addresses, the highest bit selects extended addressing on chips with more than 128 KB
+        int wordAddress = address >> 1;
+        if ( this.part.getFlashSize() > SEGMENT_SIZE ) {
+            wordAddress |= EXTENDED_ADDRESS;
+        }
+        command(CMD_LOAD_ADDRESS, (byte) (wordAddress >> 24), (byte) (wordAddress >> 16), (byte) (wordAddress >> 8), (byte) wordAddress);
+        this.bootloaderAddress = address;
+    }
+
+    // sends the command in a frame and returns the body of the answer, which starts with the command and its status
+    private byte[] command(byte... body) throws IOException {
+        byte sequence = this.sequenceNumber++;
+        byte[] frame = new byte[body.length + 6];
+        frame[0] = MESSAGE_START;
+        frame[1] = sequence;
+        frame[2] = (byte) (body.length >> 8);
+        frame[3] = (byte) body.length;
+        frame[4] = TOKEN;
+        System.arraycopy(body, 0, frame, 5, body.length);
+        frame[frame.length - 1] = checksum(frame, frame.length - 1);
+        this.link.write(frame);
+
+        byte[] header = this.link.read(5);
+        if ( (header[0] != MESSAGE_START) || (header[1] != sequence) || (header[4] != TOKEN) ) {
+            throw new IOException("Command 0x" + Integer.toHexString(body[0] & 0xFF) + " got an invalid answer: " + toHex(header));
+        }
+        int size = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        byte[] rest = this.link.read(size + 1);
+        byte[] answer = new byte[header.length + rest.length];
+        System.arraycopy(header, 0, answer, 0, header.length);
+        System.arraycopy(rest, 0, answer, header.length, rest.length);
+        if ( checksum(answer, answer.length - 1) != answer[answer.length - 1] ) {
+            throw new IOException("Command 0x" + Integer.toHexString(body[0] & 0xFF) + " got an answer with a wrong checksum");
+        }
+        byte[] response = Arrays.copyOf(rest, size);
+        if ( (size < 2) || (response[0] != body[0]) || (response[1] != STATUS_CMD_OK) ) {
+            throw new IOException("Command 0x" + Integer.toHexString(body[0] & 0xFF) + " failed: " + toHex(response));
+        }
+        return response;
+    }
+
+    static byte checksum(byte[] frame, int length) {
+        byte checksum = 0;
+        for ( int i = 0; i < length; i++ ) {
+            checksum ^= frame[i];
+        }
+        return checksum;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : bytes ) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -5,15 +5,19 @@ import org.apache.http.HttpEntity;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The EV3 is running an http server. We initialise the connection to the robot by the USB program, because of possible firewall issues.
@@ -30,6 +34,8 @@ class Ev3Communicator {
 
     private final CloseableHttpClient httpClient;
 
+    private final Set<HttpRequestBase> outstandingRequests = ConcurrentHashMap.newKeySet();
+
     /**
      * @param brickIp is 10.0.1.1 for leJOS
      */
@@ -57,23 +63,20 @@ class Ev3Communicator {
         HttpEntity jsonContent = new StringEntity(request.toString(), ContentType.create("application/json", "UTF-8"));
         post.setEntity(jsonContent);
 
-        try(CloseableHttpResponse response = this.httpClient.execute(post)) {
-            HttpEntity entity = response.getEntity();
-            return new JSONObject(EntityUtils.toString(entity));
-        }
+        return execute(post);
     }
 
     /**
-     * Upload a binary user program to the EV3. It uses http POST.
+     * Upload a binary user program to the EV3. It uses http POST. The file is streamed to the brick.
      *
      * @param binaryFile the binary file to be uploaded
      * @param filename the filename it should have on the brick
      * @return the result of the upload
      * @throws IOException should only occur if you disconnect the cable
      */
-    JSONObject uploadProgram(byte[] binaryFile, String filename) throws IOException {
+    JSONObject uploadProgram(File binaryFile, String filename) throws IOException {
         HttpPost post = new HttpPost("http://" + this.brickProgram);
-        return uploadBinary(post, binaryFile, filename);
+        return uploadBinary(post, new FileEntity(binaryFile), filename);
     }
 
     /**
@@ -84,19 +87,34 @@ class Ev3Communicator {
      * @return the result of the upload
      * @throws IOException should only occur if you disconnect the cable
      */
-    JSONObject uploadFirmwareFile(byte[] binaryFile, String filename) throws IOException {
+    JSONObject uploadFirmwareFile(File binaryFile, String filename) throws IOException {
         HttpPost post = new HttpPost("http://" + this.brickFirmware);
-        return uploadBinary(post, binaryFile, filename);
+        return uploadBinary(post, new FileEntity(binaryFile), filename);
     }
 
-    private JSONObject uploadBinary(HttpPost post, byte[] binaryFile, String filename) throws IOException {
-        HttpEntity content = new ByteArrayEntity(binaryFile);
+    private JSONObject uploadBinary(HttpPost post, HttpEntity content, String filename) throws IOException {
         post.setEntity(content);
         post.setHeader("Filename", filename);
 
-        try(CloseableHttpResponse response = this.httpClient.execute(post)) {
+        return execute(post);
+    }
+
+    private JSONObject execute(HttpRequestBase request) throws IOException {
+        this.outstandingRequests.add(request);
+        try(CloseableHttpResponse response = this.httpClient.execute(request)) {
             HttpEntity entity = response.getEntity();
             return new JSONObject(EntityUtils.toString(entity));
+        } finally {
+            this.outstandingRequests.remove(request);
+        }
+    }
+
+    /**
+     * Aborts all outstanding requests to the EV3, they fail with an IOException.
+     */
+    void abort() {
+        for ( HttpRequestBase request : this.outstandingRequests ) {
+            request.abort();
         }
     }
 
@@ -1,7 +1,10 @@
 package de.fhg.iais.roberta.connection.ev3;
 
 import de.fhg.iais.roberta.connection.AbstractConnector;
+import de.fhg.iais.roberta.connection.BinaryDownload;
 import de.fhg.iais.roberta.connection.IConnector;
+import de.fhg.iais.roberta.connection.RunMetrics.Phase;
+import de.fhg.iais.roberta.connection.RunTimer;
 import de.fhg.iais.roberta.connection.ServerCommunicator;
 import de.fhg.iais.roberta.usb.Robot;
 import de.fhg.iais.roberta.util.OraTokenGenerator;
@@ -12,13 +15,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Intended to be used as Singleton(!). This class handles two connections:
  * robot<->USB program: {@link Ev3Communicator}
  * USB program<->Open Roberta server: {@link ServerCommunicator}
  * After setting up an object of this class, you want to run this in a separate thread, because our protocol contains blocking http requests.
- * The state will be changed from the gui in another thread.
+ * The state is changed by commands from the gui, they are handled by the thread of the connector.
  *
  * @author dpyka
  * {@link IConnector}
@@ -28,7 +39,15 @@ public class Ev3Connector extends AbstractConnector {
 
     private static final String brickIp = PropertyHelper.getInstance().getProperty("brickIp");
 
+    private static final FirmwareCache FIRMWARE_CACHE = new FirmwareCache();
+
+    private static final String ROBOT_TYPE = "ev3"; // key of the run metrics
+
+    private static final long BRICK_POLL_INTERVAL = 200L; // the brick can not notify us, its state has to be polled
+    private static final long DOWNLOAD_SHUTDOWN_TIMEOUT = 5000L;
+
     private final Ev3Communicator ev3comm;
+    private final FirmwareCache firmwareCache;
 
     private final String[] fwfiles = {
         "runtime", "jsonlib", "websocketlib", "ev3menu"
@@ -39,47 +58,63 @@ public class Ev3Connector extends AbstractConnector {
      * Set up a communicator to the EV3 and to the Open Roberta server.
      */
     public Ev3Connector() {
-        super("ev3");
+        this(brickIp);
+    }
 
-        LOG.info("Robot ip {}", brickIp);
-        this.ev3comm = new Ev3Communicator(brickIp);
+    /**
+     * @param brickAddress the address of the http server on the EV3, e.g. of a simulated brick
+     */
+    public Ev3Connector(String brickAddress) {
+        this(new Ev3Communicator(brickAddress), FIRMWARE_CACHE);
+        LOG.info("Robot ip {}", brickAddress);
+    }
+
+    Ev3Connector(Ev3Communicator ev3comm, FirmwareCache firmwareCache) {
+        super("ev3");
+        this.ev3comm = ev3comm;
+        this.firmwareCache = firmwareCache;
     }
 
     @Override
     protected void runLoopBody() {
-        switch ( this.state ) {
+        switch ( getState() ) {
             case DISCOVER:
                 try {
                     if ( this.ev3comm.checkBrickState().equals("true") ) {
                     } else if ( this.ev3comm.checkBrickState().equals("false") ) { // brick available and no program running
-                        this.state = State.WAIT_FOR_CONNECT_BUTTON_PRESS;
+                        setState(State.WAIT_FOR_CONNECT_BUTTON_PRESS);
                     }
                 } catch ( IOException e ) {
                     // ok
                 }
-                fire(this.state);
+                fire(getState());
+                stepAfter(BRICK_POLL_INTERVAL);
                 break;
             case WAIT_EXECUTION:
-                fire(this.state);
+                fire(getState());
+                finishRun(ROBOT_TYPE);
                 try {
                     if ( this.ev3comm.checkBrickState().equals("true") ) {
                         // program is running
-                        this.state = State.WAIT_EXECUTION;
-                        //fire(this.state);
+                        setState(State.WAIT_EXECUTION);
+                        //fire(getState());
                     } else if ( this.ev3comm.checkBrickState().equals("false") ) {
                         // brick available and no program running
                         LOG.info("{} EV3 plugged in again, no program running, OK", State.WAIT_EXECUTION);
-                        this.state = State.WAIT_FOR_CMD;
-                        fire(this.state);
+                        setState(State.WAIT_FOR_CMD);
+                        fire(getState());
+                        step();
+                        break;
                     }
                 } catch ( IOException e ) {
                     // ok
                 }
+                stepAfter(BRICK_POLL_INTERVAL);
                 break;
             case WAIT_FOR_CONNECT_BUTTON_PRESS:
                 try {
                     if ( this.ev3comm.checkBrickState().equals("true") ) {
-                        this.state = State.DISCOVER;
+                        setState(State.DISCOVER);
                         fire(State.DISCOVER);
                     } else if ( this.ev3comm.checkBrickState().equals("false") ) {
                         // wait for user
@@ -87,10 +122,11 @@ public class Ev3Connector extends AbstractConnector {
                 } catch ( IOException e ) {
                     // ok
                 }
+                stepAfter(BRICK_POLL_INTERVAL);
                 break;
             case CONNECT_BUTTON_IS_PRESSED:
                 this.token = OraTokenGenerator.generateToken();
-                this.state = State.WAIT_FOR_SERVER;
+                setState(State.WAIT_FOR_SERVER);
                 fire(State.WAIT_FOR_SERVER);
                 try {
                     this.brickData = this.ev3comm.pushToBrick(CMD_REGISTER);
@@ -101,34 +137,7 @@ public class Ev3Connector extends AbstractConnector {
                     reset(State.ERROR_BRICK);
                     break;
                 }
-                try {
-                    if ( this.state == State.DISCOVER ) {
-                        LOG.info("User is clicking connect togglebutton too fast!");
-                        break;
-                    }
-                    JSONObject serverResponse = this.serverCommunicator.pushRequest(this.brickData);
-                    String command = serverResponse.getString("cmd");
-                    if ( command.equals(CMD_REPEAT) ) {
-
-                        try {
-                            this.brickData = this.ev3comm.pushToBrick(CMD_REPEAT);
-                        } catch ( IOException brickerror ) {
-                            LOG.info("{} {}", State.CONNECT_BUTTON_IS_PRESSED, brickerror.getMessage());
-                            reset(State.ERROR_BRICK);
-                            break;
-                        }
-                        this.state = State.WAIT_FOR_CMD;
-                        fire(State.WAIT_FOR_CMD);
-                    } else if ( command.equals(CMD_ABORT) ) {
-                        reset(State.TOKEN_TIMEOUT);
-                    } else {
-                        LOG.info("{} Command {} unknown", State.CONNECT_BUTTON_IS_PRESSED, command);
-                        reset(null);
-                    }
-                } catch ( IOException | JSONException servererror ) {
-                    LOG.info("{} {}", State.CONNECT_BUTTON_IS_PRESSED, servererror.getMessage());
-                    reset(State.ERROR_HTTP);
-                }
+                await(this.serverCommunicator.pushRequestAsync(this.brickData), this::handleRegisterResponse);
                 break;
             case WAIT_FOR_CMD:
                 try {
@@ -140,84 +149,217 @@ public class Ev3Connector extends AbstractConnector {
                     reset(State.ERROR_BRICK);
                     break;
                 }
-                String responseCommandFromServer;
-                try {
-                    responseCommandFromServer = this.serverCommunicator.pushRequest(this.brickData).getString(KEY_CMD);
-                } catch ( IOException | JSONException servererror ) {
-                    // continue to default block
-                    LOG.info("{} Server response not ok {}", State.WAIT_FOR_CMD, servererror.getMessage());
-                    reset(State.ERROR_HTTP);
-                    break;
-                }
-                if ( responseCommandFromServer.equals(CMD_REPEAT) ) {
-                } else if ( responseCommandFromServer.equals(CMD_ABORT) ) {
+                this.runTimer = RunTimer.start();
+                await(this.serverCommunicator.pushRequestAsync(this.brickData), this::handlePushResponse);
+                break;
+            default:
+                break;
+        }
+    }
 
+    private void handleRegisterResponse(JSONObject serverResponse, Throwable servererror) {
+        if ( servererror != null ) {
+            LOG.info("{} {}", State.CONNECT_BUTTON_IS_PRESSED, servererror.getMessage());
+            reset(State.ERROR_HTTP);
+            return;
+        }
+        String command;
+        try {
+            command = serverResponse.getString("cmd");
+        } catch ( JSONException e ) {
+            LOG.info("{} {}", State.CONNECT_BUTTON_IS_PRESSED, e.getMessage());
+            reset(State.ERROR_HTTP);
+            return;
+        }
+        if ( command.equals(CMD_REPEAT) ) {
+
+            try {
+                this.brickData = this.ev3comm.pushToBrick(CMD_REPEAT);
+            } catch ( IOException brickerror ) {
+                LOG.info("{} {}", State.CONNECT_BUTTON_IS_PRESSED, brickerror.getMessage());
+                reset(State.ERROR_BRICK);
+                return;
+            }
+            setState(State.WAIT_FOR_CMD);
+            fire(State.WAIT_FOR_CMD);
+            step();
+        } else if ( command.equals(CMD_ABORT) ) {
+            reset(State.TOKEN_TIMEOUT);
+        } else {
+            LOG.info("{} Command {} unknown", State.CONNECT_BUTTON_IS_PRESSED, command);
+            reset(null);
+        }
+    }
+
+    private void handlePushResponse(JSONObject serverResponse, Throwable servererror) {
+        if ( retry(servererror) ) {
+            return;
+        }
+        if ( servererror != null ) {
+            LOG.info("{} Server response not ok {}", State.WAIT_FOR_CMD, servererror.getMessage());
+            reset(State.ERROR_HTTP);
+            return;
+        }
+        String responseCommandFromServer;
+        try {
+            responseCommandFromServer = serverResponse.getString(KEY_CMD);
+        } catch ( JSONException e ) {
+            LOG.info("{} Server response not ok {}", State.WAIT_FOR_CMD, e.getMessage());
+            reset(State.ERROR_HTTP);
+            return;
+        }
+        if ( responseCommandFromServer.equals(CMD_REPEAT) ) {
+            step();
+        } else if ( responseCommandFromServer.equals(CMD_ABORT) ) {
+
+            try {
+                this.ev3comm.disconnectBrick();
+            } catch ( IOException brickerror ) {
+                LOG.info("{} Got " + CMD_ABORT + " and Brick disconnect failed {}", State.WAIT_FOR_CMD, brickerror.getMessage());
+            }
+            reset(null);
+        } else if ( responseCommandFromServer.equals(CMD_UPDATE) ) {
+            LOG.info("Execute firmware update");
+            LOG.info(this.brickData.toString());
+            String lejosVersion = "";
+            if ( this.brickData.getString("firmwarename").equals("ev3lejosv1") ) {
+                lejosVersion = "v1/";
+            }
+            try {
+                updateFirmwareFiles(this.serverCommunicator, lejosVersion);
+                this.ev3comm.restartBrick();
+                LOG.info("Firmware update successful. Restarting EV3 now!");
+                reset(null);
+            } catch ( IOException e ) {
+                LOG.info("{} Brick update failed {}", State.WAIT_FOR_CMD, e.getMessage());
+                reset(State.ERROR_UPDATE);
+            }
+        } else if ( responseCommandFromServer.equals(CMD_DOWNLOAD) ) {
+            LOG.info("Download user program");
+            this.runTimer.lap(Phase.PUSH);
+            try {
+                BinaryDownload program = this.serverCommunicator.downloadProgram(this.brickData, getStagingFile(".jar"));
+                LOG.info("Downloaded {}", program);
+                this.runTimer.lap(Phase.DOWNLOAD);
+                this.runTimer.split(Phase.DOWNLOAD, Phase.WRITE, program.getWriteTime());
+                this.ev3comm.uploadProgram(program.getFile(), program.getFilename());
+                this.runTimer.lap(Phase.UPLOAD);
+                setState(State.WAIT_EXECUTION);
+            } catch ( IOException e ) {
+                // do not give up the brick, try another push request
+                // user has to click on run button again
+                LOG.info("{} Downlaod file failed {}", State.WAIT_FOR_CMD, e.getMessage());
+                setState(State.WAIT_FOR_CMD);
+            }
+            step();
+        } else if ( responseCommandFromServer.equals(CMD_CONFIGURATION) ) {
+            LOG.warn("Command {} unused, ignore and continue push!", responseCommandFromServer);
+            step();
+        } else {
+            LOG.warn("Command {} unknown", responseCommandFromServer);
+            reset(null);
+        }
+    }
+
+    /**
+     * Downloads all firmware files concurrently and uploads each one to the brick as soon as it is available.
+     * The uploads keep the order of {@link #fwfiles}, so the menu is still replaced last.
+     * If a download or an upload fails, the downloads that are still running are aborted and no further file is uploaded.
+     *
+     * @param serverCommunicator the communicator the files are downloaded with
+     * @param lejosVersion the leJOS version prefix of the update url
+     * @throws IOException if a download or upload failed
+     */
+    void updateFirmwareFiles(ServerCommunicator serverCommunicator, String lejosVersion) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService executorService = Executors.newFixedThreadPool(this.fwfiles.length);
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            List<Future<BinaryDownload>> downloads = new ArrayList<>();
+            for ( String fwfile : this.fwfiles ) {
+                downloads.add(executorService.submit(() -> {
+                    long downloadStart = System.nanoTime();
                     try {
-                        this.ev3comm.disconnectBrick();
-                    } catch ( IOException brickerror ) {
-                        LOG.info("{} Got " + CMD_ABORT + " and Brick disconnect failed {}", State.WAIT_FOR_CMD, brickerror.getMessage());
-                    }
-                    reset(null);
-                } else if ( responseCommandFromServer.equals(CMD_UPDATE) ) {
-                    LOG.info("Execute firmware update");
-                    LOG.info(this.brickData.toString());
-                    String lejosVersion = "";
-                    if ( this.brickData.getString("firmwarename").equals("ev3lejosv1") ) {
-                        lejosVersion = "v1/";
-                    }
-                    try {
-                        for ( String fwfile : this.fwfiles ) {
-                            byte[] binaryfile = this.serverCommunicator.downloadFirmwareFile(lejosVersion + fwfile);
-                            this.ev3comm.uploadFirmwareFile(binaryfile, this.serverCommunicator.getFilename());
+                        BinaryDownload firmwareFile = this.firmwareCache.get(serverCommunicator, lejosVersion, fwfile);
+                        LOG.info("Firmware file {} ready after {}ms", fwfile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - downloadStart));
+                        return firmwareFile;
+                    } catch ( IOException | RuntimeException e ) {
+                        // the update can not succeed anymore, the blocking downloads do not react to the interrupt of shutdownNow
+                        if ( !failed.getAndSet(true) ) {
+                            LOG.info("Firmware file {} failed, aborting the other downloads: {}", fwfile, e.getMessage());
+                            serverCommunicator.abort();
                         }
-                        this.ev3comm.restartBrick();
-                        LOG.info("Firmware update successful. Restarting EV3 now!");
-                        reset(null);
-                    } catch ( IOException e ) {
-                        LOG.info("{} Brick update failed {}", State.WAIT_FOR_CMD, e.getMessage());
-                        reset(State.ERROR_UPDATE);
-                    }
-                } else if ( responseCommandFromServer.equals(CMD_DOWNLOAD) ) {
-                    LOG.info("Download user program");
-                    try {
-                        byte[] binaryfile = this.serverCommunicator.downloadProgram(this.brickData);
-                        String filename = this.serverCommunicator.getFilename();
-                        this.ev3comm.uploadProgram(binaryfile, filename);
-                        this.state = State.WAIT_EXECUTION;
-                    } catch ( IOException e ) {
-                        // do not give up the brick, try another push request
-                        // user has to click on run button again
-                        LOG.info("{} Downlaod file failed {}", State.WAIT_FOR_CMD, e.getMessage());
-                        this.state = State.WAIT_FOR_CMD;
+                        throw e;
                     }
-                } else if ( responseCommandFromServer.equals(CMD_CONFIGURATION) ) {
-                    LOG.warn("Command {} unused, ignore and continue push!", responseCommandFromServer);
-                } else {
-                    LOG.warn("Command {} unknown", responseCommandFromServer);
-                    reset(null);
-                }
-                break;
-            default:
-                break;
+                }));
+            }
+            for ( int i = 0; i < this.fwfiles.length; i++ ) {
+                BinaryDownload firmwareFile = getDownload(downloads.get(i));
+                long uploadStart = System.nanoTime();
+                this.ev3comm.uploadFirmwareFile(firmwareFile.getFile(), firmwareFile.getFilename());
+                LOG.info("Firmware file {} uploaded in {}ms", this.fwfiles[i], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - uploadStart));
+            }
+        } catch ( IOException e ) {
+            if ( !failed.getAndSet(true) ) {
+                serverCommunicator.abort();
+            }
+            throw e;
+        } finally {
+            executorService.shutdownNow();
+            awaitDownloads(executorService);
+        }
+        LOG.info("Firmware update took {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // the aborted downloads still clean up their partial files in the cache
+    private static void awaitDownloads(ExecutorService executorService) {
+        try {
+            if ( !executorService.awaitTermination(DOWNLOAD_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS) ) {
+                LOG.warn("Firmware downloads did not stop within {}ms", DOWNLOAD_SHUTDOWN_TIMEOUT);
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BinaryDownload getDownload(Future<BinaryDownload> download) throws IOException {
+        try {
+            return download.get();
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the firmware download", e);
         }
     }
 
     @Override
-    public void userPressDisconnectButton() {
-        super.userPressDisconnectButton();
+    protected void abortRequests() {
+        super.abortRequests();
+        this.ev3comm.abort();
+    }
+
+    @Override
+    protected void disconnect() {
+        super.disconnect();
         try {
             this.ev3comm.disconnectBrick();
         } catch ( IOException e ) {
             // ok
         }
-
-        fire(State.DISCOVER);
-        this.state = State.DISCOVER;
     }
 
     @Override
     public void close() {
         super.close();
+        try {
+            this.ev3comm.disconnectBrick();
+        } catch ( IOException e ) {
+            // ok
+        }
 
         this.ev3comm.shutdown();
     }
@@ -236,7 +378,10 @@ public class Ev3Connector extends AbstractConnector {
 
     @Override
     public void updateFirmware() {
-        this.state = State.UPDATE;
+        command(() -> {
+            setState(State.UPDATE);
+            step();
+        });
     }
 
     @Override
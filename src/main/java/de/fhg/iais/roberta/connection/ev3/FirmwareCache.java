@@ -0,0 +1,216 @@
+package de.fhg.iais.roberta.connection.ev3;
+
+import de.fhg.iais.roberta.connection.BinaryDownload;
+import de.fhg.iais.roberta.connection.ServerCommunicator;
+import de.fhg.iais.roberta.util.ChecksumHelper;
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache for the EV3 firmware files in the OpenRobertaUSB folder of the user, keyed by leJOS version and file name.
+ * Cached files are revalidated with a conditional request (ETag or Last-Modified), so they are only downloaded again if the server has a new version.
+ * The checksum of a cached file is verified before it is used. The size of the cache is bounded, least recently used entries are evicted first.
+ */
+final class FirmwareCache {
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareCache.class);
+
+    private static final String CACHE_DIRECTORY =
+        SystemUtils.getUserHome().getPath() + File.separator + "OpenRobertaUSB" + File.separator + "firmware";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final int DEFAULT_MAX_SIZE = 64; // MiB
+
+    private static final String KEY_FILENAME = "filename";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_SHA256 = "sha256";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_LAST_USED = "lastUsed";
+
+    private final File cacheDirectory;
+    private final long maxSize;
+
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    FirmwareCache() {
+        this(new File(CACHE_DIRECTORY), PropertyHelper.getInstance().getIntProperty("firmwareCacheMaxSize", DEFAULT_MAX_SIZE) * 1024L * 1024L);
+    }
+
+    FirmwareCache(File cacheDirectory, long maxSize) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the firmware file from the cache. The cached file is revalidated with the server and downloaded again if it changed or is missing.
+     *
+     * @param serverCommunicator the communicator used to revalidate and download the file
+     * @param lejosVersion the leJOS version prefix of the update url, e.g. "v1/" or an empty string
+     * @param fwFile the name of the firmware file, e.g. "runtime"
+     * @return the cached file
+     * @throws IOException if the file could neither be taken from the cache nor be downloaded
+     */
+    BinaryDownload get(ServerCommunicator serverCommunicator, String lejosVersion, String fwFile) throws IOException {
+        String versionDirectory = lejosVersion.isEmpty() ? "default" : lejosVersion.replace("/", "");
+        File directory = new File(this.cacheDirectory, versionDirectory);
+        synchronized ( this.locks.computeIfAbsent(versionDirectory + '/' + fwFile, k -> new Object()) ) {
+            if ( !directory.isDirectory() && !directory.mkdirs() ) {
+                throw new IOException("Could not create firmware cache directory " + directory);
+            }
+            File dataFile = new File(directory, fwFile);
+            File metadataFile = new File(directory, fwFile + METADATA_SUFFIX);
+
+            Properties metadata = loadMetadata(metadataFile);
+            boolean cached = isValid(dataFile, metadata);
+            if ( !cached ) {
+                metadata.clear();
+                Files.deleteIfExists(dataFile.toPath());
+            }
+
+            File partFile = File.createTempFile(fwFile, ".part", directory);
+            try {
+                BinaryDownload download =
+                    serverCommunicator.downloadFirmwareFile(lejosVersion + fwFile,
+                        partFile,
+                        metadata.getProperty(KEY_ETAG),
+                        metadata.getProperty(KEY_LAST_MODIFIED));
+                if ( download == null ) {
+                    LOG.info("Firmware file {}{} not modified, using cached copy", lejosVersion, fwFile);
+                } else {
+                    LOG.info("Downloaded firmware file {}{} into cache: {}", lejosVersion, fwFile, download);
+                    Files.move(partFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    metadata.clear();
+                    setIfPresent(metadata, KEY_FILENAME, download.getFilename());
+                    metadata.setProperty(KEY_SIZE, String.valueOf(download.getSize()));
+                    metadata.setProperty(KEY_SHA256, download.getSha256());
+                    setIfPresent(metadata, KEY_ETAG, download.getEtag());
+                    setIfPresent(metadata, KEY_LAST_MODIFIED, download.getLastModified());
+                }
+            } finally {
+                Files.deleteIfExists(partFile.toPath());
+            }
+            metadata.setProperty(KEY_LAST_USED, String.valueOf(System.currentTimeMillis()));
+            storeMetadata(metadataFile, metadata);
+
+            evict(versionDirectory);
+
+            return new BinaryDownload(dataFile,
+                metadata.getProperty(KEY_FILENAME),
+                Long.parseLong(metadata.getProperty(KEY_SIZE)),
+                metadata.getProperty(KEY_SHA256),
+                metadata.getProperty(KEY_ETAG),
+                metadata.getProperty(KEY_LAST_MODIFIED));
+        }
+    }
+
+    private static boolean isValid(File dataFile, Properties metadata) {
+        String sha256 = metadata.getProperty(KEY_SHA256);
+        if ( !dataFile.isFile() || (sha256 == null) || (parseLong(metadata.getProperty(KEY_SIZE)) < 0L) ) {
+            return false;
+        }
+        try {
+            if ( sha256.equals(ChecksumHelper.sha256(dataFile)) ) {
+                return true;
+            }
+            LOG.warn("Checksum of cached firmware file {} does not match, downloading it again", dataFile);
+        } catch ( IOException e ) {
+            LOG.warn("Could not verify cached firmware file {}: {}", dataFile, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits into its maximum size. Entries of the leJOS version that is currently used are kept,
+     * because they are needed for the running update.
+     */
+    private synchronized void evict(String keptVersionDirectory) {
+        List<File> metadataFiles = new ArrayList<>();
+        for ( File directory : Objects.requireNonNull(this.cacheDirectory.listFiles(File::isDirectory)) ) {
+            for ( File file : Objects.requireNonNull(directory.listFiles((dir, name) -> name.endsWith(METADATA_SUFFIX))) ) {
+                metadataFiles.add(file);
+            }
+        }
+
+        long totalSize = 0L;
+        for ( File metadataFile : metadataFiles ) {
+            totalSize += getDataFile(metadataFile).length();
+        }
+
+        // entries with a missing or damaged time of use count as the oldest
+        metadataFiles.sort(Comparator.comparingLong(file -> Math.max(0L, parseLong(loadMetadata(file).getProperty(KEY_LAST_USED)))));
+        for ( File metadataFile : metadataFiles ) {
+            if ( totalSize <= this.maxSize ) {
+                break;
+            }
+            if ( metadataFile.getParentFile().getName().equals(keptVersionDirectory) ) {
+                continue;
+            }
+            File dataFile = getDataFile(metadataFile);
+            long size = dataFile.length();
+            if ( dataFile.delete() | metadataFile.delete() ) {
+                LOG.info("Evicted {} from firmware cache", dataFile);
+                totalSize -= size;
+            }
+        }
+    }
+
+    private static File getDataFile(File metadataFile) {
+        String name = metadataFile.getName();
+        return new File(metadataFile.getParentFile(), name.substring(0, name.length() - METADATA_SUFFIX.length()));
+    }
+
+    // the metadata is read from disk, it may be truncated or edited by hand
+    private static long parseLong(String value) {
+        if ( value == null ) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch ( NumberFormatException e ) {
+            return -1L;
+        }
+    }
+
+    private static void setIfPresent(Properties metadata, String key, String value) {
+        if ( value != null ) {
+            metadata.setProperty(key, value);
+        }
+    }
+
+    private static Properties loadMetadata(File metadataFile) {
+        Properties metadata = new Properties();
+        if ( metadataFile.isFile() ) {
+            try (InputStream is = new FileInputStream(metadataFile)) {
+                metadata.load(is);
+            } catch ( IOException | IllegalArgumentException e ) {
+                LOG.warn("Could not read firmware cache metadata {}: {}", metadataFile, e.getMessage());
+            }
+        }
+        return metadata;
+    }
+
+    private static void storeMetadata(File metadataFile, Properties metadata) {
+        try (OutputStream os = new FileOutputStream(metadataFile)) {
+            metadata.store(os, null);
+        } catch ( IOException e ) {
+            LOG.warn("Could not write firmware cache metadata {}: {}", metadataFile, e.getMessage());
+        }
+    }
+}
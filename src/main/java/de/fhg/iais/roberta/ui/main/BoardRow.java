@@ -0,0 +1,127 @@
+package de.fhg.iais.roberta.ui.main;
+
+import de.fhg.iais.roberta.ui.OraToggleButton;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionListener;
+import java.util.ResourceBundle;
+
+import static de.fhg.iais.roberta.ui.main.MainView.CMD_BOARD_CONNECT;
+import static de.fhg.iais.roberta.ui.main.MainView.CMD_BOARD_DISCONNECT;
+
+/**
+ * Status row of one board if several boards are connected at the same time. The name of the connect button is the port of the board.
+ */
+class BoardRow extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    private final JLabel lblName = new JLabel();
+    private final JLabel lblStatus = new JLabel();
+    private final JLabel lblError = new JLabel();
+    private final JTextField txtFldToken = new JTextField();
+    private final OraToggleButton butConnect = new OraToggleButton();
+
+    private final ResourceBundle messages;
+
+    BoardRow(ResourceBundle messages, String portName, String brickName, ActionListener listener) {
+        this.messages = messages;
+
+        this.setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
+        this.setBorder(BorderFactory.createEmptyBorder(4, 12, 4, 12));
+        this.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+        this.add(this.lblName);
+        this.lblName.setText(brickName + " (" + portName + ')');
+
+        JPanel pnlState = new JPanel();
+        this.add(pnlState);
+        pnlState.setLayout(new FlowLayout(FlowLayout.LEADING, 0, 2));
+        pnlState.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+        pnlState.add(this.butConnect);
+        this.butConnect.setName(portName);
+        this.butConnect.addActionListener(listener);
+
+        pnlState.add(Box.createRigidArea(new Dimension(12, 0)));
+        pnlState.add(this.lblStatus);
+
+        pnlState.add(Box.createRigidArea(new Dimension(12, 0)));
+        pnlState.add(this.txtFldToken);
+        this.txtFldToken.setBorder(BorderFactory.createEmptyBorder());
+        this.txtFldToken.setEditable(false);
+
+        this.add(this.lblError);
+        this.lblError.setForeground(Color.RED);
+        this.lblError.setVisible(false);
+
+        this.setDiscover();
+    }
+
+    void setDiscover() {
+        this.butConnect.setText(this.messages.getString("connect"));
+        this.butConnect.setSelected(false);
+        this.butConnect.setEnabled(false);
+        this.butConnect.setActionCommand(CMD_BOARD_CONNECT);
+        this.lblStatus.setText("");
+        this.setToken("");
+    }
+
+    void setWaitForConnect() {
+        this.butConnect.setEnabled(true);
+        this.lblStatus.setText(this.messages.getString("boardReady"));
+    }
+
+    void setWaitForServer(String token) {
+        this.butConnect.setSelected(false);
+        this.butConnect.setEnabled(false);
+        this.lblStatus.setText(this.messages.getString("token") + ':');
+        this.setToken(token);
+    }
+
+    void setWaitForCmd() {
+        this.butConnect.setText(this.messages.getString("disconnect"));
+        this.butConnect.setEnabled(true);
+        this.butConnect.setActionCommand(CMD_BOARD_DISCONNECT);
+        this.lblStatus.setText(this.messages.getString("boardConnected"));
+    }
+
+    void setStalled() {
+        this.lblStatus.setText(this.messages.getString("boardStalled"));
+    }
+
+    /**
+     * Shows the error below the state until the board waits for the server again. The connector goes on discovering meanwhile.
+     *
+     * @param message the error message
+     */
+    void setError(String message) {
+        this.lblError.setText(message);
+        this.lblError.setToolTipText(message);
+        this.lblError.setVisible(true);
+        this.revalidate();
+    }
+
+    void clearError() {
+        if ( this.lblError.isVisible() ) {
+            this.lblError.setVisible(false);
+            this.revalidate();
+        }
+    }
+
+    private void setToken(String token) {
+        this.txtFldToken.setText(token);
+        // Reset preferred size, add one pixel width to remove small scrolling
+        this.txtFldToken.setPreferredSize(null);
+        Dimension size = this.txtFldToken.getPreferredSize();
+        this.txtFldToken.setPreferredSize(new Dimension((int) size.getWidth() + 1, (int) size.getHeight()));
+    }
+}
@@ -2,9 +2,11 @@ package de.fhg.iais.roberta.ui.main;
 
 import de.fhg.iais.roberta.connection.IConnector;
 import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.connection.arduino.ArduinoConnector;
 import de.fhg.iais.roberta.ui.IController;
 import de.fhg.iais.roberta.ui.OraPopup;
 import de.fhg.iais.roberta.ui.deviceIdEditor.DeviceIdEditorController;
+import de.fhg.iais.roberta.ui.massFlash.MassFlashController;
 import de.fhg.iais.roberta.ui.serialMonitor.SerialMonitorController;
 import de.fhg.iais.roberta.usb.Robot;
 import de.fhg.iais.roberta.util.CustomAddressHelper;
@@ -17,7 +19,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.ImageIcon;
 import javax.swing.JList;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
+import java.awt.Component;
 import java.awt.Desktop;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
@@ -30,16 +34,21 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static de.fhg.iais.roberta.ui.main.HelpDialog.CMD_CLOSE_HELP;
 import static de.fhg.iais.roberta.ui.main.HelpDialog.CMD_SELECT_EV3;
 import static de.fhg.iais.roberta.ui.main.HelpDialog.CMD_SELECT_OTHER;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_ABOUT;
+import static de.fhg.iais.roberta.ui.main.MainView.CMD_BOARD_CONNECT;
+import static de.fhg.iais.roberta.ui.main.MainView.CMD_BOARD_DISCONNECT;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_COPY;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_EXIT;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_CONNECT;
@@ -47,6 +56,7 @@ import static de.fhg.iais.roberta.ui.main.MainView.CMD_CUSTOMADDRESS;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_DISCONNECT;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_HELP;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_ID_EDITOR;
+import static de.fhg.iais.roberta.ui.main.MainView.CMD_MASS_FLASH;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_SCAN;
 import static de.fhg.iais.roberta.ui.main.MainView.CMD_SERIAL;
 import static de.fhg.iais.roberta.ui.main.MainView.IMAGES_PATH;
@@ -60,7 +70,7 @@ public class MainController implements IController, IOraListenable<Robot> {
     private final ResourceBundle rb;
     private final MainView mainView;
 
-    private CustomAddressHelper addresses = new CustomAddressHelper();
+    private final CustomAddressHelper addresses;
 
     // For the robot selection if there is more than one robot available
     private List<Robot> robotList = null;
@@ -68,25 +78,43 @@ public class MainController implements IController, IOraListenable<Robot> {
     private boolean connected;
 
     private IConnector connector = null;
+    private IOraListener<State> connectorListener = null;
+    private State connectorState = State.DISCOVER; // last state of the connector, only used on the event dispatch thread
+
+    // Connectors of the supervisor if several boards are connected, by port name
+    private final Map<String, ArduinoConnector> boardConnectors = new ConcurrentHashMap<>();
+    private final Set<String> connectedBoards = ConcurrentHashMap.newKeySet();
 
     // Child controllers of the main controller, this includes other windows/JFrames that are launched from the main controller
+    // The rarely used ones are only created when they are shown for the first time, always on the event dispatch thread
     private SerialMonitorController serialMonitorController = null;
-    private final DeviceIdEditorController deviceIdEditorController;
+    private DeviceIdEditorController deviceIdEditorController = null;
+    private MassFlashController massFlashController = null;
 
-    private final HelpDialog helpDialog;
+    private final MainViewListener mainViewListener = new MainViewListener();
+    private HelpDialog helpDialog = null;
 
     public MainController(ResourceBundle rb) {
-        MainViewListener mainViewListener = new MainViewListener();
-        this.mainView = new MainView(rb, mainViewListener);
-        this.mainView.setVisible(true);
-        this.rb = rb;
-        this.connected = false;
+        this(rb, () -> {
+        });
+    }
 
-        this.mainView.setCustomAddresses(addresses.get());
+    /**
+     * @param rb the messages
+     * @param firstPaintListener called on the event dispatch thread when the main window was painted for the first time
+     */
+    public MainController(ResourceBundle rb, Runnable firstPaintListener) {
+        // the custom addresses are read from disk while the window is built
+        CompletableFuture<CustomAddressHelper> customAddresses = CompletableFuture.supplyAsync(CustomAddressHelper::new);
 
-        this.helpDialog = new HelpDialog(this.mainView, rb, mainViewListener);
+        this.mainView = new MainView(rb, this.mainViewListener);
+        this.mainView.setFirstPaintListener(firstPaintListener);
+        this.rb = rb;
+        this.connected = false;
 
-        this.deviceIdEditorController = new DeviceIdEditorController(rb);
+        this.addresses = customAddresses.join();
+        this.mainView.setCustomAddresses(this.addresses.get());
+        this.mainView.setVisible(true);
     }
 
     public void setRobotList(List<Robot> robotList) {
@@ -97,6 +125,7 @@ public class MainController implements IController, IOraListenable<Robot> {
     @Override
     public void setState(State state) {
         LOG.info("Setting state to {}", state);
+        this.connectorState = state;
         switch ( state ) {
             case WAIT_FOR_CONNECT_BUTTON_PRESS:
                 this.connected = false;
@@ -125,6 +154,10 @@ public class MainController implements IController, IOraListenable<Robot> {
             case WAIT_EXECUTION:
                 this.mainView.setWaitExecution();
                 break;
+            case STALLED:
+            case WAIT_FOR_RETRY:
+                this.mainView.setStalled();
+                break;
             case UPDATE_SUCCESS:
                 showAttentionPopup("restartInfo", "");
                 break;
@@ -152,7 +185,9 @@ public class MainController implements IController, IOraListenable<Robot> {
     public void setConnector(IConnector connector) {
         LOG.debug("setConnector: {}", connector.getRobot());
         this.connector = connector;
-        this.connector.registerListener(this::setState);
+        // states are delivered on the dispatcher thread of the connector
+        this.connectorListener = state -> SwingUtilities.invokeLater(() -> setState(state));
+        this.connector.registerListener(this.connectorListener);
 
         this.mainView.hideRobotList();
 
@@ -163,6 +198,111 @@ public class MainController implements IController, IOraListenable<Robot> {
         }
     }
 
+    /**
+     * Adds a status row for a connector of the supervisor, must be called before the connector is started. The first row switches the view to the
+     * board list.
+     *
+     * @param connector the connector of the board
+     */
+    public void addBoard(ArduinoConnector connector) {
+        String portName = connector.getPortName();
+        LOG.debug("addBoard: {}", portName);
+        boolean first = this.boardConnectors.isEmpty();
+        this.boardConnectors.put(portName, connector);
+        // the row is queued on the event dispatch thread before the first state of the connector
+        SwingUtilities.invokeLater(() -> {
+            if ( first ) {
+                this.mainView.hideRobotList();
+                this.mainView.showBoards();
+            }
+            this.mainView.addBoardRow(portName, connector.getBrickName());
+        });
+        connector.registerListener(state -> SwingUtilities.invokeLater(() -> setBoardState(connector, state)));
+    }
+
+    /**
+     * Moves the connector of the only board into a status row, when the supervisor takes it over because another board was attached. The connector
+     * keeps running, its row starts with the state it is in.
+     *
+     * @param connector the connector that was set with {@link #setConnector(IConnector)}
+     */
+    public void handOverBoard(ArduinoConnector connector) {
+        addBoard(connector);
+        IOraListener<State> listener = this.connectorListener;
+        // states that were queued before are still shown, the row gets every later state from its own listener
+        SwingUtilities.invokeLater(() -> {
+            connector.unregisterListener(listener);
+            setBoardState(connector, this.connectorState);
+        });
+    }
+
+    /**
+     * Removes the status row of a connector that was stopped by the supervisor. Removing the last row switches back to discovery.
+     *
+     * @param connector the connector of the board
+     */
+    public void removeBoard(ArduinoConnector connector) {
+        String portName = connector.getPortName();
+        LOG.debug("removeBoard: {}", portName);
+        if ( this.boardConnectors.remove(portName) == null ) {
+            return;
+        }
+        this.connectedBoards.remove(portName);
+        boolean last = this.boardConnectors.isEmpty();
+        SwingUtilities.invokeLater(() -> {
+            this.mainView.removeBoardRow(portName);
+            if ( last ) {
+                this.mainView.hideBoards();
+                setDiscover();
+            }
+        });
+    }
+
+    private void setBoardState(ArduinoConnector connector, State state) {
+        BoardRow boardRow = this.mainView.getBoardRow(connector.getPortName());
+        if ( (boardRow == null) || (this.boardConnectors.get(connector.getPortName()) != connector) ) {
+            // the connector was stopped, its row is removed or belongs to the next connector on the port
+            return;
+        }
+        LOG.info("Setting state of {} to {}", connector.getPortName(), state);
+        switch ( state ) {
+            case WAIT_FOR_CONNECT_BUTTON_PRESS:
+                this.connectedBoards.remove(connector.getPortName());
+                boardRow.setWaitForConnect();
+                break;
+            case WAIT_FOR_SERVER:
+                boardRow.clearError();
+                boardRow.setWaitForServer(connector.getToken());
+                break;
+            case RECONNECT:
+            case WAIT_FOR_CMD:
+                this.connectedBoards.add(connector.getPortName());
+                boardRow.clearError();
+                boardRow.setWaitForCmd();
+                break;
+            case DISCOVER:
+                this.connectedBoards.remove(connector.getPortName());
+                boardRow.setDiscover();
+                break;
+            case STALLED:
+            case WAIT_FOR_RETRY:
+                boardRow.setStalled();
+                break;
+            // errors are shown in the row of the board, a popup per board would stack up when the server is unreachable for all of them
+            case ERROR_HTTP:
+                boardRow.setError(this.rb.getString("httpErrorInfo"));
+                break;
+            case ERROR_DOWNLOAD:
+                boardRow.setError(this.rb.getString("downloadFail"));
+                break;
+            case TOKEN_TIMEOUT:
+                boardRow.setError(this.rb.getString("tokenTimeout"));
+                break;
+            default:
+                break;
+        }
+    }
+
     public void showConfigErrorPopup(Map<Integer, String> errors) {
         StringBuilder sb = new StringBuilder(200);
         sb.append(System.lineSeparator());
@@ -175,13 +315,38 @@ public class MainController implements IController, IOraListenable<Robot> {
     }
 
     public void showHelp() {
-        this.helpDialog.setLocation(this.mainView.getRobotButtonLocation());
-        this.helpDialog.setVisible(true);
+        SwingUtilities.invokeLater(() -> {
+            HelpDialog dialog = getHelpDialog();
+            dialog.setLocation(this.mainView.getRobotButtonLocation());
+            dialog.setVisible(true);
+        });
     }
 
     private void toggleHelp() {
-        this.helpDialog.setLocation(this.mainView.getRobotButtonLocation());
-        this.helpDialog.setVisible(!this.helpDialog.isVisible());
+        HelpDialog dialog = getHelpDialog();
+        dialog.setLocation(this.mainView.getRobotButtonLocation());
+        dialog.setVisible(!dialog.isVisible());
+    }
+
+    private HelpDialog getHelpDialog() {
+        if ( this.helpDialog == null ) {
+            this.helpDialog = new HelpDialog(this.mainView, this.rb, this.mainViewListener);
+        }
+        return this.helpDialog;
+    }
+
+    private DeviceIdEditorController getDeviceIdEditorController() {
+        if ( this.deviceIdEditorController == null ) {
+            this.deviceIdEditorController = new DeviceIdEditorController(this.rb);
+        }
+        return this.deviceIdEditorController;
+    }
+
+    private MassFlashController getMassFlashController() {
+        if ( this.massFlashController == null ) {
+            this.massFlashController = new MassFlashController(this.rb);
+        }
+        return this.massFlashController;
     }
 
     private void setDiscover() {
@@ -233,24 +398,40 @@ public class MainController implements IController, IOraListenable<Robot> {
                     MainController.this.serialMonitorController.showSerialMonitor();
                     break;
                 case CMD_CONNECT:
-                    checkForValidCustomServerAddressAndUpdate();
+                    checkForValidCustomServerAddressAndUpdate(MainController.this.connector);
                     MainController.this.connector.userPressConnectButton();
                     break;
                 case CMD_DISCONNECT:
                     MainController.this.connector.userPressDisconnectButton();
                     break;
+                case CMD_BOARD_CONNECT:
+                    IConnector boardConnector = MainController.this.boardConnectors.get(((Component) e.getSource()).getName());
+                    if ( boardConnector != null ) {
+                        checkForValidCustomServerAddressAndUpdate(boardConnector);
+                        boardConnector.userPressConnectButton();
+                    }
+                    break;
+                case CMD_BOARD_DISCONNECT:
+                    boardConnector = MainController.this.boardConnectors.get(((Component) e.getSource()).getName());
+                    if ( boardConnector != null ) {
+                        boardConnector.userPressDisconnectButton();
+                    }
+                    break;
                 case CMD_HELP:
                     toggleHelp();
                     break;
                 case CMD_ID_EDITOR:
-                    MainController.this.deviceIdEditorController.showEditor();
+                    getDeviceIdEditorController().showEditor();
                     if (MainController.this.connector != null) {
                         MainController.this.connector.interrupt();
                     }
                     setDiscover();
                     break;
+                case CMD_MASS_FLASH:
+                    getMassFlashController().showMassFlash();
+                    break;
                 case CMD_SELECT_EV3:
-                    MainController.this.helpDialog.dispose();
+                    getHelpDialog().dispose();
                     try {
                         Desktop.getDesktop().browse(new URI(MainController.this.rb.getString("linkEv3UsbWiki")));
                     } catch ( IOException | URISyntaxException e1 ) {
@@ -258,15 +439,15 @@ public class MainController implements IController, IOraListenable<Robot> {
                     }
                     break;
                 case CMD_SELECT_OTHER:
-                    MainController.this.helpDialog.dispose();
-                    MainController.this.deviceIdEditorController.showEditor();
+                    getHelpDialog().dispose();
+                    getDeviceIdEditorController().showEditor();
                     if (MainController.this.connector != null) {
                         MainController.this.connector.interrupt();
                     }
                     setDiscover();
                     break;
                 case CMD_CLOSE_HELP:
-                    MainController.this.helpDialog.dispose();
+                    getHelpDialog().dispose();
                     break;
                 case CMD_COPY:
                     StringSelection stringSelection = new StringSelection(connector.getToken());
@@ -301,7 +482,7 @@ public class MainController implements IController, IOraListenable<Robot> {
                     .getScaledInstance(100, 27, java.awt.Image.SCALE_AREA_AVERAGING)));
         }
 
-        private void checkForValidCustomServerAddressAndUpdate() {
+        private void checkForValidCustomServerAddressAndUpdate(IConnector connector) {
             LOG.debug("checkForValidCustomServerAddressAndUpdate");
             if ( MainController.this.mainView.isCustomAddressSelected() ) {
                 Pair<String, String> address = MainController.this.mainView.getCustomAddress();
@@ -310,34 +491,34 @@ public class MainController implements IController, IOraListenable<Robot> {
 
                 if ( ip.isEmpty() ) {
                     LOG.warn("Invalid custom address - Using default address");
-                    MainController.this.connector.resetToDefaultServerAddress();
+                    connector.resetToDefaultServerAddress();
                 } else {
                     if ( port.isEmpty() ) {
                         LOG.info("Valid custom ip {}, using default ports", ip);
-                        MainController.this.connector.updateCustomServerAddress(ip);
+                        connector.updateCustomServerAddress(ip);
                         MainController.this.addresses.add(address);
-                        MainController.this.mainView.setCustomAddresses(addresses.get());
+                        MainController.this.mainView.setCustomAddresses(MainController.this.addresses.get());
                     } else {
                         if ( CustomAddressHelper.validatePort(port) ) {
                             String formattedAddress = ip + ':' + port;
                             LOG.info("Valid custom address {}", formattedAddress);
-                            MainController.this.connector.updateCustomServerAddress(formattedAddress);
+                            connector.updateCustomServerAddress(formattedAddress);
                             MainController.this.addresses.add(address);
-                            MainController.this.mainView.setCustomAddresses(addresses.get());
+                            MainController.this.mainView.setCustomAddresses(MainController.this.addresses.get());
                         } else {
                             LOG.warn("Invalid port {}", port);
                         }
                     }
                 }
             } else {
-                MainController.this.connector.resetToDefaultServerAddress();
+                connector.resetToDefaultServerAddress();
             }
         }
 
         private void closeApplication() {
             LOG.debug("closeApplication");
-            addresses.save();
-            if ( MainController.this.connected ) {
+            MainController.this.addresses.save();
+            if ( MainController.this.connected || !MainController.this.connectedBoards.isEmpty() ) {
                 String[] buttons = {
                     MainController.this.rb.getString("exit"), MainController.this.rb.getString("cancel")
                 };
@@ -350,6 +531,7 @@ public class MainController implements IController, IOraListenable<Robot> {
                     if ( MainController.this.connector != null ) {
                         MainController.this.connector.close();
                     }
+                    MainController.this.boardConnectors.values().forEach(IConnector::close);
                     System.exit(0);
                 }
             } else {
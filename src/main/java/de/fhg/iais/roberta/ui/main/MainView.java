@@ -24,6 +24,7 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
@@ -39,14 +40,17 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowListener;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.ResourceBundle;
 
@@ -71,7 +75,10 @@ public class MainView extends JFrame {
     static final String CMD_DISCONNECT = "disconnect";
     static final String CMD_HELP = "help";
     static final String CMD_ID_EDITOR = "id_editor";
+    static final String CMD_MASS_FLASH = "mass_flash";
     static final String CMD_COPY = "copy";
+    static final String CMD_BOARD_CONNECT = "board_connect";
+    static final String CMD_BOARD_DISCONNECT = "board_disconnect";
 
     public static final String IMAGES_PATH = "images/";
 
@@ -146,6 +153,7 @@ public class MainView extends JFrame {
 
     private final JMenu menuFile = new JMenu();
     private final JMenuItem menuItemIdEditor = new JMenuItem();
+    private final JMenuItem menuItemMassFlash = new JMenuItem();
     private final JMenuItem menuItemClose = new JMenuItem();
 
     private final JMenu menuArduino = new JMenu();
@@ -164,6 +172,10 @@ public class MainView extends JFrame {
     private final JLabel lblSelection = new JLabel();
     private final JList<String> listRobots = new JList<>();
 
+    private final JPanel pnlBoards = new JPanel();
+    private final JScrollPane scrlBoards = new JScrollPane(this.pnlBoards);
+    private final Map<String, BoardRow> boardRows = new HashMap<>();
+
     private final JPanel pnlToken = new JPanel();
     private final JTextField txtFldPreToken = new JTextField();
     private final JTextField txtFldToken = new JTextField();
@@ -195,17 +207,26 @@ public class MainView extends JFrame {
     // Resources
     public static final ImageIcon ICON_TITLE = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "OR.png")));
     private static final Icon GIF_PLUG = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "plug.gif")));
-    private static final Icon GIF_CONNECT = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "connect.gif")));
-    private static final Icon GIF_SERVER = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "server.gif")));
-    private static final Icon GIF_CONNECTED = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "connected.gif")));
     private static final Icon ARROW_DOWN = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "arrow-sorted-down.png")));
-    private static final Icon ARROW_UP = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "arrow-sorted-up.png")));
     private static final Icon CLIPBOARD = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "clipboard.png")));
+
+    // Not needed for the first paint, loaded when a robot is found
+    private static class LaterIcons {
+        private static final Icon GIF_CONNECT = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "connect.gif")));
+        private static final Icon GIF_SERVER = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "server.gif")));
+        private static final Icon GIF_CONNECTED = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "connected.gif")));
+        private static final Icon ARROW_UP = new ImageIcon(Objects.requireNonNull(MainView.class.getClassLoader().getResource(IMAGES_PATH + "arrow-sorted-up.png")));
+    }
+
     private final ResourceBundle messages;
 
+    private ActionListener actionListener = null;
+
     private boolean toggle = true;
     private boolean customMenuVisible = false;
 
+    private Runnable firstPaintListener = null;
+
     MainView(ResourceBundle messages, IOraUiListener listener) {
         this.messages = messages;
 
@@ -217,6 +238,23 @@ public class MainView extends JFrame {
         this.setActionListener(listener);
     }
 
+    /**
+     * @param firstPaintListener called once on the event dispatch thread after the window was painted for the first time
+     */
+    void setFirstPaintListener(Runnable firstPaintListener) {
+        this.firstPaintListener = firstPaintListener;
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if ( this.firstPaintListener != null ) {
+            Runnable listener = this.firstPaintListener;
+            this.firstPaintListener = null;
+            listener.run();
+        }
+    }
+
     private void initGeneralGUI() {
         // General
         this.setSize(WIDTH, HEIGHT);
@@ -240,6 +278,9 @@ public class MainView extends JFrame {
         this.menuFile.add(this.menuItemIdEditor);
         this.menuItemIdEditor.setText(this.messages.getString("idEditor"));
         this.menuItemIdEditor.setActionCommand(CMD_ID_EDITOR);
+        this.menuFile.add(this.menuItemMassFlash);
+        this.menuItemMassFlash.setText(this.messages.getString("massFlash"));
+        this.menuItemMassFlash.setActionCommand(CMD_MASS_FLASH);
         this.menuFile.add(this.menuItemClose);
         this.menuItemClose.setText(this.messages.getString("exit"));
         this.menuItemClose.setActionCommand(CMD_EXIT);
@@ -286,6 +327,12 @@ public class MainView extends JFrame {
         this.listRobots.setMaximumSize(new Dimension(Short.MAX_VALUE, Short.MAX_VALUE));
         this.listRobots.setBorder(BorderFactory.createEmptyBorder(0, 12, 0, 12));
 
+        // Board rows, if several boards are connected
+        this.pnlCenter.add(this.scrlBoards);
+        this.scrlBoards.setBorder(BorderFactory.createEmptyBorder());
+        this.scrlBoards.setPreferredSize(new Dimension(WIDTH, 220));
+        this.pnlBoards.setLayout(new BoxLayout(this.pnlBoards, BoxLayout.PAGE_AXIS));
+
         // Token panel
         this.pnlCenter.add(this.pnlToken);
 
@@ -401,6 +448,7 @@ public class MainView extends JFrame {
         this.initCustomPanelGUI();
 
         this.hideRobotList();
+        this.hideBoards();
         this.hideCustom();
         this.hideArduinoMenu();
     }
@@ -416,7 +464,9 @@ public class MainView extends JFrame {
     }
 
     private void setActionListener(ActionListener listener) {
+        this.actionListener = listener;
         this.menuItemIdEditor.addActionListener(listener);
+        this.menuItemMassFlash.addActionListener(listener);
         this.menuItemClose.addActionListener(listener);
         this.menuItemAbout.addActionListener(listener);
         this.menuItemSerial.addActionListener(listener);
@@ -441,7 +491,7 @@ public class MainView extends JFrame {
         this.butConnect.setEnabled(true);
         this.butScan.setEnabled(true);
         this.txtAreaInfo.setText(this.messages.getString("connectInfo"));
-        this.lblMainGif.setIcon(GIF_CONNECT);
+        this.lblMainGif.setIcon(LaterIcons.GIF_CONNECT);
     }
 
     void setWaitExecution() {
@@ -459,7 +509,11 @@ public class MainView extends JFrame {
         this.butConnect.setActionCommand(CMD_DISCONNECT);
         this.butRobot.setState(CONNECTED);
         this.txtAreaInfo.setText(this.messages.getString("serverInfo"));
-        this.lblMainGif.setIcon(GIF_CONNECTED);
+        this.lblMainGif.setIcon(LaterIcons.GIF_CONNECTED);
+    }
+
+    void setStalled() {
+        this.txtAreaInfo.setText(this.messages.getString("stalledInfo"));
     }
 
     void setDiscover() {
@@ -495,7 +549,7 @@ public class MainView extends JFrame {
         this.txtFldToken.setPreferredSize(new Dimension((int) this.txtFldToken.getPreferredSize().getWidth() + 1, (int) this.txtFldToken.getPreferredSize().getHeight()));
         this.butCopy.setVisible(showCopy);
         this.txtAreaInfo.setText(this.messages.getString("tokenInfo"));
-        this.lblMainGif.setIcon(GIF_SERVER);
+        this.lblMainGif.setIcon(LaterIcons.GIF_SERVER);
     }
 
     void showRobotList(List<String> robotNames) {
@@ -509,6 +563,47 @@ public class MainView extends JFrame {
         this.listRobots.setVisible(false);
     }
 
+    void showBoards() {
+        this.scrlBoards.setVisible(true);
+        this.pnlToken.setVisible(false);
+        this.pnlMainGif.setVisible(false);
+        this.butConnect.setVisible(false);
+        this.butScan.setVisible(false);
+        this.butRobot.setState(DISCOVERED);
+        this.txtAreaInfo.setText(this.messages.getString("boardsInfo"));
+    }
+
+    void hideBoards() {
+        this.pnlBoards.removeAll();
+        this.boardRows.clear();
+        this.scrlBoards.setVisible(false);
+        this.pnlToken.setVisible(true);
+        this.pnlMainGif.setVisible(true);
+        this.butConnect.setVisible(true);
+        this.butScan.setVisible(true);
+    }
+
+    BoardRow addBoardRow(String portName, String brickName) {
+        BoardRow boardRow = new BoardRow(this.messages, portName, brickName, this.actionListener);
+        this.boardRows.put(portName, boardRow);
+        this.pnlBoards.add(boardRow);
+        this.pnlBoards.revalidate();
+        return boardRow;
+    }
+
+    void removeBoardRow(String portName) {
+        BoardRow boardRow = this.boardRows.remove(portName);
+        if ( boardRow != null ) {
+            this.pnlBoards.remove(boardRow);
+            this.pnlBoards.revalidate();
+            this.pnlBoards.repaint();
+        }
+    }
+
+    BoardRow getBoardRow(String portName) {
+        return this.boardRows.get(portName);
+    }
+
     void showArduinoMenu() {
         this.menuArduino.setVisible(true);
     }
@@ -526,7 +621,7 @@ public class MainView extends JFrame {
             this.setSize(new Dimension(WIDTH, ADVANCED_HEIGHT));
             this.setPreferredSize(new Dimension(WIDTH, ADVANCED_HEIGHT));
             this.showCustom();
-            this.butCustom.setIcon(ARROW_UP);
+            this.butCustom.setIcon(LaterIcons.ARROW_UP);
             this.customMenuVisible = true;
         } else {
             this.setSize(new Dimension(WIDTH, HEIGHT));
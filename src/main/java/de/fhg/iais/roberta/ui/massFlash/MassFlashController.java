@@ -0,0 +1,173 @@
+package de.fhg.iais.roberta.ui.massFlash;
+
+import de.fhg.iais.roberta.connection.IConnector;
+import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.connection.arduino.ArduinoDetector;
+import de.fhg.iais.roberta.connection.arduino.ArduinoType;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.BoardState;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.Summary;
+import de.fhg.iais.roberta.ui.IController;
+import de.fhg.iais.roberta.util.IOraUiListener;
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.SwingUtilities;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static de.fhg.iais.roberta.ui.massFlash.MassFlashView.CMD_CHOOSE_FILE;
+import static de.fhg.iais.roberta.ui.massFlash.MassFlashView.CMD_FLASH;
+import static de.fhg.iais.roberta.ui.massFlash.MassFlashView.CMD_SELECT_TYPE;
+
+public class MassFlashController implements IController {
+    private static final Logger LOG = LoggerFactory.getLogger(MassFlashController.class);
+
+    private static final int DEFAULT_MAX_FLASH_WORKERS = 16;
+
+    private final MassFlashView massFlashView;
+
+    private final ResourceBundle messages;
+
+    private final ArduinoDetector arduinoDetector = new ArduinoDetector();
+    // runs the detection and the mass flasher, which waits for its workers
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    private Map<String, ArduinoType> detectedBoards = Collections.emptyMap();
+    private Map<String, ArduinoType> boards = Collections.emptyMap();
+    private Path hexFile = null;
+    private boolean flashing = false;
+
+    public MassFlashController(ResourceBundle rb) {
+        this.massFlashView = new MassFlashView(rb, new MassFlashViewListener());
+        this.messages = rb;
+    }
+
+    @Override
+    public void setConnector(IConnector connector) {
+        // does not need the connector
+    }
+
+    @Override
+    public void setState(State state) {
+        // does not need the state
+    }
+
+    /**
+     * Shows the view, the boards are detected in the background and listed once they are found. Must be called on the event dispatch thread.
+     */
+    public void showMassFlash() {
+        if ( !this.flashing ) {
+            this.massFlashView.setFlashEnabled(false);
+            this.executorService.execute(() -> {
+                this.arduinoDetector.detectRobot();
+                Map<String, ArduinoType> detected = this.arduinoDetector.getDetectedArduinos();
+                SwingUtilities.invokeLater(() -> {
+                    if ( !this.flashing ) {
+                        this.detectedBoards = detected;
+                        this.massFlashView.setBoardTypes(new LinkedHashSet<>(detected.values()));
+                        selectBoards();
+                    }
+                });
+            });
+        }
+        this.massFlashView.setVisible(true);
+    }
+
+    private void selectBoards() {
+        this.boards = MassFlasher.selectBoards(this.detectedBoards, this.massFlashView.getSelectedType());
+        this.massFlashView.setBoards(this.boards.keySet());
+        this.massFlashView.setFlashEnabled((this.hexFile != null) && !this.boards.isEmpty());
+    }
+
+    private void flash() {
+        this.flashing = true;
+        this.massFlashView.setFlashEnabled(false);
+        this.massFlashView.setOptionsEnabled(false);
+        this.massFlashView.setBoards(this.boards.keySet());
+
+        Path file = this.hexFile;
+        Map<String, ArduinoType> selectedBoards = this.boards;
+        MassFlasher massFlasher = new MassFlasher(PropertyHelper.getInstance().getIntProperty("arduinoMaxFlashWorkers", DEFAULT_MAX_FLASH_WORKERS));
+        this.executorService.execute(() -> {
+            String summaryText;
+            try {
+                Summary summary = massFlasher.flash(file, selectedBoards, state -> SwingUtilities.invokeLater(() -> updateBoard(state)));
+                summaryText = MessageFormat.format(this.messages.getString("massFlashSummary"),
+                    String.valueOf(summary.getSucceeded()),
+                    String.valueOf(summary.getResults().size()),
+                    String.valueOf(summary.getMillis()),
+                    String.format(Locale.ROOT, "%.1f", summary.getBytesPerSecond() / 1024.0));
+            } catch ( IOException e ) {
+                LOG.error("Could not read {}: {}", file, e.getMessage());
+                summaryText = this.messages.getString("readHexFail");
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            String text = summaryText;
+            SwingUtilities.invokeLater(() -> {
+                this.massFlashView.setSummary(text);
+                this.massFlashView.setOptionsEnabled(true);
+                this.massFlashView.setFlashEnabled(true);
+                this.flashing = false;
+            });
+        });
+    }
+
+    private void updateBoard(BoardState state) {
+        String statusKey;
+        switch ( state.getStatus() ) {
+            case FLASHING:
+                statusKey = "flashRunning";
+                break;
+            case DONE:
+                statusKey = "flashDone";
+                break;
+            case FAILED:
+                statusKey = "flashFailed";
+                break;
+            default:
+                statusKey = "flashQueued";
+                break;
+        }
+        this.massFlashView.updateBoard(state.getPortName(), state.getPercent(), statusKey);
+    }
+
+    private class MassFlashViewListener implements IOraUiListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            LOG.info("actionPerformed: {}", e.getActionCommand());
+
+            switch ( e.getActionCommand() ) {
+                case CMD_CHOOSE_FILE:
+                    Path file = MassFlashController.this.massFlashView.chooseHexFile();
+                    if ( file != null ) {
+                        MassFlashController.this.hexFile = file;
+                        selectBoards();
+                    }
+                    break;
+                case CMD_SELECT_TYPE:
+                    if ( !MassFlashController.this.flashing ) {
+                        selectBoards();
+                    }
+                    break;
+                case CMD_FLASH:
+                    flash();
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Action " + e.getActionCommand() + " is not implemented!");
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package de.fhg.iais.roberta.ui.massFlash;
+
+import de.fhg.iais.roberta.connection.arduino.ArduinoType;
+import de.fhg.iais.roberta.ui.OraButton;
+import de.fhg.iais.roberta.util.IOraUiListener;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import static de.fhg.iais.roberta.ui.main.MainView.ICON_TITLE;
+
+class MassFlashView extends JFrame {
+    static final String CMD_CHOOSE_FILE = "choose_file";
+    static final String CMD_SELECT_TYPE = "select_type";
+    static final String CMD_FLASH = "flash";
+
+    private final ResourceBundle messages;
+
+    private final JPanel pnlOptions = new JPanel();
+    private final OraButton btnChooseFile = new OraButton();
+    private final JLabel lblFile = new JLabel();
+    private final JComboBox<ArduinoType> cmbType = new JComboBox<>();
+    private final OraButton btnFlash = new OraButton();
+
+    private final JPanel pnlBoards = new JPanel();
+    private final JScrollPane scrBoards = new JScrollPane(this.pnlBoards);
+    private final Map<String, JProgressBar> progressBars = new HashMap<>();
+    private final Map<String, JLabel> statusLabels = new HashMap<>();
+
+    private final JLabel lblSummary = new JLabel();
+
+    MassFlashView(ResourceBundle messages, IOraUiListener listener) {
+        this.messages = messages;
+
+        // General
+        this.setSize(500, 400);
+        this.setLocationRelativeTo(null);
+        this.addWindowListener(listener);
+
+        // Titlebar
+        this.setIconImage(ICON_TITLE.getImage());
+        this.setTitle(messages.getString("massFlash"));
+
+        this.add(this.pnlOptions, BorderLayout.PAGE_START);
+        this.pnlOptions.setLayout(new FlowLayout(FlowLayout.LEADING));
+        this.pnlOptions.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        this.pnlOptions.add(this.btnChooseFile);
+        this.btnChooseFile.setText(messages.getString("chooseHexFile"));
+        this.btnChooseFile.setActionCommand(CMD_CHOOSE_FILE);
+        this.btnChooseFile.addActionListener(listener);
+        this.pnlOptions.add(this.lblFile);
+        this.lblFile.setText(messages.getString("noHexFile"));
+        this.pnlOptions.add(this.cmbType);
+        this.cmbType.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Object text = (value instanceof ArduinoType) ? ((ArduinoType) value).getPrettyText() : value;
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        this.cmbType.setActionCommand(CMD_SELECT_TYPE);
+        this.cmbType.addActionListener(listener);
+        this.pnlOptions.add(this.btnFlash);
+        this.btnFlash.setText(messages.getString("flashAll"));
+        this.btnFlash.setActionCommand(CMD_FLASH);
+        this.btnFlash.addActionListener(listener);
+        this.btnFlash.setEnabled(false);
+
+        // one row per board with its port, progress and status
+        this.add(this.scrBoards, BorderLayout.CENTER);
+        this.scrBoards.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        this.pnlBoards.setLayout(new GridLayout(0, 3, 8, 4));
+
+        this.add(this.lblSummary, BorderLayout.PAGE_END);
+        this.lblSummary.setBorder(BorderFactory.createEmptyBorder(4, 8, 8, 8));
+    }
+
+    /**
+     * @return the chosen HEX file, null if the user cancelled
+     */
+    Path chooseHexFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter("HEX", "hex"));
+        if ( fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION ) {
+            return null;
+        }
+        Path file = fileChooser.getSelectedFile().toPath();
+        this.lblFile.setText(file.getFileName().toString());
+        return file;
+    }
+
+    void setBoardTypes(Collection<ArduinoType> types) {
+        this.cmbType.removeAllItems();
+        types.forEach(this.cmbType::addItem);
+    }
+
+    ArduinoType getSelectedType() {
+        Object selected = this.cmbType.getSelectedItem();
+        return (selected != null) ? (ArduinoType) selected : ArduinoType.NONE;
+    }
+
+    void setBoards(Collection<String> portNames) {
+        this.pnlBoards.removeAll();
+        this.progressBars.clear();
+        this.statusLabels.clear();
+        for ( String portName : portNames ) {
+            JProgressBar progressBar = new JProgressBar(0, 100);
+            progressBar.setStringPainted(true);
+            JLabel status = new JLabel(this.messages.getString("flashQueued"));
+            this.pnlBoards.add(new JLabel(portName));
+            this.pnlBoards.add(progressBar);
+            this.pnlBoards.add(status);
+            this.progressBars.put(portName, progressBar);
+            this.statusLabels.put(portName, status);
+        }
+        this.pnlBoards.revalidate();
+        this.pnlBoards.repaint();
+        this.lblSummary.setText(portNames.isEmpty() ? this.messages.getString("noBoardFound") : "");
+    }
+
+    void updateBoard(String portName, int percent, String statusKey) {
+        JProgressBar progressBar = this.progressBars.get(portName);
+        if ( progressBar != null ) {
+            progressBar.setValue(percent);
+            this.statusLabels.get(portName).setText(this.messages.getString(statusKey));
+        }
+    }
+
+    void setSummary(String summary) {
+        this.lblSummary.setText(summary);
+    }
+
+    /**
+     * @param ready whether a file was chosen, a board is attached and no flashing is in progress
+     */
+    void setFlashEnabled(boolean ready) {
+        this.btnFlash.setEnabled(ready);
+    }
+
+    void setOptionsEnabled(boolean enabled) {
+        this.btnChooseFile.setEnabled(enabled);
+        this.cmbType.setEnabled(enabled);
+    }
+}
@@ -36,7 +36,7 @@ public class SerialMonitorController implements IController {
     @Override
     public void setConnector(IConnector connector) {
         LOG.debug("setConnector: {}", connector.getRobot());
-        connector.registerListener(this::setState);
+        connector.registerListener(state -> SwingUtilities.invokeLater(() -> setState(state)));
         this.portName = ((ArduinoConnector) connector).getPortName();
     }
 
@@ -0,0 +1,23 @@
+package de.fhg.iais.roberta.usb;
+
+/**
+ * Entry point of the headless jar, which does not contain the GUI.
+ */
+class HeadlessLauncher {
+    public static void main(String[] args) {
+        HeadlessOptions options;
+        try {
+            options = HeadlessOptions.parse(args);
+            options.validate();
+        } catch ( IllegalArgumentException e ) {
+            System.err.println(e.getMessage());
+            System.err.println(HeadlessOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if ( options.getFlashFile() != null ) {
+            System.exit(new HeadlessProgram(options, System.out).flash());
+        }
+        new HeadlessProgram(options, System.out).run();
+    }
+}
@@ -0,0 +1,160 @@
+package de.fhg.iais.roberta.usb;
+
+import de.fhg.iais.roberta.connection.arduino.ArduinoType;
+import de.fhg.iais.roberta.util.PropertyHelper;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options of the headless mode. Every option can be given on the command line as --key=value and overrides the property with the same key in
+ * OpenRobertaUSB.properties.
+ */
+final class HeadlessOptions {
+    static final String HEADLESS = "headless";
+    static final String SERVER_ADDRESS = "serverAddress";
+    static final String ROBOT = "robot";
+    static final String MAX_CONNECTORS = "arduinoMaxConnectors";
+    static final String FLASH = "flash";
+    static final String FLASH_BOARD = "flashBoard";
+    static final String MAX_FLASH_WORKERS = "arduinoMaxFlashWorkers";
+
+    private static final Set<String> KEYS =
+        new HashSet<>(Arrays.asList(HEADLESS, SERVER_ADDRESS, ROBOT, MAX_CONNECTORS, FLASH, FLASH_BOARD, MAX_FLASH_WORKERS));
+
+    static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: --headless [--serverAddress=host:port] [--robot=ev3|arduino] [--arduinoMaxConnectors=n]",
+        "       --flash=program.hex [--flashBoard=uno|mega|nano|bob3|ardu|mbot] [--arduinoMaxFlashWorkers=n]");
+
+    private final Map<String, String> options;
+
+    private HeadlessOptions(Map<String, String> options) {
+        this.options = options;
+    }
+
+    /**
+     * @param args the command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException if an argument is not of the form --key or --key=value or the key is unknown, e.g. misspelled
+     */
+    static HeadlessOptions parse(String... args) {
+        Map<String, String> options = new HashMap<>();
+        for ( String arg : args ) {
+            if ( !arg.startsWith("--") || (arg.length() == 2) ) {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+            int equals = arg.indexOf('=');
+            String key = (equals < 0) ? arg.substring(2) : arg.substring(2, equals);
+            if ( !KEYS.contains(key) ) {
+                throw new IllegalArgumentException("Unknown option --" + key);
+            }
+            options.put(key, (equals < 0) ? "true" : arg.substring(equals + 1));
+        }
+        return new HeadlessOptions(options);
+    }
+
+    /**
+     * Checks the values of all options, so a wrong one is reported at startup instead of when it is used.
+     *
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    void validate() {
+        getRobot();
+        getFlashBoard();
+        getMaxConnectors(1);
+        getMaxFlashWorkers(1);
+    }
+
+    /**
+     * @return whether the program should run without a GUI, also if the JVM was started with java.awt.headless=true
+     */
+    boolean isHeadless() {
+        return Boolean.parseBoolean(get(HEADLESS)) || Boolean.getBoolean("java.awt.headless");
+    }
+
+    /**
+     * @return the server address to connect to, null to use serverIp and serverPort of the properties
+     */
+    String getServerAddress() {
+        return get(SERVER_ADDRESS);
+    }
+
+    /**
+     * @return the robot to connect to if several are detected, {@link Robot#NONE} to take the first one
+     * @throws IllegalArgumentException if the robot is unknown
+     */
+    Robot getRobot() {
+        String robot = get(ROBOT);
+        if ( robot == null ) {
+            return Robot.NONE;
+        }
+        try {
+            return Robot.valueOf(robot.trim().toUpperCase(Locale.ENGLISH));
+        } catch ( IllegalArgumentException e ) {
+            throw new IllegalArgumentException("Unknown robot " + robot, e);
+        }
+    }
+
+    /**
+     * @param defaultValue the value used if the option is neither given nor a number in the properties
+     * @return the maximum number of arduino connectors
+     * @throws IllegalArgumentException if the option is given but not a positive number
+     */
+    int getMaxConnectors(int defaultValue) {
+        return getInt(MAX_CONNECTORS, defaultValue);
+    }
+
+    /**
+     * @return the HEX file that should be flashed to all attached boards instead of connecting them, null to connect them
+     */
+    Path getFlashFile() {
+        String file = this.options.get(FLASH);
+        return (file == null) ? null : Paths.get(file);
+    }
+
+    /**
+     * @return the type of the boards that should be flashed, {@link ArduinoType#NONE} for the type of the first board that is found
+     * @throws IllegalArgumentException if the type is unknown
+     */
+    ArduinoType getFlashBoard() {
+        String board = this.options.get(FLASH_BOARD);
+        return (board == null) ? ArduinoType.NONE : ArduinoType.fromString(board.trim());
+    }
+
+    /**
+     * @param defaultValue the value used if the option is neither given nor a number in the properties
+     * @return the maximum number of boards that are flashed at the same time
+     * @throws IllegalArgumentException if the option is given but not a positive number
+     */
+    int getMaxFlashWorkers(int defaultValue) {
+        return getInt(MAX_FLASH_WORKERS, defaultValue);
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = this.options.get(key);
+        if ( value == null ) {
+            return PropertyHelper.getInstance().getIntProperty(key, defaultValue);
+        }
+        int number;
+        try {
+            number = Integer.parseInt(value.trim());
+        } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException(key + " is not a number: " + value, e);
+        }
+        if ( number <= 0 ) {
+            throw new IllegalArgumentException(key + " must be positive: " + value);
+        }
+        return number;
+    }
+
+    private String get(String key) {
+        String value = this.options.get(key);
+        return (value == null) ? PropertyHelper.getInstance().getProperty(key) : value;
+    }
+}
@@ -0,0 +1,164 @@
+package de.fhg.iais.roberta.usb;
+
+import de.fhg.iais.roberta.connection.IConnector;
+import de.fhg.iais.roberta.connection.arduino.ArduinoDetector;
+import de.fhg.iais.roberta.connection.arduino.ArduinoSupervisor;
+import de.fhg.iais.roberta.connection.arduino.ArduinoType;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.BoardState;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.Status;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.Summary;
+import de.fhg.iais.roberta.connection.ev3.Ev3Connector;
+import de.fhg.iais.roberta.connection.ev3.Ev3Detector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Runs the detection and the connectors without a GUI, e.g. on an unattended Raspberry Pi. Robots are connected as soon as they are found, tokens and
+ * states are reported by a {@link StateReporter}. Neither this class nor the connectors load AWT or Swing.
+ */
+class HeadlessProgram {
+    private static final Logger LOG = LoggerFactory.getLogger(HeadlessProgram.class);
+
+    private static final long TIMEOUT = 1000L;
+    private static final int DEFAULT_MAX_CONNECTORS = 16;
+    private static final int DEFAULT_MAX_FLASH_WORKERS = 16;
+    private static final int PROGRESS_STEP = 10;
+
+    private final HeadlessOptions options;
+    private final PrintStream out;
+
+    private final Ev3Detector ev3Detector = new Ev3Detector();
+    private final ArduinoDetector arduinoDetector = new ArduinoDetector();
+    private final RobotDetectorHelper robotDetectorHelper = new RobotDetectorHelper(Arrays.asList(this.arduinoDetector, this.ev3Detector));
+
+    HeadlessProgram(HeadlessOptions options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+    }
+
+    void run() {
+        Robot preferredRobot = this.options.getRobot();
+        for ( Entry<Integer, String> error : this.arduinoDetector.getReadIdFileErrors().entrySet() ) {
+            LOG.error("Error in arduino id file, line {}: {}", error.getKey(), error.getValue());
+        }
+
+        while ( !Thread.currentThread().isInterrupted() ) {
+            Robot robot = detectRobot(preferredRobot);
+            switch ( robot ) {
+                case EV3:
+                    runConnector(new Ev3Connector(), robot.toString());
+                    break;
+                case ARDUINO:
+                    // also with a single board, boards that are attached later get their own connector
+                    runArduinoSupervisor();
+                    break;
+                default:
+                    // interrupted while detecting
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Flashes the HEX file of the options to all boards that are attached now, reports the progress of every board and a summary.
+     *
+     * @return the exit code, 0 if every board was flashed, 1 if a board failed or none was found
+     */
+    int flash() {
+        this.arduinoDetector.detectRobot();
+        Map<String, ArduinoType> boards = MassFlasher.selectBoards(this.arduinoDetector.getDetectedArduinos(), this.options.getFlashBoard());
+        if ( boards.isEmpty() ) {
+            this.out.println("No board to flash found");
+            return 1;
+        }
+
+        MassFlasher massFlasher = new MassFlasher(this.options.getMaxFlashWorkers(DEFAULT_MAX_FLASH_WORKERS));
+        try {
+            Summary summary = massFlasher.flash(this.options.getFlashFile(), boards, this::reportFlashState);
+            this.out.printf(Locale.ROOT, "Flashed %d of %d boards with %d workers in %d ms, %d bytes each, %.1f KB/s in total%n",
+                summary.getSucceeded(),
+                summary.getResults().size(),
+                summary.getWorkers(),
+                summary.getMillis(),
+                summary.getImageSize(),
+                summary.getBytesPerSecond() / 1024.0);
+            for ( BoardState result : summary.getResults() ) {
+                this.out.printf("%s %s %s %d ms%n", result.getPortName(), result.getType(), result.getStatus(), result.getMillis());
+            }
+            return (summary.getFailed() == 0) ? 0 : 1;
+        } catch ( IOException e ) {
+            this.out.println("Could not read " + this.options.getFlashFile() + ": " + e.getMessage());
+            return 1;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    // every state change and every tenth percent, the workers print concurrently
+    private void reportFlashState(BoardState state) {
+        if ( (state.getStatus() != Status.FLASHING) || ((state.getPercent() % PROGRESS_STEP) == 0) ) {
+            this.out.println(state.getPortName() + ' ' + state.getStatus() + ' ' + state.getPercent() + '%');
+        }
+    }
+
+    /**
+     * Runs the connector on the calling thread until it is finished.
+     *
+     * @param connector the connector
+     * @param name the name the states are reported with
+     */
+    void runConnector(IConnector connector, String name) {
+        connector.registerListener(new StateReporter(connector, name, this.options.getServerAddress(), this.out));
+        connector.run();
+    }
+
+    private Robot detectRobot(Robot preferredRobot) {
+        while ( !Thread.currentThread().isInterrupted() ) {
+            List<Robot> detectedRobots = this.robotDetectorHelper.getDetectedRobots();
+            if ( detectedRobots.contains(preferredRobot) ) {
+                return preferredRobot;
+            }
+            if ( (preferredRobot == Robot.NONE) && !detectedRobots.isEmpty() ) {
+                if ( detectedRobots.size() > 1 ) {
+                    LOG.info("Found {}, using {}", detectedRobots, detectedRobots.get(0));
+                }
+                return detectedRobots.get(0);
+            }
+            try {
+                Thread.sleep(TIMEOUT);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return Robot.NONE;
+    }
+
+    // one connector per attached arduino until all boards are unplugged, the reporter is registered before a connector starts
+    private void runArduinoSupervisor() {
+        String serverAddress = this.options.getServerAddress();
+        ArduinoSupervisor supervisor = new ArduinoSupervisor(this.options.getMaxConnectors(DEFAULT_MAX_CONNECTORS),
+            connector -> connector.registerListener(new StateReporter(connector, connector.getPortName(), serverAddress, this.out)));
+        try {
+            do {
+                supervisor.update(this.arduinoDetector.getDetectedArduinos());
+                Thread.sleep(TIMEOUT);
+                this.arduinoDetector.detectRobot();
+            } while ( !supervisor.isEmpty() );
+        } catch ( InterruptedException e ) {
+            LOG.error("Thread was interrupted while supervising the connectors: {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        } finally {
+            supervisor.shutdown();
+        }
+    }
+}
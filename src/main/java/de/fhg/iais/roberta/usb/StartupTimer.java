@@ -0,0 +1,75 @@
+package de.fhg.iais.roberta.usb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Measures the startup of the GUI from the start of the JVM, so the time to load the classes is included. Each phase is logged once when it is
+ * reached, a summary is logged when all phases were reached.
+ */
+final class StartupTimer {
+    private static final Logger LOG = LoggerFactory.getLogger(StartupTimer.class);
+
+    /**
+     * System property to exit as soon as the startup is finished, used to measure the startup and to record the AppCDS archive.
+     */
+    static final String EXIT_AFTER_STARTUP = "exitAfterStartup";
+
+    static final String SUMMARY_PREFIX = "Startup finished:";
+
+    enum Phase {
+        CONFIG_LOADED,
+        WINDOW_CREATED,
+        FIRST_PAINT,
+        FIRST_DETECTION
+    }
+
+    private final long start;
+    private final boolean exitAfterStartup;
+    private final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+
+    StartupTimer() {
+        this(ManagementFactory.getRuntimeMXBean().getStartTime(), Boolean.getBoolean(EXIT_AFTER_STARTUP));
+    }
+
+    StartupTimer(long start, boolean exitAfterStartup) {
+        this.start = start;
+        this.exitAfterStartup = exitAfterStartup;
+    }
+
+    /**
+     * Records that the phase was reached now, only the first time counts.
+     *
+     * @param phase the phase that was reached
+     */
+    void mark(Phase phase) {
+        long elapsed = System.currentTimeMillis() - this.start;
+        boolean finished;
+        synchronized ( this.phases ) {
+            if ( this.phases.putIfAbsent(phase, elapsed) != null ) {
+                return;
+            }
+            finished = this.phases.size() == Phase.values().length;
+        }
+        LOG.info("Startup phase {} reached after {} ms", phase, elapsed);
+        if ( finished ) {
+            LOG.info("{} {}", SUMMARY_PREFIX, getPhases());
+            if ( this.exitAfterStartup ) {
+                System.exit(0);
+            }
+        }
+    }
+
+    /**
+     * @return the milliseconds from the start of the JVM until each reached phase
+     */
+    Map<Phase, Long> getPhases() {
+        synchronized ( this.phases ) {
+            return new EnumMap<>(this.phases);
+        }
+    }
+}
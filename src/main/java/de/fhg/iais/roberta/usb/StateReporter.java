@@ -0,0 +1,50 @@
+package de.fhg.iais.roberta.usb;
+
+import de.fhg.iais.roberta.connection.IConnector;
+import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.util.IOraListener;
+
+import java.io.PrintStream;
+
+/**
+ * Takes the place of the user in the headless mode. The connector is connected as soon as it waits for the connect button, every state is printed as
+ * one line "name STATE", the token is appended while the connector waits for the server.
+ */
+final class StateReporter implements IOraListener<State> {
+    private final IConnector connector;
+    private final String name;
+    private final String serverAddress;
+    private final PrintStream out;
+
+    private boolean addressSet = false; // only used by the dispatcher thread of the connector
+
+    /**
+     * @param connector the connector to report and connect
+     * @param name the name printed in front of the states, e.g. the serial port
+     * @param serverAddress the custom server address, null for the default one
+     * @param out the stream the states are printed to
+     */
+    StateReporter(IConnector connector, String name, String serverAddress, PrintStream out) {
+        this.connector = connector;
+        this.name = name;
+        this.serverAddress = serverAddress;
+        this.out = out;
+    }
+
+    @Override
+    public void update(State state) {
+        if ( state == State.WAIT_FOR_SERVER ) {
+            this.out.println(this.name + ' ' + state + ' ' + this.connector.getToken());
+        } else {
+            this.out.println(this.name + ' ' + state);
+        }
+        if ( state == State.WAIT_FOR_CONNECT_BUTTON_PRESS ) {
+            // the server communicator exists once the connector runs, which it does when it waits for the button
+            if ( (this.serverAddress != null) && !this.addressSet ) {
+                this.connector.updateCustomServerAddress(this.serverAddress);
+                this.addressSet = true;
+            }
+            this.connector.userPressConnectButton();
+        }
+    }
+}
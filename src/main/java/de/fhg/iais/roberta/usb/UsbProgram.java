@@ -3,9 +3,11 @@ package de.fhg.iais.roberta.usb;
 import de.fhg.iais.roberta.connection.IConnector;
 import de.fhg.iais.roberta.connection.arduino.ArduinoConnector;
 import de.fhg.iais.roberta.connection.arduino.ArduinoDetector;
+import de.fhg.iais.roberta.connection.arduino.ArduinoSupervisor;
 import de.fhg.iais.roberta.connection.ev3.Ev3Connector;
 import de.fhg.iais.roberta.connection.ev3.Ev3Detector;
 import de.fhg.iais.roberta.ui.main.MainController;
+import de.fhg.iais.roberta.usb.StartupTimer.Phase;
 import de.fhg.iais.roberta.util.PropertyHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,12 +17,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 class UsbProgram {
     private static final Logger LOG = LoggerFactory.getLogger(UsbProgram.class);
 
     private static final long TIMEOUT = 1000L;
     private static final long HELP_THRESHOLD = 20000L;
+    private static final int DEFAULT_MAX_CONNECTORS = 16;
 
     private final MainController controller;
 
@@ -28,12 +33,21 @@ class UsbProgram {
     private final ArduinoDetector arduinoDetector = new ArduinoDetector();
     private final RobotDetectorHelper robotDetectorHelper = new RobotDetectorHelper(Arrays.asList(this.arduinoDetector, this.ev3Detector));
 
-    UsbProgram() {
+    private final StartupTimer startupTimer;
+    private final CompletableFuture<List<Robot>> firstDetection;
+
+    UsbProgram(StartupTimer startupTimer) {
+        this.startupTimer = startupTimer;
+        // the first detection also reads the arduino id file, it runs while the window is built
+        this.firstDetection = CompletableFuture.supplyAsync(this::detectFirstRobots);
+
         ResourceBundle messages = ResourceBundle.getBundle(PropertyHelper.getInstance().getProperty("messagesBundle"), Locale.getDefault());
         LOG.info("Using locale {}", (messages.getLocale().getLanguage().isEmpty()) ? "default en" : messages.getLocale());
+        startupTimer.mark(Phase.CONFIG_LOADED);
 
-        this.controller = new MainController(messages);
+        this.controller = new MainController(messages, () -> startupTimer.mark(Phase.FIRST_PAINT));
         this.controller.registerListener(this.robotDetectorHelper); // register the detector helper as a listener to selection events of the controller
+        startupTimer.mark(Phase.WINDOW_CREATED);
     }
 
     void run() {
@@ -41,6 +55,7 @@ class UsbProgram {
         long helpTimer = 0L;
         boolean showHelp = true;
 
+        List<Robot> firstRobots = this.firstDetection.join();
         Map<Integer, String> errors = this.arduinoDetector.getReadIdFileErrors();
         if ( !errors.isEmpty() ) {
             this.controller.showConfigErrorPopup(errors);
@@ -54,7 +69,13 @@ class UsbProgram {
             Robot selectedRobot = Robot.NONE;
             while ( selectedRobot == Robot.NONE ) {
 
-                List<Robot> detectedRobots = this.robotDetectorHelper.getDetectedRobots();
+                List<Robot> detectedRobots;
+                if ( firstRobots == null ) {
+                    detectedRobots = this.robotDetectorHelper.getDetectedRobots();
+                } else {
+                    detectedRobots = firstRobots;
+                    firstRobots = null;
+                }
                 // If only one robot is available select that one immediately
                 if (detectedRobots.size() == 1) {
                     selectedRobot = detectedRobots.get(0);
@@ -87,8 +108,16 @@ class UsbProgram {
                     connector = new Ev3Connector();
                     break;
                 case ARDUINO:
-                    connector = new ArduinoConnector(this.arduinoDetector.getType(), this.arduinoDetector.getPortName());
-                    break;
+                    if ( this.arduinoDetector.getDetectedArduinos().size() > 1 ) {
+                        runArduinoSupervisor(null);
+                    } else {
+                        ArduinoConnector arduinoConnector = runArduinoConnector();
+                        if ( arduinoConnector != null ) {
+                            runArduinoSupervisor(arduinoConnector);
+                        }
+                    }
+                    showHelp = false;
+                    continue;
                 default:
                     throw new UnsupportedOperationException("Selected robot not supported!");
             }
@@ -98,4 +127,66 @@ class UsbProgram {
             showHelp = false;
         }
     }
+
+    private List<Robot> detectFirstRobots() {
+        List<Robot> detectedRobots = this.robotDetectorHelper.getDetectedRobots();
+        this.startupTimer.mark(Phase.FIRST_DETECTION);
+        return detectedRobots;
+    }
+
+    /**
+     * Runs the connector of the only attached arduino. Detection goes on meanwhile, the connector is handed over to the supervisor as soon as another
+     * board is attached, so the student keeps the session and the token.
+     *
+     * @return the still running connector if another board was attached, null if the connector was finished
+     */
+    private ArduinoConnector runArduinoConnector() {
+        ArduinoConnector connector = new ArduinoConnector(this.arduinoDetector.getType(), this.arduinoDetector.getPortName());
+        this.controller.setConnector(connector);
+        connector.start();
+        try {
+            while ( true ) {
+                if ( connector.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS) ) {
+                    return null;
+                }
+                this.arduinoDetector.detectRobot();
+                if ( this.arduinoDetector.getDetectedArduinos().size() > 1 ) {
+                    LOG.info("Another board was attached, running one connector per board");
+                    return connector;
+                }
+            }
+        } catch ( InterruptedException e ) {
+            LOG.error("Thread was interrupted while running the connector: {}", e.getMessage());
+            connector.interrupt();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Runs one connector per attached arduino until all boards are unplugged. The rows of the boards are added before their connectors start.
+     *
+     * @param connector the running connector of the board that was attached first, it gets its row and is taken over, may be null
+     */
+    private void runArduinoSupervisor(ArduinoConnector connector) {
+        ArduinoSupervisor supervisor =
+            new ArduinoSupervisor(PropertyHelper.getInstance().getIntProperty("arduinoMaxConnectors", DEFAULT_MAX_CONNECTORS), this.controller::addBoard);
+        if ( connector != null ) {
+            this.controller.handOverBoard(connector);
+            supervisor.adopt(connector);
+        }
+        try {
+            do {
+                supervisor.update(this.arduinoDetector.getDetectedArduinos()).getSecond().forEach(this.controller::removeBoard);
+                Thread.sleep(TIMEOUT);
+                this.arduinoDetector.detectRobot();
+            } while ( !supervisor.isEmpty() );
+        } catch ( InterruptedException e ) {
+            LOG.error("Thread was interrupted while supervising the connectors: {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        } finally {
+            supervisor.getConnectors().forEach(this.controller::removeBoard);
+            supervisor.shutdown();
+        }
+    }
 }
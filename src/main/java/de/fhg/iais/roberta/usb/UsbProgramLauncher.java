@@ -2,7 +2,12 @@ package de.fhg.iais.roberta.usb;
 
 class UsbProgramLauncher {
     public static void main(String[] args) {
-        UsbProgram usbProgram = new UsbProgram();
+        // the GUI takes no arguments, the GUI classes are only loaded if the GUI is used
+        if ( (args.length > 0) || HeadlessOptions.parse().isHeadless() ) {
+            HeadlessLauncher.main(args);
+            return;
+        }
+        UsbProgram usbProgram = new UsbProgram(new StartupTimer());
         usbProgram.run();
     }
 }
@@ -0,0 +1,62 @@
+package de.fhg.iais.roberta.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper for the SHA-256 checksums used to identify downloaded programs and firmware files.
+ */
+public final class ChecksumHelper {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 8192;
+
+    private ChecksumHelper() {
+    }
+
+    /**
+     * @return a new SHA-256 message digest
+     */
+    public static MessageDigest createSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch ( NoSuchAlgorithmException e ) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 checksum of the file while streaming through it.
+     *
+     * @param file the file to check
+     * @return the checksum as lower case hex string
+     * @throws IOException if the file could not be read
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = createSha256Digest();
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ( (read = is.read(buffer)) != -1 ) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param bytes the bytes to convert
+     * @return the bytes as lower case hex string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for ( byte b : bytes ) {
+            sb.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+        return sb.toString();
+    }
+}
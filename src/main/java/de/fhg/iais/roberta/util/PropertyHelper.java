@@ -32,4 +32,24 @@ public final class PropertyHelper {
     public String getProperty(String key) {
         return this.properties.getProperty(key);
     }
+
+    /**
+     * Returns the property as an integer, or the given default if the property is missing or not a number.
+     *
+     * @param key the key of the property
+     * @param defaultValue the value used if the property can not be read
+     * @return the integer value of the property
+     */
+    public int getIntProperty(String key, int defaultValue) {
+        String value = this.properties.getProperty(key);
+        if ( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch ( NumberFormatException e ) {
+            LOG.warn("Property {} is not a number: {}", key, value);
+            return defaultValue;
+        }
+    }
 }
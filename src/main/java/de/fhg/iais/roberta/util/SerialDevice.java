@@ -7,12 +7,18 @@ public class SerialDevice {
     public final String productId;
     public final String port; // optional port, ignored for equality
     public final String name; // just as a description, ignored for equality
+    public final String serialNumber; // optional USB serial number, empty if the device has none, ignored for equality
 
     public SerialDevice(String vendorId, String productId, String port, String name) {
+        this(vendorId, productId, port, name, "");
+    }
+
+    public SerialDevice(String vendorId, String productId, String port, String name, String serialNumber) {
         this.vendorId = vendorId;
         this.productId = productId;
         this.port = port;
         this.name = name;
+        this.serialNumber = serialNumber;
     }
 
     @Override
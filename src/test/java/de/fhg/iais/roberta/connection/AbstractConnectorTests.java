@@ -0,0 +1,183 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.usb.Robot;
+import de.fhg.iais.roberta.util.IOraListener;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Stress tests of the connector base class, the GUI side is simulated by several threads.
+ */
+class AbstractConnectorTests {
+
+    private static final int THREADS = 8;
+    private static final int COMMANDS = 10000;
+    private static final int ROUNDS = 200;
+
+    @Test
+    void command_ShouldRunEveryCommandOnce_WhenPostedFromManyThreads() throws Exception {
+        BusyConnector connector = new BusyConnector();
+        Thread connectorThread = start(connector);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            runConcurrently(() -> {
+                await(barrier);
+                for ( int i = 0; i < COMMANDS; i++ ) {
+                    connector.post(() -> connector.commands++);
+                }
+            });
+            CountDownLatch done = new CountDownLatch(1);
+            connector.post(done::countDown);
+
+            assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+            assertThat(connector.commands, is(THREADS * COMMANDS));
+        } finally {
+            connector.close();
+            connectorThread.join(1000L);
+        }
+    }
+
+    @Test
+    void fire_ShouldNotFail_WhenListenersChangeConcurrently() throws Exception {
+        BusyConnector connector = new BusyConnector();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean firing = new AtomicBoolean(true);
+        Thread firingThread = new Thread(() -> {
+            while ( firing.get() ) {
+                try {
+                    connector.fire(IConnector.State.WAIT_FOR_CMD);
+                } catch ( RuntimeException e ) {
+                    failures.add(e);
+                }
+            }
+        });
+        firingThread.start();
+        try {
+            runConcurrently(() -> {
+                for ( int i = 0; i < COMMANDS / 10; i++ ) {
+                    IOraListener<IConnector.State> listener = state -> {
+                        // only registered to change the listeners
+                    };
+                    connector.registerListener(listener);
+                    connector.unregisterListener(listener);
+                }
+            });
+        } finally {
+            firing.set(false);
+            firingThread.join(1000L);
+        }
+
+        assertThat(failures, is(empty()));
+    }
+
+    @Test
+    void close_ShouldStayInDiscover_WhenConnectorThreadChangesStateConcurrently() throws Exception {
+        for ( int round = 0; round < ROUNDS; round++ ) {
+            BusyConnector connector = new BusyConnector();
+            Thread connectorThread = start(connector);
+            connector.userPressConnectButton();
+            Thread.sleep(round % 3);
+
+            connector.close();
+            connectorThread.join(1000L);
+
+            assertThat(connectorThread.isAlive(), is(false));
+            assertThat(connector.getState(), is(IConnector.State.DISCOVER));
+        }
+    }
+
+    @Test
+    void getStagingFile_ShouldReuseFile_UntilPartialDownloadWasDeleted() throws IOException {
+        BusyConnector connector = new BusyConnector();
+
+        File stagingFile = connector.getStagingFile(".hex");
+        assertThat(connector.getStagingFile(".hex"), is(stagingFile));
+
+        Files.delete(stagingFile.toPath());
+        File newStagingFile = connector.getStagingFile(".hex");
+        try {
+            assertThat(newStagingFile.exists(), is(true));
+            assertThat(connector.getStagingFile(".hex"), is(newStagingFile));
+        } finally {
+            Files.delete(newStagingFile.toPath());
+        }
+    }
+
+    private static Thread start(AbstractConnector connector) {
+        Thread thread = new Thread(connector::run);
+        thread.start();
+        return thread;
+    }
+
+    private static void runConcurrently(Runnable task) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for ( int i = 0; i < THREADS; i++ ) {
+            Thread thread = new Thread(task);
+            threads.add(thread);
+            thread.start();
+        }
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch ( Exception e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Connects right away and keeps changing its state while it waits for commands, like a connector that polls its robot.
+     */
+    private static final class BusyConnector extends AbstractConnector {
+        private int commands = 0; // only changed on the connector thread
+
+        BusyConnector() {
+            super("busy");
+        }
+
+        void post(Runnable command) {
+            command(command);
+        }
+
+        @Override
+        protected void runLoopBody() {
+            switch ( getState() ) {
+                case DISCOVER:
+                    setState(State.WAIT_FOR_CONNECT_BUTTON_PRESS);
+                    fire(getState());
+                    break;
+                case CONNECT_BUTTON_IS_PRESSED:
+                case WAIT_FOR_CMD:
+                    setState(State.WAIT_FOR_CMD);
+                    step();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public Robot getRobot() {
+            return Robot.NONE;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.fhg.iais.roberta.connection;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+class CircuitBreakerTests {
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("localhost:1", 3, 200L);
+
+    @Test
+    void tryAcquire_ShouldReject_WhenThresholdIsReached() {
+        this.circuitBreaker.failed(0L);
+        this.circuitBreaker.failed(0L);
+        assertThat(this.circuitBreaker.tryAcquire(), is(true));
+
+        this.circuitBreaker.failed(0L);
+
+        assertThat(this.circuitBreaker.tryAcquire(), is(false));
+        assertThat(this.circuitBreaker.getRemainingOpenTime(), greaterThan(0L));
+    }
+
+    @Test
+    void tryAcquire_ShouldLetOneTrialThrough_WhenOpenTimeIsOver() throws InterruptedException {
+        openCircuit();
+        Thread.sleep(300L);
+
+        assertThat(this.circuitBreaker.tryAcquire(), is(true));
+        assertThat(this.circuitBreaker.tryAcquire(), is(false));
+
+        this.circuitBreaker.succeeded();
+
+        assertThat(this.circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    void failed_ShouldOpenAgain_WhenTrialFails() throws InterruptedException {
+        openCircuit();
+        Thread.sleep(300L);
+        assertThat(this.circuitBreaker.tryAcquire(), is(true));
+
+        this.circuitBreaker.failed(0L);
+
+        assertThat(this.circuitBreaker.tryAcquire(), is(false));
+    }
+
+    @Test
+    void failed_ShouldOpenImmediately_WhenServerAsksToRetryLater() {
+        this.circuitBreaker.failed(1000L);
+
+        assertThat(this.circuitBreaker.tryAcquire(), is(false));
+        assertThat(this.circuitBreaker.getRemainingOpenTime(), greaterThan(500L));
+    }
+
+    private void openCircuit() {
+        for ( int i = 0; i < 3; i++ ) {
+            this.circuitBreaker.failed(0L);
+        }
+    }
+}
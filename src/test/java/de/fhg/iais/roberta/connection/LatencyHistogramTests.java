@@ -0,0 +1,56 @@
+package de.fhg.iais.roberta.connection;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class LatencyHistogramTests {
+
+    @Test
+    void getValueAtPercentile_ShouldBeWithinPrecision_WhenValuesSpanSeveralMagnitudes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( long value = 1; value <= 100000; value++ ) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getCount(), is(100000L));
+        assertThat(histogram.getMax(), is(100000L));
+        assertThat(histogram.getMean(), closeTo(50000.5, 0.001));
+        assertThat(histogram.getValueAtPercentile(50.0), allOf(greaterThanOrEqualTo(50000L), lessThanOrEqualTo(53125L)));
+        assertThat(histogram.getValueAtPercentile(99.0), allOf(greaterThanOrEqualTo(99000L), lessThanOrEqualTo(100000L)));
+        assertThat(histogram.getValueAtPercentile(100.0), is(100000L));
+    }
+
+    @Test
+    void getValueAtPercentile_ShouldBeExact_WhenValuesAreSmall() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3L);
+        histogram.record(7L);
+        histogram.record(31L);
+
+        assertThat(histogram.getValueAtPercentile(0.0), is(3L));
+        assertThat(histogram.getValueAtPercentile(50.0), is(7L));
+        assertThat(histogram.getValueAtPercentile(100.0), is(31L));
+    }
+
+    @Test
+    void indexOf_ShouldMapValueToBucketWithinPrecision() {
+        for ( long value : new long[] { 1L, 31L, 32L, 33L, 1000L, 123456789L, 1L << 40 } ) {
+            int index = LatencyHistogram.indexOf(value);
+
+            assertThat(LatencyHistogram.highestEquivalentValue(index), allOf(greaterThanOrEqualTo(value), lessThanOrEqualTo(value + (value / 16))));
+            assertThat(LatencyHistogram.highestEquivalentValue(index - 1), lessThanOrEqualTo(value - 1));
+        }
+    }
+
+    @Test
+    void getValueAtPercentile_ShouldReturnZero_WhenNothingWasRecorded() {
+        assertThat(new LatencyHistogram().getValueAtPercentile(99.0), is(0L));
+        assertThat(new LatencyHistogram().getMean(), is(0.0));
+    }
+}
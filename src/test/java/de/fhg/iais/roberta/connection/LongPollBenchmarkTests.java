@@ -0,0 +1,71 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.connection.ev3.Ev3Connector;
+import de.fhg.iais.roberta.testUtils.ConnectorLoadGenerator;
+import de.fhg.iais.roberta.testUtils.ConnectorLoadGenerator.Report;
+import de.fhg.iais.roberta.testUtils.StubEv3Brick;
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Starts a growing number of real connectors whose long polls are held by the stub server and compares the threads and heap they need.
+ * Run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class LongPollBenchmarkTests {
+
+    private static final long HOLD_TIME = 2000L;
+    private static final long DURATION = 3000L;
+    private static final int[] ROBOT_COUNTS = { 10, 25, 50, 100 };
+    // a robot keeps its communicator and the buffers of its pooled connection, a thread per robot would add a stack of about 1 MiB on top
+    private static final long MAX_HEAP_PER_ROBOT = 256L * 1024L;
+
+    private StubOpenRobertaServer server = null;
+    private StubEv3Brick brick = null;
+    private String serverAddress = null;
+    private String brickAddress = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = new StubOpenRobertaServer();
+        this.server.setHoldTime(HOLD_TIME);
+        this.serverAddress = this.server.start();
+        this.brick = new StubEv3Brick();
+        this.brickAddress = this.brick.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.server.stop();
+        this.brick.stop();
+    }
+
+    @Test
+    void run_ShouldKeepThreadsAndHeapFlat_WhenRobotCountGrows() throws InterruptedException {
+        ConnectorLoadGenerator loadGenerator = new ConnectorLoadGenerator(this.server, this.serverAddress, () -> new Ev3Connector(this.brickAddress));
+        // warm up, so the shared pools of the connectors and the transport are already counted in the baseline
+        loadGenerator.run(1, HOLD_TIME);
+
+        System.out.println(Report.header());
+        Report first = null;
+        Report last = null;
+        for ( int robots : ROBOT_COUNTS ) {
+            last = loadGenerator.run(robots, DURATION);
+            System.out.println(last);
+            if ( first == null ) {
+                first = last;
+            }
+        }
+
+        assertThat(last.getThreads() - first.getThreads(), lessThan(5L));
+        assertThat((last.getRetainedHeap() - first.getRetainedHeap()) / (last.getConnectors() - first.getConnectors()), lessThan(MAX_HEAP_PER_ROBOT));
+    }
+}
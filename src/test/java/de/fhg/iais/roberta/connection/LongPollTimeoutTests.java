@@ -0,0 +1,56 @@
+package de.fhg.iais.roberta.connection;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class LongPollTimeoutTests {
+
+    @Test
+    void get_ShouldReturnInitialTimeout_WhenNothingWasObserved() {
+        LongPollTimeout timeout = new LongPollTimeout(30000L, 15000L, 120000L, 5000L);
+
+        assertThat(timeout.get(), is(30000L));
+    }
+
+    @Test
+    void get_ShouldAddMarginToHoldTime_WhenRequestsWereObserved() {
+        LongPollTimeout timeout = new LongPollTimeout(30000L, 15000L, 120000L, 5000L);
+
+        timeout.observe(20000L);
+
+        assertThat(timeout.get(), is(35000L));
+    }
+
+    @Test
+    void get_ShouldStayWithinBounds_WhenHoldTimeIsExtreme() {
+        LongPollTimeout timeout = new LongPollTimeout(30000L, 15000L, 120000L, 5000L);
+
+        timeout.observe(10L);
+        assertThat(timeout.get(), is(15000L));
+
+        timeout.observe(600000L);
+        assertThat(timeout.get(), is(120000L));
+    }
+
+    @Test
+    void observe_ShouldDecayOldHoldTimes_WhenServerHoldsShorter() {
+        LongPollTimeout timeout = new LongPollTimeout(30000L, 1000L, 120000L, 0L);
+
+        timeout.observe(20000L);
+        timeout.observe(1000L);
+
+        assertThat(timeout.get(), is(27000L));
+    }
+
+    @Test
+    void reset_ShouldReturnToInitialTimeout_WhenServerChanged() {
+        LongPollTimeout timeout = new LongPollTimeout(30000L, 15000L, 120000L, 5000L);
+        timeout.observe(60000L);
+
+        timeout.reset();
+
+        assertThat(timeout.get(), is(30000L));
+    }
+}
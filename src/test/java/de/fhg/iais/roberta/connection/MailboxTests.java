@@ -0,0 +1,117 @@
+package de.fhg.iais.roberta.connection;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class MailboxTests {
+
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS = 50000;
+
+    private ExecutorService executor = null;
+
+    @BeforeEach
+    void setUp() {
+        this.executor = Executors.newFixedThreadPool(PRODUCERS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        this.executor.shutdownNow();
+        this.executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void post_ShouldRunEveryEventOnceInOrderOfProducer_WhenManyThreadsPost() throws Exception {
+        Mailbox mailbox = new Mailbox(this.executor);
+        int[] lastSeen = new int[PRODUCERS];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        List<Thread> producers = new ArrayList<>();
+        for ( int p = 0; p < PRODUCERS; p++ ) {
+            int producer = p;
+            lastSeen[producer] = -1;
+            Thread thread = new Thread(() -> {
+                for ( int i = 0; i < EVENTS; i++ ) {
+                    int event = i;
+                    mailbox.post(() -> {
+                        if ( running.incrementAndGet() > 1 ) {
+                            overlaps.incrementAndGet();
+                        }
+                        if ( lastSeen[producer] != (event - 1) ) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        lastSeen[producer] = event;
+                        running.decrementAndGet();
+                    });
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        for ( Thread thread : producers ) {
+            thread.join();
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        mailbox.post(done::countDown);
+
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(overlaps.get(), is(0));
+        assertThat(outOfOrder.get(), is(0));
+        for ( int last : lastSeen ) {
+            assertThat(last, is(EVENTS - 1));
+        }
+    }
+
+    @Test
+    void post_ShouldRunOtherMailbox_WhenBusyMailboxSharesTheOnlyThread() throws Exception {
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            Mailbox busy = new Mailbox(singleThread);
+            AtomicBoolean polling = new AtomicBoolean(true);
+            Runnable poll = new Runnable() {
+                @Override
+                public void run() {
+                    if ( polling.get() ) {
+                        busy.post(this);
+                    }
+                }
+            };
+            busy.post(poll);
+            CountDownLatch done = new CountDownLatch(1);
+            new Mailbox(singleThread).post(done::countDown);
+
+            assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+            polling.set(false);
+        } finally {
+            singleThread.shutdownNow();
+        }
+    }
+
+    @Test
+    void post_ShouldRunLaterEvents_WhenEventThrows() throws Exception {
+        Mailbox mailbox = new Mailbox(this.executor);
+        CountDownLatch done = new CountDownLatch(1);
+
+        mailbox.post(() -> {
+            throw new IllegalStateException("failed");
+        });
+        mailbox.post(done::countDown);
+
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    }
+}
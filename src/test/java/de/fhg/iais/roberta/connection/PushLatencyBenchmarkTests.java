@@ -0,0 +1,92 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Compares the latency from the server sending a command until the communicator received it, for long polling and for the WebSocket. The client pushes
+ * continuously, the server sends commands at random times. Run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class PushLatencyBenchmarkTests {
+
+    private static final String TOKEN = "ABCD1234";
+    private static final String COMMAND_PREFIX = "cmd-";
+    private static final long DURATION = 10000L;
+    private static final long MAX_COMMAND_INTERVAL = 100L;
+
+    @Test
+    void pushRequestAsync_ShouldDeliverCommands_WhenLongPolling() throws Exception {
+        StubOpenRobertaServer server = new StubOpenRobertaServer();
+        try {
+            LatencyHistogram latencies = measure(new ServerCommunicator(server.start(), new LongPollTimeout(), false), server::sendCommand);
+            report("long poll", latencies);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void pushRequestAsync_ShouldDeliverCommands_WhenUsingWebSocket() throws Exception {
+        StubWebSocketServer server = new StubWebSocketServer();
+        try {
+            LatencyHistogram latencies = measure(new ServerCommunicator(server.start(), new LongPollTimeout(), true), server::sendCommand);
+            report("websocket", latencies);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static LatencyHistogram measure(ServerCommunicator serverCommunicator, BiConsumer<String, String> sendCommand) throws Exception {
+        LatencyHistogram latencies = new LatencyHistogram();
+        serverCommunicator.pushRequest(request(IConnector.CMD_REGISTER));
+        ScheduledExecutorService commands = Executors.newSingleThreadScheduledExecutor();
+        try {
+            scheduleCommand(commands, sendCommand);
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION);
+            while ( System.nanoTime() < end ) {
+                String command = serverCommunicator.pushRequest(request(IConnector.CMD_PUSH)).getString(IConnector.KEY_CMD);
+                if ( command.startsWith(COMMAND_PREFIX) ) {
+                    long sent = Long.parseLong(command.substring(COMMAND_PREFIX.length()));
+                    latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+                }
+            }
+        } finally {
+            commands.shutdownNow();
+            serverCommunicator.abort();
+        }
+        return latencies;
+    }
+
+    private static void scheduleCommand(ScheduledExecutorService commands, BiConsumer<String, String> sendCommand) {
+        commands.schedule(() -> {
+            sendCommand.accept(TOKEN, COMMAND_PREFIX + System.nanoTime());
+            scheduleCommand(commands, sendCommand);
+        }, ThreadLocalRandom.current().nextLong(MAX_COMMAND_INTERVAL), TimeUnit.MILLISECONDS);
+    }
+
+    private static JSONObject request(String command) {
+        return new JSONObject().put(IConnector.KEY_CMD, command).put(IConnector.KEY_TOKEN, TOKEN).put("firmwarename", "ev3lejosv1");
+    }
+
+    private static void report(String transport, LatencyHistogram latencies) {
+        System.out.println(String.format("%-9s | commands %6d | p50 %6dus | p99 %6dus | max %6dus",
+            transport,
+            latencies.getCount(),
+            latencies.getValueAtPercentile(50.0),
+            latencies.getValueAtPercentile(99.0),
+            latencies.getMax()));
+        assertThat(latencies.getCount(), greaterThan(0L));
+    }
+}
@@ -0,0 +1,48 @@
+package de.fhg.iais.roberta.connection;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class RetryPolicyTests {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy(1000L, 60000L, 10);
+
+    @Test
+    void getDelay_ShouldGrowExponentiallyWithJitter_WhenAttemptsIncrease() {
+        for ( int i = 0; i < 100; i++ ) {
+            assertThat(this.retryPolicy.getDelay(0, new IOException()), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L)));
+            assertThat(this.retryPolicy.getDelay(3, new IOException()), allOf(greaterThanOrEqualTo(4000L), lessThanOrEqualTo(8000L)));
+        }
+    }
+
+    @Test
+    void getDelay_ShouldBeCapped_WhenManyAttemptsFailed() {
+        for ( int i = 0; i < 100; i++ ) {
+            assertThat(this.retryPolicy.getDelay(40, new IOException()), allOf(greaterThanOrEqualTo(30000L), lessThanOrEqualTo(60000L)));
+        }
+    }
+
+    @Test
+    void getDelay_ShouldRespectRetryAfter_WhenServerIsBusy() {
+        ServerBusyException e = new ServerBusyException(503, "Service Unavailable", 20000L);
+
+        assertThat(this.retryPolicy.getDelay(0, e), allOf(greaterThanOrEqualTo(20000L), lessThanOrEqualTo(21000L)));
+    }
+
+    @Test
+    void isRetryable_ShouldOnlyAcceptTransientFailures() {
+        assertThat(this.retryPolicy.isRetryable(new IOException()), is(true));
+        assertThat(this.retryPolicy.isRetryable(new HttpResponseException(502, "Bad Gateway")), is(true));
+        assertThat(this.retryPolicy.isRetryable(new ServerBusyException(429, "Too Many Requests", 0L)), is(true));
+        assertThat(this.retryPolicy.isRetryable(new HttpResponseException(404, "Not Found")), is(false));
+        assertThat(this.retryPolicy.isRetryable(new IllegalStateException()), is(false));
+    }
+}
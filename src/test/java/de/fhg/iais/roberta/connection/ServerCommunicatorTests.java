@@ -0,0 +1,400 @@
+package de.fhg.iais.roberta.connection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.fhg.iais.roberta.util.ChecksumHelper;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ServerCommunicatorTests {
+
+    private static final byte[] PROGRAM = createProgram();
+    private static final byte[] SHORT_PROGRAM = ":00000001FF\n".getBytes(StandardCharsets.US_ASCII);
+    private static final long ABORT_TIMEOUT = 500L;
+    private static final int REQUESTS = 5;
+
+    private HttpServer server = null;
+    private String serverAddress = null;
+    private File target = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/rest/download", exchange -> respond(exchange, exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+        this.server.createContext("/rest/update/deflated", exchange -> respond(exchange, "deflate"));
+        this.server.createContext("/rest/update/plain", exchange -> respond(exchange, null));
+        this.server.createContext("/rest/update/short", exchange -> respond(exchange, SHORT_PROGRAM, null));
+        this.server.createContext("/rest/update/digest", exchange -> respond(exchange, PROGRAM, sha256Base64(PROGRAM)));
+        this.server.createContext("/rest/update/corrupt", exchange -> respond(exchange, PROGRAM, sha256Base64(SHORT_PROGRAM)));
+        // announces the whole program but closes the connection after half of it
+        this.server.createContext("/rest/update/truncated", exchange -> {
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(200, PROGRAM.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(PROGRAM, 0, PROGRAM.length / 2);
+            }
+        });
+        // never answers, the exchange is kept open until the server is stopped
+        this.server.createContext("/rest/pushcmd", exchange -> exchange.getRequestBody().close());
+        this.server.createContext("/rest/update/never", exchange -> exchange.getRequestBody().close());
+        this.server.start();
+        this.serverAddress = "localhost:" + this.server.getAddress().getPort();
+        this.target = File.createTempFile("download", ".bin");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.server.stop(0);
+        Files.deleteIfExists(this.target.toPath());
+    }
+
+    @Test
+    void downloadProgram_ShouldDecodeGzip_WhenServerCompressesResponse() throws IOException {
+        ServerTransport transport = ServerTransport.getInstance();
+        long compressedBefore = transport.getCompressedByteCount();
+        long uncompressedBefore = transport.getUncompressedByteCount();
+
+        BinaryDownload download = new ServerCommunicator(this.serverAddress).downloadProgram(new JSONObject(), this.target);
+
+        assertThat(Files.readAllBytes(download.getFile().toPath()), is(PROGRAM));
+        assertThat(download.getSize(), is((long) PROGRAM.length));
+        assertThat(download.getSha256(), is(sha256(PROGRAM)));
+        assertThat(transport.getUncompressedByteCount() - uncompressedBefore, is((long) PROGRAM.length));
+        assertThat(transport.getCompressedByteCount() - compressedBefore, lessThan((long) PROGRAM.length / 4));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldDecodeDeflate_WhenServerCompressesResponse() throws IOException {
+        BinaryDownload download = new ServerCommunicator(this.serverAddress).downloadFirmwareFile("deflated", this.target, null, null);
+
+        assertThat(Files.readAllBytes(download.getFile().toPath()), is(PROGRAM));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldCopyContent_WhenResponseIsNotCompressed() throws IOException {
+        ServerTransport transport = ServerTransport.getInstance();
+        long compressedBefore = transport.getCompressedByteCount();
+
+        BinaryDownload download = new ServerCommunicator(this.serverAddress).downloadFirmwareFile("plain", this.target, null, null);
+
+        assertThat(Files.readAllBytes(download.getFile().toPath()), is(PROGRAM));
+        assertThat(transport.getCompressedByteCount() - compressedBefore, is((long) PROGRAM.length));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldOverwriteFile_WhenStagingFileIsReused() throws IOException {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+
+        BinaryDownload first = serverCommunicator.downloadFirmwareFile("plain", this.target, null, null);
+        BinaryDownload second = serverCommunicator.downloadFirmwareFile("short", this.target, null, null);
+
+        assertThat(second.getFile(), is(first.getFile()));
+        assertThat(Files.readAllBytes(this.target.toPath()), is(SHORT_PROGRAM));
+        assertThat(second.getSize(), is((long) SHORT_PROGRAM.length));
+        assertThat(second.getSha256(), is(sha256(SHORT_PROGRAM)));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldKeepFile_WhenDigestMatches() throws IOException {
+        BinaryDownload download = new ServerCommunicator(this.serverAddress).downloadFirmwareFile("digest", this.target, null, null);
+
+        assertThat(Files.readAllBytes(download.getFile().toPath()), is(PROGRAM));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldDeleteFile_WhenDigestDoesNotMatch() {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+
+        assertThrows(IOException.class, () -> serverCommunicator.downloadFirmwareFile("corrupt", this.target, null, null));
+        assertThat(this.target.exists(), is(false));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldDeleteFile_WhenResponseIsTruncated() {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+
+        assertThrows(IOException.class, () -> serverCommunicator.downloadFirmwareFile("truncated", this.target, null, null));
+        assertThat(this.target.exists(), is(false));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldReuseConnection_WhenFilesAreDownloadedOneAfterTheOther() throws IOException {
+        ServerTransport transport = ServerTransport.getInstance();
+        long openedBefore = transport.getOpenedConnectionCount();
+        long reusedBefore = transport.getReusedConnectionCount();
+
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        for ( int i = 0; i < REQUESTS; i++ ) {
+            serverCommunicator.downloadFirmwareFile("plain", this.target, null, null);
+        }
+
+        assertThat(transport.getOpenedConnectionCount() - openedBefore, is(1L));
+        assertThat(transport.getReusedConnectionCount() - reusedBefore, is((long) REQUESTS - 1));
+    }
+
+    @Test
+    void pushRequestAsync_ShouldReuseConnection_WhenRequestsAreSentOneAfterTheOther() throws Exception {
+        HttpServer pushServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        pushServer.createContext("/rest/pushcmd", exchange -> {
+            exchange.getRequestBody().close();
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        pushServer.start();
+        try {
+            ServerTransport transport = ServerTransport.getInstance();
+            long openedBefore = transport.getOpenedConnectionCount();
+            long reusedBefore = transport.getReusedConnectionCount();
+
+            ServerCommunicator serverCommunicator = new ServerCommunicator("localhost:" + pushServer.getAddress().getPort());
+            for ( int i = 0; i < REQUESTS; i++ ) {
+                serverCommunicator.pushRequestAsync(new JSONObject()).get(ABORT_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+
+            assertThat(transport.getOpenedConnectionCount() - openedBefore, is(1L));
+            assertThat(transport.getReusedConnectionCount() - reusedBefore, is((long) REQUESTS - 1));
+        } finally {
+            pushServer.stop(0);
+        }
+    }
+
+    @Test
+    void getReusedConnectionCount_ShouldNotCount_WhenServerIsUnreachable() {
+        ServerTransport transport = ServerTransport.getInstance();
+        long reusedBefore = transport.getReusedConnectionCount();
+
+        ServerCommunicator serverCommunicator = new ServerCommunicator("localhost:1");
+        for ( int i = 0; i < REQUESTS; i++ ) {
+            assertThrows(IOException.class, () -> serverCommunicator.downloadFirmwareFile("plain", this.target, null, null));
+        }
+
+        assertThat(transport.getReusedConnectionCount() - reusedBefore, is(0L));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldProbeSchemeOnce_WhenAddressWorked() throws IOException {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        serverCommunicator.downloadFirmwareFile("plain", this.target, null, null);
+        this.server.stop(0);
+
+        assertThat(ServerSchemeCache.get(this.serverAddress), is(ServerSchemeCache.HTTP));
+        // the remembered scheme is tried once, a probe would fall back to the other scheme
+        assertThat(requestsOfFailedDownload(new ServerCommunicator(this.serverAddress)), is(1L));
+    }
+
+    @Test
+    void downloadFirmwareFile_ShouldProbeAgain_WhenRememberedSchemeFailedTooOften() throws IOException {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        serverCommunicator.downloadFirmwareFile("plain", this.target, null, null);
+        this.server.stop(0);
+
+        for ( int i = 1; i < ServerSchemeCache.MAX_FAILURES; i++ ) {
+            assertThat(requestsOfFailedDownload(serverCommunicator), is(1L));
+            assertThat(ServerSchemeCache.get(this.serverAddress), is(ServerSchemeCache.HTTP));
+        }
+        assertThat(requestsOfFailedDownload(serverCommunicator), is(1L));
+        assertThat(ServerSchemeCache.get(this.serverAddress), is((String) null));
+        assertThat(requestsOfFailedDownload(serverCommunicator), is(2L));
+    }
+
+    @Test
+    void invalidate_ShouldForgetScheme_WhenCalled() throws IOException {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        serverCommunicator.downloadFirmwareFile("plain", this.target, null, null);
+        this.server.stop(0);
+
+        ServerSchemeCache.invalidate(this.serverAddress);
+
+        assertThat(ServerSchemeCache.get(this.serverAddress), is((String) null));
+        assertThat(requestsOfFailedDownload(serverCommunicator), is(2L));
+    }
+
+    @Test
+    void abort_ShouldCancelPushRequest_WhenServerNeverAnswers() throws Exception {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        CompletableFuture<JSONObject> response = serverCommunicator.pushRequestAsync(new JSONObject());
+        Thread.sleep(200L);
+
+        long start = System.nanoTime();
+        serverCommunicator.abort();
+
+        assertThrows(CancellationException.class, () -> response.get(ABORT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(ABORT_TIMEOUT));
+    }
+
+    @Test
+    void abort_ShouldFailDownload_WhenServerNeverAnswers() throws Exception {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<BinaryDownload> download = executorService.submit(() -> serverCommunicator.downloadFirmwareFile("never", this.target, null, null));
+            Thread.sleep(200L);
+
+            serverCommunicator.abort();
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> download.get(ABORT_TIMEOUT, TimeUnit.MILLISECONDS));
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void setServerAddress_ShouldAbortPushRequest_WhenAddressChanges() throws Exception {
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress);
+        CompletableFuture<JSONObject> response = serverCommunicator.pushRequestAsync(new JSONObject());
+        Thread.sleep(200L);
+
+        assertThat(serverCommunicator.setServerAddress(this.serverAddress), is(false));
+        assertThat(response.isDone(), is(false));
+        assertThat(serverCommunicator.setServerAddress("localhost:1"), is(true));
+
+        assertThrows(CancellationException.class, () -> response.get(ABORT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void pushRequestAsync_ShouldSignalStall_WhenServerDoesNotAnswerInTime() throws Exception {
+        ServerTransport transport = ServerTransport.getInstance();
+        long stallsBefore = transport.getStallCount();
+        ServerCommunicator serverCommunicator = new ServerCommunicator(this.serverAddress, new LongPollTimeout(300L, 100L, 1000L, 50L));
+
+        CompletableFuture<JSONObject> response = serverCommunicator.pushRequestAsync(new JSONObject());
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(2000L, TimeUnit.MILLISECONDS));
+        assertThat(e.getCause(), instanceOf(LongPollStalledException.class));
+        assertThat(((LongPollStalledException) e.getCause()).getTimeout(), is(300L));
+        // the stall is recorded right after the request failed
+        long end = System.currentTimeMillis() + ABORT_TIMEOUT;
+        while ( ((transport.getStallCount() - stallsBefore) == 0L) && (System.currentTimeMillis() < end) ) {
+            Thread.sleep(10L);
+        }
+        assertThat(transport.getStallCount() - stallsBefore, is(1L));
+    }
+
+    @Test
+    void pushRequestAsync_ShouldRejectLocally_WhenServerAskedToRetryLater() throws Exception {
+        HttpServer busyServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        AtomicInteger requests = new AtomicInteger();
+        busyServer.createContext("/rest/pushcmd", exchange -> {
+            requests.incrementAndGet();
+            exchange.getRequestBody().close();
+            exchange.getResponseHeaders().add("Retry-After", "2");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        busyServer.start();
+        try {
+            ServerCommunicator serverCommunicator = new ServerCommunicator("localhost:" + busyServer.getAddress().getPort());
+
+            ExecutionException busy = assertThrows(ExecutionException.class, () -> serverCommunicator.pushRequestAsync(new JSONObject()).get());
+            ExecutionException rejected = assertThrows(ExecutionException.class, () -> serverCommunicator.pushRequestAsync(new JSONObject()).get());
+
+            assertThat(((ServerBusyException) busy.getCause()).getRetryAfter(), is(2000L));
+            assertThat(((ServerBusyException) rejected.getCause()).getRetryAfter(), allOf(greaterThan(1000L), lessThanOrEqualTo(2000L)));
+            assertThat(requests.get(), is(1));
+        } finally {
+            busyServer.stop(0);
+        }
+    }
+
+    private long requestsOfFailedDownload(ServerCommunicator serverCommunicator) {
+        ServerTransport transport = ServerTransport.getInstance();
+        long requestsBefore = transport.getRequestCount();
+        assertThrows(IOException.class, () -> serverCommunicator.downloadFirmwareFile("plain", this.target, null, null));
+        return transport.getRequestCount() - requestsBefore;
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body, String digest) throws IOException {
+        exchange.getRequestBody().close();
+        if ( digest != null ) {
+            exchange.getResponseHeaders().add("Digest", "SHA-256=" + digest);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String contentEncoding) throws IOException {
+        exchange.getRequestBody().close();
+        byte[] body = PROGRAM;
+        if ( "deflate".equals(contentEncoding) ) {
+            body = compress(DeflaterOutputStream::new);
+        } else if ( (contentEncoding != null) && contentEncoding.contains("gzip") ) {
+            contentEncoding = "gzip";
+            body = compress(GZIPOutputStream::new);
+        } else {
+            contentEncoding = null;
+        }
+        if ( contentEncoding != null ) {
+            exchange.getResponseHeaders().add("Content-Encoding", contentEncoding);
+        }
+        exchange.getResponseHeaders().add("Filename", "program.hex");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private interface CompressorFactory {
+        OutputStream create(OutputStream os) throws IOException;
+    }
+
+    private static byte[] compress(CompressorFactory factory) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = factory.create(bos)) {
+            os.write(PROGRAM);
+        }
+        return bos.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        return ChecksumHelper.toHex(ChecksumHelper.createSha256Digest().digest(content));
+    }
+
+    private static String sha256Base64(byte[] content) {
+        return Base64.getEncoder().encodeToString(ChecksumHelper.createSha256Digest().digest(content));
+    }
+
+    // looks like an intel hex image, which compresses well
+    private static byte[] createProgram() {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 2000; i++ ) {
+            sb.append(String.format(":10%04X000C9434000C9446000C9446000C944600%02X%n", (i * 16) & 0xFFFF, i & 0xFF));
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
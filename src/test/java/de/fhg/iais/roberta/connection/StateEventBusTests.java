@@ -0,0 +1,86 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.connection.IConnector.State;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+
+class StateEventBusTests {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final StateEventBus bus = new StateEventBus(this.executor);
+    private final BlockingQueue<State> states = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void fire_ShouldCoalesceState_WhenItRepeatsThePreviousOne() throws InterruptedException {
+        this.bus.registerListener(this.states::add);
+
+        for ( int i = 0; i < 10; i++ ) {
+            this.bus.fire(State.WAIT_EXECUTION);
+        }
+        this.bus.fire(State.WAIT_FOR_CMD);
+
+        assertThat(this.states.poll(1, TimeUnit.SECONDS), is(State.WAIT_EXECUTION));
+        assertThat(this.states.poll(1, TimeUnit.SECONDS), is(State.WAIT_FOR_CMD));
+        assertThat(this.states.poll(100L, TimeUnit.MILLISECONDS), is((State) null));
+        assertThat(this.bus.getCoalescedCount(), is(9L));
+        assertThat(this.bus.getDispatchLatency().getCount(), is(2L));
+    }
+
+    @Test
+    void fire_ShouldCallListenersOnDispatcher_WhenStateIsFired() throws InterruptedException {
+        BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+        this.bus.registerListener(state -> threads.add(Thread.currentThread()));
+
+        this.bus.fire(State.DISCOVER);
+
+        assertThat(threads.poll(1, TimeUnit.SECONDS), is(not(Thread.currentThread())));
+    }
+
+    @Test
+    void fire_ShouldReturnImmediately_WhenListenerIsBlocked() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        this.bus.registerListener(state -> {
+            try {
+                blocked.await();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            this.states.add(state);
+        });
+
+        long start = System.nanoTime();
+        for ( int i = 0; i < (StateEventBus.MAX_PENDING * 4); i++ ) {
+            this.bus.fire(((i % 2) == 0) ? State.WAIT_EXECUTION : State.WAIT_FOR_CMD);
+        }
+        this.bus.fire(State.DISCOVER);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        blocked.countDown();
+
+        assertThat(elapsed, lessThan(100L));
+        assertThat(this.bus.getDroppedCount(), greaterThan(0L));
+        State last = null;
+        State state;
+        while ( (state = this.states.poll(200L, TimeUnit.MILLISECONDS)) != null ) {
+            last = state;
+        }
+        assertThat(last, is(State.DISCOVER));
+    }
+}
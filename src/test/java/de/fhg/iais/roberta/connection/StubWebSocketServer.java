@@ -0,0 +1,227 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.connection.WebSocketConnection.Frame;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the WebSocket push endpoint of the Open Roberta server. Registrations are answered immediately, pushes are held for the hold time
+ * and answered with repeat, unless a command is sent for the token. A push that is replaced by a newer push of the same token is answered with
+ * repeat at once. Every answer carries the id of its push.
+ */
+class StubWebSocketServer {
+    private static final Logger LOG = LoggerFactory.getLogger(StubWebSocketServer.class);
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-websocket");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stub-websocket-hold");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long holdTime = 10000L;
+
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Map<String, HeldPush> heldPushes = new ConcurrentHashMap<>();
+    private final Map<String, String> queuedCommands = new ConcurrentHashMap<>();
+    private final AtomicLong upgrades = new AtomicLong();
+    private final AtomicLong pushes = new AtomicLong();
+
+    StubWebSocketServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 1000, InetAddress.getByName("localhost"));
+    }
+
+    /**
+     * @return the address of the server, to be used as server address of the communicator
+     */
+    String start() {
+        this.connections.execute(this::accept);
+        return "localhost:" + this.serverSocket.getLocalPort();
+    }
+
+    void stop() {
+        try {
+            this.serverSocket.close();
+        } catch ( IOException e ) {
+            LOG.debug("Could not close server socket: {}", e.getMessage());
+        }
+        for ( Socket socket : this.sockets ) {
+            closeQuietly(socket);
+        }
+        this.connections.shutdownNow();
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * @param holdTime the time in milliseconds a push without a command is held
+     */
+    void setHoldTime(long holdTime) {
+        this.holdTime = holdTime;
+    }
+
+    /**
+     * Answers the held push of the token with the command, or the next push if none is held.
+     *
+     * @param token the token of the robot
+     * @param command the command, e.g. download
+     */
+    void sendCommand(String token, String command) {
+        HeldPush heldPush = this.heldPushes.remove(token);
+        if ( (heldPush == null) || !heldPush.answer(command) ) {
+            this.queuedCommands.put(token, command);
+        }
+    }
+
+    long getUpgrades() {
+        return this.upgrades.get();
+    }
+
+    long getPushes() {
+        return this.pushes.get();
+    }
+
+    private void accept() {
+        while ( !this.serverSocket.isClosed() ) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.sockets.add(socket);
+                this.connections.execute(() -> serve(socket));
+            } catch ( IOException e ) {
+                LOG.debug("Stopped accepting: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String requestLine = WebSocketConnection.readLine(in);
+            Map<String, String> headers = WebSocketConnection.readHeaders(in);
+            String key = headers.get("sec-websocket-key");
+            if ( !requestLine.startsWith("GET " + WebSocketPushTransport.PATH + ' ') || (key == null) ) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                return;
+            }
+            out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + WebSocketConnection.acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            this.upgrades.incrementAndGet();
+
+            while ( true ) {
+                Frame frame = WebSocketConnection.readFrame(in);
+                switch ( frame.opcode ) {
+                    case WebSocketConnection.OPCODE_TEXT:
+                        handle(out, new JSONObject(new String(frame.payload, StandardCharsets.UTF_8)));
+                        break;
+                    case WebSocketConnection.OPCODE_PING:
+                        write(out, WebSocketConnection.OPCODE_PONG, frame.payload);
+                        break;
+                    case WebSocketConnection.OPCODE_CLOSE:
+                        write(out, WebSocketConnection.OPCODE_CLOSE, new byte[0]);
+                        return;
+                    default:
+                        break;
+                }
+            }
+        } catch ( IOException e ) {
+            LOG.debug("Connection closed: {}", e.getMessage());
+        } finally {
+            this.sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void handle(OutputStream out, JSONObject request) {
+        long id = request.getLong(WebSocketPushTransport.KEY_ID);
+        String token = request.optString(IConnector.KEY_TOKEN);
+        if ( IConnector.CMD_REGISTER.equals(request.optString(IConnector.KEY_CMD)) ) {
+            new HeldPush(out, id).answer(IConnector.CMD_REPEAT);
+            return;
+        }
+        this.pushes.incrementAndGet();
+        HeldPush heldPush = new HeldPush(out, id);
+        String command = this.queuedCommands.remove(token);
+        if ( command != null ) {
+            heldPush.answer(command);
+            return;
+        }
+        HeldPush replaced = this.heldPushes.put(token, heldPush);
+        if ( replaced != null ) {
+            replaced.answer(IConnector.CMD_REPEAT);
+        }
+        this.scheduler.schedule(() -> {
+            if ( this.heldPushes.remove(token, heldPush) ) {
+                heldPush.answer(IConnector.CMD_REPEAT);
+            }
+        }, this.holdTime, TimeUnit.MILLISECONDS);
+    }
+
+    private static void write(OutputStream out, int opcode, byte[] payload) throws IOException {
+        synchronized ( out ) {
+            WebSocketConnection.writeFrame(out, opcode, payload, false);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch ( IOException e ) {
+            LOG.debug("Could not close socket: {}", e.getMessage());
+        }
+    }
+
+    private static final class HeldPush {
+        private final OutputStream out;
+        private final long id;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        private HeldPush(OutputStream out, long id) {
+            this.out = out;
+            this.id = id;
+        }
+
+        boolean answer(String command) {
+            if ( !this.answered.compareAndSet(false, true) ) {
+                return false;
+            }
+            JSONObject response = new JSONObject().put(IConnector.KEY_CMD, command).put(WebSocketPushTransport.KEY_ID, this.id);
+            try {
+                write(this.out, WebSocketConnection.OPCODE_TEXT, response.toString().getBytes(StandardCharsets.UTF_8));
+                return true;
+            } catch ( IOException e ) {
+                LOG.debug("Could not answer push: {}", e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.fhg.iais.roberta.connection;
+
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WebSocketPushTransportTests {
+
+    private static final String TOKEN = "ABCD1234";
+    private static final long TIMEOUT = 2000L;
+
+    private StubWebSocketServer server = null;
+    private ServerCommunicator serverCommunicator = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = new StubWebSocketServer();
+        this.serverCommunicator = new ServerCommunicator(this.server.start(), new LongPollTimeout(), true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.serverCommunicator.abort();
+        this.server.stop();
+    }
+
+    @Test
+    void pushRequestAsync_ShouldDeliverCommandImmediately_WhenServerSendsIt() throws Exception {
+        assertThat(push(IConnector.CMD_REGISTER).get(TIMEOUT, TimeUnit.MILLISECONDS).getString(IConnector.KEY_CMD), is(IConnector.CMD_REPEAT));
+        CompletableFuture<JSONObject> response = push(IConnector.CMD_PUSH);
+        Thread.sleep(200L);
+
+        long start = System.nanoTime();
+        this.server.sendCommand(TOKEN, IConnector.CMD_DOWNLOAD);
+
+        assertThat(response.get(TIMEOUT, TimeUnit.MILLISECONDS).getString(IConnector.KEY_CMD), is(IConnector.CMD_DOWNLOAD));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(100L));
+        assertThat(this.server.getUpgrades(), is(1L));
+    }
+
+    @Test
+    void pushRequestAsync_ShouldDropAnswer_WhenPushWasAborted() throws Exception {
+        CompletableFuture<JSONObject> aborted = push(IConnector.CMD_PUSH);
+        Thread.sleep(200L);
+        this.serverCommunicator.abort();
+        assertThrows(CancellationException.class, () -> aborted.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // the server answers the replaced push with repeat, which must not complete the new one
+        CompletableFuture<JSONObject> response = push(IConnector.CMD_PUSH);
+        Thread.sleep(200L);
+        assertThat(response.isDone(), is(false));
+        this.server.sendCommand(TOKEN, IConnector.CMD_DOWNLOAD);
+
+        assertThat(response.get(TIMEOUT, TimeUnit.MILLISECONDS).getString(IConnector.KEY_CMD), is(IConnector.CMD_DOWNLOAD));
+    }
+
+    @Test
+    void pushRequestAsync_ShouldFallBackToLongPolling_WhenUpgradeIsRefused() throws Exception {
+        StubOpenRobertaServer httpServer = new StubOpenRobertaServer();
+        httpServer.setHoldTime(0L);
+        try {
+            ServerCommunicator fallbackCommunicator = new ServerCommunicator(httpServer.start(), new LongPollTimeout(), true);
+            JSONObject request = new JSONObject().put(IConnector.KEY_CMD, IConnector.CMD_REGISTER).put(IConnector.KEY_TOKEN, TOKEN);
+
+            JSONObject response = fallbackCommunicator.pushRequestAsync(request).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+            assertThat(response.getString(IConnector.KEY_CMD), is(IConnector.CMD_REPEAT));
+            assertThat(httpServer.getRegistrations(), is(1L));
+        } finally {
+            httpServer.stop();
+        }
+    }
+
+    private CompletableFuture<JSONObject> push(String command) {
+        return this.serverCommunicator.pushRequestAsync(new JSONObject().put(IConnector.KEY_CMD, command).put(IConnector.KEY_TOKEN, TOKEN));
+    }
+}
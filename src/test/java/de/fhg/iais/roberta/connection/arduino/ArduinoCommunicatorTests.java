@@ -0,0 +1,21 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import com.fazecast.jSerialComm.SerialPort;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+class ArduinoCommunicatorTests {
+
+    @Test
+    void findPort_ShouldMatchWholeName_WhenNamesSharePrefix() {
+        SerialPort[] ports = { SerialPort.getCommPort("/dev/ttyACM10"), SerialPort.getCommPort("/dev/ttyACM1") };
+
+        assertThat(ArduinoCommunicator.findPort(ports, "ttyACM1"), is(sameInstance(ports[1])));
+        assertThat(ArduinoCommunicator.findPort(ports, "/dev/ttyACM1"), is(sameInstance(ports[1])));
+        assertThat(ArduinoCommunicator.findPort(ports, "ttyACM10"), is(sameInstance(ports[0])));
+        assertThat(ArduinoCommunicator.findPort(ports, "ttyACM2"), is((SerialPort) null));
+    }
+}
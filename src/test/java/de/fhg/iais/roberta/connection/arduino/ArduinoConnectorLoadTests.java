@@ -0,0 +1,57 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.testUtils.ConnectorLoadGenerator;
+import de.fhg.iais.roberta.testUtils.ConnectorLoadGenerator.Report;
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Runs a growing number of Arduino connectors with simulated boards against the stub server. Every robot downloads and uploads a program after
+ * each push request. Run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class ArduinoConnectorLoadTests {
+
+    private static final int[] CONNECTOR_COUNTS = { 1, 10, 50, 100 };
+    private static final long DURATION = 5000L;
+    private static final long UPLOAD_TIME = 100L;
+
+    private StubOpenRobertaServer server = null;
+    private String serverAddress = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = new StubOpenRobertaServer();
+        this.server.setScript(push -> "download");
+        this.serverAddress = this.server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    void run_ShouldCompleteCommands_WhenConnectorCountGrows() throws InterruptedException {
+        AtomicInteger ports = new AtomicInteger();
+        ConnectorLoadGenerator loadGenerator = new ConnectorLoadGenerator(this.server,
+            this.serverAddress,
+            () -> new ArduinoConnector(ArduinoType.UNO, "ttyFAKE" + ports.getAndIncrement(), new FakeArduinoCommunicator(ArduinoType.UNO, UPLOAD_TIME)));
+
+        System.out.println(Report.header());
+        for ( int connectors : CONNECTOR_COUNTS ) {
+            Report report = loadGenerator.run(connectors, DURATION);
+            System.out.println(report);
+            assertThat(report.getThroughput(), greaterThan(0.0));
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.connection.RunMetrics;
+import de.fhg.iais.roberta.connection.RunMetrics.Phase;
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+
+class ArduinoConnectorTests {
+
+    private static final long HOLD_TIME = 5000L;
+
+    private HttpServer server = null;
+    private HttpServer otherServer = null;
+    private ScheduledExecutorService holdExecutor = null;
+
+    private ArduinoConnector connector = null;
+    private Thread connectorThread = null;
+    private final BlockingQueue<State> states = new LinkedBlockingQueue<>();
+    private final BlockingQueue<JSONObject> pushes = new LinkedBlockingQueue<>();
+    private final AtomicInteger failingPushes = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // registrations are answered immediately, push requests are held like a long poll
+        this.holdExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.server = createServer();
+        this.otherServer = createServer();
+
+        this.connector = new ArduinoConnector(ArduinoType.UNO, "ttyACM0");
+        this.connector.registerListener(this.states::add);
+        this.connectorThread = new Thread(this.connector::run);
+        this.connectorThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        this.connector.interrupt();
+        this.connectorThread.join(1000L);
+        this.server.stop(0);
+        this.otherServer.stop(0);
+        this.holdExecutor.shutdownNow();
+    }
+
+    @Test
+    void userPressDisconnectButton_ShouldTransitionImmediately_WhenPushRequestIsOutstanding() throws InterruptedException {
+        assertThat(next(), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+        this.connector.updateCustomServerAddress("localhost:" + this.server.getAddress().getPort());
+
+        this.connector.userPressConnectButton();
+        assertThat(next(), is(State.WAIT_FOR_SERVER));
+        assertThat(next(), is(State.WAIT_FOR_CMD));
+
+        // the push request is now held by the server
+        Thread.sleep(200L);
+        long start = System.nanoTime();
+        this.connector.userPressDisconnectButton();
+        assertThat(next(), is(State.DISCOVER));
+        assertThat(next(), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(HOLD_TIME / 10));
+    }
+
+    @Test
+    void updateCustomServerAddress_ShouldRegisterAgain_WhenPushRequestIsOutstanding() throws InterruptedException {
+        assertThat(next(), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+        this.connector.updateCustomServerAddress("localhost:" + this.server.getAddress().getPort());
+        this.connector.userPressConnectButton();
+        assertThat(next(), is(State.WAIT_FOR_SERVER));
+        assertThat(next(), is(State.WAIT_FOR_CMD));
+        String token = this.connector.getToken();
+
+        Thread.sleep(200L);
+        this.connector.updateCustomServerAddress("localhost:" + this.otherServer.getAddress().getPort());
+
+        assertThat(next(), is(State.WAIT_FOR_SERVER));
+        assertThat(next(), is(State.WAIT_FOR_CMD));
+        assertThat(this.connector.getToken(), is(not(token)));
+    }
+
+    @Test
+    void run_ShouldKeepToken_WhenServerIsTemporarilyUnavailable() throws InterruptedException {
+        this.failingPushes.set(1);
+        assertThat(next(), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+        this.connector.updateCustomServerAddress("localhost:" + this.server.getAddress().getPort());
+        this.connector.userPressConnectButton();
+        assertThat(next(), is(State.WAIT_FOR_SERVER));
+        assertThat(next(), is(State.WAIT_FOR_CMD));
+        String token = this.connector.getToken();
+
+        assertThat(next(), is(State.WAIT_FOR_RETRY));
+        assertThat(this.pushes.poll(2, TimeUnit.SECONDS).getString("token"), is(token));
+        assertThat(this.pushes.poll(2, TimeUnit.SECONDS).getString("token"), is(token));
+        assertThat(this.states.poll(200L, TimeUnit.MILLISECONDS), is((State) null));
+        assertThat(this.connector.getToken(), is(token));
+    }
+
+    @Test
+    void run_ShouldUploadProgram_WhenServerSendsDownload() throws Exception {
+        StubOpenRobertaServer stubServer = new StubOpenRobertaServer();
+        stubServer.setScript(push -> (push == 0) ? "download" : null);
+        String stubAddress = stubServer.start();
+        ArduinoConnector fakeConnector = new ArduinoConnector(ArduinoType.UNO, "ttyFAKE0", new FakeArduinoCommunicator(ArduinoType.UNO, 0L));
+        BlockingQueue<State> fakeStates = new LinkedBlockingQueue<>();
+        fakeConnector.registerListener(fakeStates::add);
+        Thread fakeThread = new Thread(fakeConnector::run);
+        fakeThread.start();
+        try {
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+            fakeConnector.updateCustomServerAddress(stubAddress);
+            fakeConnector.userPressConnectButton();
+
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_SERVER));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CMD));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_UPLOAD));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_EXECUTION));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CMD));
+            assertThat(stubServer.getDownloads(), is(1L));
+            assertThat(RunMetrics.getInstance().getHistogram("uno", Phase.TOTAL).getCount(), greaterThanOrEqualTo(1L));
+        } finally {
+            fakeConnector.close();
+            fakeThread.join(1000L);
+            stubServer.stop();
+        }
+    }
+
+    @Test
+    void run_ShouldOnlyResetBoard_WhenIdenticalProgramIsDownloadedAgain() throws Exception {
+        FakeArduinoCommunicator communicator = new FakeArduinoCommunicator(ArduinoType.UNO, 0L, true);
+
+        runTwice(new ArduinoConnector(ArduinoType.UNO, "ttySKIP0", communicator, true), () -> {
+        });
+
+        assertThat(communicator.getUploads(), is(1));
+        assertThat(communicator.getResets(), is(1));
+    }
+
+    @Test
+    void run_ShouldUploadAgain_WhenSkippingIsDisabled() throws Exception {
+        FakeArduinoCommunicator communicator = new FakeArduinoCommunicator(ArduinoType.UNO, 0L, true);
+
+        runTwice(new ArduinoConnector(ArduinoType.UNO, "ttySKIP1", communicator, false), () -> {
+        });
+
+        assertThat(communicator.getUploads(), is(2));
+        assertThat(communicator.getResets(), is(0));
+    }
+
+    @Test
+    void run_ShouldUploadAgain_WhenAnotherBoardIsConnectedToThePort() throws Exception {
+        FakeArduinoCommunicator communicator = new FakeArduinoCommunicator(ArduinoType.UNO, 0L, true);
+        FlashHistory.detected(Collections.singletonMap("ttySKIP2", "A1"));
+
+        runTwice(new ArduinoConnector(ArduinoType.UNO, "ttySKIP2", communicator, true),
+            () -> FlashHistory.detected(Collections.singletonMap("ttySKIP2", "B2")));
+
+        assertThat(communicator.getUploads(), is(2));
+        assertThat(communicator.getResets(), is(0));
+    }
+
+    @Test
+    void run_ShouldUploadAgain_WhenConnectorIsCreatedAgain() throws Exception {
+        FakeArduinoCommunicator communicator = new FakeArduinoCommunicator(ArduinoType.UNO, 0L, true);
+
+        // the board might be flashed by the Arduino IDE in between
+        runTwice(new ArduinoConnector(ArduinoType.UNO, "ttySKIP3", communicator, true), () -> {
+        });
+        runTwice(new ArduinoConnector(ArduinoType.UNO, "ttySKIP3", communicator, true), () -> {
+        });
+
+        assertThat(communicator.getUploads(), is(2));
+        assertThat(communicator.getResets(), is(2));
+    }
+
+    @Test
+    void run_ShouldSkipUpload_WhenMassFlasherHoldsThePort() throws Exception {
+        StubOpenRobertaServer stubServer = new StubOpenRobertaServer();
+        String stubAddress = stubServer.start();
+        FakeArduinoCommunicator communicator = new FakeArduinoCommunicator(ArduinoType.UNO, 0L);
+        ArduinoConnector fakeConnector = new ArduinoConnector(ArduinoType.UNO, "ttyLOCK0", communicator);
+        BlockingQueue<State> fakeStates = new LinkedBlockingQueue<>();
+        fakeConnector.registerListener(fakeStates::add);
+        ReentrantLock portLock = PortLocks.get("ttyLOCK0");
+        fakeConnector.start();
+        try {
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+            fakeConnector.updateCustomServerAddress(stubAddress);
+            fakeConnector.userPressConnectButton();
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_SERVER));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CMD));
+
+            portLock.lock();
+            try {
+                stubServer.sendCommand(fakeConnector.getToken(), "download");
+                assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.ERROR_DOWNLOAD));
+            } finally {
+                portLock.unlock();
+            }
+            // the connector keeps its token and uploads the next program
+            stubServer.sendCommand(fakeConnector.getToken(), "download");
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_UPLOAD));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_EXECUTION));
+            assertThat(communicator.getUploads(), is(1));
+        } finally {
+            fakeConnector.close();
+            stubServer.stop();
+        }
+    }
+
+    @Test
+    void run_ShouldNotRepeatState_WhenWaitingForConnectButton() throws InterruptedException {
+        assertThat(next(), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+
+        assertThat(this.states.poll(500L, TimeUnit.MILLISECONDS), is((State) null));
+        assertThat(this.connectorThread.getState(), is(Thread.State.WAITING));
+    }
+
+    // the same program is downloaded twice, betweenRuns is called after the first run
+    private static void runTwice(ArduinoConnector fakeConnector, Runnable betweenRuns) throws Exception {
+        StubOpenRobertaServer stubServer = new StubOpenRobertaServer();
+        String stubAddress = stubServer.start();
+        BlockingQueue<State> fakeStates = new LinkedBlockingQueue<>();
+        fakeConnector.registerListener(fakeStates::add);
+        Thread fakeThread = new Thread(fakeConnector::run);
+        fakeThread.start();
+        try {
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+            fakeConnector.updateCustomServerAddress(stubAddress);
+            fakeConnector.userPressConnectButton();
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_SERVER));
+            assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CMD));
+
+            for ( int run = 0; run < 2; run++ ) {
+                if ( run == 1 ) {
+                    betweenRuns.run();
+                }
+                stubServer.sendCommand(fakeConnector.getToken(), "download");
+                assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_UPLOAD));
+                assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_EXECUTION));
+                assertThat(fakeStates.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CMD));
+            }
+            assertThat(stubServer.getDownloads(), is(2L));
+        } finally {
+            fakeConnector.close();
+            fakeThread.join(1000L);
+            stubServer.stop();
+        }
+    }
+
+    private HttpServer createServer() throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/rest/pushcmd", exchange -> {
+            JSONObject request = new JSONObject(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            if ( "register".equals(request.getString("cmd")) ) {
+                respond(exchange);
+                return;
+            }
+            this.pushes.add(request);
+            if ( this.failingPushes.getAndDecrement() > 0 ) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            } else {
+                this.holdExecutor.schedule(() -> respond(exchange), HOLD_TIME, TimeUnit.MILLISECONDS);
+            }
+        });
+        httpServer.start();
+        return httpServer;
+    }
+
+    private State next() throws InterruptedException {
+        return this.states.poll(2, TimeUnit.SECONDS);
+    }
+
+    private static void respond(HttpExchange exchange) {
+        try {
+            byte[] response = "{\"cmd\":\"repeat\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        } catch ( IOException e ) {
+            exchange.close();
+        }
+    }
+}
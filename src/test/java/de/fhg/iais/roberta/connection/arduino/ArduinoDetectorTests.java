@@ -0,0 +1,71 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.util.SerialDevice;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+class ArduinoDetectorTests {
+
+    // a clone without a serial number and a name in front of an original board, shortened output of ioreg -r -c IOUSBHostDevice -l
+    private static final String IOREG = String.join("\n",
+        "+-o USB2.0-Serial@14100000  <class IOUSBHostDevice, id 0x100000a11, registered, matched, active, busy 0 (9 ms), retain 26>",
+        "  | {",
+        "  |   \"idProduct\" = 29987",
+        "  |   \"idVendor\" = 6790",
+        "  |   \"USB Product Name\" = \"USB2.0-Serial\"",
+        "  | }",
+        "  | ",
+        "  +-o IOUSBHostInterface@0  <class IOUSBHostInterface, id 0x100000a14, registered, matched, active, busy 0 (5 ms), retain 7>",
+        "    | {",
+        "    |   \"idProduct\" = 29987",
+        "    |   \"idVendor\" = 6790",
+        "    | }",
+        "    | ",
+        "    +-o IOSerialBSDClient  <class IOSerialBSDClient, id 0x100000a1c, registered, matched, active, busy 0 (0 ms), retain 6>",
+        "        {",
+        "          \"IOTTYDevice\" = \"wchusbserial14100\"",
+        "        }",
+        "        ",
+        "+-o Arduino Uno@14200000  <class IOUSBHostDevice, id 0x100000b22, registered, matched, active, busy 0 (11 ms), retain 30>",
+        "  | {",
+        "  |   \"idProduct\" = 67",
+        "  |   \"idVendor\" = 9025",
+        "  |   \"Product Name\" = \"Arduino Uno\"",
+        "  |   \"USB Serial Number\" = \"75833353035351D01201\"",
+        "  | }",
+        "  | ",
+        "  +-o IOUSBHostInterface@0  <class IOUSBHostInterface, id 0x100000b25, registered, matched, active, busy 0 (4 ms), retain 7>",
+        "    +-o IOSerialBSDClient  <class IOSerialBSDClient, id 0x100000b2d, registered, matched, active, busy 0 (0 ms), retain 6>",
+        "        {",
+        "          \"IOTTYDevice\" = \"usbmodem14201\"",
+        "        }",
+        "        ",
+        "+-o Apple Internal Keyboard / Trackpad@14400000  <class IOUSBHostDevice, id 0x100000c01, registered, matched, active, busy 0 (3 ms), retain 20>",
+        "    {",
+        "      \"idProduct\" = 610",
+        "      \"idVendor\" = 1452",
+        "      \"USB Serial Number\" = \"D3H7\"",
+        "    }");
+
+    @Test
+    void parseIoreg_ShouldKeepSerialNumberWithItsPort_WhenAnotherDeviceHasNone() {
+        List<SerialDevice> devices = ArduinoDetector.parseIoreg(IOREG);
+
+        assertThat(devices, hasSize(2));
+        assertThat(devices.get(0).port, is("tty.wchusbserial14100"));
+        assertThat(devices.get(0).vendorId, is("1A86"));
+        assertThat(devices.get(0).productId, is("7523"));
+        assertThat(devices.get(0).name, is(""));
+        assertThat(devices.get(0).serialNumber, is(""));
+        assertThat(devices.get(1).port, is("tty.usbmodem14201"));
+        assertThat(devices.get(1).vendorId, is("2341"));
+        assertThat(devices.get(1).productId, is("0043"));
+        assertThat(devices.get(1).name, is("Arduino Uno"));
+        assertThat(devices.get(1).serialNumber, is("75833353035351D01201"));
+    }
+}
@@ -0,0 +1,141 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.util.Pair;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+class ArduinoSupervisorTests {
+
+    private ArduinoSupervisor supervisor = null;
+
+    @BeforeEach
+    void setUp() {
+        this.supervisor = new ArduinoSupervisor(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.supervisor.shutdown();
+    }
+
+    @Test
+    void update_ShouldStartOneConnectorPerBoard_WhenBoardsAreAttached() {
+        Pair<List<ArduinoConnector>, List<ArduinoConnector>> changes = this.supervisor.update(boards("ttyACM0", ArduinoType.UNO, "ttyACM1", ArduinoType.NANO));
+
+        assertThat(changes.getFirst(), hasSize(2));
+        assertThat(changes.getSecond(), is(empty()));
+        assertThat(changes.getFirst().get(0).getPortName(), is("ttyACM0"));
+        assertThat(changes.getFirst().get(1).getType(), is(ArduinoType.NANO));
+    }
+
+    @Test
+    void update_ShouldStopConnector_WhenBoardDisappearsOrChangesType() {
+        Pair<List<ArduinoConnector>, List<ArduinoConnector>> started = this.supervisor.update(boards("ttyACM0", ArduinoType.UNO, "ttyACM1", ArduinoType.NANO));
+
+        Pair<List<ArduinoConnector>, List<ArduinoConnector>> changes = this.supervisor.update(boards("ttyACM1", ArduinoType.MEGA));
+
+        assertThat(changes.getSecond(), contains(started.getFirst().get(0), started.getFirst().get(1)));
+        assertThat(changes.getFirst(), hasSize(1));
+        assertThat(changes.getFirst().get(0).getType(), is(ArduinoType.MEGA));
+    }
+
+    @Test
+    void update_ShouldIgnoreBoards_WhenLimitIsReached() {
+        Pair<List<ArduinoConnector>, List<ArduinoConnector>> changes =
+            this.supervisor.update(boards("ttyACM0", ArduinoType.UNO, "ttyACM1", ArduinoType.UNO, "ttyACM2", ArduinoType.UNO));
+
+        assertThat(changes.getFirst(), hasSize(2));
+        assertThat(this.supervisor.getConnectors(), hasSize(2));
+        assertThat(this.supervisor.update(boards()).getSecond(), hasSize(2));
+        assertThat(this.supervisor.isEmpty(), is(true));
+    }
+
+    @Test
+    void update_ShouldNotMissFirstState_WhenListenerIsRegisteredByInitializer() throws InterruptedException {
+        BlockingQueue<State> states = new LinkedBlockingQueue<>();
+        this.supervisor.shutdown();
+        this.supervisor = new ArduinoSupervisor(2, connector -> connector.registerListener(states::add));
+
+        this.supervisor.update(boards("ttyACM0", ArduinoType.UNO, "ttyACM1", ArduinoType.NANO));
+
+        assertThat(states.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+        assertThat(states.poll(2, TimeUnit.SECONDS), is(State.WAIT_FOR_CONNECT_BUTTON_PRESS));
+    }
+
+    @Test
+    void adopt_ShouldKeepConnectorRunning_WhenItsBoardIsStillAttached() throws InterruptedException {
+        ArduinoConnector connector = new ArduinoConnector(ArduinoType.UNO, "ttyACM0", new FakeArduinoCommunicator(ArduinoType.UNO, 0L));
+        connector.start();
+
+        this.supervisor.adopt(connector);
+        Pair<List<ArduinoConnector>, List<ArduinoConnector>> changes = this.supervisor.update(boards("ttyACM0", ArduinoType.UNO, "ttyACM1", ArduinoType.UNO));
+
+        assertThat(changes.getFirst(), hasSize(1));
+        assertThat(changes.getFirst().get(0).getPortName(), is("ttyACM1"));
+        assertThat(changes.getSecond(), is(empty()));
+        assertThat(this.supervisor.getConnectors(), hasItem(connector));
+        assertThat(connector.awaitTermination(200L, TimeUnit.MILLISECONDS), is(false));
+    }
+
+    @Test
+    void update_ShouldKeepSlot_UntilStoppedConnectorFinishedItsEvent() throws InterruptedException {
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ArduinoConnector connector = new ArduinoConnector(ArduinoType.UNO, "ttyACM0", new FakeArduinoCommunicator(ArduinoType.UNO, 0L) {
+            @Override
+            JSONObject getDeviceInfo() {
+                // the connector holds a thread of the pool like during an upload
+                busy.countDown();
+                awaitUninterruptibly(release);
+                return super.getDeviceInfo();
+            }
+        });
+        this.supervisor.shutdown();
+        this.supervisor = new ArduinoSupervisor(1);
+        this.supervisor.adopt(connector);
+        connector.start();
+        connector.userPressConnectButton();
+        assertThat(busy.await(2, TimeUnit.SECONDS), is(true));
+
+        assertThat(this.supervisor.update(boards()).getSecond(), contains(connector));
+        assertThat(this.supervisor.update(boards("ttyACM1", ArduinoType.UNO)).getFirst(), is(empty()));
+
+        release.countDown();
+        assertThat(connector.awaitTermination(2, TimeUnit.SECONDS), is(true));
+        assertThat(this.supervisor.update(boards("ttyACM1", ArduinoType.UNO)).getFirst(), hasSize(1));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, ArduinoType> boards(Object... portsAndTypes) {
+        Map<String, ArduinoType> boards = new LinkedHashMap<>();
+        for ( int i = 0; i < portsAndTypes.length; i += 2 ) {
+            boards.put((String) portsAndTypes[i], (ArduinoType) portsAndTypes[i + 1]);
+        }
+        return boards;
+    }
+}
@@ -0,0 +1,75 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.arduino.BoardProfile.Verify;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+
+class BoardProfilesTests {
+
+    @Test
+    void load_ShouldReportLine_WhenProfileIsInvalid() throws IOException {
+        String file = String.join("\n",
+            "# comment",
+            "uno,default,atmega328p,arduino,115200,250,50,false,full",
+            "uno,fast,ATmega328P,arduino,115200,50,50,false,sample,0",
+            "uno,broken,atmega328p,arduino,fast,50,50,false,sample,0",
+            "lego,default,atmega328p,arduino,115200,250,50,false,full,1",
+            "uno,short,atmega328p");
+        Map<Integer, String> errors = new HashMap<>();
+
+        Map<String, BoardProfile> profiles = BoardProfiles.load(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)), errors);
+
+        assertThat(profiles.keySet(), contains("uno/default", "uno/fast"));
+        BoardProfile fast = profiles.get("uno/fast");
+        assertThat(fast.getPart(), is("atmega328p"));
+        assertThat(fast.getResetPulse(), is(50L));
+        assertThat(fast.getVerify(), is(Verify.SAMPLE));
+        assertThat(fast.getVerbosity(), is(0));
+        assertThat(fast.hasBootloader(), is(true));
+        // written before the verbosity was added
+        assertThat(profiles.get("uno/default").getVerbosity(), is(1));
+        assertThat(errors.keySet(), contains(4, 5, 6));
+    }
+
+    @Test
+    void get_ShouldReturnDefaultProfile_WhenTypeHasNoSuchProfile() {
+        for ( ArduinoType type : ArduinoType.values() ) {
+            if ( type != ArduinoType.NONE ) {
+                assertThat(BoardProfiles.get(type, BoardProfiles.DEFAULT), notNullValue());
+            }
+        }
+        assertThat(BoardProfiles.get(ArduinoType.BOB3, "fast"), is((BoardProfile) null));
+        assertThat(BoardProfiles.get(ArduinoType.MEGA, "fast"), is((BoardProfile) null));
+        assertThat(BoardProfiles.get(ArduinoType.BOB3).getName(), is(BoardProfiles.DEFAULT));
+        assertThat(BoardProfiles.get(ArduinoType.BOB3).hasBootloader(), is(false));
+        assertThat(BoardProfiles.get(ArduinoType.NONE).getType(), is(ArduinoType.UNO));
+    }
+
+    @Test
+    void getAvrdudeArguments_ShouldFollowProfile_WhenUploadingWithAvrdude() {
+        List<String> bob3 = new ArduinoCommunicator("BOB3", ArduinoType.BOB3, BoardProfiles.get(ArduinoType.BOB3, BoardProfiles.DEFAULT))
+            .getAvrdudeArguments("program.hex", "/dev/ttyUSB0");
+        List<String> fastUno = new ArduinoCommunicator("Uno", ArduinoType.UNO, BoardProfiles.get(ArduinoType.UNO, "fast"))
+            .getAvrdudeArguments("program.hex", "/dev/ttyACM0");
+
+        assertThat(bob3, contains("-v", "-D", "-patmega88", "-cavrisp2", "-e", "-Uflash:w:program.hex:i", "-C", "-P/dev/ttyUSB0"));
+        assertThat(fastUno, hasItem("-b115200"));
+        assertThat(fastUno, hasItem("-V"));
+        assertThat(fastUno, hasItem("-q"));
+        assertThat(fastUno, not(hasItem("-v")));
+        assertThat(fastUno, not(hasItem("-e")));
+    }
+}
@@ -0,0 +1,79 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Uploads a typical sketch and the same sketch with one changed constant to simulated bootloaders behind a pty, once with all pages and once with the
+ * changed pages only, on the Mega with all pages up to the changed one. Needs linux and python3, run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class DeltaUploadBenchmarkTests {
+
+    private static final int RUNS = 3;
+    private static final int BAUD_RATE = 115200;
+    private static final long PAGE_WRITE_MICROS = 4500L;
+
+    @Test
+    void program_ShouldBeFaster_WhenOneConstantChangedOnUno() throws Exception {
+        assumeTrue(PtyBridge.isAvailable(), "needs linux and python3");
+
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, BAUD_RATE, PAGE_WRITE_MICROS);
+        try (PtyBridge pty = new PtyBridge(bootloader::serve)) {
+            compare("uno ", 20 * 1024, pty, bootloader::getFlash, link -> new Stk500v1Programmer(link, AvrPart.ATMEGA328P), SerialPortLink.ARDUINO_RESET_PULSE);
+        }
+    }
+
+    @Test
+    void program_ShouldBeFaster_WhenOneConstantChangedOnMega() throws Exception {
+        assumeTrue(PtyBridge.isAvailable(), "needs linux and python3");
+
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, BAUD_RATE, PAGE_WRITE_MICROS);
+        try (PtyBridge pty = new PtyBridge(bootloader::serve)) {
+            compare("mega", 40 * 1024, pty, bootloader::getFlash, link -> new Stk500v2Programmer(link, AvrPart.ATMEGA2560), SerialPortLink.WIRING_RESET_PULSE);
+        }
+    }
+
+    private static void compare(String board, int size, PtyBridge pty, Supplier<byte[]> flash, Function<ISerialLink, IProgrammer> programmer,
+        long resetPulse) throws IOException {
+        byte[] program = HexWriter.randomProgram(size, 14L);
+        byte[] changed = program.clone();
+        changed[size / 2]++;
+        FlashImage image = HexWriter.toImage(program);
+        FlashImage changedImage = HexWriter.toImage(changed);
+
+        long[] fullTimes = new long[RUNS];
+        long[] deltaTimes = new long[RUNS];
+        for ( int i = 0; i < RUNS; i++ ) {
+            long start = System.nanoTime();
+            try (ISerialLink link = SerialPortLink.open(pty.getPortName(), BAUD_RATE, resetPulse)) {
+                programmer.apply(link).program(image);
+            }
+            fullTimes[i] = (System.nanoTime() - start) / 1000000L;
+
+            start = System.nanoTime();
+            try (ISerialLink link = SerialPortLink.open(pty.getPortName(), BAUD_RATE, resetPulse)) {
+                programmer.apply(link).program(changedImage, image);
+            }
+            deltaTimes[i] = (System.nanoTime() - start) / 1000000L;
+        }
+        assertThat(Arrays.copyOf(flash.get(), size), is(changed));
+
+        Arrays.sort(fullTimes);
+        Arrays.sort(deltaTimes);
+        long fullMedian = fullTimes[RUNS / 2];
+        long deltaMedian = deltaTimes[RUNS / 2];
+        System.out.printf("%s %2d KB | all pages     | median %5d ms | min %5d ms | max %5d ms%n", board, size / 1024, fullMedian, fullTimes[0], fullTimes[RUNS - 1]);
+        System.out.printf("%s %2d KB | changed pages | median %5d ms | min %5d ms | max %5d ms%n", board, size / 1024, deltaMedian, deltaTimes[0], deltaTimes[RUNS - 1]);
+        System.out.printf("%s saved per upload %d ms (%d%%)%n", board, fullMedian - deltaMedian, ((fullMedian - deltaMedian) * 100) / fullMedian);
+    }
+}
@@ -0,0 +1,87 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serial link to a bootloader emulator that runs in its own thread.
+ */
+class EmulatedLink implements ISerialLink {
+    private static final long READ_TIMEOUT = 200L;
+
+    /**
+     * An emulator that answers the commands it reads until the input is closed.
+     */
+    interface Bootloader {
+        void serve(InputStream in, OutputStream out) throws IOException;
+    }
+
+    private final PipedOutputStream toBoard = new PipedOutputStream();
+    private final BlockingQueue<Byte> fromBoard = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    EmulatedLink(Bootloader bootloader) throws IOException {
+        InputStream in = new PipedInputStream(this.toBoard, 64 * 1024);
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                EmulatedLink.this.fromBoard.add((byte) b);
+            }
+        };
+        this.thread = new Thread(() -> {
+            try {
+                bootloader.serve(in, out);
+            } catch ( IOException e ) {
+                throw new UncheckedIOException(e);
+            }
+        }, "bootloader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void resetBoard() {
+        this.fromBoard.clear();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        this.toBoard.write(data);
+        this.toBoard.flush();
+    }
+
+    @Override
+    public byte[] read(int length) throws IOException {
+        byte[] data = new byte[length];
+        try {
+            for ( int i = 0; i < length; i++ ) {
+                Byte b = this.fromBoard.poll(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+                if ( b == null ) {
+                    throw new IOException("Timeout, received " + i + " of " + length + " bytes");
+                }
+                data[i] = b;
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.toBoard.close();
+        try {
+            this.thread.join(1000L);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
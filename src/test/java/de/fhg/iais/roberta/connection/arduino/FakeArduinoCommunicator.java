@@ -0,0 +1,55 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulated board, an upload takes the given time and always succeeds. Uploads and resets are counted.
+ */
+class FakeArduinoCommunicator extends ArduinoCommunicator {
+    private final long uploadTime;
+    private final boolean resettable;
+
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicInteger resets = new AtomicInteger();
+
+    FakeArduinoCommunicator(ArduinoType type, long uploadTime) {
+        this(type, uploadTime, false);
+    }
+
+    /**
+     * @param resettable whether the board can be reset, otherwise identical programs are uploaded again
+     */
+    FakeArduinoCommunicator(ArduinoType type, long uploadTime, boolean resettable) {
+        super(type.getPrettyText(), type);
+        this.uploadTime = uploadTime;
+        this.resettable = resettable;
+    }
+
+    @Override
+    boolean uploadFile(String portName, String filePath) {
+        this.uploads.incrementAndGet();
+        try {
+            Thread.sleep(this.uploadTime);
+            return true;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    boolean resetBoard(String portName) {
+        if ( this.resettable ) {
+            this.resets.incrementAndGet();
+        }
+        return this.resettable;
+    }
+
+    int getUploads() {
+        return this.uploads.get();
+    }
+
+    int getResets() {
+        return this.resets.get();
+    }
+}
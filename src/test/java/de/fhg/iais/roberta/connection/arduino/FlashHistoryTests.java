@@ -0,0 +1,57 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+class FlashHistoryTests {
+    private static final FlashImage IMAGE = new FlashImage(new byte[0], new BitSet());
+
+    @Test
+    void getFlashed_ShouldReturnImageOfBoard_WhenAnotherBoardWasOnThePortInBetween() {
+        FlashHistory.detected(Collections.singletonMap("ttyHIST0", "A1"));
+        FlashHistory.flashed("ttyHIST0", IMAGE);
+
+        FlashHistory.detected(Collections.singletonMap("ttyHIST0", "B2"));
+        assertThat(FlashHistory.getFlashed("ttyHIST0"), is(nullValue()));
+
+        FlashHistory.detected(Collections.singletonMap("ttyHIST0", "A1"));
+        assertThat(FlashHistory.getFlashed("ttyHIST0"), is(sameInstance(IMAGE)));
+    }
+
+    @Test
+    void getFlashed_ShouldReturnNull_WhenBoardWithoutSerialNumberWasUnplugged() {
+        FlashHistory.detected(Collections.singletonMap("ttyHIST1", ""));
+        FlashHistory.flashed("ttyHIST1", IMAGE);
+
+        FlashHistory.detected(Collections.singletonMap("ttyHIST1", ""));
+        assertThat(FlashHistory.getFlashed("ttyHIST1"), is(sameInstance(IMAGE)));
+
+        FlashHistory.detected(Collections.emptyMap());
+        FlashHistory.detected(Collections.singletonMap("ttyHIST1", ""));
+        assertThat(FlashHistory.getFlashed("ttyHIST1"), is(nullValue()));
+    }
+
+    @Test
+    void isUploaded_ShouldForgetProgramTogetherWithImage_WhenAnotherBoardIsConnectedToThePort() {
+        FlashHistory.detected(Collections.singletonMap("ttyHIST2", "A1"));
+        FlashHistory.flashed("ttyHIST2", IMAGE);
+        FlashHistory.uploaded("ttyHIST2", "0123");
+        assertThat(FlashHistory.isUploaded("ttyHIST2", "0123"), is(true));
+
+        FlashHistory.detected(Collections.singletonMap("ttyHIST2", "B2"));
+        assertThat(FlashHistory.isUploaded("ttyHIST2", "0123"), is(false));
+        assertThat(FlashHistory.getFlashed("ttyHIST2"), is(nullValue()));
+
+        FlashHistory.detected(Collections.singletonMap("ttyHIST2", "A1"));
+        FlashHistory.invalidate("ttyHIST2");
+        assertThat(FlashHistory.isUploaded("ttyHIST2", "0123"), is(false));
+        assertThat(FlashHistory.getFlashed("ttyHIST2"), is(nullValue()));
+    }
+}
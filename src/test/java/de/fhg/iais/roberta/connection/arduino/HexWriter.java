@@ -0,0 +1,56 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Writes images as Intel HEX files like the compiler of the server, 16 bytes per record.
+ */
+final class HexWriter {
+    private HexWriter() {
+    }
+
+    static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        int segment = 0;
+        for ( int address = 0; address < data.length; address += 16 ) {
+            if ( (address >> 16) != segment ) {
+                segment = address >> 16;
+                appendRecord(sb, 0, 0x04, new byte[] { (byte) (segment >> 8), (byte) segment });
+            }
+            byte[] record = new byte[Math.min(16, data.length - address)];
+            System.arraycopy(data, address, record, 0, record.length);
+            appendRecord(sb, address & 0xFFFF, 0x00, record);
+        }
+        appendRecord(sb, 0, 0x01, new byte[0]);
+        return sb.toString();
+    }
+
+    /**
+     * @return the image the {@link IntelHex} parser reads from the HEX file of the program
+     */
+    static FlashImage toImage(byte[] data) throws IOException {
+        return IntelHex.parse(new ByteArrayInputStream(toHex(data).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * @return a program of the given size with random content
+     */
+    static byte[] randomProgram(int size, long seed) {
+        byte[] program = new byte[size];
+        new Random(seed).nextBytes(program);
+        return program;
+    }
+
+    private static void appendRecord(StringBuilder sb, int offset, int type, byte[] data) {
+        int checksum = data.length + (offset >> 8) + offset + type;
+        sb.append(String.format(":%02X%04X%02X", data.length, offset, type));
+        for ( byte b : data ) {
+            sb.append(String.format("%02X", b));
+            checksum += b;
+        }
+        sb.append(String.format("%02X%n", -checksum & 0xFF));
+    }
+}
@@ -0,0 +1,48 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IntelHexTests {
+
+    @Test
+    void parse_ShouldReturnImage_WhenFileUsesExtendedAddresses() throws IOException {
+        byte[] program = HexWriter.randomProgram(70000, 1L);
+
+        FlashImage image = parse(HexWriter.toHex(program));
+
+        assertThat(image.size(), is(program.length));
+        assertThat(image.getPage(65536, 256), is(Arrays.copyOfRange(program, 65536, 65536 + 256)));
+        assertThat(image.isPageUsed(69888, 256), is(true));
+    }
+
+    @Test
+    void parse_ShouldPadPages_WhenProgramDoesNotFillThem() throws IOException {
+        FlashImage image = parse(":0400100001020304E2\n:00000001FF\n");
+
+        assertThat(image.size(), is(20));
+        assertThat(image.isPageUsed(0, 16), is(false));
+        assertThat(image.isPageUsed(16, 16), is(true));
+        byte[] page = image.getPage(16, 8);
+        assertThat(page, is(new byte[] { 1, 2, 3, 4, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }));
+    }
+
+    @Test
+    void parse_ShouldFail_WhenFileIsInvalid() {
+        assertThrows(IOException.class, () -> parse(":0400100001020304E3\n:00000001FF\n"));
+        assertThrows(IOException.class, () -> parse(":0400100001020304E2\n"));
+        assertThrows(IOException.class, () -> parse("0400100001020304E2\n:00000001FF\n"));
+    }
+
+    private static FlashImage parse(String hex) throws IOException {
+        return IntelHex.parse(new ByteArrayInputStream(hex.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,71 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.Summary;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Flashes a typical sketch to several simulated Uno bootloaders behind ptys, one board after the other and with one worker per board. Needs linux and
+ * python3, run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class MassFlashBenchmarkTests {
+
+    private static final int BOARDS = 8;
+    private static final int SKETCH_SIZE = 20 * 1024;
+    private static final int BAUD_RATE = 115200;
+    private static final long PAGE_WRITE_MICROS = 4500L;
+
+    @Test
+    void flash_ShouldScaleWithWorkers_WhenSeveralBoardsAreAttached() throws Exception {
+        assumeTrue(PtyBridge.isAvailable(), "needs linux and python3");
+
+        byte[] program = HexWriter.randomProgram(SKETCH_SIZE, 17L);
+        Path hexFile = Files.createTempFile("sketch", ".hex");
+        List<Stk500v1Emulator> bootloaders = new ArrayList<>();
+        List<PtyBridge> ptys = new ArrayList<>();
+        try {
+            Files.write(hexFile, HexWriter.toHex(program).getBytes(StandardCharsets.US_ASCII));
+            Map<String, ArduinoType> boards = new LinkedHashMap<>();
+            for ( int i = 0; i < BOARDS; i++ ) {
+                Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, BAUD_RATE, PAGE_WRITE_MICROS);
+                PtyBridge pty = new PtyBridge(bootloader::serve);
+                bootloaders.add(bootloader);
+                ptys.add(pty);
+                boards.put(pty.getPortName(), ArduinoType.UNO);
+            }
+
+            for ( int workers : new int[] { 1, BOARDS / 2, BOARDS } ) {
+                // every run writes all pages
+                boards.keySet().forEach(FlashHistory::invalidate);
+                Summary summary = new MassFlasher(workers).flash(hexFile, boards, state -> {
+                });
+                assertThat(summary.getSucceeded(), is(BOARDS));
+                System.out.printf("%d boards, %2d KB | %d workers | %6d ms | %5.1f KB/s%n",
+                    BOARDS, SKETCH_SIZE / 1024, summary.getWorkers(), summary.getMillis(), summary.getBytesPerSecond() / 1024.0);
+            }
+            for ( Stk500v1Emulator bootloader : bootloaders ) {
+                assertThat(Arrays.copyOf(bootloader.getFlash(), SKETCH_SIZE), is(program));
+            }
+        } finally {
+            for ( PtyBridge pty : ptys ) {
+                pty.close();
+            }
+            Files.delete(hexFile);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.BoardState;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.Status;
+import de.fhg.iais.roberta.connection.arduino.MassFlasher.Summary;
+import de.fhg.iais.roberta.util.IOraListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MassFlasherTests {
+
+    private static final long UPLOAD_TIME = 200L;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final Set<FlashImage> images = ConcurrentHashMap.newKeySet();
+    private final List<BoardState> states = Collections.synchronizedList(new ArrayList<>());
+
+    private Path hexFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.hexFile = Files.createTempFile("sketch", ".hex");
+        Files.write(this.hexFile, HexWriter.toHex(HexWriter.randomProgram(1000, 15L)).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.delete(this.hexFile);
+    }
+
+    @Test
+    void flash_ShouldFlashBoardsConcurrently_WhenWorkersAreAvailable() throws Exception {
+        Summary summary = new MassFlasher(4, (portName, type) -> new CountingCommunicator(type, true)).flash(this.hexFile, boards(6), this.states::add);
+
+        assertThat(summary.getSucceeded(), is(6));
+        assertThat(summary.getWorkers(), is(4));
+        assertThat(this.maxRunning.get(), is(4));
+        // parsed once, every board got the same image
+        assertThat(this.images.size(), is(1));
+        assertThat(summary.getImageSize(), is(1000));
+    }
+
+    @Test
+    void flash_ShouldUseOneWorkerPerBoard_WhenBoardsAreFewerThanWorkers() throws Exception {
+        Summary summary = new MassFlasher(16, (portName, type) -> new CountingCommunicator(type, true)).flash(this.hexFile, boards(3), this.states::add);
+
+        assertThat(summary.getWorkers(), is(3));
+        assertThat(this.maxRunning.get(), is(3));
+        assertThat(summary.getMillis() < (2 * UPLOAD_TIME), is(true));
+    }
+
+    @Test
+    void flash_ShouldReportEveryBoard_WhenOneBoardFails() throws Exception {
+        Summary summary = new MassFlasher(4, (portName, type) -> new CountingCommunicator(type, !"ttyACM1".equals(portName)))
+            .flash(this.hexFile, boards(3), this.states::add);
+
+        assertThat(summary.getSucceeded(), is(2));
+        assertThat(summary.getFailed(), is(1));
+        assertThat(summary.getResults().get(1).getStatus(), is(Status.FAILED));
+        assertThat(summary.getResults().get(1).getPercent(), is(50));
+        List<String> finished = new ArrayList<>();
+        for ( BoardState state : this.states ) {
+            if ( state.getStatus() == Status.DONE ) {
+                finished.add(state.getPortName());
+            }
+        }
+        assertThat(finished, hasItem("ttyACM2"));
+        assertThat(finished.size(), is(2));
+    }
+
+    @Test
+    void flash_ShouldNotFlashAnyBoard_WhenHexFileIsInvalid() throws IOException {
+        Files.write(this.hexFile, "not hex\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertThrows(IOException.class,
+            () -> new MassFlasher(4, (portName, type) -> new CountingCommunicator(type, true)).flash(this.hexFile, boards(2), this.states::add));
+        assertThat(this.images.isEmpty(), is(true));
+    }
+
+    @Test
+    void flash_ShouldWaitForUpload_WhenConnectorIsUploadingToBoard() throws Exception {
+        ReentrantLock portLock = PortLocks.get("ttyACM0");
+        portLock.lock();
+        Thread flashThread;
+        try {
+            flashThread = new Thread(() -> {
+                try {
+                    new MassFlasher(4, (portName, type) -> new CountingCommunicator(type, true)).flash(this.hexFile, boards(2), this.states::add);
+                } catch ( IOException | InterruptedException e ) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            flashThread.start();
+            Thread.sleep(UPLOAD_TIME);
+
+            assertThat(this.images.isEmpty(), is(true));
+        } finally {
+            portLock.unlock();
+        }
+        flashThread.join(5000L);
+
+        assertThat(this.images.size(), is(1));
+        assertThat(portLock.isLocked(), is(false));
+    }
+
+    @Test
+    void selectBoards_ShouldKeepBoardsOfFirstType_WhenNoTypeIsGiven() {
+        Map<String, ArduinoType> detected = new LinkedHashMap<>();
+        detected.put("ttyACM0", ArduinoType.UNO);
+        detected.put("ttyACM1", ArduinoType.MEGA);
+        detected.put("ttyUSB0", ArduinoType.UNO);
+
+        assertThat(MassFlasher.selectBoards(detected, ArduinoType.NONE).keySet(), contains("ttyACM0", "ttyUSB0"));
+        assertThat(MassFlasher.selectBoards(detected, ArduinoType.MEGA).keySet(), contains("ttyACM1"));
+    }
+
+    private static Map<String, ArduinoType> boards(int count) {
+        Map<String, ArduinoType> boards = new LinkedHashMap<>();
+        for ( int i = 0; i < count; i++ ) {
+            boards.put("ttyACM" + i, ArduinoType.UNO);
+        }
+        return boards;
+    }
+
+    /**
+     * Simulated board that remembers how many uploads run at the same time, a failing board stops at half of the upload.
+     */
+    private class CountingCommunicator extends ArduinoCommunicator {
+        private final boolean succeeds;
+
+        CountingCommunicator(ArduinoType type, boolean succeeds) {
+            super(type.getPrettyText(), type);
+            this.succeeds = succeeds;
+        }
+
+        @Override
+        boolean uploadImage(String portName, String filePath, FlashImage image, IOraListener<Integer> progressListener) {
+            MassFlasherTests.this.images.add(image);
+            MassFlasherTests.this.maxRunning.accumulateAndGet(MassFlasherTests.this.running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(UPLOAD_TIME / 2);
+                progressListener.update(50);
+                if ( !this.succeeds ) {
+                    return false;
+                }
+                Thread.sleep(UPLOAD_TIME / 2);
+                progressListener.update(100);
+                return true;
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                MassFlasherTests.this.running.decrementAndGet();
+            }
+        }
+    }
+}
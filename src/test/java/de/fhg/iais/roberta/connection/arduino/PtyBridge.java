@@ -0,0 +1,98 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.apache.commons.lang3.SystemUtils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Connects a bootloader emulator to a pseudo terminal, so avrdude and the {@link SerialPortLink} open it like the port of a board. The pty pair is
+ * created by a small python3 script that relays between the master side and its stdin and stdout.
+ */
+class PtyBridge implements Closeable {
+    private static final String RELAY = String.join("\n",
+        "import os, pty, select, sys, tty",
+        "master, slave = pty.openpty()",
+        "tty.setraw(slave)",
+        "sys.stdout.write(os.ttyname(slave) + '\\n')",
+        "sys.stdout.flush()",
+        "while True:",
+        "    ready = select.select([master, 0], [], [])[0]",
+        "    if master in ready:",
+        "        os.write(1, os.read(master, 4096))",
+        "    if 0 in ready:",
+        "        data = os.read(0, 4096)",
+        "        if not data:",
+        "            break",
+        "        os.write(master, data)");
+
+    private final Process relay;
+    private final String path;
+    private final Thread thread;
+
+    PtyBridge(EmulatedLink.Bootloader bootloader) throws IOException {
+        this.relay = new ProcessBuilder("python3", "-c", RELAY).start();
+        InputStream fromRelay = new BufferedInputStream(this.relay.getInputStream());
+        this.path = readLine(fromRelay);
+        this.thread = new Thread(() -> {
+            try {
+                bootloader.serve(fromRelay, this.relay.getOutputStream());
+            } catch ( IOException e ) {
+                // the relay was stopped
+            }
+        }, "pty-bootloader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return whether pty pairs can be created, needs linux and python3
+     */
+    static boolean isAvailable() {
+        if ( !SystemUtils.IS_OS_LINUX ) {
+            return false;
+        }
+        try {
+            return new ProcessBuilder("python3", "-c", "import pty").start().waitFor() == 0;
+        } catch ( IOException e ) {
+            return false;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the path of the slave side, e.g. /dev/pts/3
+     */
+    String getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return the slave side as a port name like the detection finds it, e.g. pts/3
+     */
+    String getPortName() {
+        return this.path.substring("/dev/".length());
+    }
+
+    @Override
+    public void close() {
+        this.relay.destroy();
+    }
+
+    // reads the first line without a reader, the rest of the stream belongs to the emulator
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ( ((c = in.read()) >= 0) && (c != '\n') ) {
+            sb.append((char) c);
+        }
+        if ( !sb.toString().startsWith("/dev/") ) {
+            throw new IOException("Could not create a pty: " + sb);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Uploads a full Uno sketch to a simulated Optiboot bootloader behind a pty, with the bundled avrdude and with the {@link Stk500v1Programmer}. The
+ * emulator takes as long as a real board at 115200 baud. Needs linux and python3, run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class Stk500v1BenchmarkTests {
+
+    private static final int RUNS = 5;
+    private static final int SKETCH_SIZE = 28 * 1024;
+    private static final int BAUD_RATE = 115200;
+    private static final long PAGE_WRITE_MICROS = 4500L;
+
+    @Test
+    void program_ShouldBeFasterThanAvrdude_WhenFlashingFullSketch() throws Exception {
+        File avrdude = new File(PropertyHelper.getInstance().getProperty("LinPath64"));
+        assumeTrue(PtyBridge.isAvailable() && avrdude.canExecute(), "needs linux, python3 and avrdude");
+
+        byte[] program = HexWriter.randomProgram(SKETCH_SIZE, 5L);
+        Path hexFile = Files.createTempFile("sketch", ".hex");
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, BAUD_RATE, PAGE_WRITE_MICROS);
+        try (PtyBridge pty = new PtyBridge(bootloader::serve)) {
+            Files.write(hexFile, HexWriter.toHex(program).getBytes(StandardCharsets.US_ASCII));
+            long[] avrdudeTimes = new long[RUNS];
+            long[] nativeTimes = new long[RUNS];
+            for ( int i = 0; i < RUNS; i++ ) {
+                avrdudeTimes[i] = uploadWithAvrdude(avrdude, hexFile, pty.getPath());
+                nativeTimes[i] = uploadNative(hexFile, pty.getPortName());
+            }
+            assertThat(Arrays.copyOf(bootloader.getFlash(), program.length), is(program));
+
+            Arrays.sort(avrdudeTimes);
+            Arrays.sort(nativeTimes);
+            long avrdudeMedian = avrdudeTimes[RUNS / 2];
+            long nativeMedian = nativeTimes[RUNS / 2];
+            System.out.printf("avrdude | median %5d ms | min %5d ms | max %5d ms%n", avrdudeMedian, avrdudeTimes[0], avrdudeTimes[RUNS - 1]);
+            System.out.printf("native  | median %5d ms | min %5d ms | max %5d ms%n", nativeMedian, nativeTimes[0], nativeTimes[RUNS - 1]);
+            System.out.printf("saved per upload %d ms (%d%%)%n", avrdudeMedian - nativeMedian, ((avrdudeMedian - nativeMedian) * 100) / avrdudeMedian);
+        } finally {
+            Files.delete(hexFile);
+        }
+    }
+
+    private static long uploadWithAvrdude(File avrdude, Path hexFile, String port) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process =
+            new ProcessBuilder(avrdude.getPath(),
+                "-v",
+                "-D",
+                "-patmega328p",
+                "-carduino",
+                "-Uflash:w:" + hexFile + ":i",
+                "-C" + PropertyHelper.getInstance().getProperty("LinConfPath"),
+                "-P" + port).redirectErrorStream(true).redirectOutput(Redirect.DISCARD).start();
+        assertThat(process.waitFor(), is(0));
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    private static long uploadNative(Path hexFile, String portName) throws IOException {
+        long start = System.nanoTime();
+        try (ISerialLink link = SerialPortLink.open(portName, BAUD_RATE)) {
+            new Stk500v1Programmer(link, AvrPart.ATMEGA328P).program(IntelHex.parse(hexFile));
+        }
+        return (System.nanoTime() - start) / 1000000L;
+    }
+}
@@ -0,0 +1,205 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.CRC_EOP;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.GET_SYNC;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.LOAD_ADDRESS;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.PROG_PAGE;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.READ_PAGE;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.READ_SIGN;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.STK_INSYNC;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v1Programmer.STK_OK;
+
+/**
+ * Simulated Optiboot bootloader, answers the commands avrdude -carduino and the {@link Stk500v1Programmer} send. The time of the serial line and of
+ * writing the flash can be simulated.
+ */
+class Stk500v1Emulator {
+    private static final byte STK_NOSYNC = 0x15;
+    private static final byte GET_PARAMETER = 0x41;
+    private static final byte SET_DEVICE = 0x42;
+    private static final byte SET_DEVICE_EXT = 0x45;
+    private static final byte UNIVERSAL = 0x56;
+    private static final byte PARAM_SW_MAJOR = (byte) 0x81;
+    private static final byte PARAM_SW_MINOR = (byte) 0x82;
+
+    private final byte[] signature;
+    private final byte[] flash;
+    private final int baudRate;
+    private final long pageWriteMicros;
+
+    private int ignoredSyncs = 0;
+    private int address = 0;
+    private volatile int writtenPages = 0;
+
+    /**
+     * @param part the simulated chip
+     * @param baudRate the simulated baud rate, 0 for no delay
+     * @param pageWriteMicros the time to write a page into the flash
+     */
+    Stk500v1Emulator(AvrPart part, int baudRate, long pageWriteMicros) {
+        this(part.getSignature(), part.getFlashSize(), baudRate, pageWriteMicros);
+    }
+
+    Stk500v1Emulator(byte[] signature, int flashSize, int baudRate, long pageWriteMicros) {
+        this.signature = signature.clone();
+        this.flash = new byte[flashSize];
+        Arrays.fill(this.flash, FlashImage.ERASED);
+        this.baudRate = baudRate;
+        this.pageWriteMicros = pageWriteMicros;
+    }
+
+    /**
+     * @param ignoredSyncs the number of sync requests that are not answered, like while the board is still resetting
+     */
+    void ignoreSyncs(int ignoredSyncs) {
+        this.ignoredSyncs = ignoredSyncs;
+    }
+
+    byte[] getFlash() {
+        return this.flash.clone();
+    }
+
+    int getWrittenPages() {
+        return this.writtenPages;
+    }
+
+    /**
+     * Answers the commands until the input is closed.
+     *
+     * @param in the commands sent by the programmer
+     * @param out the responses
+     */
+    void serve(InputStream in, OutputStream out) throws IOException {
+        try {
+            while ( true ) {
+                byte command = readByte(in);
+                byte[] response;
+                int received;
+                switch ( command ) {
+                    case GET_SYNC:
+                        received = 2;
+                        if ( !endOfCommand(in) ) {
+                            response = new byte[] { STK_NOSYNC };
+                        } else if ( this.ignoredSyncs > 0 ) {
+                            this.ignoredSyncs--;
+                            continue;
+                        } else {
+                            response = ok();
+                        }
+                        break;
+                    case GET_PARAMETER:
+                        byte parameter = readByte(in);
+                        received = 3;
+                        byte value = (byte) (((parameter == PARAM_SW_MAJOR) || (parameter == PARAM_SW_MINOR)) ? 4 : 3);
+                        response = endOfCommand(in) ? ok(value) : nosync();
+                        break;
+                    case SET_DEVICE:
+                        read(in, 20);
+                        received = 22;
+                        response = endOfCommand(in) ? ok() : nosync();
+                        break;
+                    case SET_DEVICE_EXT:
+                        read(in, 5);
+                        received = 7;
+                        response = endOfCommand(in) ? ok() : nosync();
+                        break;
+                    case UNIVERSAL:
+                        read(in, 4);
+                        received = 6;
+                        response = endOfCommand(in) ? ok((byte) 0) : nosync();
+                        break;
+                    case LOAD_ADDRESS:
+                        byte[] address = read(in, 2);
+                        received = 4;
+                        this.address = ((address[0] & 0xFF) | ((address[1] & 0xFF) << 8)) << 1;
+                        response = endOfCommand(in) ? ok() : nosync();
+                        break;
+                    case PROG_PAGE:
+                        byte[] header = read(in, 3);
+                        int length = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+                        byte[] page = read(in, length);
+                        received = length + 5;
+                        if ( endOfCommand(in) ) {
+                            System.arraycopy(page, 0, this.flash, this.address, length);
+                            this.writtenPages++;
+                            sleepMicros(this.pageWriteMicros);
+                            response = ok();
+                        } else {
+                            response = nosync();
+                        }
+                        break;
+                    case READ_PAGE:
+                        header = read(in, 3);
+                        length = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+                        received = 5;
+                        response = endOfCommand(in) ? ok(Arrays.copyOfRange(this.flash, this.address, this.address + length)) : nosync();
+                        break;
+                    case READ_SIGN:
+                        received = 2;
+                        response = endOfCommand(in) ? ok(this.signature) : nosync();
+                        break;
+                    default:
+                        // like Optiboot, e.g. ENTER_PROGMODE and LEAVE_PROGMODE
+                        received = 2;
+                        response = endOfCommand(in) ? ok() : nosync();
+                        break;
+                }
+                if ( this.baudRate > 0 ) {
+                    sleepMicros(((received + response.length) * 10L * 1000000L) / this.baudRate);
+                }
+                out.write(response);
+                out.flush();
+            }
+        } catch ( EOFException e ) {
+            // the programmer closed the connection
+        }
+    }
+
+    private static boolean endOfCommand(InputStream in) throws IOException {
+        return readByte(in) == CRC_EOP;
+    }
+
+    private static byte[] ok(byte... data) {
+        byte[] response = new byte[data.length + 2];
+        response[0] = STK_INSYNC;
+        System.arraycopy(data, 0, response, 1, data.length);
+        response[response.length - 1] = STK_OK;
+        return response;
+    }
+
+    private static byte[] nosync() {
+        return new byte[] { STK_NOSYNC };
+    }
+
+    private static byte readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if ( b < 0 ) {
+            throw new EOFException();
+        }
+        return (byte) b;
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            data[i] = readByte(in);
+        }
+        return data;
+    }
+
+    private static void sleepMicros(long micros) {
+        if ( micros > 0 ) {
+            try {
+                Thread.sleep(micros / 1000, (int) ((micros % 1000) * 1000));
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Stk500v1ProgrammerTests {
+
+    @Test
+    void program_ShouldWriteUsedPages_WhenBootloaderAnswers() throws IOException {
+        byte[] program = HexWriter.randomProgram(1000, 2L);
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            new Stk500v1Programmer(link, AvrPart.ATMEGA328P).program(HexWriter.toImage(program));
+        }
+
+        byte[] flash = bootloader.getFlash();
+        assertThat(Arrays.copyOf(flash, program.length), is(program));
+        assertThat(flash[program.length], is(FlashImage.ERASED));
+        assertThat(bootloader.getWrittenPages(), is(8));
+    }
+
+    @Test
+    void program_ShouldReportProgress_WhenPagesAreWrittenAndVerified() throws IOException {
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+        List<Integer> progress = new ArrayList<>();
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v1Programmer programmer = new Stk500v1Programmer(link, AvrPart.ATMEGA328P);
+            programmer.setProgressListener(progress::add);
+            programmer.program(HexWriter.toImage(HexWriter.randomProgram(1000, 16L)));
+        }
+
+        // 8 pages written and 8 read
+        assertThat(progress.size(), is(16));
+        assertThat(progress.get(7), is(50));
+        assertThat(progress.get(15), is(100));
+        for ( int i = 1; i < progress.size(); i++ ) {
+            assertThat(progress.get(i - 1), lessThan(progress.get(i)));
+        }
+    }
+
+    @Test
+    void program_ShouldReadFirstAndLastPage_WhenVerifyIsSample() throws IOException {
+        byte[] program = HexWriter.randomProgram(1000, 18L);
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+        List<Integer> progress = new ArrayList<>();
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v1Programmer programmer = new Stk500v1Programmer(link, AvrPart.ATMEGA328P);
+            programmer.setVerify(BoardProfile.Verify.SAMPLE);
+            programmer.setProgressListener(progress::add);
+            programmer.program(HexWriter.toImage(program));
+        }
+
+        assertThat(Arrays.copyOf(bootloader.getFlash(), program.length), is(program));
+        // 8 pages written and 2 read
+        assertThat(progress.size(), is(10));
+    }
+
+    @Test
+    void program_ShouldWriteChangedPages_WhenPreviousImageIsKnown() throws IOException {
+        byte[] program = HexWriter.randomProgram(1000, 10L);
+        byte[] changed = program.clone();
+        changed[500]++;
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v1Programmer programmer = new Stk500v1Programmer(link, AvrPart.ATMEGA328P);
+            programmer.program(HexWriter.toImage(program));
+            programmer.program(HexWriter.toImage(changed), HexWriter.toImage(program));
+        }
+
+        assertThat(Arrays.copyOf(bootloader.getFlash(), changed.length), is(changed));
+        assertThat(bootloader.getWrittenPages(), is(8 + 1));
+    }
+
+    @Test
+    void program_ShouldFailVerification_WhenFlashDoesNotContainPreviousImage() throws IOException {
+        byte[] program = HexWriter.randomProgram(1000, 11L);
+        byte[] changed = program.clone();
+        changed[500]++;
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v1Programmer programmer = new Stk500v1Programmer(link, AvrPart.ATMEGA328P);
+            programmer.program(HexWriter.toImage(HexWriter.randomProgram(1000, 12L)));
+            FlashImage image = HexWriter.toImage(changed);
+            FlashImage previous = HexWriter.toImage(program);
+            assertThrows(IOException.class, () -> programmer.program(image, previous));
+        }
+    }
+
+    @Test
+    void program_ShouldFailVerification_WhenUnchangedPageDiffersFromPreviousImage() throws IOException {
+        byte[] program = HexWriter.randomProgram(1000, 13L);
+        byte[] flashed = program.clone();
+        flashed[200]++;
+        byte[] changed = program.clone();
+        changed[500]++;
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v1Programmer programmer = new Stk500v1Programmer(link, AvrPart.ATMEGA328P);
+            programmer.program(HexWriter.toImage(flashed));
+            FlashImage image = HexWriter.toImage(changed);
+            FlashImage previous = HexWriter.toImage(program);
+            // the first, the last and the written page match, only the kept second page does not
+            assertThrows(IOException.class, () -> programmer.program(image, previous));
+        }
+    }
+
+    @Test
+    void program_ShouldReadWrittenPages_WhenVerifyIsSampleAfterPartialUpload() throws IOException {
+        byte[] program = HexWriter.randomProgram(1000, 14L);
+        byte[] changed = program.clone();
+        changed[500]++;
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+        List<Integer> progress = new ArrayList<>();
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v1Programmer programmer = new Stk500v1Programmer(link, AvrPart.ATMEGA328P);
+            programmer.setVerify(BoardProfile.Verify.SAMPLE);
+            programmer.program(HexWriter.toImage(program));
+            programmer.setProgressListener(progress::add);
+            programmer.program(HexWriter.toImage(changed), HexWriter.toImage(program));
+        }
+
+        assertThat(Arrays.copyOf(bootloader.getFlash(), changed.length), is(changed));
+        // 1 page written, the first, the last and the written page read
+        assertThat(progress.size(), is(4));
+    }
+
+    @Test
+    void program_ShouldRetrySync_WhenBoardIsStillResetting() throws IOException {
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA328P, 0, 0L);
+        bootloader.ignoreSyncs(3);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            new Stk500v1Programmer(link, AvrPart.ATMEGA328P).program(HexWriter.toImage(HexWriter.randomProgram(200, 3L)));
+        }
+
+        assertThat(bootloader.getWrittenPages(), is(2));
+    }
+
+    @Test
+    void program_ShouldFail_WhenSignatureDoesNotMatch() throws IOException {
+        Stk500v1Emulator bootloader = new Stk500v1Emulator(AvrPart.ATMEGA2560, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            FlashImage image = HexWriter.toImage(HexWriter.randomProgram(200, 4L));
+            assertThrows(IOException.class, () -> new Stk500v1Programmer(link, AvrPart.ATMEGA328P).program(image));
+        }
+
+        assertThat(bootloader.getWrittenPages(), is(0));
+    }
+}
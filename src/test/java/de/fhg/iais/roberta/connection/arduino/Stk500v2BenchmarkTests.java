@@ -0,0 +1,85 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.util.PropertyHelper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Uploads a Mega sketch that fills the flash up to the bootloader to a simulated stk500v2 bootloader behind a pty, with the bundled avrdude and with
+ * the {@link Stk500v2Programmer}. A single upload takes most of a minute, so there are only three runs each. Needs linux and python3, run with mvn
+ * test -Pbenchmark.
+ */
+@Tag("benchmark")
+class Stk500v2BenchmarkTests {
+
+    private static final int RUNS = 3;
+    // the bootloader of the Mega takes the upper 8 KB
+    private static final int SKETCH_SIZE = 248 * 1024;
+    private static final int BAUD_RATE = 115200;
+    private static final long PAGE_WRITE_MICROS = 4500L;
+
+    @Test
+    void program_ShouldBeFasterThanAvrdude_WhenFlashingFullMegaSketch() throws Exception {
+        File avrdude = new File(PropertyHelper.getInstance().getProperty("LinPath64"));
+        assumeTrue(PtyBridge.isAvailable() && avrdude.canExecute(), "needs linux, python3 and avrdude");
+
+        byte[] program = HexWriter.randomProgram(SKETCH_SIZE, 10L);
+        Path hexFile = Files.createTempFile("sketch", ".hex");
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, BAUD_RATE, PAGE_WRITE_MICROS);
+        try (PtyBridge pty = new PtyBridge(bootloader::serve)) {
+            Files.write(hexFile, HexWriter.toHex(program).getBytes(StandardCharsets.US_ASCII));
+            long[] avrdudeTimes = new long[RUNS];
+            long[] nativeTimes = new long[RUNS];
+            for ( int i = 0; i < RUNS; i++ ) {
+                avrdudeTimes[i] = uploadWithAvrdude(avrdude, hexFile, pty.getPath());
+                nativeTimes[i] = uploadNative(hexFile, pty.getPortName());
+            }
+            assertThat(Arrays.copyOf(bootloader.getFlash(), program.length), is(program));
+
+            Arrays.sort(avrdudeTimes);
+            Arrays.sort(nativeTimes);
+            long avrdudeMedian = avrdudeTimes[RUNS / 2];
+            long nativeMedian = nativeTimes[RUNS / 2];
+            System.out.printf("avrdude | median %6d ms | min %6d ms | max %6d ms%n", avrdudeMedian, avrdudeTimes[0], avrdudeTimes[RUNS - 1]);
+            System.out.printf("native  | median %6d ms | min %6d ms | max %6d ms%n", nativeMedian, nativeTimes[0], nativeTimes[RUNS - 1]);
+            System.out.printf("saved per upload %d ms (%d%%)%n", avrdudeMedian - nativeMedian, ((avrdudeMedian - nativeMedian) * 100) / avrdudeMedian);
+        } finally {
+            Files.delete(hexFile);
+        }
+    }
+
+    private static long uploadWithAvrdude(File avrdude, Path hexFile, String port) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process =
+            new ProcessBuilder(avrdude.getPath(),
+                "-v",
+                "-D",
+                "-patmega2560",
+                "-cwiring",
+                "-Uflash:w:" + hexFile + ":i",
+                "-C" + PropertyHelper.getInstance().getProperty("LinConfPath"),
+                "-P" + port).redirectErrorStream(true).redirectOutput(Redirect.DISCARD).start();
+        assertThat(process.waitFor(), is(0));
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    private static long uploadNative(Path hexFile, String portName) throws IOException {
+        long start = System.nanoTime();
+        try (ISerialLink link = SerialPortLink.open(portName, BAUD_RATE, SerialPortLink.WIRING_RESET_PULSE)) {
+            new Stk500v2Programmer(link, AvrPart.ATMEGA2560).program(IntelHex.parse(hexFile));
+        }
+        return (System.nanoTime() - start) / 1000000L;
+    }
+}
@@ -0,0 +1,240 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_ENTER_PROGMODE_ISP;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_LEAVE_PROGMODE_ISP;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_LOAD_ADDRESS;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_PROGRAM_FLASH_ISP;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_READ_FLASH_ISP;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_READ_SIGNATURE_ISP;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.CMD_SIGN_ON;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.EXTENDED_ADDRESS;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.MESSAGE_START;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.STATUS_CMD_OK;
+import static de.fhg.iais.roberta.connection.arduino.Stk500v2Programmer.TOKEN;
+
+/**
+ * Simulated stk500v2 bootloader of the Mega, answers the frames avrdude -cwiring and the {@link Stk500v2Programmer} send. Like the real bootloader
+ * it handles one frame at a time, increments the address after reading or writing the flash and drops frames with a wrong checksum. It does not erase
+ * the page it writes but the page at its erase address, which starts at 0 and advances with every write, and writing only clears bits like the flash.
+ */
+class Stk500v2Emulator {
+    private static final byte STATUS_CMD_FAILED = (byte) 0xC0;
+    private static final byte CMD_SET_PARAMETER = 0x02;
+    private static final byte CMD_GET_PARAMETER = 0x03;
+    private static final byte CMD_CHIP_ERASE_ISP = 0x12;
+    private static final byte CMD_READ_FUSE_ISP = 0x18;
+    private static final byte CMD_READ_LOCK_ISP = 0x1A;
+    private static final byte CMD_SPI_MULTI = 0x1D;
+    private static final byte SPI_READ_SIGNATURE = 0x30;
+    private static final byte PARAM_HW_VER = (byte) 0x90;
+    private static final byte PARAM_SW_MAJOR = (byte) 0x91;
+    private static final byte PARAM_SW_MINOR = (byte) 0x92;
+
+    private final byte[] signature;
+    private final byte[] flash;
+    private final int pageSize;
+    private final int baudRate;
+    private final long pageWriteMicros;
+
+    private int ignoredSignOns = 0;
+    private int address = 0;
+    private int eraseAddress = 0;
+    private volatile int writtenPages = 0;
+    private volatile int loadedAddresses = 0;
+
+    /**
+     * @param part the simulated chip
+     * @param baudRate the simulated baud rate, 0 for no delay
+     * @param pageWriteMicros the time to write a page into the flash
+     */
+    Stk500v2Emulator(AvrPart part, int baudRate, long pageWriteMicros) {
+        this.signature = part.getSignature();
+        this.flash = new byte[part.getFlashSize()];
+        Arrays.fill(this.flash, FlashImage.ERASED);
+        this.pageSize = part.getPageSize();
+        this.baudRate = baudRate;
+        this.pageWriteMicros = pageWriteMicros;
+    }
+
+    /**
+     * @param ignoredSignOns the number of sign on requests that are not answered, like while the board is still resetting
+     */
+    void ignoreSignOns(int ignoredSignOns) {
+        this.ignoredSignOns = ignoredSignOns;
+    }
+
+    /**
+     * @param content the flash content from address 0, like a program that was uploaded before
+     */
+    void setFlash(byte[] content) {
+        System.arraycopy(content, 0, this.flash, 0, content.length);
+    }
+
+    byte[] getFlash() {
+        return this.flash.clone();
+    }
+
+    int getWrittenPages() {
+        return this.writtenPages;
+    }
+
+    int getLoadedAddresses() {
+        return this.loadedAddresses;
+    }
+
+    /**
+     * Answers the frames until the input is closed.
+     *
+     * @param in the frames sent by the programmer
+     * @param out the answers
+     */
+    void serve(InputStream in, OutputStream out) throws IOException {
+        try {
+            while ( true ) {
+                if ( readByte(in) != MESSAGE_START ) {
+                    continue;
+                }
+                byte[] header = read(in, 4);
+                int size = ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                byte[] body = read(in, size);
+                byte checksum = readByte(in);
+                byte[] frame = new byte[size + 5];
+                frame[0] = MESSAGE_START;
+                System.arraycopy(header, 0, frame, 1, 4);
+                System.arraycopy(body, 0, frame, 5, size);
+                if ( (header[3] != TOKEN) || (Stk500v2Programmer.checksum(frame, frame.length) != checksum) ) {
+                    continue;
+                }
+                if ( (body[0] == CMD_SIGN_ON) && (this.ignoredSignOns > 0) ) {
+                    this.ignoredSignOns--;
+                    continue;
+                }
+                byte[] answer = answer(body);
+                if ( this.baudRate > 0 ) {
+                    sleepMicros(((frame.length + 1 + answer.length + 6) * 10L * 1000000L) / this.baudRate);
+                }
+                out.write(frame(header[0], answer));
+                out.flush();
+            }
+        } catch ( EOFException e ) {
+            // the programmer closed the connection
+        }
+    }
+
+    private byte[] answer(byte[] body) {
+        byte command = body[0];
+        switch ( command ) {
+            case CMD_SIGN_ON:
+                // the programmers sign on right after the reset, which starts the bootloader again
+                this.eraseAddress = 0;
+                byte[] name = "AVRISP_2".getBytes(StandardCharsets.US_ASCII);
+                byte[] answer = new byte[name.length + 3];
+                answer[0] = command;
+                answer[1] = STATUS_CMD_OK;
+                answer[2] = (byte) name.length;
+                System.arraycopy(name, 0, answer, 3, name.length);
+                return answer;
+            case CMD_GET_PARAMETER:
+                byte parameter = body[1];
+                byte value = (byte) ((parameter == PARAM_HW_VER) ? 0x0F : (parameter == PARAM_SW_MAJOR) ? 2 : (parameter == PARAM_SW_MINOR) ? 0x0A : 0);
+                return ok(command, value);
+            case CMD_LOAD_ADDRESS:
+                int wordAddress = ((body[1] & 0xFF) << 24) | ((body[2] & 0xFF) << 16) | ((body[3] & 0xFF) << 8) | (body[4] & 0xFF);
+                this.address = (wordAddress & ~EXTENDED_ADDRESS) << 1;
+                this.loadedAddresses++;
+                return ok(command);
+            case CMD_PROGRAM_FLASH_ISP:
+                int length = ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+                if ( this.eraseAddress < this.flash.length ) {
+                    Arrays.fill(this.flash, this.eraseAddress, this.eraseAddress + this.pageSize, FlashImage.ERASED);
+                    this.eraseAddress += this.pageSize;
+                }
+                for ( int i = 0; i < length; i++ ) {
+                    this.flash[this.address + i] &= body[10 + i];
+                }
+                this.address += length;
+                this.writtenPages++;
+                sleepMicros(this.pageWriteMicros);
+                return ok(command);
+            case CMD_READ_FLASH_ISP:
+                length = ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+                answer = new byte[length + 3];
+                answer[0] = command;
+                answer[1] = STATUS_CMD_OK;
+                System.arraycopy(this.flash, this.address, answer, 2, length);
+                answer[answer.length - 1] = STATUS_CMD_OK;
+                this.address += length;
+                return answer;
+            case CMD_READ_SIGNATURE_ISP:
+                return ok(command, this.signature[body[4]], STATUS_CMD_OK);
+            case CMD_READ_FUSE_ISP:
+            case CMD_READ_LOCK_ISP:
+                return ok(command, FlashImage.ERASED, STATUS_CMD_OK);
+            case CMD_SPI_MULTI:
+                // like the bootloader, only the read signature instruction of avrdude is understood, the answer is the fourth byte
+                byte answerByte = (body[4] == SPI_READ_SIGNATURE) ? this.signature[body[6]] : 0;
+                return ok(command, (byte) 0, body[4], (byte) 0, answerByte, STATUS_CMD_OK);
+            case CMD_CHIP_ERASE_ISP:
+                // like the bootloader, the chip is not erased, the pages are erased while they are written
+            case CMD_SET_PARAMETER:
+            case CMD_ENTER_PROGMODE_ISP:
+            case CMD_LEAVE_PROGMODE_ISP:
+                return ok(command);
+            default:
+                return new byte[] { command, STATUS_CMD_FAILED };
+        }
+    }
+
+    private static byte[] ok(byte command, byte... data) {
+        byte[] answer = new byte[data.length + 2];
+        answer[0] = command;
+        answer[1] = STATUS_CMD_OK;
+        System.arraycopy(data, 0, answer, 2, data.length);
+        return answer;
+    }
+
+    private static byte[] frame(byte sequenceNumber, byte[] body) {
+        byte[] frame = new byte[body.length + 6];
+        frame[0] = MESSAGE_START;
+        frame[1] = sequenceNumber;
+        frame[2] = (byte) (body.length >> 8);
+        frame[3] = (byte) body.length;
+        frame[4] = TOKEN;
+        System.arraycopy(body, 0, frame, 5, body.length);
+        frame[frame.length - 1] = Stk500v2Programmer.checksum(frame, frame.length - 1);
+        return frame;
+    }
+
+    private static byte readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if ( b < 0 ) {
+            throw new EOFException();
+        }
+        return (byte) b;
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            data[i] = readByte(in);
+        }
+        return data;
+    }
+
+    // parks instead of sleeping, Thread.sleep rounds up to whole milliseconds
+    private static void sleepMicros(long micros) {
+        long deadline = System.nanoTime() + (micros * 1000L);
+        long remaining;
+        while ( (remaining = deadline - System.nanoTime()) > 0 ) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Stk500v2ProgrammerTests {
+
+    @Test
+    void program_ShouldLoadAddressOncePerSegment_WhenPagesAreContiguous() throws IOException {
+        byte[] program = HexWriter.randomProgram(140 * 1024, 6L);
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            new Stk500v2Programmer(link, AvrPart.ATMEGA2560).program(HexWriter.toImage(program));
+        }
+
+        byte[] flash = bootloader.getFlash();
+        assertThat(Arrays.copyOf(flash, program.length), is(program));
+        assertThat(flash[program.length], is(FlashImage.ERASED));
+        assertThat(bootloader.getWrittenPages(), is(560));
+        // at 0 and at 128 KB, for writing and for verifying
+        assertThat(bootloader.getLoadedAddresses(), is(4));
+    }
+
+    @Test
+    void program_ShouldFillGaps_WhenPagesAreSkipped() throws IOException {
+        byte[] data = HexWriter.randomProgram(1024, 7L);
+        Arrays.fill(data, 256, 768, FlashImage.ERASED);
+        BitSet defined = new BitSet();
+        defined.set(0, 256);
+        defined.set(768, 1024);
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, 0, 0L);
+        // an older program is in the flash, a page that is written without being erased is corrupted
+        bootloader.setFlash(HexWriter.randomProgram(1024, 17L));
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            new Stk500v2Programmer(link, AvrPart.ATMEGA2560).program(new FlashImage(data, defined));
+        }
+
+        assertThat(Arrays.copyOf(bootloader.getFlash(), data.length), is(data));
+        assertThat(bootloader.getWrittenPages(), is(4));
+        // at 0 for writing, at 0 and 768 for verifying
+        assertThat(bootloader.getLoadedAddresses(), is(3));
+    }
+
+    @Test
+    void program_ShouldWriteChangedPrefix_WhenPreviousImageIsKnown() throws IOException {
+        byte[] program = HexWriter.randomProgram(140 * 1024, 13L);
+        byte[] changed = program.clone();
+        changed[130 * 1024]++;
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v2Programmer programmer = new Stk500v2Programmer(link, AvrPart.ATMEGA2560);
+            programmer.program(HexWriter.toImage(program));
+            programmer.program(HexWriter.toImage(changed), HexWriter.toImage(program));
+        }
+
+        assertThat(Arrays.copyOf(bootloader.getFlash(), changed.length), is(changed));
+        // the bootloader erases from address 0 on, so the pages up to the changed one are written again
+        assertThat(bootloader.getWrittenPages(), is(560 + 521));
+    }
+
+    @Test
+    void program_ShouldKeepPagesAfterLastChange_WhenPreviousImageIsKnown() throws IOException {
+        byte[] program = HexWriter.randomProgram(40 * 1024, 18L);
+        byte[] changed = program.clone();
+        changed[1000]++;
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            Stk500v2Programmer programmer = new Stk500v2Programmer(link, AvrPart.ATMEGA2560);
+            programmer.program(HexWriter.toImage(program));
+            programmer.program(HexWriter.toImage(changed), HexWriter.toImage(program));
+            programmer.program(HexWriter.toImage(program), HexWriter.toImage(changed));
+        }
+
+        assertThat(Arrays.copyOf(bootloader.getFlash(), program.length), is(program));
+        assertThat(bootloader.getWrittenPages(), is(160 + 4 + 4));
+    }
+
+    @Test
+    void program_ShouldRetrySignOn_WhenBoardIsStillResetting() throws IOException {
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA2560, 0, 0L);
+        bootloader.ignoreSignOns(2);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            new Stk500v2Programmer(link, AvrPart.ATMEGA2560).program(HexWriter.toImage(HexWriter.randomProgram(600, 8L)));
+        }
+
+        assertThat(bootloader.getWrittenPages(), is(3));
+    }
+
+    @Test
+    void program_ShouldFail_WhenSignatureDoesNotMatch() throws IOException {
+        Stk500v2Emulator bootloader = new Stk500v2Emulator(AvrPart.ATMEGA328P, 0, 0L);
+
+        try (EmulatedLink link = new EmulatedLink(bootloader::serve)) {
+            FlashImage image = HexWriter.toImage(HexWriter.randomProgram(200, 9L));
+            assertThrows(IOException.class, () -> new Stk500v2Programmer(link, AvrPart.ATMEGA2560).program(image));
+        }
+
+        assertThat(bootloader.getWrittenPages(), is(0));
+    }
+}
@@ -0,0 +1,68 @@
+package de.fhg.iais.roberta.connection.arduino;
+
+import de.fhg.iais.roberta.connection.LatencyHistogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Uploads a typical sketch with the default and the fast profile to a simulated bootloader behind a pty and prints the upload times the profiles
+ * recorded. The Mega has no fast profile. Needs linux and python3, run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class UploadProfileBenchmarkTests {
+
+    private static final int RUNS = 3;
+    private static final int BAUD_RATE = 115200;
+    private static final long PAGE_WRITE_MICROS = 4500L;
+
+    @Test
+    void uploadImage_ShouldBeFasterWithFastProfile_WhenFlashingUno() throws Exception {
+        assumeTrue(PtyBridge.isAvailable(), "needs linux and python3");
+
+        Stk500v1Emulator uno = new Stk500v1Emulator(AvrPart.ATMEGA328P, BAUD_RATE, PAGE_WRITE_MICROS);
+        try (PtyBridge pty = new PtyBridge(uno::serve)) {
+            upload(ArduinoType.UNO, 20 * 1024, pty.getPortName(), uno::getFlash);
+        }
+
+        for ( Entry<String, LatencyHistogram> uploadTimes : BoardProfiles.getUploadTimes().entrySet() ) {
+            LatencyHistogram histogram = uploadTimes.getValue();
+            System.out.printf("%-13s | %d uploads | median %5d ms | max %5d ms%n",
+                uploadTimes.getKey(),
+                histogram.getCount(),
+                histogram.getValueAtPercentile(50.0) / 1000L,
+                histogram.getMax() / 1000L);
+        }
+    }
+
+    private static void upload(ArduinoType type, int size, String portName, Supplier<byte[]> flash) throws Exception {
+        byte[] program = HexWriter.randomProgram(size, 19L);
+        Path hexFile = Files.createTempFile("sketch", ".hex");
+        try {
+            Files.write(hexFile, HexWriter.toHex(program).getBytes(StandardCharsets.US_ASCII));
+            FlashImage image = IntelHex.parse(hexFile);
+            for ( String profile : new String[] { BoardProfiles.DEFAULT, "fast" } ) {
+                ArduinoCommunicator communicator = new ArduinoCommunicator(type.getPrettyText(), type, BoardProfiles.get(type, profile));
+                for ( int i = 0; i < RUNS; i++ ) {
+                    // every run writes all pages
+                    FlashHistory.invalidate(portName);
+                    assertThat(communicator.uploadImage(portName, hexFile.toString(), image, percent -> {
+                    }), is(true));
+                }
+                assertThat(Arrays.copyOf(flash.get(), size), is(program));
+            }
+        } finally {
+            Files.delete(hexFile);
+        }
+    }
+}
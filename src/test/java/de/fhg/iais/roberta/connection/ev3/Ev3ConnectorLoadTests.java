@@ -0,0 +1,60 @@
+package de.fhg.iais.roberta.connection.ev3;
+
+import de.fhg.iais.roberta.testUtils.ConnectorLoadGenerator;
+import de.fhg.iais.roberta.testUtils.ConnectorLoadGenerator.Report;
+import de.fhg.iais.roberta.testUtils.StubEv3Brick;
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Runs a growing number of EV3 connectors with simulated bricks against the stub server. Every other push request is answered with a download.
+ * Run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class Ev3ConnectorLoadTests {
+
+    private static final int[] CONNECTOR_COUNTS = { 1, 10, 50, 100 };
+    private static final long DURATION = 5000L;
+    private static final long HOLD_TIME = 500L;
+
+    private StubOpenRobertaServer server = null;
+    private StubEv3Brick brick = null;
+    private String serverAddress = null;
+    private String brickAddress = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = new StubOpenRobertaServer();
+        this.server.setHoldTime(HOLD_TIME);
+        this.server.setScript(push -> ((push % 2) == 0) ? "download" : null);
+        this.serverAddress = this.server.start();
+        this.brick = new StubEv3Brick();
+        this.brickAddress = this.brick.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.server.stop();
+        this.brick.stop();
+    }
+
+    @Test
+    void run_ShouldCompleteCommands_WhenConnectorCountGrows() throws InterruptedException {
+        ConnectorLoadGenerator loadGenerator = new ConnectorLoadGenerator(this.server, this.serverAddress, () -> new Ev3Connector(this.brickAddress));
+
+        System.out.println(Report.header());
+        for ( int connectors : CONNECTOR_COUNTS ) {
+            Report report = loadGenerator.run(connectors, DURATION);
+            System.out.println(report);
+            assertThat(report.getThroughput(), greaterThan(0.0));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.fhg.iais.roberta.connection.ev3;
+
+import de.fhg.iais.roberta.connection.BinaryDownload;
+import de.fhg.iais.roberta.connection.ServerCommunicator;
+import de.fhg.iais.roberta.util.ChecksumHelper;
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Ev3ConnectorTests {
+
+    private static final long NEVER = 5000L;
+
+    private final List<String> downloaded = new CopyOnWriteArrayList<>();
+    private final List<String> uploaded = new CopyOnWriteArrayList<>();
+
+    private File cacheDirectory = null;
+    private Ev3Connector connector = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.cacheDirectory = Files.createTempDirectory("firmware").toFile();
+        this.connector = new Ev3Connector(new RecordingEv3Communicator(), new FirmwareCache(this.cacheDirectory, Long.MAX_VALUE));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.cacheDirectory);
+    }
+
+    @Test
+    void updateFirmwareFiles_ShouldUploadInOrder_WhenDownloadsFinishOutOfOrder() throws IOException {
+        Map<String, Long> delays = new HashMap<>();
+        delays.put("runtime", 300L);
+        delays.put("jsonlib", 200L);
+        delays.put("websocketlib", 100L);
+        delays.put("ev3menu", 0L);
+
+        this.connector.updateFirmwareFiles(new DelayingServerCommunicator(delays, null), "");
+
+        assertThat(this.downloaded, contains("ev3menu", "websocketlib", "jsonlib", "runtime"));
+        assertThat(this.uploaded, contains("runtime", "jsonlib", "websocketlib", "ev3menu"));
+    }
+
+    @Test
+    void updateFirmwareFiles_ShouldAbortOtherDownloads_WhenOneDownloadFails() {
+        DelayingServerCommunicator serverCommunicator = new DelayingServerCommunicator(Collections.emptyMap(), "jsonlib");
+
+        long start = System.nanoTime();
+        assertThrows(IOException.class, () -> this.connector.updateFirmwareFiles(serverCommunicator, ""));
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(NEVER / 5));
+        assertThat(serverCommunicator.aborted.getCount(), is(0L));
+        assertThat(this.downloaded, is(empty()));
+        assertThat(this.uploaded, is(empty()));
+    }
+
+    /**
+     * Downloads each file after its delay, files without a delay only finish when the downloads are aborted. One file can fail right away.
+     */
+    private class DelayingServerCommunicator extends ServerCommunicator {
+        private final Map<String, Long> delays;
+        private final String failingFile;
+        private final CountDownLatch aborted = new CountDownLatch(1);
+
+        DelayingServerCommunicator(Map<String, Long> delays, String failingFile) {
+            super("localhost:1");
+            this.delays = delays;
+            this.failingFile = failingFile;
+        }
+
+        @Override
+        public BinaryDownload downloadFirmwareFile(String fwFile, File target, String etag, String lastModified) throws IOException {
+            if ( fwFile.equals(this.failingFile) ) {
+                throw new IOException("Server error");
+            }
+            try {
+                if ( this.aborted.await(this.delays.getOrDefault(fwFile, NEVER), TimeUnit.MILLISECONDS) ) {
+                    throw new InterruptedIOException("Download was aborted");
+                }
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download was interrupted");
+            }
+            Files.write(target.toPath(), fwFile.getBytes(StandardCharsets.US_ASCII));
+            Ev3ConnectorTests.this.downloaded.add(fwFile);
+            return new BinaryDownload(target, fwFile + ".jar", target.length(), ChecksumHelper.sha256(target));
+        }
+
+        @Override
+        public void abort() {
+            super.abort();
+            this.aborted.countDown();
+        }
+    }
+
+    private class RecordingEv3Communicator extends Ev3Communicator {
+        RecordingEv3Communicator() {
+            super("localhost:1");
+        }
+
+        @Override
+        JSONObject uploadFirmwareFile(File binaryFile, String filename) {
+            Ev3ConnectorTests.this.uploaded.add(filename.replace(".jar", ""));
+            return new JSONObject();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package de.fhg.iais.roberta.connection.ev3;
+
+import com.sun.net.httpserver.HttpServer;
+import de.fhg.iais.roberta.connection.BinaryDownload;
+import de.fhg.iais.roberta.connection.ServerCommunicator;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class FirmwareCacheTests {
+
+    private static final int FILE_SIZE = 1000;
+    private static final String ETAG = "\"v1\"";
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server = null;
+    private ServerCommunicator serverCommunicator = null;
+    private Path cacheDirectory = null;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // every file is answered with the same content and ETag, a matching If-None-Match is answered with 304
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/rest/update/", exchange -> {
+            exchange.getRequestBody().close();
+            String path = exchange.getRequestURI().getPath();
+            if ( ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")) ) {
+                this.requests.add("304 " + path);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            this.requests.add("200 " + path);
+            byte[] body = content(path);
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        this.server.start();
+        this.serverCommunicator = new ServerCommunicator("localhost:" + this.server.getAddress().getPort());
+        this.cacheDirectory = Files.createTempDirectory("firmware");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.server.stop(0);
+        FileUtils.deleteDirectory(this.cacheDirectory.toFile());
+    }
+
+    @Test
+    void get_ShouldRevalidateCachedFile_WhenFileWasDownloadedBefore() throws IOException {
+        FirmwareCache cache = new FirmwareCache(this.cacheDirectory.toFile(), Long.MAX_VALUE);
+
+        BinaryDownload downloaded = cache.get(this.serverCommunicator, "v1/", "runtime");
+        BinaryDownload revalidated = cache.get(this.serverCommunicator, "v1/", "runtime");
+
+        assertThat(this.requests, contains("200 /rest/update/v1/runtime", "304 /rest/update/v1/runtime"));
+        assertThat(revalidated.getFile(), is(downloaded.getFile()));
+        assertThat(revalidated.getSha256(), is(downloaded.getSha256()));
+        assertThat(revalidated.getEtag(), is(ETAG));
+        assertThat(Files.readAllBytes(revalidated.getFile().toPath()), is(content("/rest/update/v1/runtime")));
+    }
+
+    @Test
+    void get_ShouldDownloadAgain_WhenCachedFileDoesNotMatchChecksum() throws IOException {
+        FirmwareCache cache = new FirmwareCache(this.cacheDirectory.toFile(), Long.MAX_VALUE);
+        BinaryDownload downloaded = cache.get(this.serverCommunicator, "v1/", "runtime");
+        Files.write(downloaded.getFile().toPath(), "damaged".getBytes(StandardCharsets.US_ASCII));
+
+        BinaryDownload repaired = cache.get(this.serverCommunicator, "v1/", "runtime");
+
+        // without the validators of the dropped entry the request is not conditional
+        assertThat(this.requests, contains("200 /rest/update/v1/runtime", "200 /rest/update/v1/runtime"));
+        assertThat(repaired.getSha256(), is(downloaded.getSha256()));
+        assertThat(Files.readAllBytes(repaired.getFile().toPath()), is(content("/rest/update/v1/runtime")));
+    }
+
+    @Test
+    void get_ShouldEvictLeastRecentlyUsedVersion_WhenCacheIsFull() throws Exception {
+        FirmwareCache cache = new FirmwareCache(this.cacheDirectory.toFile(), (2L * FILE_SIZE) + (FILE_SIZE / 2));
+        cache.get(this.serverCommunicator, "v1/", "runtime");
+        Thread.sleep(10L);
+        cache.get(this.serverCommunicator, "v2/", "runtime");
+        Thread.sleep(10L);
+        cache.get(this.serverCommunicator, "v1/", "runtime");
+        Thread.sleep(10L);
+
+        cache.get(this.serverCommunicator, "v3/", "runtime");
+
+        assertThat(isCached("v1"), is(true));
+        assertThat(isCached("v2"), is(false));
+        assertThat(isCached("v3"), is(true));
+    }
+
+    @Test
+    void get_ShouldEvictDamagedEntriesFirst_WhenCacheIsFull() throws IOException {
+        FirmwareCache unbounded = new FirmwareCache(this.cacheDirectory.toFile(), Long.MAX_VALUE);
+        for ( String version : new String[] { "v0/", "v1/", "v2/" } ) {
+            unbounded.get(this.serverCommunicator, version, "runtime");
+        }
+        Files.write(metadataFile("v1"), "lastUsed=yesterday\n".getBytes(StandardCharsets.ISO_8859_1));
+        // truncated in the middle of an escape sequence
+        Files.write(metadataFile("v2"), "sha256=\\u12".getBytes(StandardCharsets.ISO_8859_1));
+
+        FirmwareCache cache = new FirmwareCache(this.cacheDirectory.toFile(), (2L * FILE_SIZE) + (FILE_SIZE / 2));
+        cache.get(this.serverCommunicator, "v3/", "runtime");
+
+        assertThat(isCached("v0"), is(true));
+        assertThat(isCached("v1"), is(false));
+        assertThat(isCached("v2"), is(false));
+        assertThat(isCached("v3"), is(true));
+    }
+
+    @Test
+    void get_ShouldDownloadAgain_WhenMetadataIsDamaged() throws IOException {
+        FirmwareCache cache = new FirmwareCache(this.cacheDirectory.toFile(), Long.MAX_VALUE);
+        BinaryDownload downloaded = cache.get(this.serverCommunicator, "v1/", "runtime");
+        Files.write(metadataFile("v1"), ("sha256=" + downloaded.getSha256() + "\netag=" + ETAG + "\nsize=1k\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        BinaryDownload repaired = cache.get(this.serverCommunicator, "v1/", "runtime");
+
+        assertThat(this.requests, contains("200 /rest/update/v1/runtime", "200 /rest/update/v1/runtime"));
+        assertThat(repaired.getSize(), is((long) FILE_SIZE));
+    }
+
+    private Path metadataFile(String version) {
+        return this.cacheDirectory.resolve(version).resolve("runtime.properties");
+    }
+
+    private boolean isCached(String version) {
+        return Files.exists(this.cacheDirectory.resolve(version).resolve("runtime"));
+    }
+
+    private static byte[] content(String path) {
+        byte[] content = new byte[FILE_SIZE];
+        Arrays.fill(content, (byte) path.hashCode());
+        return content;
+    }
+}
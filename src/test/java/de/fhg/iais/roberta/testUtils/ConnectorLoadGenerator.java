@@ -0,0 +1,238 @@
+package de.fhg.iais.roberta.testUtils;
+
+import de.fhg.iais.roberta.connection.IConnector;
+import de.fhg.iais.roberta.connection.IConnector.State;
+import de.fhg.iais.roberta.util.IOraListener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Drives real connectors with simulated robots against the {@link StubOpenRobertaServer}. Every connector is connected like a user would do it,
+ * once all of them are registered the commands scripted by the server are measured for the given duration.
+ */
+public class ConnectorLoadGenerator {
+    private static final long REGISTER_TIMEOUT = 60000L;
+    private static final long SAMPLE_INTERVAL = 100L;
+
+    private final StubOpenRobertaServer server;
+    private final String serverAddress;
+    private final Supplier<IConnector> connectorFactory;
+
+    /**
+     * @param server the started stub server
+     * @param serverAddress the address returned when the server was started
+     * @param connectorFactory creates a connector with a simulated robot
+     */
+    public ConnectorLoadGenerator(StubOpenRobertaServer server, String serverAddress, Supplier<IConnector> connectorFactory) {
+        this.server = server;
+        this.serverAddress = serverAddress;
+        this.connectorFactory = connectorFactory;
+    }
+
+    /**
+     * Starts the given number of connectors like the USB program does, they share the thread pool of the connectors.
+     *
+     * @param connectorCount the number of connectors
+     * @param duration the measured time in milliseconds after all connectors registered
+     * @return the measurements
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Report run(int connectorCount, long duration) throws InterruptedException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+
+        CountDownLatch registered = new CountDownLatch(connectorCount);
+        Queue<Long> registerTimes = new ConcurrentLinkedQueue<>();
+        List<IConnector> connectors = new ArrayList<>();
+        try {
+            System.gc();
+            long baselineThreads = threadMXBean.getThreadCount();
+            long baselineHeap = runtime.totalMemory() - runtime.freeMemory();
+            for ( int i = 0; i < connectorCount; i++ ) {
+                IConnector connector = this.connectorFactory.get();
+                connector.registerListener(new UserSimulation(connector, registered, registerTimes));
+                connectors.add(connector);
+                connector.start();
+            }
+            if ( !registered.await(REGISTER_TIMEOUT, TimeUnit.MILLISECONDS) ) {
+                throw new IllegalStateException(registered.getCount() + " connectors did not register");
+            }
+
+            this.server.drainRoundTrips();
+            long pushesBefore = this.server.getPushes();
+            threadMXBean.resetPeakThreadCount();
+            sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max),
+                0L,
+                SAMPLE_INTERVAL,
+                TimeUnit.MILLISECONDS);
+            Thread.sleep(duration);
+
+            List<Long> roundTrips = this.server.drainRoundTrips();
+            long pushes = this.server.getPushes() - pushesBefore;
+            System.gc();
+            return new Report(connectorCount,
+                duration,
+                roundTrips,
+                new ArrayList<>(registerTimes),
+                pushes,
+                threadMXBean.getPeakThreadCount() - baselineThreads,
+                peakHeap.get(),
+                (runtime.totalMemory() - runtime.freeMemory()) - baselineHeap);
+        } finally {
+            sampler.shutdownNow();
+            for ( IConnector connector : connectors ) {
+                connector.close();
+            }
+        }
+    }
+
+    /**
+     * Connects the connector as soon as the robot is discovered, like a user pressing the connect button.
+     */
+    private final class UserSimulation implements IOraListener<State> {
+        private final IConnector connector;
+        private final CountDownLatch registered;
+        private final Queue<Long> registerTimes;
+        private final AtomicBoolean counted = new AtomicBoolean();
+        private volatile long connectTime = 0L;
+
+        private UserSimulation(IConnector connector, CountDownLatch registered, Queue<Long> registerTimes) {
+            this.connector = connector;
+            this.registered = registered;
+            this.registerTimes = registerTimes;
+        }
+
+        @Override
+        public void update(State state) {
+            if ( (state == State.WAIT_FOR_CONNECT_BUTTON_PRESS) && (this.connectTime == 0L) ) {
+                // the server communicator exists once the connector runs
+                this.connector.updateCustomServerAddress(ConnectorLoadGenerator.this.serverAddress);
+                this.connectTime = System.nanoTime();
+                this.connector.userPressConnectButton();
+            } else if ( (state == State.WAIT_FOR_CMD) && this.counted.compareAndSet(false, true) ) {
+                this.registerTimes.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.connectTime));
+                this.registered.countDown();
+            }
+        }
+    }
+
+    /**
+     * Measurements of one run.
+     */
+    public static final class Report {
+        private final int connectors;
+        private final long duration;
+        private final List<Long> roundTrips;
+        private final List<Long> registerTimes;
+        private final long pushes;
+        private final long threads;
+        private final long heap;
+        private final long retainedHeap;
+
+        Report(int connectors, long duration, List<Long> roundTrips, List<Long> registerTimes, long pushes, long threads, long heap, long retainedHeap) {
+            this.connectors = connectors;
+            this.duration = duration;
+            this.roundTrips = roundTrips;
+            this.registerTimes = registerTimes;
+            this.pushes = pushes;
+            this.threads = threads;
+            this.heap = heap;
+            this.retainedHeap = retainedHeap;
+            Collections.sort(this.roundTrips);
+            Collections.sort(this.registerTimes);
+        }
+
+        /**
+         * @return the completed commands per second
+         */
+        public double getThroughput() {
+            return (this.roundTrips.size() * 1000.0) / this.duration;
+        }
+
+        /**
+         * @param percentile the percentile, e.g. 0.99
+         * @return the round trip of a command in milliseconds at the percentile, -1 if no command completed
+         */
+        public long getRoundTrip(double percentile) {
+            return percentile(this.roundTrips, percentile);
+        }
+
+        /**
+         * @param percentile the percentile, e.g. 0.99
+         * @return the time in milliseconds from pressing connect until the connector waits for commands
+         */
+        public long getRegisterTime(double percentile) {
+            return percentile(this.registerTimes, percentile);
+        }
+
+        /**
+         * @return the peak number of threads started while the connectors ran
+         */
+        public long getThreads() {
+            return this.threads;
+        }
+
+        /**
+         * @return the peak used heap in bytes while the connectors ran
+         */
+        public long getHeap() {
+            return this.heap;
+        }
+
+        /**
+         * @return the used heap in bytes after a garbage collection at the end of the run, minus the heap used before the connectors started
+         */
+        public long getRetainedHeap() {
+            return this.retainedHeap;
+        }
+
+        /**
+         * @return the number of connectors that ran
+         */
+        public int getConnectors() {
+            return this.connectors;
+        }
+
+        public static String header() {
+            return "connectors | commands/s | pushes/s | rtt p50 | rtt p90 | rtt p99 | register p99 | threads | heap MiB | retained KiB";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10d | %10.1f | %8.1f | %7d | %7d | %7d | %12d | %7d | %8d | %12d",
+                this.connectors,
+                getThroughput(),
+                (this.pushes * 1000.0) / this.duration,
+                getRoundTrip(0.5),
+                getRoundTrip(0.9),
+                getRoundTrip(0.99),
+                getRegisterTime(0.99),
+                this.threads,
+                this.heap / (1024 * 1024),
+                this.retainedHeap / 1024);
+        }
+
+        private static long percentile(List<Long> sorted, double percentile) {
+            if ( sorted.isEmpty() ) {
+                return -1L;
+            }
+            int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+            return sorted.get(Math.max(0, index));
+        }
+    }
+}
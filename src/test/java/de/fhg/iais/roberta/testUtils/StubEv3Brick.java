@@ -0,0 +1,58 @@
+package de.fhg.iais.roberta.testUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Simulated EV3 that answers the brick protocol of the leJOS menu. It never runs a program, uploads are accepted and discarded. The brick is
+ * stateless, so several connectors can share it.
+ */
+public class StubEv3Brick {
+    private final HttpServer server;
+
+    public StubEv3Brick() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+        this.server.createContext("/brickinfo", exchange -> respond(exchange, createBrickInfo()));
+        this.server.createContext("/program", exchange -> respond(exchange, new JSONObject().put("result", "OK")));
+        this.server.createContext("/firmware", exchange -> respond(exchange, new JSONObject().put("result", "OK")));
+    }
+
+    /**
+     * @return the address of the brick, to be passed to the EV3 connector
+     */
+    public String start() {
+        this.server.start();
+        return "localhost:" + this.server.getAddress().getPort();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    private static JSONObject createBrickInfo() {
+        JSONObject brickInfo = new JSONObject();
+        brickInfo.put("brickname", "EV3");
+        brickInfo.put("firmwarename", "ev3lejosv1");
+        brickInfo.put("firmwareversion", "0.9.1-beta");
+        brickInfo.put("menuversion", "1.4.0");
+        brickInfo.put("battery", "8.2");
+        brickInfo.put("macaddr", "00-16-53-00-00-00");
+        brickInfo.put("isrunning", "false");
+        return brickInfo;
+    }
+
+    private static void respond(HttpExchange exchange, JSONObject response) throws IOException {
+        exchange.getRequestBody().close();
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package de.fhg.iais.roberta.testUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Embeddable stand-in for the Open Roberta server. It implements the long polls of /rest/pushcmd, /rest/download and /rest/update/*.
+ * Push requests are held for the hold time and answered with repeat, unless the script has a command for the token. Delays and failures can be
+ * scripted, so the protocol can be measured without lab.open-roberta.org. Commands can also be sent at any time, they answer the held push request.
+ * The server measures the round trip of every command: the time from answering a push request with a command until the next push request of the
+ * same token, which includes the download, the upload to the robot and the execution.
+ */
+public class StubOpenRobertaServer {
+    private static final Logger LOG = LoggerFactory.getLogger(StubOpenRobertaServer.class);
+
+    private static final String CMD_REPEAT = "repeat";
+    private static final byte[] DEFAULT_BINARY = ":00000001FF\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "stub-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long holdTime = 10000L;
+    private volatile long registerDelay = 0L;
+    private volatile long downloadDelay = 0L;
+    private volatile IntFunction<String> script = push -> null;
+    private volatile double failureRate = 0.0;
+    private volatile int failureStatus = 503;
+    private volatile byte[] binary = DEFAULT_BINARY;
+    private final AtomicInteger failingPushes = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> pushCounts = new ConcurrentHashMap<>();
+    private final Map<String, Long> outstandingCommands = new ConcurrentHashMap<>();
+    private final Map<String, HeldPush> heldPushes = new ConcurrentHashMap<>();
+    private final Map<String, String> queuedCommands = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> roundTrips = new ConcurrentLinkedQueue<>();
+    private final AtomicLong registrations = new AtomicLong();
+    private final AtomicLong pushes = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public StubOpenRobertaServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+        this.server.createContext("/rest/pushcmd", this::handlePush);
+        this.server.createContext("/rest/download", this::handleDownload);
+        this.server.createContext("/rest/update", this::handleDownload);
+    }
+
+    /**
+     * @return the address of the server, to be used as custom server address of the connectors
+     */
+    public String start() {
+        this.server.start();
+        String address = "localhost:" + this.server.getAddress().getPort();
+        LOG.info("Stub server listening on {}", address);
+        return address;
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * @param holdTime the time in milliseconds a push request without a command is held
+     */
+    public void setHoldTime(long holdTime) {
+        this.holdTime = holdTime;
+    }
+
+    /**
+     * @param registerDelay the time in milliseconds until a registration is answered, i.e. until the user entered the token
+     */
+    public void setRegisterDelay(long registerDelay) {
+        this.registerDelay = registerDelay;
+    }
+
+    /**
+     * @param downloadDelay the time in milliseconds until a program or firmware download is answered
+     */
+    public void setDownloadDelay(long downloadDelay) {
+        this.downloadDelay = downloadDelay;
+    }
+
+    /**
+     * @param script gets the number of the push request of a token, starting with 0, and returns the command to answer immediately, or null to hold the
+     * request and answer repeat
+     */
+    public void setScript(IntFunction<String> script) {
+        this.script = script;
+    }
+
+    /**
+     * @param failureRate the share of push requests that are answered with the status instead
+     * @param status the http status of failed push requests
+     */
+    public void setFailureRate(double failureRate, int status) {
+        this.failureRate = failureRate;
+        this.failureStatus = status;
+    }
+
+    /**
+     * @param count the number of following push requests that are answered with the status
+     * @param status the http status of failed push requests
+     */
+    public void failNextPushes(int count, int status) {
+        this.failureStatus = status;
+        this.failingPushes.set(count);
+    }
+
+    /**
+     * @param binary the content of downloaded programs and firmware files
+     */
+    public void setBinary(byte[] binary) {
+        this.binary = binary.clone();
+    }
+
+    /**
+     * Answers the held push request of the token with the command, or the next push request if none is held.
+     *
+     * @param token the token of the robot
+     * @param command the command, e.g. download
+     */
+    public void sendCommand(String token, String command) {
+        HeldPush heldPush = this.heldPushes.remove(token);
+        if ( heldPush != null ) {
+            this.outstandingCommands.put(token, System.nanoTime());
+            if ( heldPush.answer(command) ) {
+                return;
+            }
+            this.outstandingCommands.remove(token);
+        }
+        this.queuedCommands.put(token, command);
+    }
+
+    public long getRegistrations() {
+        return this.registrations.get();
+    }
+
+    public long getPushes() {
+        return this.pushes.get();
+    }
+
+    public long getDownloads() {
+        return this.downloads.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * @return the round trips in milliseconds of the commands completed since the last call
+     */
+    public List<Long> drainRoundTrips() {
+        List<Long> drained = new ArrayList<>();
+        Long roundTrip;
+        while ( (roundTrip = this.roundTrips.poll()) != null ) {
+            drained.add(roundTrip);
+        }
+        return drained;
+    }
+
+    private void handlePush(HttpExchange exchange) throws IOException {
+        JSONObject request = new JSONObject(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        String token = request.optString("token");
+        if ( "register".equals(request.optString("cmd")) ) {
+            this.registrations.incrementAndGet();
+            this.pushCounts.put(token, new AtomicInteger());
+            schedule(() -> respond(exchange, CMD_REPEAT), this.registerDelay);
+            return;
+        }
+        this.pushes.incrementAndGet();
+        Long commandSent = this.outstandingCommands.remove(token);
+        if ( commandSent != null ) {
+            this.roundTrips.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - commandSent));
+        }
+        if ( (this.failingPushes.getAndUpdate(count -> Math.max(0, count - 1)) > 0)
+            || (ThreadLocalRandom.current().nextDouble() < this.failureRate) ) {
+            this.failures.incrementAndGet();
+            exchange.sendResponseHeaders(this.failureStatus, -1);
+            exchange.close();
+            return;
+        }
+        int push = this.pushCounts.computeIfAbsent(token, key -> new AtomicInteger()).getAndIncrement();
+        String command = this.queuedCommands.remove(token);
+        if ( command == null ) {
+            command = this.script.apply(push);
+        }
+        if ( command == null ) {
+            HeldPush heldPush = new HeldPush(exchange);
+            HeldPush replaced = this.heldPushes.put(token, heldPush);
+            if ( replaced != null ) {
+                replaced.answer(CMD_REPEAT);
+            }
+            schedule(() -> {
+                if ( this.heldPushes.remove(token, heldPush) ) {
+                    heldPush.answer(CMD_REPEAT);
+                }
+            }, this.holdTime);
+        } else {
+            this.outstandingCommands.put(token, System.nanoTime());
+            respond(exchange, command);
+        }
+    }
+
+    private void handleDownload(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().close();
+        this.downloads.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        String filename = path.startsWith("/rest/update/") ? path.substring(path.lastIndexOf('/') + 1) + ".jar" : "program.hex";
+        schedule(() -> {
+            try {
+                exchange.getResponseHeaders().add("Filename", filename);
+                exchange.sendResponseHeaders(200, this.binary.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(this.binary);
+                }
+            } catch ( IOException e ) {
+                exchange.close();
+            }
+        }, this.downloadDelay);
+    }
+
+    private void schedule(Runnable response, long delay) {
+        if ( delay <= 0L ) {
+            response.run();
+        } else {
+            this.scheduler.schedule(response, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String command) {
+        try {
+            byte[] response = new JSONObject().put("cmd", command).toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        } catch ( IOException e ) {
+            exchange.close();
+        }
+    }
+
+    private static final class HeldPush {
+        private final HttpExchange exchange;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        private HeldPush(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        boolean answer(String command) {
+            if ( !this.answered.compareAndSet(false, true) ) {
+                return false;
+            }
+            respond(this.exchange, command);
+            return true;
+        }
+    }
+}
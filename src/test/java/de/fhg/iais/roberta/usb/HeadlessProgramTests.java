@@ -0,0 +1,103 @@
+package de.fhg.iais.roberta.usb;
+
+import de.fhg.iais.roberta.connection.arduino.ArduinoType;
+import de.fhg.iais.roberta.connection.ev3.Ev3Connector;
+import de.fhg.iais.roberta.testUtils.StubEv3Brick;
+import de.fhg.iais.roberta.testUtils.StubOpenRobertaServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HeadlessProgramTests {
+
+    private static final long TIMEOUT = 5000L;
+
+    @Test
+    void parse_ShouldOverrideProperties_WhenOptionsAreGiven() {
+        HeadlessOptions options = HeadlessOptions.parse("--headless", "--serverAddress=localhost:1999", "--robot=ev3", "--arduinoMaxConnectors=4");
+
+        assertThat(options.isHeadless(), is(true));
+        assertThat(options.getServerAddress(), is("localhost:1999"));
+        assertThat(options.getRobot(), is(Robot.EV3));
+        assertThat(options.getMaxConnectors(16), is(4));
+    }
+
+    @Test
+    void parse_ShouldUseProperties_WhenNoOptionsAreGiven() {
+        HeadlessOptions options = HeadlessOptions.parse();
+
+        assertThat(options.getServerAddress(), is((String) null));
+        assertThat(options.getRobot(), is(Robot.NONE));
+        assertThat(options.getMaxConnectors(1), is(16));
+    }
+
+    @Test
+    void parse_ShouldFail_WhenOptionIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("headless"));
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--robot=lego").getRobot());
+    }
+
+    @Test
+    void parse_ShouldFail_WhenOptionIsUnknown() {
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--serverAdress=localhost:1999"));
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--headles"));
+    }
+
+    @Test
+    void validate_ShouldFail_WhenNumberIsInvalid() {
+        HeadlessOptions.parse("--arduinoMaxConnectors=4", "--arduinoMaxFlashWorkers=8").validate();
+
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--arduinoMaxConnectors=many").validate());
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--arduinoMaxFlashWorkers=0").validate());
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--robot=lego").validate());
+    }
+
+    @Test
+    void parse_ShouldReturnFlashOptions_WhenFlashIsGiven() {
+        HeadlessOptions options = HeadlessOptions.parse("--flash=sketch.hex", "--flashBoard=mega", "--arduinoMaxFlashWorkers=8");
+
+        assertThat(options.getFlashFile(), is(Paths.get("sketch.hex")));
+        assertThat(options.getFlashBoard(), is(ArduinoType.MEGA));
+        assertThat(options.getMaxFlashWorkers(1), is(8));
+        assertThat(HeadlessOptions.parse().getFlashFile(), is((Path) null));
+        assertThat(HeadlessOptions.parse().getFlashBoard(), is(ArduinoType.NONE));
+        assertThrows(IllegalArgumentException.class, () -> HeadlessOptions.parse("--flashBoard=lego").getFlashBoard());
+    }
+
+    @Test
+    void runConnector_ShouldConnectAndReportToken_WhenRobotIsFound() throws Exception {
+        StubOpenRobertaServer server = new StubOpenRobertaServer();
+        StubEv3Brick brick = new StubEv3Brick();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Ev3Connector connector = new Ev3Connector(brick.start());
+        HeadlessProgram program =
+            new HeadlessProgram(HeadlessOptions.parse("--serverAddress=" + server.start()), new PrintStream(output, true, StandardCharsets.UTF_8.name()));
+        Thread programThread = new Thread(() -> program.runConnector(connector, "EV3"));
+        programThread.start();
+        try {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while ( !output.toString(StandardCharsets.UTF_8.name()).contains("EV3 WAIT_FOR_CMD") && (System.currentTimeMillis() < end) ) {
+                Thread.sleep(50L);
+            }
+
+            String report = output.toString(StandardCharsets.UTF_8.name());
+            assertThat(report, containsString("EV3 WAIT_FOR_SERVER " + connector.getToken()));
+            assertThat(report, containsString("EV3 WAIT_FOR_CMD"));
+            assertThat(server.getRegistrations(), is(1L));
+        } finally {
+            connector.close();
+            programThread.join(1000L);
+            server.stop();
+            brick.stop();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package de.fhg.iais.roberta.usb;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Starts the GUI in a new JVM until the window was painted and the first detection finished, without and with an AppCDS archive. Needs a display, run
+ * with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class StartupBenchmarkTests {
+
+    private static final int RUNS = 5;
+    private static final long TIMEOUT = 60L;
+    private static final Pattern PHASE = Pattern.compile("(FIRST_PAINT|FIRST_DETECTION)=(\\d+)");
+
+    @Test
+    void main_ShouldStartQuickly_WhenStartedWithoutArchive() throws Exception {
+        assumeFalse(GraphicsEnvironment.isHeadless(), "needs a display");
+
+        report("no archive", measure(Collections.emptyList()));
+    }
+
+    @Test
+    void main_ShouldStartQuickly_WhenStartedWithArchive() throws Exception {
+        assumeFalse(GraphicsEnvironment.isHeadless(), "needs a display");
+        assumeTrue(!System.getProperty("java.specification.version").startsWith("1.")
+            && (Integer.parseInt(System.getProperty("java.specification.version")) >= 13), "dynamic archives need java 13");
+
+        File archive = File.createTempFile("startup", ".jsa");
+        try {
+            startup(Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath()));
+            report("archive", measure(Arrays.asList("-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-Xshare:auto")));
+        } finally {
+            archive.delete();
+        }
+    }
+
+    private static List<long[]> measure(List<String> jvmOptions) throws IOException, InterruptedException {
+        List<long[]> startups = new ArrayList<>();
+        for ( int i = 0; i < RUNS; i++ ) {
+            startups.add(startup(jvmOptions));
+        }
+        return startups;
+    }
+
+    // returns the milliseconds until the first paint and until the first detection
+    private static long[] startup(List<String> jvmOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmOptions);
+        command.add("-D" + StartupTimer.EXIT_AFTER_STARTUP + "=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(UsbProgramLauncher.class.getName());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long[] startup = new long[2];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.contains(StartupTimer.SUMMARY_PREFIX) ) {
+                    Matcher matcher = PHASE.matcher(line);
+                    while ( matcher.find() ) {
+                        startup["FIRST_PAINT".equals(matcher.group(1)) ? 0 : 1] = Long.parseLong(matcher.group(2));
+                    }
+                }
+            }
+        } finally {
+            if ( !process.waitFor(TIMEOUT, TimeUnit.SECONDS) ) {
+                process.destroyForcibly();
+            }
+        }
+        assertThat(startup[0], greaterThan(0L));
+        return startup;
+    }
+
+    private static void report(String name, List<long[]> startups) {
+        long[] paints = startups.stream().mapToLong(startup -> startup[0]).sorted().toArray();
+        long[] detections = startups.stream().mapToLong(startup -> startup[1]).sorted().toArray();
+        System.out.printf("%-10s first paint median %d ms (min %d, max %d), first detection median %d ms (min %d, max %d)%n",
+            name,
+            paints[paints.length / 2],
+            paints[0],
+            paints[paints.length - 1],
+            detections[detections.length / 2],
+            detections[0],
+            detections[detections.length - 1]);
+    }
+}
@@ -0,0 +1,39 @@
+package de.fhg.iais.roberta.usb;
+
+import de.fhg.iais.roberta.usb.StartupTimer.Phase;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class StartupTimerTests {
+
+    @Test
+    void mark_ShouldMeasureFromStart_WhenPhaseIsReached() {
+        long start = System.currentTimeMillis() - 1000L;
+        StartupTimer startupTimer = new StartupTimer(start, false);
+
+        startupTimer.mark(Phase.CONFIG_LOADED);
+
+        Map<Phase, Long> phases = startupTimer.getPhases();
+        assertThat(phases.get(Phase.CONFIG_LOADED), greaterThanOrEqualTo(1000L));
+        assertThat(phases, not(hasKey(Phase.FIRST_PAINT)));
+    }
+
+    @Test
+    void mark_ShouldKeepFirstTime_WhenPhaseIsReachedAgain() throws InterruptedException {
+        StartupTimer startupTimer = new StartupTimer(System.currentTimeMillis(), false);
+
+        startupTimer.mark(Phase.FIRST_DETECTION);
+        long first = startupTimer.getPhases().get(Phase.FIRST_DETECTION);
+        Thread.sleep(50L);
+        startupTimer.mark(Phase.FIRST_DETECTION);
+
+        assertThat(startupTimer.getPhases().get(Phase.FIRST_DETECTION), is(first));
+    }
+}